@@ -0,0 +1,250 @@
+package com.example.secretcamera;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.media.MediaExtractor;
+import android.media.MediaMetadataRetriever;
+import android.media.MediaRecorder;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Surface;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+// Times the device-bound paths that the JMH module cannot reach. A fake
+// camera draws frames straight into the encoder surface, and a fake library
+// is built from copies of the clip it records. Results are written in the
+// same JSON shape as the JMH results to files/benchmarks/device-results.json.
+@RunWith(AndroidJUnit4.class)
+public class RecordingBenchmarkHarness {
+    private static final String TAG = "RecordingBenchmark";
+    private static final int FRAME_RATE = 30;
+    private static final int LIBRARY_SIZE = 50;
+    private static final int REPEATS = 20;
+
+    private final List<String> results = new ArrayList<>();
+    private Context context;
+    private File workDir;
+
+    @Before
+    public void setUp() throws IOException {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        workDir = Files.createTempDirectory(context.getCacheDir().toPath(), "bench").toFile();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        deleteRecursively(workDir);
+        File resultsDir = new File(context.getExternalFilesDir(null), "benchmarks");
+        if (!resultsDir.exists() && !resultsDir.mkdirs()) {
+            throw new IOException("Could not create " + resultsDir);
+        }
+        try (FileWriter writer = new FileWriter(new File(resultsDir, "device-results.json"))) {
+            writer.write("[" + String.join(",", results) + "]");
+        }
+    }
+
+    @Test
+    public void recordingAndLibraryPaths() throws Exception {
+        File recordingsDir = new File(workDir, "recordings");
+        assertTrue(recordingsDir.mkdirs());
+        List<File> segments = recordWithFakeCamera(recordingsDir);
+        assertTrue(segments.size() >= 2);
+
+        File libraryDir = new File(workDir, "library");
+        assertTrue(libraryDir.mkdirs());
+        buildFakeLibrary(segments.get(0), libraryDir);
+
+        measureOutputPath(libraryDir);
+        measureLibraryScan(libraryDir);
+        measureMetadata(libraryDir);
+        measureThumbnails(libraryDir);
+    }
+
+    // Records four seconds in one-second segments through the MediaCodec
+    // engine and reports how long each hand-off to the next file took.
+    private List<File> recordWithFakeCamera(File directory) throws Exception {
+        EncoderProfile profile = new EncoderProfile(RecordingSettings.PRESET_BALANCED, 1280, 720, FRAME_RATE,
+                4000000, MediaRecorder.VideoEncoder.H264, 96000, 48000);
+        List<File> finished = new ArrayList<>();
+        List<Long> rotationsNs = new ArrayList<>();
+        long[] rotationStartNs = {0};
+
+        RecordingEngine.Listener listener = new RecordingEngine.Listener() {
+            @Override
+            public File onNextOutputFile() {
+                rotationStartNs[0] = System.nanoTime();
+                return RecordingFileNames.newOutputFile(directory, System.currentTimeMillis());
+            }
+
+            @Override
+            public void onSegmentStarted(File file) {
+                if (rotationStartNs[0] > 0) {
+                    rotationsNs.add(System.nanoTime() - rotationStartNs[0]);
+                }
+            }
+
+            @Override
+            public void onFileFinished(File file) {
+                synchronized (finished) {
+                    finished.add(file);
+                }
+            }
+
+            @Override
+            public void onError(String message) {
+                Log.e(TAG, message);
+            }
+        };
+
+        CodecRecordingEngine engine = new CodecRecordingEngine(profile, 1000000, 0, false, false, false, null, listener);
+        Surface surface = engine.prepare(RecordingFileNames.newOutputFile(directory, System.currentTimeMillis()), null);
+        engine.start();
+        long frameIntervalMs = 1000 / FRAME_RATE;
+        for (int frame = 0; frame < FRAME_RATE * 4; frame++) {
+            Canvas canvas = surface.lockHardwareCanvas();
+            canvas.drawColor(Color.rgb(frame * 2 % 256, 64, 255 - frame * 2 % 256));
+            surface.unlockCanvasAndPost(canvas);
+            SystemClock.sleep(frameIntervalMs);
+        }
+        long stopStartNs = System.nanoTime();
+        engine.stop();
+        addResult("engine.stop", (System.nanoTime() - stopStartNs) / 1000.0);
+
+        for (long rotationNs : rotationsNs) {
+            addResult("segment.rotation", rotationNs / 1000.0);
+        }
+        addResult("codec.writeLatencyAvg", engine.getVideoTimings().getAverageWriteLatencyMs() * 1000.0);
+        synchronized (finished) {
+            return new ArrayList<>(finished);
+        }
+    }
+
+    private void buildFakeLibrary(File clip, File directory) throws IOException {
+        long startMs = System.currentTimeMillis() - LIBRARY_SIZE * 300000L;
+        for (int i = 0; i < LIBRARY_SIZE; i++) {
+            File copy = RecordingFileNames.newOutputFile(directory, startMs + i * 300000L);
+            Files.copy(clip.toPath(), copy.toPath());
+        }
+    }
+
+    private void measureOutputPath(File directory) {
+        long start = System.nanoTime();
+        for (int i = 0; i < REPEATS; i++) {
+            RecordingFileNames.newOutputFile(directory, System.currentTimeMillis());
+        }
+        addResult("outputPath.generate", (System.nanoTime() - start) / 1000.0 / REPEATS);
+    }
+
+    // The catalog's cold build: list, parse names, then probe each file.
+    private void measureLibraryScan(File directory) throws IOException {
+        long start = System.nanoTime();
+        String[] names = directory.list((dir, name) -> RecordingFileNames.isRecording(name));
+        assertNotNull(names);
+        for (String name : names) {
+            RecordingFileNames.parseStartTime(name, 0);
+        }
+        addResult("library.list", (System.nanoTime() - start) / 1000.0);
+
+        start = System.nanoTime();
+        for (String name : names) {
+            MediaExtractor extractor = new MediaExtractor();
+            extractor.setDataSource(new File(directory, name).getAbsolutePath());
+            for (int i = 0; i < extractor.getTrackCount(); i++) {
+                extractor.getTrackFormat(i);
+            }
+            extractor.release();
+        }
+        addResult("library.probe", (System.nanoTime() - start) / 1000.0 / names.length);
+    }
+
+    // The catalog's metadata probe through the box parser, against the
+    // retriever path it replaced, over the same files.
+    private void measureMetadata(File directory) throws IOException {
+        File[] files = directory.listFiles((dir, name) -> RecordingFileNames.isRecording(name));
+        assertNotNull(files);
+        long start = System.nanoTime();
+        for (File file : files) {
+            assertNotNull(Mp4BoxParser.parse(file).videoMime);
+        }
+        addResult("metadata.boxParser", (System.nanoTime() - start) / 1000.0 / files.length);
+
+        start = System.nanoTime();
+        for (File file : files) {
+            MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+            retriever.setDataSource(file.getAbsolutePath());
+            retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION);
+            retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_WIDTH);
+            retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_HEIGHT);
+            retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_MIMETYPE);
+            retriever.release();
+        }
+        addResult("metadata.retriever", (System.nanoTime() - start) / 1000.0 / files.length);
+    }
+
+    // Same scaled extraction ThumbnailLoader performs, then the JPEG disk
+    // cache round trip it uses on later loads.
+    private void measureThumbnails(File directory) throws IOException {
+        File[] files = directory.listFiles((dir, name) -> RecordingFileNames.isRecording(name));
+        assertNotNull(files);
+        int count = Math.min(files.length, REPEATS);
+        Bitmap last = null;
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+            retriever.setDataSource(files[i].getAbsolutePath());
+            last = retriever.getScaledFrameAtTime(0, MediaMetadataRetriever.OPTION_CLOSEST_SYNC, 320, 180);
+            retriever.release();
+        }
+        addResult("thumbnail.extract", (System.nanoTime() - start) / 1000.0 / count);
+        assertNotNull(last);
+
+        File jpeg = new File(workDir, "thumb.jpg");
+        try (FileOutputStream out = new FileOutputStream(jpeg)) {
+            last.compress(Bitmap.CompressFormat.JPEG, 80, out);
+        }
+        start = System.nanoTime();
+        for (int i = 0; i < REPEATS; i++) {
+            assertNotNull(BitmapFactory.decodeFile(jpeg.getAbsolutePath()));
+        }
+        addResult("thumbnail.decodeCached", (System.nanoTime() - start) / 1000.0 / REPEATS);
+    }
+
+    private void addResult(String name, double microseconds) {
+        String json = String.format(Locale.US,
+                "{\"benchmark\":\"device.%s\",\"mode\":\"avgt\",\"primaryMetric\":{\"score\":%.3f,\"scoreUnit\":\"us/op\"}}",
+                name, microseconds);
+        Log.d(TAG, json);
+        results.add(json);
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
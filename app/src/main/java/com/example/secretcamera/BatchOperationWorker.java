@@ -0,0 +1,174 @@
+package com.example.secretcamera;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Runs one batch operation at a time over a selection of recordings, off the
+// main thread. Catalog notifications are held for the whole batch so the list
+// refreshes once at the end instead of once per file.
+public class BatchOperationWorker {
+    private static final String TAG = "BatchOperationWorker";
+
+    public enum Operation {
+        DELETE,
+        PROTECT,
+        UNPROTECT,
+        EXPORT
+    }
+
+    // Both called on the main thread.
+    public interface Listener {
+        void onProgress(int done, int total);
+
+        void onFinished(Result result);
+    }
+
+    public static final class Result {
+        public final Operation operation;
+        public final int succeeded;
+        public final int failed;
+        public final boolean cancelled;
+        // Only set for a successful export.
+        public final File exportFile;
+
+        Result(Operation operation, int succeeded, int failed, boolean cancelled, File exportFile) {
+            this.operation = operation;
+            this.succeeded = succeeded;
+            this.failed = failed;
+            this.cancelled = cancelled;
+            this.exportFile = exportFile;
+        }
+    }
+
+    private final Context context;
+    private final VideoCatalog catalog;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> new Thread(() -> {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        runnable.run();
+    }, "BatchOperationWorker"));
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private volatile boolean running;
+    private volatile boolean cancelled;
+    private volatile ClipExporter exporter;
+
+    public BatchOperationWorker(Context context) {
+        this.context = context.getApplicationContext();
+        this.catalog = VideoCatalog.getInstance(context);
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    // Main thread. Returns false if another batch is still running.
+    public boolean run(Operation operation, List<VideoEntry> entries, Listener listener) {
+        if (running) {
+            return false;
+        }
+        running = true;
+        cancelled = false;
+        List<VideoEntry> selection = new ArrayList<>(entries);
+        executor.execute(() -> {
+            Result result;
+            catalog.beginBatch();
+            try {
+                result = operation == Operation.EXPORT
+                        ? export(selection, listener)
+                        : apply(operation, selection, listener);
+            } finally {
+                catalog.endBatch();
+            }
+            Result finished = result;
+            mainHandler.post(() -> {
+                running = false;
+                listener.onFinished(finished);
+            });
+        });
+        return true;
+    }
+
+    public void cancel() {
+        cancelled = true;
+        ClipExporter current = exporter;
+        if (current != null) {
+            current.cancel();
+        }
+    }
+
+    public void shutdown() {
+        cancel();
+        executor.shutdown();
+    }
+
+    private Result apply(Operation operation, List<VideoEntry> selection, Listener listener) {
+        StorageQuotaManager quotaManager = StorageQuotaManager.getInstance(context);
+        List<File> deleted = new ArrayList<>();
+        int succeeded = 0;
+        int failed = 0;
+        for (int i = 0; i < selection.size() && !cancelled; i++) {
+            File file = selection.get(i).getFile();
+            if (operation == Operation.DELETE) {
+                if (file.delete() || !file.exists()) {
+                    quotaManager.onFileDeleted(file);
+                    deleted.add(file);
+                    succeeded++;
+                } else {
+                    Log.e(TAG, "Failed to delete " + file.getName());
+                    failed++;
+                }
+            } else {
+                catalog.setProtected(file, operation == Operation.PROTECT);
+                succeeded++;
+            }
+            postProgress(listener, i + 1, selection.size());
+        }
+        if (!deleted.isEmpty()) {
+            catalog.onFilesDeleted(deleted);
+        }
+        return new Result(operation, succeeded, failed, cancelled, null);
+    }
+
+    // Joins the selection in recording order into one clip, as adjacent
+    // segments of a longer recording usually are.
+    private Result export(List<VideoEntry> selection, Listener listener) {
+        Collections.sort(selection, (a, b) -> Long.compare(a.getStartTimeMs(), b.getStartTimeMs()));
+        List<File> sources = new ArrayList<>();
+        long totalMs = 0;
+        for (VideoEntry entry : selection) {
+            sources.add(entry.getFile());
+            totalMs += Math.max(entry.getDurationMs(), 0);
+        }
+        int total = (int) Math.min(Integer.MAX_VALUE, Math.max(totalMs, 1));
+        ClipExporter clipExporter = new ClipExporter();
+        exporter = clipExporter;
+        if (cancelled) {
+            clipExporter.cancel();
+        }
+        try {
+            File output = ClipExporter.newExportFile(context);
+            clipExporter.export(sources, 0, Long.MAX_VALUE, output,
+                    (exportedUs, totalUs) -> postProgress(listener, (int) Math.min(exportedUs / 1000, total), total));
+            return new Result(Operation.EXPORT, selection.size(), 0, false, output);
+        } catch (IOException e) {
+            Log.e(TAG, "Error exporting selection: " + e.getMessage());
+            return new Result(Operation.EXPORT, 0, selection.size(), cancelled, null);
+        } finally {
+            exporter = null;
+        }
+    }
+
+    private void postProgress(Listener listener, int done, int total) {
+        mainHandler.post(() -> listener.onProgress(done, total));
+    }
+}
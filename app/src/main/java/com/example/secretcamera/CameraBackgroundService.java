@@ -12,14 +12,19 @@ import android.hardware.camera2.CameraCaptureSession;
 import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.camera2.CameraDevice;
 import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureFailure;
 import android.hardware.camera2.CaptureRequest;
-import android.media.MediaRecorder;
+import android.hardware.camera2.TotalCaptureResult;
+import android.media.MediaCodec;
 import android.os.Build;
 import android.os.Environment;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
+import android.util.Range;
 import android.util.Size;
 import android.view.Surface;
 
@@ -27,33 +32,100 @@ import androidx.annotation.NonNull;
 import androidx.core.app.NotificationCompat;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class CameraBackgroundService extends Service {
     private static final String TAG = "CameraBackgroundService";
     private static final String CHANNEL_ID = "CameraServiceChannel";
     private static final int NOTIFICATION_ID = 1;
     private static final String ACTION_STOP_RECORDING = "com.example.secretcamera.STOP_FROM_NOTIFICATION";
+    private static final String ACTION_SAVE_CLIP = "com.example.secretcamera.SAVE_CLIP";
+    private static final long UNSEGMENTED_RESERVE_SECONDS = 600;
+    private static final long METRICS_INTERVAL_MS = 1000;
+    // Long enough to catch a quick restart, short enough that the camera is
+    // not held open noticeably after the user has stopped.
+    private static final long IDLE_SESSION_MS = 2000;
+    private static final String COMPANION_TAG = "front";
+
+    private static volatile boolean active;
+
+    // Transitions are compare-and-set, so commands from the notification, the
+    // UI and the camera callbacks can race without a lock. Everything that
+    // owns camera or encoder resources runs on the CameraBackground thread.
+    private enum State {
+        IDLE,
+        OPENING,
+        CONFIGURING,
+        RECORDING,
+        STOPPING
+    }
 
     private CameraDevice cameraDevice;
     private CameraCaptureSession cameraCaptureSession;
-    private MediaRecorder mediaRecorder;
+    private RecordingEngine recordingEngine;
+    private Surface recorderSurface;
     private HandlerThread backgroundThread;
     private Handler backgroundHandler;
-    private boolean isRecording = false;
+    private final AtomicReference<State> state = new AtomicReference<>(State.IDLE);
+    private volatile boolean stopRequested;
+    private final AtomicReference<Intent> pendingStart = new AtomicReference<>();
     private String selectedCameraFacing = "BACK";
+    private String cameraId;
+    private EncoderProfile encoderProfile;
+    private RecordingSettings settings;
+    private SegmentTimingReport segmentReport;
+    private volatile File currentOutputFile;
+    private StorageQuotaManager quotaManager;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private StartupTrace startupTrace;
+    private boolean recorderPrepared;
+    private volatile CaptureMetrics captureMetrics;
+    private volatile LatencyHistogram syncLatency;
+    private volatile long finishedBytes;
+    private volatile File lastFinishedFile;
+    // The camera renders into a persistent surface that each new engine picks
+    // up, so after a stop the device and session are kept configured for a
+    // short while and a quick restart only has to re-arm the encoder.
+    private Surface persistentSurface;
+    private String sessionKey;
+    private volatile String idleSessionKey;
+    private volatile boolean destroyed;
+    // Capture steps through ThrottlePolicy tiers under thermal or battery
+    // pressure. A new tier needs a new engine, so it is applied by rolling
+    // over to the next file at a segment boundary.
+    private CaptureThrottle throttle;
+    private volatile int appliedTier;
+    private volatile boolean rollOverPending;
+    private boolean rollingOver;
+    // Dual mode records the front camera next to the back one where the
+    // device supports concurrent streaming; otherwise the back camera records
+    // alone and the reason is broadcast.
+    private boolean dualRequested;
+    private DualCameraSupport.Result dualPair;
+    private boolean limitForConcurrent;
+    private EncoderProfile secondaryProfile;
+    private long expectedFileBytes;
+    private volatile SecondaryCameraRecorder secondaryRecorder;
 
     @Override
     public void onCreate() {
         super.onCreate();
         Log.d(TAG, "Service created");
+        active = true;
+        // Background re-compression holds hardware codecs the recording needs.
+        RecompressionJobService.yieldToRecording();
         createNotificationChannel();
         startBackgroundThread();
+        throttle = new CaptureThrottle(this, this::onPressureChanged);
+        throttle.start();
     }
 
     @Override
@@ -63,14 +135,11 @@ public class CameraBackgroundService extends Service {
         if (intent != null && intent.getAction() != null) {
             String action = intent.getAction();
             if (action.equals("START_RECORDING")) {
-                selectedCameraFacing = intent.getStringExtra("CAMERA_FACING");
-                if (selectedCameraFacing == null) {
-                    selectedCameraFacing = "BACK";
-                }
-                startForeground(NOTIFICATION_ID, createNotification());
-                startRecording();
+                requestStart(intent);
             } else if (action.equals("STOP_RECORDING") || action.equals(ACTION_STOP_RECORDING)) {
-                stopRecording();
+                requestStop();
+            } else if (action.equals(ACTION_SAVE_CLIP)) {
+                saveClip();
             }
         }
 
@@ -82,6 +151,12 @@ public class CameraBackgroundService extends Service {
         return null;
     }
 
+    // True from creation to destruction, which is as long as the service may
+    // be recording.
+    public static boolean isActive() {
+        return active;
+    }
+
 
     private void createNotificationChannel() {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
@@ -122,8 +197,8 @@ public class CameraBackgroundService extends Service {
         );
 
         
-        return new NotificationCompat.Builder(this, CHANNEL_ID)
-                .setContentTitle("Recording in Progress")
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(this, CHANNEL_ID)
+                .setContentTitle(settings.isPreTrigger() ? "Buffering" : "Recording in Progress")
                 .setContentText("Tap to open app")
                 .setSmallIcon(R.drawable.ic_launcher_foreground)
                 .setPriority(NotificationCompat.PRIORITY_DEFAULT)
@@ -131,7 +206,42 @@ public class CameraBackgroundService extends Service {
                 .setSound(null)
                 .setVibrate(null)
                 .setContentIntent(mainPendingIntent)
-                .addAction(android.R.drawable.ic_media_pause, "Stop Recording", stopPendingIntent)
+                .addAction(android.R.drawable.ic_media_pause, "Stop Recording", stopPendingIntent);
+
+        if (settings.isPreTrigger()) {
+            Intent saveIntent = new Intent(this, CameraBackgroundService.class);
+            saveIntent.setAction(ACTION_SAVE_CLIP);
+            PendingIntent savePendingIntent = PendingIntent.getService(
+                    this,
+                    1,
+                    saveIntent,
+                    PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
+            );
+            builder.addAction(android.R.drawable.ic_menu_save, "Save Clip", savePendingIntent);
+        }
+
+        return builder.build();
+    }
+
+    // Shown while the camera is held open between recordings, so the
+    // notification never claims a recording that has stopped.
+    private Notification createIdleNotification() {
+        Intent mainIntent = new Intent(this, MainActivity.class);
+        PendingIntent mainPendingIntent = PendingIntent.getActivity(
+                this,
+                0,
+                mainIntent,
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
+        );
+        return new NotificationCompat.Builder(this, CHANNEL_ID)
+                .setContentTitle("Recording Stopped")
+                .setContentText("Releasing camera")
+                .setSmallIcon(R.drawable.ic_launcher_foreground)
+                .setPriority(NotificationCompat.PRIORITY_DEFAULT)
+                .setOngoing(true)
+                .setSound(null)
+                .setVibrate(null)
+                .setContentIntent(mainPendingIntent)
                 .build();
     }
 
@@ -152,89 +262,597 @@ public class CameraBackgroundService extends Service {
         }
     }
 
-    private void startRecording() {
-        if (isRecording) {
-            Log.d(TAG, "Already recording");
+    // Main thread. A start while a stop is in flight is queued and replayed
+    // once teardown completes; a start while a stop is pending cancels it.
+    private void requestStart(Intent intent) {
+        if (!state.compareAndSet(State.IDLE, State.OPENING)) {
+            State current = state.get();
+            if (current == State.STOPPING) {
+                pendingStart.set(intent);
+                Log.d(TAG, "Start queued until the previous recording has stopped");
+            } else if (stopRequested) {
+                stopRequested = false;
+                Log.d(TAG, "Start cancelled the pending stop");
+            } else {
+                Log.d(TAG, "Start ignored in state " + current);
+            }
             return;
         }
+
+        stopRequested = false;
+        selectedCameraFacing = intent.getStringExtra("CAMERA_FACING");
+        if (selectedCameraFacing == null) {
+            selectedCameraFacing = "BACK";
+        }
+        dualRequested = CameraCapabilityCache.FACING_DUAL.equals(selectedCameraFacing);
+        if (dualRequested) {
+            selectedCameraFacing = CameraCapabilityCache.FACING_BACK;
+        }
+        startupTrace = new StartupTrace(intent.getLongExtra("START_TAPPED_AT", SystemClock.elapsedRealtime()));
+        startupTrace.mark("serviceStarted");
+        settings = RecordingSettings.load(this);
+        startForeground(NOTIFICATION_ID, createNotification());
+        segmentReport = new SegmentTimingReport();
+        quotaManager = StorageQuotaManager.getInstance(this);
         openCamera();
     }
 
+    // Safe from any thread. A stop during setup is remembered and acted on at
+    // the next transition; a stop during STOPPING drops any queued restart.
+    private void requestStop() {
+        while (true) {
+            State current = state.get();
+            switch (current) {
+                case RECORDING:
+                    if (state.compareAndSet(State.RECORDING, State.STOPPING)) {
+                        backgroundHandler.post(() -> {
+                            File finalFile = performStop();
+                            mainHandler.post(() -> onRecordingStopped(finalFile));
+                        });
+                        return;
+                    }
+                    break;
+                case OPENING:
+                case CONFIGURING:
+                    stopRequested = true;
+                    if (state.get() == current) {
+                        Log.d(TAG, "Stop deferred until setup finishes");
+                        return;
+                    }
+                    break;
+                case STOPPING:
+                    if (pendingStart.getAndSet(null) != null) {
+                        Log.d(TAG, "Stop cancelled the queued restart");
+                    }
+                    return;
+                default:
+                    if (idleSessionKey != null) {
+                        backgroundHandler.post(idleSessionTimeout);
+                    } else {
+                        Log.d(TAG, "Not recording");
+                    }
+                    return;
+            }
+        }
+    }
+
+    // The recorder is prepared on the camera thread while the HAL opens the
+    // device. It is posted before openCamera, so onOpened, which is delivered
+    // on the same thread, always sees the prepared recorder. When the previous
+    // session is still idling with the same camera and output size, neither
+    // the device nor the session is touched.
     private void openCamera() {
-        CameraManager cameraManager = (CameraManager) getSystemService(Context.CAMERA_SERVICE);
+        dualPair = null;
+        limitForConcurrent = false;
+        if (dualRequested) {
+            DualCameraSupport.Result pair = settings.isPreTrigger() || settings.isTimeLapse() ? null
+                    : DualCameraSupport.findPair(this);
+            if (pair == null) {
+                reportDualUnavailable("not available in " + (settings.isPreTrigger() ? "pre-trigger" : "time-lapse")
+                        + " mode");
+            } else if (!pair.isSupported()) {
+                reportDualUnavailable(pair.reason);
+            } else {
+                dualPair = pair;
+            }
+        }
         try {
-            String cameraId = selectedCameraFacing.equals("FRONT") ?
-                    getFrontCameraId(cameraManager) : getBackCameraId(cameraManager);
+            cameraId = dualPair != null ? dualPair.backId
+                    : CameraCapabilityCache.getInstance(this).getCameraId(selectedCameraFacing);
+            startupTrace.mark("cameraResolved");
+        } catch (CameraAccessException e) {
+            Log.e(TAG, "Error opening camera: " + e.getMessage());
+            backgroundHandler.post(this::abortRecording);
+            return;
+        }
 
-            cameraManager.openCamera(cameraId, new CameraDevice.StateCallback() {
-                @Override
-                public void onOpened(@NonNull CameraDevice camera) {
-                    cameraDevice = camera;
-                    Log.d(TAG, "Camera opened");
-                    setupMediaRecorder();
-                    createCameraCaptureSession();
-                }
+        // An idle session that cannot be reused is closed on the camera thread
+        // before the device is opened again, so the two never overlap.
+        // Time-lapse is already a light load, and the throttle's frame rate
+        // cut would only change its playback rate.
+        int tier = settings.isPreTrigger() || settings.isTimeLapse() ? ThrottlePolicy.TIER_FULL : throttle.nextTier();
+        String key = sessionKeyFor(tier);
+        boolean hasIdleSession = idleSessionKey != null;
+        backgroundHandler.post(() -> {
+            appliedTier = tier;
+            rollOverPending = false;
+            boolean reused = hasIdleSession && takeIdleSession(key);
+            if (hasIdleSession && !reused) {
+                closeCamera();
+                openCameraDevice();
+            }
+            sessionKey = key;
+            recorderPrepared = prepareRecordingEngine();
+            startupTrace.mark("recorderPrepared");
+            if (reused) {
+                startupTrace.mark("sessionReused");
+                onSessionReady();
+            }
+        });
+        if (!hasIdleSession) {
+            openCameraDevice();
+        }
+    }
 
-                @Override
-                public void onDisconnected(@NonNull CameraDevice camera) {
-                    Log.d(TAG, "Camera disconnected");
-                    camera.close();
-                }
+    // The session's stream size changes with the resolution tier.
+    private String sessionKeyFor(int tier) {
+        return cameraId + "/" + settings.getEncoderPreset() + (ThrottlePolicy.reducesResolution(tier) ? "/reduced" : "")
+                + (dualPair != null ? "/dual" : "");
+    }
 
-                @Override
-                public void onError(@NonNull CameraDevice camera, int error) {
-                    Log.e(TAG, "Camera error: " + error);
-                    camera.close();
-                }
-            }, backgroundHandler);
+    private void openCameraDevice() {
+        CameraManager cameraManager = (CameraManager) getSystemService(Context.CAMERA_SERVICE);
+        try {
+            cameraManager.openCamera(cameraId, cameraStateCallback, backgroundHandler);
         } catch (CameraAccessException | SecurityException e) {
             Log.e(TAG, "Error opening camera: " + e.getMessage());
+            backgroundHandler.post(this::abortRecording);
         }
     }
 
-    private String getFrontCameraId(CameraManager cameraManager) throws CameraAccessException {
-        for (String cameraId : cameraManager.getCameraIdList()) {
-            CameraCharacteristics characteristics = cameraManager.getCameraCharacteristics(cameraId);
-            Integer facing = characteristics.get(CameraCharacteristics.LENS_FACING);
-            if (facing != null && facing == CameraCharacteristics.LENS_FACING_FRONT) {
-                return cameraId;
+    private final CameraDevice.StateCallback cameraStateCallback = new CameraDevice.StateCallback() {
+        @Override
+        public void onOpened(@NonNull CameraDevice camera) {
+            cameraDevice = camera;
+            startupTrace.mark("cameraOpened");
+            Log.d(TAG, "Camera opened");
+            if (!recorderPrepared || stopRequested
+                    || !state.compareAndSet(State.OPENING, State.CONFIGURING)) {
+                abortRecording();
+                return;
             }
+            createCameraCaptureSession();
+        }
+
+        @Override
+        public void onDisconnected(@NonNull CameraDevice camera) {
+            Log.d(TAG, "Camera disconnected");
+            onCameraLost(camera);
         }
 
-        return getBackCameraId(cameraManager);
+        @Override
+        public void onError(@NonNull CameraDevice camera, int error) {
+            Log.e(TAG, "Camera error: " + error);
+            onCameraLost(camera);
+        }
+    };
+
+    private void onCameraLost(CameraDevice camera) {
+        camera.close();
+        if (camera == cameraDevice) {
+            cameraDevice = null;
+            cameraCaptureSession = null;
+        }
+        State current = state.get();
+        if (current == State.RECORDING) {
+            requestStop();
+        } else if (current == State.OPENING || current == State.CONFIGURING) {
+            abortRecording();
+        } else if (current == State.IDLE && idleSessionKey != null) {
+            idleSessionTimeout.run();
+        }
+    }
+
+    // Camera thread. Claims the idle session for a new recording, or returns
+    // false if it has been closed in the meantime.
+    private boolean takeIdleSession(String key) {
+        backgroundHandler.removeCallbacks(idleSessionTimeout);
+        if (!key.equals(idleSessionKey) || cameraCaptureSession == null) {
+            return false;
+        }
+        idleSessionKey = null;
+        return true;
     }
 
-    private String getBackCameraId(CameraManager cameraManager) throws CameraAccessException {
-        for (String cameraId : cameraManager.getCameraIdList()) {
-            CameraCharacteristics characteristics = cameraManager.getCameraCharacteristics(cameraId);
-            Integer facing = characteristics.get(CameraCharacteristics.LENS_FACING);
-            if (facing != null && facing == CameraCharacteristics.LENS_FACING_BACK) {
-                return cameraId;
+    private void onSessionReady() {
+        if (!recorderPrepared || stopRequested || !state.compareAndSet(State.OPENING, State.CONFIGURING)) {
+            abortRecording();
+            return;
+        }
+        startRecordingVideo();
+    }
+
+    // Camera thread. Keeps the device and session configured after a stop; the
+    // repeating request has already been stopped, so the camera is not streaming.
+    private void keepSessionIdle() {
+        idleSessionKey = sessionKey;
+        backgroundHandler.postDelayed(idleSessionTimeout, IDLE_SESSION_MS);
+        Log.d(TAG, "Keeping camera session for " + IDLE_SESSION_MS + "ms");
+    }
+
+    private final Runnable idleSessionTimeout = new Runnable() {
+        @Override
+        public void run() {
+            backgroundHandler.removeCallbacks(this);
+            if (idleSessionKey == null) {
+                return;
             }
+            closeCamera();
+            Log.d(TAG, "Closed idle camera session");
+            mainHandler.post(CameraBackgroundService.this::stopIfIdle);
+        }
+    };
+
+    // Camera thread.
+    private void closeCamera() {
+        idleSessionKey = null;
+        if (cameraCaptureSession != null) {
+            cameraCaptureSession.close();
+            cameraCaptureSession = null;
+        }
+        if (cameraDevice != null) {
+            cameraDevice.close();
+            cameraDevice = null;
+        }
+        if (persistentSurface != null) {
+            persistentSurface.release();
+            persistentSurface = null;
         }
-        throw new CameraAccessException(CameraAccessException.CAMERA_ERROR);
     }
 
-    private void setupMediaRecorder() {
-        mediaRecorder = new MediaRecorder();
-        mediaRecorder.setAudioSource(MediaRecorder.AudioSource.MIC);
-        mediaRecorder.setVideoSource(MediaRecorder.VideoSource.SURFACE);
-        mediaRecorder.setOutputFormat(MediaRecorder.OutputFormat.MPEG_4);
-        mediaRecorder.setOutputFile(getOutputFilePath());
-        mediaRecorder.setVideoEncodingBitRate(10000000);
-        mediaRecorder.setVideoFrameRate(30);
-        mediaRecorder.setVideoSize(1280, 720);
-        mediaRecorder.setVideoEncoder(MediaRecorder.VideoEncoder.H264);
-        mediaRecorder.setAudioEncoder(MediaRecorder.AudioEncoder.AAC);
+    private boolean prepareRecordingEngine() {
+        if (dualPair != null) {
+            planConcurrentStreams();
+        }
+        encoderProfile = throttledProfile(appliedTier);
+        long expectedBytes = settings.isSegmented() ? getSegmentBytes()
+                : encoderProfile.getRecordedBitRate() / 8L * UNSEGMENTED_RESERVE_SECONDS;
+        expectedFileBytes = expectedBytes;
+        if (!settings.isPreTrigger()
+                && !quotaManager.prepareForNewFile(expectedBytes + secondaryBytesFor(expectedBytes))) {
+            Log.e(TAG, "Not enough free space to start recording");
+            return false;
+        }
 
+        File outputFile = null;
+        if (settings.isPreTrigger()) {
+            recordingEngine = new PreTriggerRecorder(encoderProfile, settings.getPreTriggerSeconds(),
+                    settings.getPostTriggerSeconds(), settings.getPreTriggerBufferBytes(), engineListener);
+        } else {
+            outputFile = getOutputFile();
+            if (outputFile == null) {
+                return false;
+            }
+            syncLatency = new LatencyHistogram();
+            recordingEngine = createContinuousEngine(expectedBytes);
+        }
+
+        if (persistentSurface == null) {
+            persistentSurface = MediaCodec.createPersistentInputSurface();
+        }
         try {
-            mediaRecorder.prepare();
-        } catch (IOException e) {
-            Log.e(TAG, "Error preparing MediaRecorder: " + e.getMessage());
+            recorderSurface = recordingEngine.prepare(outputFile, persistentSurface);
+            currentOutputFile = outputFile;
+            return true;
+        } catch (IOException | IllegalStateException e) {
+            Log.e(TAG, "Error preparing recording engine: " + e.getMessage());
+            recordingEngine.release();
+            recordingEngine = null;
+            // The output may already have been preallocated to full size.
+            if (outputFile != null && outputFile.exists() && !outputFile.delete()) {
+                Log.d(TAG, "Failed to delete " + outputFile.getName());
+            }
+            return false;
+        }
+    }
+
+    private EncoderProfile throttledProfile(int tier) {
+        EncoderProfile base = EncoderProfileSelector.select(cameraId, settings.getEncoderPreset());
+        CameraCharacteristics characteristics = null;
+        try {
+            characteristics = CameraCapabilityCache.getInstance(this).getCharacteristics(cameraId);
+        } catch (CameraAccessException e) {
+            Log.e(TAG, "Error reading camera sizes: " + e.getMessage());
+        }
+        if (limitForConcurrent) {
+            base = DualCameraSupport.limitForConcurrent(base, characteristics);
+        }
+        EncoderProfile profile = CaptureThrottle.profileFor(base, tier, characteristics);
+        if (settings.isTimeLapse()) {
+            profile = profile.withTimeLapse(settings.getTimeLapseCaptureRate(), settings.getTimeLapsePlaybackFps());
+        }
+        return profile;
+    }
+
+    // Camera thread. The front camera is held to the concurrent-safe size;
+    // the back one keeps its full size if the HAL accepts the pair that way,
+    // and is limited too if not. If neither works the back camera records
+    // alone.
+    private void planConcurrentStreams() {
+        String reason;
+        try {
+            CameraCapabilityCache cache = CameraCapabilityCache.getInstance(this);
+            secondaryProfile = DualCameraSupport.limitForConcurrent(
+                    EncoderProfileSelector.select(dualPair.frontId, settings.getEncoderPreset()),
+                    cache.getCharacteristics(dualPair.frontId));
+            Size frontSize = new Size(secondaryProfile.getWidth(), secondaryProfile.getHeight());
+            EncoderProfile full = throttledProfile(appliedTier);
+            reason = DualCameraSupport.checkStreams(this, dualPair, new Size(full.getWidth(), full.getHeight()),
+                    frontSize);
+            if (reason != null) {
+                limitForConcurrent = true;
+                EncoderProfile limited = throttledProfile(appliedTier);
+                if (limited.getWidth() != full.getWidth() || limited.getHeight() != full.getHeight()) {
+                    reason = DualCameraSupport.checkStreams(this, dualPair,
+                            new Size(limited.getWidth(), limited.getHeight()), frontSize);
+                }
+            }
+        } catch (CameraAccessException e) {
+            reason = "camera unavailable (" + e.getMessage() + ")";
+        }
+        if (reason != null) {
+            limitForConcurrent = false;
+            dualPair = null;
+            secondaryProfile = null;
+            reportDualUnavailable(reason);
+        } else {
+            Log.d(TAG, "Dual recording: back " + (limitForConcurrent ? "limited" : "full size")
+                    + ", front " + secondaryProfile);
+        }
+    }
+
+    // A companion file covers the same span as the primary file it pairs
+    // with, so its size scales with the bitrate.
+    private long secondaryBytesFor(long primaryBytes) {
+        if (dualPair == null || secondaryProfile == null) {
+            return 0;
+        }
+        return primaryBytes * secondaryProfile.getVideoBitRate() / encoderProfile.getRecordedBitRate();
+    }
+
+    // Camera thread, once the primary is recording.
+    private void startSecondary() {
+        if (dualPair == null || currentOutputFile == null) {
+            return;
+        }
+        SecondaryCameraRecorder recorder = new SecondaryCameraRecorder(this, dualPair.frontId, secondaryProfile,
+                new RecordingOutput.Options(secondaryBytesFor(expectedFileBytes), settings.getSyncIntervalMs(),
+                        syncLatency), secondaryListener);
+        secondaryRecorder = recorder;
+        File companion = RecordingFileNames.companionFile(currentOutputFile, COMPANION_TAG);
+        quotaManager.onFileStarted(companion);
+        recorder.start(companion);
+    }
+
+    // Camera thread. Finalizes the companion file; blocks until done.
+    private void stopSecondary() {
+        SecondaryCameraRecorder recorder = secondaryRecorder;
+        secondaryRecorder = null;
+        if (recorder != null) {
+            recorder.stop();
+        }
+    }
+
+    private final SecondaryCameraRecorder.Listener secondaryListener = new SecondaryCameraRecorder.Listener() {
+        @Override
+        public void onFileFinished(File file) {
+            quotaManager.onFileFinished(file);
+            VideoCatalog.getInstance(CameraBackgroundService.this).onRecordingFinished(file);
+            ScrubIndexGenerator.getInstance(CameraBackgroundService.this).generate(file);
+        }
+
+        @Override
+        public void onUnavailable(String reason) {
+            backgroundHandler.post(() -> secondaryRecorder = null);
+            reportDualUnavailable(reason);
+        }
+    };
+
+    // Any thread. Recording carries on with the back camera alone.
+    private void reportDualUnavailable(String reason) {
+        Log.e(TAG, "Dual camera recording unavailable: " + reason);
+        mainHandler.post(() -> {
+            Intent intent = new Intent("com.example.secretcamera.DUAL_CAMERA_UNAVAILABLE");
+            intent.putExtra("REASON", reason);
+            sendBroadcast(intent);
+        });
+    }
+
+    // Each file is preallocated to the size the quota was reserved for.
+    private RecordingEngine createContinuousEngine(long expectedBytes) {
+        RecordingOutput.Options outputOptions = new RecordingOutput.Options(expectedBytes,
+                settings.getSyncIntervalMs(), syncLatency);
+        if (!settings.useMediaCodec()) {
+            return new MediaRecorderEngine(encoderProfile, settings.isSegmented() ? getSegmentBytes() : 0,
+                    outputOptions, engineListener);
+        }
+        long segmentBytes = RecordingSettings.SEGMENT_MODE_SIZE.equals(settings.getSegmentMode())
+                ? getSegmentBytes() : 0;
+        return new CodecRecordingEngine(encoderProfile, settings.getSegmentDurationUs(), segmentBytes,
+                true, usesRealtimeTimestamps(), settings.isFragmentedMp4(), outputOptions, engineListener);
+    }
+
+    // Audio timestamps have to come from the same clock the camera stamps
+    // frames with, or the muxed tracks drift apart.
+    private boolean usesRealtimeTimestamps() {
+        try {
+            Integer source = CameraCapabilityCache.getInstance(this).getCharacteristics(cameraId)
+                    .get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE);
+            return source != null && source == CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME;
+        } catch (CameraAccessException e) {
+            Log.e(TAG, "Error reading timestamp source: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private long getSegmentBytes() {
+        return settings.getSegmentSizeBytes(encoderProfile.getRecordedBitRate());
+    }
+
+    // Called on whichever thread the engine reports from: the camera thread for
+    // MediaRecorder and pre-trigger clips, the writer thread for MediaCodec.
+    private final RecordingEngine.Listener engineListener = new RecordingEngine.Listener() {
+        @Override
+        public File onNextOutputFile() {
+            // A tier change replaces the engine, so the engine is told to keep
+            // its current file and the roll-over starts the next one.
+            if (rollOverPending) {
+                return null;
+            }
+            int tier = settings.isTimeLapse() ? appliedTier : throttle.nextTier();
+            if (tier != appliedTier) {
+                rollOverPending = true;
+                backgroundHandler.post(() -> rollOver(tier));
+                return null;
+            }
+            if (!quotaManager.prepareForNewFile(getSegmentBytes() + secondaryBytesFor(getSegmentBytes()))) {
+                Log.e(TAG, "Not enough free space for the next segment");
+                return null;
+            }
+            return getOutputFile();
+        }
+
+        @Override
+        public void onSegmentStarted(File file) {
+            currentOutputFile = file;
+            SecondaryCameraRecorder secondary = secondaryRecorder;
+            if (secondary != null) {
+                File companion = RecordingFileNames.companionFile(file, COMPANION_TAG);
+                quotaManager.onFileStarted(companion);
+                secondary.splitTo(companion);
+            }
+            segmentReport.onSegmentStarted(file);
+            Log.d(TAG, "Started segment " + segmentReport.getSegmentCount() + ": " + file.getName());
+        }
+
+        @Override
+        public void onFileFinished(File file) {
+            finishedBytes += file.length();
+            lastFinishedFile = file;
+            quotaManager.onFileFinished(file);
+            VideoCatalog.getInstance(CameraBackgroundService.this).onRecordingFinished(file);
+            ScrubIndexGenerator.getInstance(CameraBackgroundService.this).generate(file);
+        }
+
+        @Override
+        public void onError(String message) {
+            Log.e(TAG, message);
+            requestStop();
+        }
+    };
+
+    private void saveClip() {
+        if (state.get() != State.RECORDING || !(recordingEngine instanceof PreTriggerRecorder)) {
+            Log.d(TAG, "No pre-trigger buffer to save");
+            return;
+        }
+        PreTriggerRecorder recorder = (PreTriggerRecorder) recordingEngine;
+        backgroundHandler.post(() -> {
+            long clipBytes = (long) encoderProfile.getVideoBitRate() / 8L
+                    * (settings.getPreTriggerSeconds() + settings.getPostTriggerSeconds());
+            if (!quotaManager.prepareForNewFile(clipBytes)) {
+                Log.e(TAG, "Not enough free space to save clip");
+                return;
+            }
+            File clipFile = getOutputFile();
+            if (clipFile != null) {
+                recorder.trigger(clipFile);
+            }
+        });
+    }
+
+    // Main thread. Segmented recordings pick up a new tier at their next
+    // boundary; a single-file recording has none, so more pressure starts a
+    // new file right away rather than waiting for the stop.
+    private void onPressureChanged(int tier) {
+        if (state.get() != State.RECORDING || settings == null || settings.isSegmented() || settings.isPreTrigger()
+                || settings.isTimeLapse()
+                || rollOverPending) {
+            return;
+        }
+        int next = throttle.nextTier();
+        if (next > appliedTier) {
+            rollOverPending = true;
+            backgroundHandler.post(() -> rollOver(next));
+        }
+    }
+
+    // Camera thread. Finishes the current file and carries on in a new one
+    // with an engine built for the tier. The capture session is kept unless
+    // the frame size changes, in which case it is rebuilt around the new
+    // engine and recording resumes from onConfigured.
+    private void rollOver(int tier) {
+        rollOverPending = false;
+        if (state.get() != State.RECORDING || recordingEngine == null || cameraCaptureSession == null) {
+            return;
+        }
+        EncoderProfile next = throttledProfile(tier);
+        boolean resize = next.getWidth() != encoderProfile.getWidth() || next.getHeight() != encoderProfile.getHeight();
+        long expectedBytes = settings.isSegmented() ? settings.getSegmentSizeBytes(next.getRecordedBitRate())
+                : next.getRecordedBitRate() / 8L * UNSEGMENTED_RESERVE_SECONDS;
+        File nextFile = quotaManager.prepareForNewFile(expectedBytes) ? getOutputFile() : null;
+        if (nextFile == null) {
+            Log.e(TAG, "Not enough free space to switch to capture tier " + tier);
+            return;
+        }
+
+        long startMs = SystemClock.elapsedRealtime();
+        try {
+            if (resize) {
+                cameraCaptureSession.stopRepeating();
+            }
+            recordingEngine.stop();
+            recordingEngine = null;
+            encoderProfile = next;
+            recordingEngine = createContinuousEngine(expectedBytes);
+            currentOutputFile = nextFile;
+            recorderSurface = recordingEngine.prepare(nextFile, persistentSurface);
+            if (resize) {
+                cameraCaptureSession.close();
+                cameraCaptureSession = null;
+                sessionKey = sessionKeyFor(tier);
+                appliedTier = tier;
+                rollingOver = true;
+                createCameraCaptureSession();
+                return;
+            }
+            appliedTier = tier;
+            startRepeatingRequest();
+            recordingEngine.start();
+        } catch (CameraAccessException | IOException | IllegalStateException e) {
+            Log.e(TAG, "Error switching to capture tier " + tier + ": " + e.getMessage());
+            abortRecording();
+            return;
         }
+        throttle.onTierApplied(tier, nextFile, encoderProfile);
+        Log.d(TAG, "Rolled over to tier " + tier + " in " + (SystemClock.elapsedRealtime() - startMs) + "ms");
     }
 
-    private String getOutputFilePath() {
+    // Camera thread, once the session for a new frame size is configured.
+    private void resumeAfterRollOver() {
+        rollingOver = false;
+        try {
+            startRepeatingRequest();
+            recordingEngine.start();
+        } catch (CameraAccessException | IllegalStateException e) {
+            Log.e(TAG, "Error resuming after roll-over: " + e.getMessage());
+            abortRecording();
+            return;
+        }
+        throttle.onTierApplied(appliedTier, currentOutputFile, encoderProfile);
+    }
+
+    private File getOutputFile() {
         File mediaStorageDir = new File(getExternalFilesDir(null), "SecretVideos");
 
         if (!mediaStorageDir.exists()) {
@@ -244,20 +862,90 @@ public class CameraBackgroundService extends Service {
             }
         }
 
+        File outputFile = RecordingFileNames.newOutputFile(mediaStorageDir, System.currentTimeMillis());
+        quotaManager.onFileStarted(outputFile);
+        return outputFile;
+    }
+
+    // Report writers run on the camera thread as part of the stop pipeline.
+    private void writeSegmentReport(SegmentTimingReport report) {
+        if (report == null || report.getSegmentCount() < 2) {
+            return;
+        }
+        File reportDir = new File(getExternalFilesDir(null), "SegmentReports");
+        if (!reportDir.exists() && !reportDir.mkdirs()) {
+            Log.d(TAG, "Failed to create report directory");
+            return;
+        }
         String timeStamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault()).format(new Date());
-        return mediaStorageDir.getPath() + File.separator + "VID_" + timeStamp + ".mp4";
+        report.writeTo(new File(reportDir, "segments_" + timeStamp + ".csv"));
+    }
+
+    private void writeMetricsSidecar(CaptureMetrics.Snapshot snapshot) {
+        File metricsDir = new File(getExternalFilesDir(null), "SessionMetrics");
+        if (!metricsDir.exists() && !metricsDir.mkdirs()) {
+            Log.d(TAG, "Failed to create metrics directory");
+            return;
+        }
+        String timeStamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault()).format(new Date());
+        try (FileWriter writer = new FileWriter(new File(metricsDir, "session_" + timeStamp + ".json"))) {
+            writer.write(snapshot.toJson());
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing session metrics: " + e.getMessage());
+        }
+    }
+
+    // Runs on the camera thread once a second, so the per-frame callbacks
+    // never touch the file system.
+    private final Runnable metricsSampler = new Runnable() {
+        @Override
+        public void run() {
+            sampleMetrics(recordingEngine);
+            if (state.get() == State.RECORDING) {
+                backgroundHandler.postDelayed(this, METRICS_INTERVAL_MS);
+            }
+        }
+    };
+
+    private CaptureMetrics.Snapshot sampleMetrics(RecordingEngine engine) {
+        CaptureMetrics metrics = captureMetrics;
+        if (metrics == null) {
+            return null;
+        }
+        File current = currentOutputFile;
+        metrics.onBytesWritten(finishedBytes + (current != null ? RecordingOutput.sizeOf(current) : 0),
+                System.nanoTime());
+        LatencyHistogram writeLatency = null;
+        if (engine instanceof CodecRecordingEngine) {
+            FrameTimingLog timings = ((CodecRecordingEngine) engine).getVideoTimings();
+            metrics.onEncoderStats(timings.getDroppedCount(), timings.getAverageWriteLatencyMs(),
+                    timings.getMaxWriteLatencyMs());
+            writeLatency = timings.getWriteLatencyHistogram();
+        }
+        metrics.onLatencyHistograms(writeLatency, syncLatency);
+        return metrics.publish(System.nanoTime());
     }
 
     private void createCameraCaptureSession() {
         try {
             List<Surface> surfaces = new ArrayList<>();
-            Surface recorderSurface = mediaRecorder.getSurface();
             surfaces.add(recorderSurface);
 
             cameraDevice.createCaptureSession(surfaces, new CameraCaptureSession.StateCallback() {
                 @Override
                 public void onConfigured(@NonNull CameraCaptureSession session) {
+                    if (rollingOver) {
+                        cameraCaptureSession = session;
+                        resumeAfterRollOver();
+                        return;
+                    }
+                    if (state.get() != State.CONFIGURING) {
+                        // Stopped while a roll-over was reconfiguring.
+                        session.close();
+                        return;
+                    }
                     cameraCaptureSession = session;
+                    startupTrace.mark("sessionConfigured");
                     Log.d(TAG, "Camera capture session configured");
                     startRecordingVideo();
                 }
@@ -265,77 +953,312 @@ public class CameraBackgroundService extends Service {
                 @Override
                 public void onConfigureFailed(@NonNull CameraCaptureSession session) {
                     Log.e(TAG, "Failed to configure camera capture session");
+                    if (rollingOver || state.get() == State.CONFIGURING) {
+                        rollingOver = false;
+                        abortRecording();
+                    }
                 }
             }, backgroundHandler);
-        } catch (CameraAccessException e) {
+        } catch (CameraAccessException | IllegalStateException e) {
             Log.e(TAG, "Error creating camera capture session: " + e.getMessage());
+            abortRecording();
         }
     }
 
     private void startRecordingVideo() {
+        if (stopRequested) {
+            abortRecording();
+            return;
+        }
         try {
-            CaptureRequest.Builder captureRequestBuilder = cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_RECORD);
-            captureRequestBuilder.addTarget(mediaRecorder.getSurface());
-            captureRequestBuilder.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_VIDEO);
-
-            cameraCaptureSession.setRepeatingRequest(captureRequestBuilder.build(), null, backgroundHandler);
-            mediaRecorder.start();
-            isRecording = true;
+            finishedBytes = 0;
+            captureMetrics = new CaptureMetrics(sensorFrameRate());
+            startRepeatingRequest();
+            recordingEngine.start();
+            startupTrace.mark("recorderStarted");
+            state.set(State.RECORDING);
+            throttle.onRecordingStarted(appliedTier, currentOutputFile, encoderProfile);
+            quotaManager.startMonitoring();
+            backgroundHandler.postDelayed(metricsSampler, METRICS_INTERVAL_MS);
+            startSecondary();
             Log.d(TAG, "Started recording");
-        } catch (CameraAccessException e) {
+        } catch (CameraAccessException | IllegalStateException e) {
             Log.e(TAG, "Error starting video recording: " + e.getMessage());
+            abortRecording();
+            return;
+        }
+        // A stop that arrived while the session was being configured.
+        if (stopRequested) {
+            requestStop();
         }
     }
 
-    private void stopRecording() {
-        if (!isRecording) {
-            Log.d(TAG, "Not recording");
-            return;
+    // A throttled tier also caps the sensor frame rate; the encoder would
+    // otherwise still be fed at the full rate. A time-lapse runs the sensor as
+    // slowly as it goes, since all but one frame per interval is dropped.
+    private void startRepeatingRequest() throws CameraAccessException {
+        CaptureRequest.Builder captureRequestBuilder = cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_RECORD);
+        captureRequestBuilder.addTarget(recorderSurface);
+        captureRequestBuilder.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_VIDEO);
+        Range<Integer> fpsRange = null;
+        if (encoderProfile.isTimeLapse()) {
+            fpsRange = findTimeLapseFpsRange();
+        } else if (appliedTier != ThrottlePolicy.TIER_FULL) {
+            fpsRange = CaptureThrottle.findFpsRange(
+                    CameraCapabilityCache.getInstance(this).getCharacteristics(cameraId), encoderProfile.getFrameRate());
         }
+        if (fpsRange != null) {
+            captureRequestBuilder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, fpsRange);
+        }
+        cameraCaptureSession.setRepeatingRequest(captureRequestBuilder.build(), captureCallback, backgroundHandler);
+    }
 
+    // The slowest AE range that still delivers at least the capture rate,
+    // preferring the one with the highest floor.
+    private Range<Integer> findTimeLapseFpsRange() throws CameraAccessException {
+        Range<Integer>[] ranges = CameraCapabilityCache.getInstance(this).getCharacteristics(cameraId)
+                .get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+        if (ranges == null) {
+            return null;
+        }
+        int minimum = (int) Math.ceil(encoderProfile.getCaptureRate());
+        Range<Integer> best = null;
+        for (Range<Integer> range : ranges) {
+            if (range.getUpper() < minimum) {
+                continue;
+            }
+            if (best == null || range.getUpper() < best.getUpper()
+                    || range.getUpper().equals(best.getUpper()) && range.getLower() > best.getLower()) {
+                best = range;
+            }
+        }
+        return best;
+    }
+
+    // The rate CaptureMetrics counts skipped sensor frames against. For a
+    // time-lapse that is the floor of the AE range, not the playback rate.
+    private int sensorFrameRate() throws CameraAccessException {
+        if (encoderProfile.isTimeLapse()) {
+            Range<Integer> fpsRange = findTimeLapseFpsRange();
+            if (fpsRange != null) {
+                return fpsRange.getLower();
+            }
+        }
+        return encoderProfile.getFrameRate();
+    }
+
+    // Frames completed after the engine has started are the ones queued to the
+    // encoder, so the first of them closes the start-to-first-frame trace.
+    private final CameraCaptureSession.CaptureCallback captureCallback = new CameraCaptureSession.CaptureCallback() {
+        @Override
+        public void onCaptureStarted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request,
+                                     long timestamp, long frameNumber) {
+            CaptureMetrics metrics = captureMetrics;
+            if (metrics != null) {
+                metrics.onFrameStarted(timestamp);
+            }
+        }
+
+        @Override
+        public void onCaptureFailed(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request,
+                                    @NonNull CaptureFailure failure) {
+            CaptureMetrics metrics = captureMetrics;
+            if (metrics != null) {
+                metrics.onCaptureFailed();
+            }
+        }
+
+        @Override
+        public void onCaptureBufferLost(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request,
+                                        @NonNull Surface target, long frameNumber) {
+            CaptureMetrics metrics = captureMetrics;
+            if (metrics != null) {
+                metrics.onBufferLost();
+            }
+        }
+
+        @Override
+        public void onCaptureCompleted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request,
+                                       @NonNull TotalCaptureResult result) {
+            if (state.get() == State.RECORDING && startupTrace != null && !startupTrace.isFinished()) {
+                long timeToFirstFrameMs = startupTrace.finish("firstFrame");
+                Log.d(TAG, "Time to first frame " + timeToFirstFrameMs + "ms: " + startupTrace.summary());
+                getSharedPreferences(RecordingSettings.PREFS_NAME, MODE_PRIVATE).edit()
+                        .putLong(StartupTrace.KEY_LAST_TIME_TO_FIRST_FRAME_MS, timeToFirstFrameMs)
+                        .apply();
+            }
+        }
+    };
+
+    // Camera thread. Returns the last file the engine finished, if any.
+    private File performStop() {
+        long stopStartMs = SystemClock.elapsedRealtime();
         try {
             if (cameraCaptureSession != null) {
                 cameraCaptureSession.stopRepeating();
                 cameraCaptureSession.abortCaptures();
             }
-        } catch (CameraAccessException e) {
+        } catch (CameraAccessException | IllegalStateException e) {
             Log.e(TAG, "Error stopping camera capture: " + e.getMessage());
         }
 
-        if (mediaRecorder != null) {
-            try {
-                mediaRecorder.stop();
-            } catch (IllegalStateException e) {
-                Log.e(TAG, "Error stopping media recorder: " + e.getMessage());
-            }
-            mediaRecorder.reset();
-            mediaRecorder.release();
-            mediaRecorder = null;
+        // The engine reports the final file through onFileFinished.
+        // An engine from an unfinished roll-over was never started.
+        RecordingEngine engine = recordingEngine;
+        if (engine != null && rollingOver) {
+            rollingOver = false;
+            engine.release();
+            deleteEmptyOutput();
+            recordingEngine = null;
+        } else if (engine != null) {
+            engine.stop();
+            recordingEngine = null;
         }
+        stopSecondary();
+        recorderSurface = null;
+        currentOutputFile = null;
+        quotaManager.stopMonitoring();
 
-        if (cameraDevice != null) {
-            cameraDevice.close();
-            cameraDevice = null;
+        backgroundHandler.removeCallbacks(metricsSampler);
+        CaptureMetrics.Snapshot metricsSnapshot = sampleMetrics(engine);
+        if (metricsSnapshot != null) {
+            Log.d(TAG, "Session metrics: " + metricsSnapshot.toJson());
+            writeMetricsSidecar(metricsSnapshot);
         }
+        captureMetrics = null;
 
-        isRecording = false;
-        Log.d(TAG, "Stopped recording");
+        if (segmentReport != null) {
+            segmentReport.onRecordingStopped();
+            writeSegmentReport(segmentReport);
+            segmentReport = null;
+        }
+
+        if (cameraCaptureSession != null && !destroyed) {
+            keepSessionIdle();
+        } else {
+            closeCamera();
+        }
+
+        File finalFile = lastFinishedFile;
+        lastFinishedFile = null;
+        if (finalFile != null) {
+            syncToDisk(finalFile);
+        }
+        Log.d(TAG, "Stop pipeline took " + (SystemClock.elapsedRealtime() - stopStartMs) + "ms");
+        return finalFile;
+    }
+
+    private void syncToDisk(File file) {
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.getFD().sync();
+        } catch (IOException e) {
+            Log.e(TAG, "Error syncing " + file.getName() + ": " + e.getMessage());
+        }
+    }
+
+    // Main thread, after the stop pipeline has finished. Only now does the
+    // UI hear about it, because the final file has been synced to disk.
+    private void onRecordingStopped(File finalFile) {
+        Log.d(TAG, "Stopped recording" + (finalFile != null ? ", saved " + finalFile.getName() : ""));
+        finishSession();
+    }
+
+    // Main thread. Returns to IDLE and either replays a start that arrived
+    // during teardown or lets the service go.
+    private void finishSession() {
+        stopRequested = false;
+        state.set(State.IDLE);
 
-        
         Intent intent = new Intent("com.example.secretcamera.RECORDING_STOPPED");
         sendBroadcast(intent);
 
-        
-        stopForeground(true);
-        stopSelf();
+        if (destroyed) {
+            // The camera thread has closed everything it opened by now.
+            if (backgroundThread != null) {
+                backgroundThread.quitSafely();
+            }
+            return;
+        }
+        Intent restart = pendingStart.getAndSet(null);
+        if (restart != null) {
+            Log.d(TAG, "Replaying queued start");
+            requestStart(restart);
+            return;
+        }
+        if (idleSessionKey == null) {
+            stopForeground(true);
+            stopSelf();
+        } else {
+            getSystemService(NotificationManager.class).notify(NOTIFICATION_ID, createIdleNotification());
+        }
+    }
+
+    // Main thread, once an idle session has been closed.
+    private void stopIfIdle() {
+        if (state.get() == State.IDLE && idleSessionKey == null && !destroyed) {
+            stopForeground(true);
+            stopSelf();
+        }
+    }
+
+    // Setup failed before the recorder started, so there is nothing to finalize;
+    // release what was acquired and let the UI know recording is not running.
+    private void abortRecording() {
+        if (recordingEngine != null) {
+            recordingEngine.release();
+            recordingEngine = null;
+        }
+        recorderSurface = null;
+        deleteEmptyOutput();
+        stopSecondary();
+        closeCamera();
+        segmentReport = null;
+        // A roll-over can fail after recording has started.
+        rollingOver = false;
+        backgroundHandler.removeCallbacks(metricsSampler);
+        captureMetrics = null;
+        if (quotaManager != null) {
+            quotaManager.stopMonitoring();
+        }
+        Log.e(TAG, "Recording aborted");
+
+        // Hold STOPPING until the main thread has settled the session, so a
+        // start arriving in between is queued rather than racing the cleanup.
+        state.set(State.STOPPING);
+        mainHandler.post(this::finishSession);
     }
 
+    private void deleteEmptyOutput() {
+        if (currentOutputFile != null) {
+            if (!currentOutputFile.delete()) {
+                Log.d(TAG, "Failed to delete empty output file");
+            }
+            currentOutputFile = null;
+        }
+    }
 
     @Override
     public void onDestroy() {
         super.onDestroy();
-        stopRecording();
-        stopBackgroundThread();
+        destroyed = true;
+        active = false;
+        throttle.stop();
+        pendingStart.set(null);
+        requestStop();
+        State current = state.get();
+        if (current == State.STOPPING) {
+            // Let the queued stop finish on the camera thread rather than
+            // blocking the main thread on encoder finalization.
+            backgroundThread.quitSafely();
+        } else if (current == State.OPENING || current == State.CONFIGURING) {
+            // onOpened or onConfigured is still to come on the camera thread.
+            // It sees the stop and closes the device and session, and
+            // finishSession quits the thread after that; quitting now would
+            // drop the callback and leak the device.
+            Log.d(TAG, "Destroyed during setup, camera thread quits once the device is closed");
+        } else {
+            stopBackgroundThread();
+        }
         Log.d(TAG, "Service destroyed");
     }
 }
@@ -0,0 +1,97 @@
+package com.example.secretcamera;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraManager;
+import android.os.Build;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class CameraCapabilityCache {
+    private static final String TAG = "CameraCapabilityCache";
+    private static final String KEY_CAMERA_ID_PREFIX = "cameraId_";
+    private static final String KEY_FINGERPRINT = "cameraCacheFingerprint";
+    public static final String FACING_FRONT = "FRONT";
+    public static final String FACING_BACK = "BACK";
+    // Back camera with the front one recording alongside.
+    public static final String FACING_DUAL = "DUAL";
+
+    private static CameraCapabilityCache instance;
+
+    private final CameraManager cameraManager;
+    private final SharedPreferences preferences;
+    private final Map<String, String> idsByFacing = new HashMap<>();
+    private final Map<String, CameraCharacteristics> characteristicsById = new HashMap<>();
+
+    private CameraCapabilityCache(Context context) {
+        cameraManager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+        preferences = context.getSharedPreferences(RecordingSettings.PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    public static synchronized CameraCapabilityCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new CameraCapabilityCache(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    // Camera IDs are stable for a given system build, so they are persisted and
+    // only rediscovered after an OS update; the camera list is walked at most
+    // once per process.
+    public synchronized String getCameraId(String facing) throws CameraAccessException {
+        String cameraId = idsByFacing.get(facing);
+        if (cameraId != null) {
+            return cameraId;
+        }
+
+        if (Build.FINGERPRINT.equals(preferences.getString(KEY_FINGERPRINT, null))) {
+            cameraId = preferences.getString(KEY_CAMERA_ID_PREFIX + facing, null);
+            if (cameraId != null) {
+                idsByFacing.put(facing, cameraId);
+                return cameraId;
+            }
+        }
+
+        scanCameras();
+        cameraId = idsByFacing.get(facing);
+        if (cameraId == null && FACING_FRONT.equals(facing)) {
+            cameraId = idsByFacing.get(FACING_BACK);
+        }
+        if (cameraId == null) {
+            throw new CameraAccessException(CameraAccessException.CAMERA_ERROR);
+        }
+        return cameraId;
+    }
+
+    public synchronized CameraCharacteristics getCharacteristics(String cameraId) throws CameraAccessException {
+        CameraCharacteristics characteristics = characteristicsById.get(cameraId);
+        if (characteristics == null) {
+            characteristics = cameraManager.getCameraCharacteristics(cameraId);
+            characteristicsById.put(cameraId, characteristics);
+        }
+        return characteristics;
+    }
+
+    private void scanCameras() throws CameraAccessException {
+        SharedPreferences.Editor editor = preferences.edit();
+        for (String cameraId : cameraManager.getCameraIdList()) {
+            Integer facing = getCharacteristics(cameraId).get(CameraCharacteristics.LENS_FACING);
+            String facingName = null;
+            if (facing != null && facing == CameraCharacteristics.LENS_FACING_FRONT) {
+                facingName = FACING_FRONT;
+            } else if (facing != null && facing == CameraCharacteristics.LENS_FACING_BACK) {
+                facingName = FACING_BACK;
+            }
+            if (facingName != null && !idsByFacing.containsKey(facingName)) {
+                idsByFacing.put(facingName, cameraId);
+                editor.putString(KEY_CAMERA_ID_PREFIX + facingName, cameraId);
+            }
+        }
+        editor.putString(KEY_FINGERPRINT, Build.FINGERPRINT).apply();
+        Log.d(TAG, "Cached camera IDs: " + idsByFacing);
+    }
+}
@@ -0,0 +1,184 @@
+package com.example.secretcamera;
+
+import java.util.Locale;
+
+// Per-session capture statistics. The camera thread only stores a timestamp
+// and bumps counters per frame; rates and the published snapshot are worked
+// out once a second by the sampler in CameraBackgroundService.
+public class CaptureMetrics {
+    private static final int DEFAULT_RING_CAPACITY = 256;
+
+    private static volatile Snapshot latest;
+
+    public static Snapshot getLatestSnapshot() {
+        return latest;
+    }
+
+    public static final class Snapshot {
+        public final long elapsedMs;
+        public final long frameCount;
+        public final long droppedFrames;
+        public final long captureFailures;
+        public final long lostBuffers;
+        public final long maxFrameGapUs;
+        public final double averageFps;
+        public final long bytesWritten;
+        public final long bytesPerSecond;
+        public final long encoderDroppedFrames;
+        public final double encoderAverageLatencyMs;
+        public final double encoderMaxLatencyMs;
+        // Encoder output to muxer write, MediaCodec backend only; and the
+        // fdatasync calls made on the recording files.
+        public final LatencyHistogram writeLatency;
+        public final LatencyHistogram syncLatency;
+
+        Snapshot(long elapsedMs, long frameCount, long droppedFrames, long captureFailures, long lostBuffers,
+                 long maxFrameGapUs, double averageFps, long bytesWritten, long bytesPerSecond,
+                 long encoderDroppedFrames, double encoderAverageLatencyMs, double encoderMaxLatencyMs,
+                 LatencyHistogram writeLatency, LatencyHistogram syncLatency) {
+            this.elapsedMs = elapsedMs;
+            this.frameCount = frameCount;
+            this.droppedFrames = droppedFrames;
+            this.captureFailures = captureFailures;
+            this.lostBuffers = lostBuffers;
+            this.maxFrameGapUs = maxFrameGapUs;
+            this.averageFps = averageFps;
+            this.bytesWritten = bytesWritten;
+            this.bytesPerSecond = bytesPerSecond;
+            this.encoderDroppedFrames = encoderDroppedFrames;
+            this.encoderAverageLatencyMs = encoderAverageLatencyMs;
+            this.encoderMaxLatencyMs = encoderMaxLatencyMs;
+            this.writeLatency = writeLatency;
+            this.syncLatency = syncLatency;
+        }
+
+        public String toJson() {
+            return String.format(Locale.US, "{\"elapsed_ms\":%d,\"frames\":%d,\"dropped\":%d,\"failures\":%d,"
+                            + "\"lost_buffers\":%d,\"max_gap_us\":%d,\"avg_fps\":%.2f,\"bytes\":%d,\"bytes_per_s\":%d,"
+                            + "\"encoder_dropped\":%d,\"encoder_avg_ms\":%.2f,\"encoder_max_ms\":%.2f,"
+                            + "\"write_latency\":%s,\"sync_latency\":%s}",
+                    elapsedMs, frameCount, droppedFrames, captureFailures, lostBuffers, maxFrameGapUs, averageFps,
+                    bytesWritten, bytesPerSecond, encoderDroppedFrames, encoderAverageLatencyMs, encoderMaxLatencyMs,
+                    writeLatency.toJson(), syncLatency.toJson());
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%.1f fps over %ds\nDropped frames: %d\nCapture failures: %d\n"
+                            + "Lost buffers: %d\nLongest gap: %d ms\nWrite rate: %d KB/s\nWritten: %.1f MB\n"
+                            + "Sample writes: %s\nDisk syncs: %s",
+                    averageFps, elapsedMs / 1000, droppedFrames, captureFailures, lostBuffers, maxFrameGapUs / 1000,
+                    bytesPerSecond / 1024, bytesWritten / (1024.0 * 1024.0), writeLatency.summary(),
+                    syncLatency.summary());
+        }
+    }
+
+    private final long[] timestampsNs;
+    private final long expectedIntervalNs;
+    private int next;
+    private long frameCount;
+    private long droppedFrames;
+    private long captureFailures;
+    private long lostBuffers;
+    private long firstTimestampNs = -1;
+    private long lastTimestampNs = -1;
+    private long maxGapNs;
+
+    private long startNs = -1;
+    private long bytesWritten;
+    private long lastBytesSampleNs = -1;
+    private long bytesPerSecond;
+    private long encoderDroppedFrames;
+    private double encoderAverageLatencyMs;
+    private double encoderMaxLatencyMs;
+    private LatencyHistogram writeLatency = new LatencyHistogram();
+    private LatencyHistogram syncLatency = new LatencyHistogram();
+
+    public CaptureMetrics(int frameRate) {
+        this(frameRate, DEFAULT_RING_CAPACITY);
+    }
+
+    public CaptureMetrics(int frameRate, int ringCapacity) {
+        timestampsNs = new long[ringCapacity];
+        expectedIntervalNs = 1000000000L / Math.max(frameRate, 1);
+    }
+
+    // A gap of more than one and a half frame intervals between sensor
+    // timestamps means the sensor skipped frames the pipeline never saw.
+    public synchronized void onFrameStarted(long sensorTimestampNs) {
+        timestampsNs[next] = sensorTimestampNs;
+        next = (next + 1) % timestampsNs.length;
+        frameCount++;
+        if (firstTimestampNs < 0) {
+            firstTimestampNs = sensorTimestampNs;
+        }
+        if (lastTimestampNs >= 0) {
+            long gap = sensorTimestampNs - lastTimestampNs;
+            maxGapNs = Math.max(maxGapNs, gap);
+            if (gap * 2 > expectedIntervalNs * 3) {
+                droppedFrames += (gap + expectedIntervalNs / 2) / expectedIntervalNs - 1;
+            }
+        }
+        lastTimestampNs = sensorTimestampNs;
+    }
+
+    public synchronized void onCaptureFailed() {
+        captureFailures++;
+    }
+
+    public synchronized void onBufferLost() {
+        lostBuffers++;
+    }
+
+    public synchronized void onBytesWritten(long totalBytes, long nowNs) {
+        if (startNs < 0) {
+            startNs = nowNs;
+        }
+        if (lastBytesSampleNs >= 0 && nowNs > lastBytesSampleNs) {
+            bytesPerSecond = (totalBytes - bytesWritten) * 1000000000L / (nowNs - lastBytesSampleNs);
+        }
+        bytesWritten = totalBytes;
+        lastBytesSampleNs = nowNs;
+    }
+
+    public synchronized void onEncoderStats(long droppedFrames, double averageLatencyMs, double maxLatencyMs) {
+        encoderDroppedFrames = droppedFrames;
+        encoderAverageLatencyMs = averageLatencyMs;
+        encoderMaxLatencyMs = maxLatencyMs;
+    }
+
+    public synchronized void onLatencyHistograms(LatencyHistogram writeLatency, LatencyHistogram syncLatency) {
+        if (writeLatency != null) {
+            this.writeLatency = writeLatency.copy();
+        }
+        if (syncLatency != null) {
+            this.syncLatency = syncLatency.copy();
+        }
+    }
+
+    // Copies the retained sensor timestamps oldest-first; out must be at
+    // least as large as the ring. Returns the number copied.
+    public synchronized int copyTimestamps(long[] out) {
+        int retained = (int) Math.min(frameCount, timestampsNs.length);
+        int start = (next - retained + timestampsNs.length) % timestampsNs.length;
+        for (int i = 0; i < retained; i++) {
+            out[i] = timestampsNs[(start + i) % timestampsNs.length];
+        }
+        return retained;
+    }
+
+    public synchronized Snapshot snapshot(long nowNs) {
+        long elapsedMs = startNs < 0 ? 0 : (nowNs - startNs) / 1000000L;
+        long spanNs = lastTimestampNs - firstTimestampNs;
+        double averageFps = frameCount > 1 && spanNs > 0 ? (frameCount - 1) * 1e9 / spanNs : 0;
+        return new Snapshot(elapsedMs, frameCount, droppedFrames, captureFailures, lostBuffers, maxGapNs / 1000L,
+                averageFps, bytesWritten, bytesPerSecond, encoderDroppedFrames, encoderAverageLatencyMs,
+                encoderMaxLatencyMs, writeLatency, syncLatency);
+    }
+
+    public Snapshot publish(long nowNs) {
+        Snapshot snapshot = snapshot(nowNs);
+        latest = snapshot;
+        return snapshot;
+    }
+}
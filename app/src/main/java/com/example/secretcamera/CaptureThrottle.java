@@ -0,0 +1,241 @@
+package com.example.secretcamera;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.MediaRecorder;
+import android.os.BatteryManager;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Range;
+import android.util.Size;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+// Feeds thermal status and battery state into a ThrottlePolicy and turns its
+// tiers into encoder profiles. The service asks for the next tier at each
+// segment boundary; every tier change it applies is appended to a CSV under
+// ThrottleReports so it can be lined up with the footage afterwards.
+public class CaptureThrottle {
+    private static final String TAG = "CaptureThrottle";
+    private static final long RECOVERY_MS = 120000;
+    private static final double ASPECT_TOLERANCE = 0.02;
+
+    public interface Listener {
+        // Main thread.
+        void onPressureChanged(int tier);
+    }
+
+    private final Context context;
+    private final PowerManager powerManager;
+    private final Listener listener;
+    private final ThrottlePolicy policy = new ThrottlePolicy(RECOVERY_MS);
+    private int thermalStatus;
+    private int batteryLevel = -1;
+    private boolean charging;
+    private int batteryTemperature;
+    private File reportFile;
+
+    private final PowerManager.OnThermalStatusChangedListener thermalListener = status -> {
+        synchronized (this) {
+            thermalStatus = status;
+        }
+        update();
+    };
+
+    private final BroadcastReceiver batteryReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (Intent.ACTION_BATTERY_CHANGED.equals(intent.getAction())) {
+                onBatteryChanged(intent);
+            }
+            update();
+        }
+    };
+
+    public CaptureThrottle(Context context, Listener listener) {
+        this.context = context;
+        this.powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        this.listener = listener;
+    }
+
+    // Main thread. The battery broadcast is sticky, so the current state is
+    // delivered straight away.
+    public void start() {
+        thermalStatus = powerManager.getCurrentThermalStatus();
+        powerManager.addThermalStatusListener(thermalListener);
+        IntentFilter filter = new IntentFilter(Intent.ACTION_BATTERY_CHANGED);
+        filter.addAction(PowerManager.ACTION_POWER_SAVE_MODE_CHANGED);
+        Intent battery = context.registerReceiver(batteryReceiver, filter);
+        if (battery != null) {
+            onBatteryChanged(battery);
+        }
+        update();
+    }
+
+    public void stop() {
+        powerManager.removeThermalStatusListener(thermalListener);
+        context.unregisterReceiver(batteryReceiver);
+    }
+
+    private synchronized void onBatteryChanged(Intent battery) {
+        int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, 100);
+        batteryLevel = level >= 0 && scale > 0 ? level * 100 / scale : -1;
+        charging = battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+        batteryTemperature = battery.getIntExtra(BatteryManager.EXTRA_TEMPERATURE, 0);
+    }
+
+    private void update() {
+        int tier;
+        synchronized (this) {
+            int previous = policy.getPressureTier();
+            tier = Math.max(ThrottlePolicy.tierForThermalStatus(thermalStatus),
+                    ThrottlePolicy.tierForBattery(batteryLevel, charging, batteryTemperature,
+                            powerManager.isPowerSaveMode()));
+            policy.onPressure(tier, SystemClock.elapsedRealtime());
+            if (tier == previous) {
+                return;
+            }
+            Log.d(TAG, "Pressure tier " + previous + " -> " + tier + " (" + describeConditions() + ")");
+        }
+        listener.onPressureChanged(tier);
+    }
+
+    public synchronized int nextTier() {
+        return policy.nextTier(SystemClock.elapsedRealtime());
+    }
+
+    public synchronized int getAppliedTier() {
+        return policy.getAppliedTier();
+    }
+
+    // Starts a new report for each recording; the tier carries over, since
+    // the conditions that caused it usually still hold.
+    public synchronized void onRecordingStarted(int tier, File firstFile, EncoderProfile profile) {
+        policy.onApplied(tier, SystemClock.elapsedRealtime());
+        reportFile = null;
+        if (tier != ThrottlePolicy.TIER_FULL) {
+            appendTransition(ThrottlePolicy.TIER_FULL, tier, firstFile, profile);
+        }
+    }
+
+    public synchronized void onTierApplied(int tier, File firstFile, EncoderProfile profile) {
+        int previous = policy.getAppliedTier();
+        policy.onApplied(tier, SystemClock.elapsedRealtime());
+        Log.i(TAG, "Capture tier " + previous + " -> " + tier + " from " + (firstFile != null ? firstFile.getName() : "?")
+                + ": " + profile + " (" + describeConditions() + ")");
+        appendTransition(previous, tier, firstFile, profile);
+    }
+
+    private void appendTransition(int from, int to, File firstFile, EncoderProfile profile) {
+        if (reportFile == null) {
+            File reportDir = new File(context.getExternalFilesDir(null), "ThrottleReports");
+            if (!reportDir.exists() && !reportDir.mkdirs()) {
+                Log.d(TAG, "Failed to create report directory");
+                return;
+            }
+            String timeStamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault()).format(new Date());
+            reportFile = new File(reportDir, "throttle_" + timeStamp + ".csv");
+        }
+        boolean header = !reportFile.exists();
+        try (FileWriter writer = new FileWriter(reportFile, true)) {
+            if (header) {
+                writer.write("wall_time_ms,file,from_tier,to_tier,width,height,fps,video_bps,"
+                        + "thermal_status,battery_pct,charging,battery_tenths_c,power_save\n");
+            }
+            writer.write(String.format(Locale.US, "%d,%s,%d,%d,%d,%d,%d,%d,%d,%d,%b,%d,%b\n",
+                    System.currentTimeMillis(),
+                    firstFile != null ? firstFile.getName() : "",
+                    from,
+                    to,
+                    profile.getWidth(),
+                    profile.getHeight(),
+                    profile.getFrameRate(),
+                    profile.getVideoBitRate(),
+                    thermalStatus,
+                    batteryLevel,
+                    charging,
+                    batteryTemperature,
+                    powerManager.isPowerSaveMode()));
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing throttle report: " + e.getMessage());
+        }
+    }
+
+    private String describeConditions() {
+        return "thermal " + thermalStatus + ", battery " + batteryLevel + "%" + (charging ? " charging" : "")
+                + ", " + batteryTemperature / 10.0 + "C" + (powerManager.isPowerSaveMode() ? ", power save" : "");
+    }
+
+    // The resolution tier picks the largest recorder size the camera offers
+    // within the reduced height and the same aspect ratio; without one the
+    // size is kept.
+    public static EncoderProfile profileFor(EncoderProfile base, int tier, CameraCharacteristics characteristics) {
+        if (tier == ThrottlePolicy.TIER_FULL) {
+            return base;
+        }
+        int width = base.getWidth();
+        int height = base.getHeight();
+        if (ThrottlePolicy.reducesResolution(tier) && characteristics != null) {
+            Size size = findReducedSize(characteristics, width, height, ThrottlePolicy.maxHeightFor(tier, height));
+            if (size != null) {
+                width = size.getWidth();
+                height = size.getHeight();
+            }
+        }
+        int frameRate = ThrottlePolicy.frameRateFor(tier, base.getFrameRate());
+        int videoBitRate = ThrottlePolicy.bitRateFor(tier, base.getVideoBitRate(), base.getFrameRate(),
+                (long) base.getWidth() * base.getHeight(), (long) width * height);
+        return new EncoderProfile(base.getPreset(), width, height, frameRate, videoBitRate, base.getVideoEncoder(),
+                base.getAudioBitRate(), base.getAudioSampleRate());
+    }
+
+    static Size findReducedSize(CameraCharacteristics characteristics, int width, int height, int maxHeight) {
+        StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        if (map == null) {
+            return null;
+        }
+        double aspect = (double) width / height;
+        Size best = null;
+        for (Size size : map.getOutputSizes(MediaRecorder.class)) {
+            if (size.getHeight() > maxHeight
+                    || Math.abs((double) size.getWidth() / size.getHeight() - aspect) > ASPECT_TOLERANCE) {
+                continue;
+            }
+            if (best == null || size.getHeight() > best.getHeight()) {
+                best = size;
+            }
+        }
+        return best;
+    }
+
+    // The closest AE range that does not exceed the frame rate, preferring a
+    // fixed one; null if the camera has none that low.
+    public static Range<Integer> findFpsRange(CameraCharacteristics characteristics, int frameRate) {
+        Range<Integer>[] ranges = characteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+        if (ranges == null) {
+            return null;
+        }
+        Range<Integer> best = null;
+        for (Range<Integer> range : ranges) {
+            if (range.getUpper() > frameRate) {
+                continue;
+            }
+            if (best == null || range.getUpper() > best.getUpper()
+                    || range.getUpper().equals(best.getUpper()) && range.getLower() > best.getLower()) {
+                best = range;
+            }
+        }
+        return best;
+    }
+}
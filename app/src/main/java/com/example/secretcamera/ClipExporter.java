@@ -0,0 +1,300 @@
+package com.example.secretcamera;
+
+import android.content.Context;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+// Copies encoded samples from one or more adjacent recordings into a single
+// MP4 without decoding anything. The cut-in moves back to the previous video
+// keyframe so the export starts on a decodable frame. Samples stream one at a
+// time through a single reused buffer, so memory does not depend on the range
+// and the time taken depends only on the bytes copied.
+public class ClipExporter {
+    private static final String TAG = "ClipExporter";
+    private static final String EXPORT_PREFIX = "EXP_";
+    private static final int MIN_BUFFER_BYTES = 1024 * 1024;
+    private static final long PROGRESS_INTERVAL_US = 1000000;
+
+    public interface Listener {
+        // Called on the exporting thread.
+        void onProgress(long exportedUs, long totalUs);
+    }
+
+    private volatile boolean cancelled;
+
+    public static File newExportFile(Context context) throws IOException {
+        File directory = new File(context.getExternalFilesDir(null), "Exports");
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Failed to create export directory");
+        }
+        String timeStamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault()).format(new Date());
+        File file = new File(directory, EXPORT_PREFIX + timeStamp + RecordingFileNames.EXTENSION);
+        for (int i = 1; file.exists(); i++) {
+            file = new File(directory, EXPORT_PREFIX + timeStamp + "_" + i + RecordingFileNames.EXTENSION);
+        }
+        return file;
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    // Blocking. The range is on the timeline of the sources played back to
+    // back; Long.MAX_VALUE as endUs exports to the end of the last source.
+    // Returns the exported duration. The output only appears once complete.
+    public long export(List<File> sources, long startUs, long endUs, File output, Listener listener)
+            throws IOException {
+        File tempFile = new File(output.getParentFile(), output.getName() + ".tmp");
+        MediaMuxer muxer = null;
+        boolean muxerStarted = false;
+        try {
+            Session session = new Session(startUs, endUs, listener);
+            for (File source : sources) {
+                if (session.reachedEnd) {
+                    break;
+                }
+                MediaExtractor extractor = new MediaExtractor();
+                try {
+                    extractor.setDataSource(source.getAbsolutePath());
+                    if (muxer == null) {
+                        muxer = new MediaMuxer(tempFile.getAbsolutePath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+                    }
+                    session.attach(extractor, source, muxer);
+                    if (!muxerStarted) {
+                        muxer.start();
+                        muxerStarted = true;
+                    }
+                    session.copy(extractor, muxer);
+                } finally {
+                    extractor.release();
+                }
+            }
+            if (session.baseUs < 0 || session.samples == 0) {
+                throw new IOException("Nothing to export in the selected range");
+            }
+            muxer.stop();
+            muxerStarted = false;
+            if (!tempFile.renameTo(output)) {
+                throw new IOException("Failed to commit " + output.getName());
+            }
+            long exportedUs = session.lastOutputUs;
+            Log.d(TAG, "Exported " + exportedUs / 1000 + "ms from " + sources.size() + " file(s) to "
+                    + output.getName());
+            return exportedUs;
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            throw new IOException("Export failed: " + e.getMessage(), e);
+        } finally {
+            if (muxer != null) {
+                try {
+                    if (muxerStarted) {
+                        muxer.stop();
+                    }
+                } catch (IllegalStateException e) {
+                    Log.d(TAG, "Muxer had no samples");
+                }
+                muxer.release();
+            }
+            if (tempFile.exists() && !tempFile.delete()) {
+                Log.d(TAG, "Failed to delete " + tempFile.getName());
+            }
+        }
+    }
+
+    // State carried across sources: output tracks, the running timeline
+    // offset and the reusable sample buffer.
+    private class Session {
+        final long startUs;
+        final long endUs;
+        final Listener listener;
+        final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(MIN_BUFFER_BYTES);
+        MediaFormat videoFormat;
+        boolean hasAudio;
+        int videoOut = -1;
+        int audioOut = -1;
+        int videoIn;
+        int audioIn;
+        long offsetUs;
+        long sourceOriginUs;
+        long frameDurationUs;
+        long baseUs = -1;
+        long lastOutputUs;
+        long lastProgressUs = -PROGRESS_INTERVAL_US;
+        long samples;
+        boolean reachedEnd;
+
+        Session(long startUs, long endUs, Listener listener) {
+            this.startUs = startUs;
+            this.endUs = endUs;
+            this.listener = listener;
+        }
+
+        // Selects the source's tracks; the first source also defines the
+        // output tracks, and later ones must match it.
+        void attach(MediaExtractor extractor, File source, MediaMuxer muxer) throws IOException {
+            videoIn = -1;
+            audioIn = -1;
+            MediaFormat audioFormat = null;
+            MediaFormat sourceVideoFormat = null;
+            for (int i = 0; i < extractor.getTrackCount(); i++) {
+                MediaFormat format = extractor.getTrackFormat(i);
+                String mime = format.getString(MediaFormat.KEY_MIME);
+                if (mime == null) {
+                    continue;
+                }
+                if (mime.startsWith("video/") && videoIn < 0) {
+                    videoIn = i;
+                    sourceVideoFormat = format;
+                } else if (mime.startsWith("audio/") && audioIn < 0) {
+                    audioIn = i;
+                    audioFormat = format;
+                }
+            }
+            if (videoIn < 0) {
+                throw new IOException("No video track in " + source.getName());
+            }
+
+            if (videoFormat == null) {
+                videoFormat = sourceVideoFormat;
+                hasAudio = audioFormat != null;
+                int frameRate = videoFormat.containsKey(MediaFormat.KEY_FRAME_RATE)
+                        ? videoFormat.getInteger(MediaFormat.KEY_FRAME_RATE) : 30;
+                frameDurationUs = 1000000L / Math.max(frameRate, 1);
+                if (videoFormat.containsKey(MediaFormat.KEY_ROTATION)) {
+                    muxer.setOrientationHint(videoFormat.getInteger(MediaFormat.KEY_ROTATION));
+                }
+                videoOut = muxer.addTrack(videoFormat);
+                if (hasAudio) {
+                    audioOut = muxer.addTrack(audioFormat);
+                }
+            } else if (!compatible(videoFormat, sourceVideoFormat) || hasAudio != (audioFormat != null)) {
+                throw new IOException(source.getName() + " uses a different format and cannot be joined");
+            }
+
+            growBuffer(sourceVideoFormat);
+            growBuffer(audioFormat);
+            extractor.selectTrack(videoIn);
+            if (hasAudio) {
+                extractor.selectTrack(audioIn);
+            }
+            // Engines may not start every file at zero, so each source is
+            // rebased to its own first sample before it joins the timeline.
+            sourceOriginUs = Math.max(extractor.getSampleTime(), 0);
+        }
+
+        void copy(MediaExtractor extractor, MediaMuxer muxer) throws IOException {
+            if (baseUs < 0 && !seekToStart(extractor)) {
+                return;
+            }
+            long lastVideoLocalUs = -1;
+            while (!cancelled) {
+                int track = extractor.getSampleTrackIndex();
+                if (track < 0) {
+                    break;
+                }
+                long localUs = extractor.getSampleTime() - sourceOriginUs;
+                long timelineUs = offsetUs + localUs;
+                boolean video = track == videoIn;
+                if (timelineUs > endUs) {
+                    if (video) {
+                        reachedEnd = true;
+                        break;
+                    }
+                    extractor.advance();
+                    continue;
+                }
+                if (timelineUs < baseUs) {
+                    extractor.advance();
+                    continue;
+                }
+
+                long sampleSize = extractor.getSampleSize();
+                if (sampleSize > buffer.capacity()) {
+                    buffer = ByteBuffer.allocateDirect((int) sampleSize);
+                }
+                int size = extractor.readSampleData(buffer, 0);
+                if (size < 0) {
+                    break;
+                }
+                int flags = (extractor.getSampleFlags() & MediaExtractor.SAMPLE_FLAG_SYNC) != 0
+                        ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0;
+                info.set(0, size, timelineUs - baseUs, flags);
+                muxer.writeSampleData(video ? videoOut : audioOut, buffer, info);
+                samples++;
+                lastOutputUs = Math.max(lastOutputUs, info.presentationTimeUs);
+                if (video) {
+                    lastVideoLocalUs = Math.max(lastVideoLocalUs, localUs);
+                }
+                if (listener != null && lastOutputUs - lastProgressUs >= PROGRESS_INTERVAL_US) {
+                    lastProgressUs = lastOutputUs;
+                    listener.onProgress(lastOutputUs, endUs == Long.MAX_VALUE ? -1 : endUs - baseUs);
+                }
+                extractor.advance();
+            }
+            if (cancelled) {
+                throw new IOException("Export cancelled");
+            }
+            // The next segment continues one frame after this one's last frame.
+            offsetUs += lastVideoLocalUs + frameDurationUs;
+        }
+
+        // Returns false when the whole source lies before the range, in which
+        // case only the timeline offset moves on.
+        private boolean seekToStart(MediaExtractor extractor) {
+            MediaFormat format = extractor.getTrackFormat(videoIn);
+            long durationUs = format.containsKey(MediaFormat.KEY_DURATION)
+                    ? format.getLong(MediaFormat.KEY_DURATION) : -1;
+            if (durationUs > 0 && startUs >= offsetUs + durationUs) {
+                offsetUs += durationUs;
+                return false;
+            }
+            long localStartUs = Math.max(startUs - offsetUs, 0) + sourceOriginUs;
+            if (hasAudio) {
+                extractor.unselectTrack(audioIn);
+            }
+            extractor.seekTo(localStartUs, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+            long keyframeUs = Math.max(extractor.getSampleTime(), sourceOriginUs);
+            if (hasAudio) {
+                extractor.selectTrack(audioIn);
+                extractor.seekTo(keyframeUs, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+            }
+            baseUs = offsetUs + keyframeUs - sourceOriginUs;
+            return true;
+        }
+
+        private void growBuffer(MediaFormat format) {
+            if (format != null && format.containsKey(MediaFormat.KEY_MAX_INPUT_SIZE)) {
+                int maxInputSize = format.getInteger(MediaFormat.KEY_MAX_INPUT_SIZE);
+                if (maxInputSize > buffer.capacity()) {
+                    buffer = ByteBuffer.allocateDirect(maxInputSize);
+                }
+            }
+        }
+    }
+
+    // The joined track carries only the first file's parameter sets, so
+    // files from another encoder session must match them exactly.
+    private static boolean compatible(MediaFormat first, MediaFormat next) {
+        return first.getString(MediaFormat.KEY_MIME).equals(next.getString(MediaFormat.KEY_MIME))
+                && first.getInteger(MediaFormat.KEY_WIDTH) == next.getInteger(MediaFormat.KEY_WIDTH)
+                && first.getInteger(MediaFormat.KEY_HEIGHT) == next.getInteger(MediaFormat.KEY_HEIGHT)
+                && sameBuffer(first, next, "csd-0") && sameBuffer(first, next, "csd-1");
+    }
+
+    private static boolean sameBuffer(MediaFormat first, MediaFormat next, String key) {
+        ByteBuffer a = first.containsKey(key) ? first.getByteBuffer(key) : null;
+        ByteBuffer b = next.containsKey(key) ? next.getByteBuffer(key) : null;
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -0,0 +1,636 @@
+package com.example.secretcamera;
+
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.media.MediaRecorder;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Surface;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Records through MediaCodec encoders and a MediaMuxer owned by a dedicated
+// writer thread. Encoded output is copied into pooled buffers and queued, so
+// encoder buffers are returned immediately and flash stalls only back up the
+// queue. Files are switched at video key frames on a time or size schedule.
+// With fragmented output the writer emits moof/mdat pairs through
+// FragmentedMp4Writer instead, so stopping never has to build a full index.
+// Plain MP4 files are written through a RecordingOutput descriptor.
+public class CodecRecordingEngine implements RecordingEngine {
+    private static final String TAG = "CodecRecordingEngine";
+    private static final String AUDIO_MIME = MediaFormat.MIMETYPE_AUDIO_AAC;
+    private static final int TRACK_VIDEO = 0;
+    private static final int TRACK_AUDIO = 1;
+    private static final int I_FRAME_INTERVAL_SECONDS = 1;
+    private static final int POOL_SECONDS = 4;
+    // Key frames are several times the average frame; a slot that is still
+    // too small grows once and keeps its new size.
+    private static final int VIDEO_SLOT_FRAMES = 2;
+    private static final int MIN_VIDEO_SLOT_BYTES = 32 * 1024;
+    // An AAC-LC frame is at most 768 bytes per channel.
+    private static final int AUDIO_SLOT_BYTES = 2 * 1024;
+    private static final int AUDIO_FRAMES_PER_SECOND = 50;
+    private static final int TIMING_LOG_CAPACITY = 512;
+    private static final long STOP_TIMEOUT_MS = 3000;
+    private static final long CODEC_TIMEOUT_US = 10000;
+    private static final long FRAGMENT_DURATION_US = 2000000;
+
+    private final EncoderProfile profile;
+    private final long segmentDurationUs;
+    private final long segmentBytes;
+    private final boolean withAudio;
+    private final boolean realtimeTimestamps;
+    private final boolean fragmented;
+    private final RecordingOutput.Options outputOptions;
+    private final Listener listener;
+    private final EncodedSamplePool videoPool;
+    private final EncodedSamplePool audioPool;
+    private final FrameTimingLog videoTimings = new FrameTimingLog(TIMING_LOG_CAPACITY);
+    private final LinkedBlockingQueue<EncodedSamplePool.Sample> writeQueue = new LinkedBlockingQueue<>();
+    private final EncodedSamplePool.Sample endOfStreamMarker = new EncodedSamplePool.Sample(0);
+    private final CountDownLatch writerDone = new CountDownLatch(1);
+
+    private HandlerThread videoThread;
+    private volatile MediaCodec videoEncoder;
+    private Surface inputSurface;
+    private MediaCodec audioEncoder;
+    private AudioRecord audioRecord;
+    private Thread audioThread;
+    private Thread writerThread;
+    private volatile boolean audioRunning;
+    private volatile MediaFormat videoFormat;
+    private volatile MediaFormat audioFormat;
+    private volatile long segmentStartUs = -1;
+    private volatile boolean syncFrameRequested;
+    private volatile boolean splitRequested;
+    // Video encoder thread. Set when a video sample could not be queued;
+    // everything up to the next key frame is dropped too, since it would only
+    // decode as corruption.
+    private boolean awaitingKeyFrame;
+    private final AtomicLong droppedSamples = new AtomicLong();
+
+    // Owned by the audio thread.
+    private final MediaCodec.BufferInfo audioInfo = new MediaCodec.BufferInfo();
+
+    // Owned by the writer thread.
+    private final ArrayDeque<EncodedSamplePool.Sample> pendingUntilStart = new ArrayDeque<>();
+    private final MediaCodec.BufferInfo writeInfo = new MediaCodec.BufferInfo();
+    private MediaMuxer muxer;
+    private RecordingOutput muxerOutput;
+    private FragmentedMp4Writer fragmentWriter;
+    private int videoTrack = -1;
+    private int audioTrack = -1;
+    private File currentFile;
+    private long segmentBytesWritten;
+    // An output that failed to open ends the recording; later samples just go
+    // back to the pool.
+    private boolean outputFailed;
+
+    public CodecRecordingEngine(EncoderProfile profile, long segmentDurationUs, long segmentBytes,
+                                boolean withAudio, boolean realtimeTimestamps, boolean fragmented,
+                                RecordingOutput.Options outputOptions, Listener listener) {
+        this.profile = profile;
+        this.segmentDurationUs = segmentDurationUs;
+        this.segmentBytes = segmentBytes;
+        this.withAudio = withAudio;
+        this.realtimeTimestamps = realtimeTimestamps;
+        this.fragmented = fragmented;
+        this.outputOptions = outputOptions;
+        this.listener = listener;
+
+        int averageFrameBytes = profile.getVideoBitRate() / 8 / profile.getFrameRate();
+        videoPool = new EncodedSamplePool(profile.getFrameRate() * POOL_SECONDS,
+                Math.max(averageFrameBytes * VIDEO_SLOT_FRAMES, MIN_VIDEO_SLOT_BYTES));
+        audioPool = withAudio ? new EncodedSamplePool(AUDIO_FRAMES_PER_SECOND * POOL_SECONDS, AUDIO_SLOT_BYTES) : null;
+    }
+
+    public FrameTimingLog getVideoTimings() {
+        return videoTimings;
+    }
+
+    public int getQueueDepth() {
+        return writeQueue.size();
+    }
+
+    // Starts the next file at the next video key frame, asking the encoder
+    // for one now rather than waiting out the I-frame interval. Lets another
+    // recorder's segment boundaries drive this one's.
+    public void splitAtNextKeyFrame() {
+        splitRequested = true;
+        requestSyncFrame();
+    }
+
+    @Override
+    public Surface prepare(File outputFile, Surface persistentSurface) throws IOException {
+        currentFile = outputFile;
+
+        videoThread = new HandlerThread("CodecVideoEncoder");
+        videoThread.start();
+
+        MediaFormat format = MediaFormat.createVideoFormat(profile.getVideoMimeType(),
+                profile.getWidth(), profile.getHeight());
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, profile.getVideoBitRate());
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, profile.getFrameRate());
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, I_FRAME_INTERVAL_SECONDS);
+
+        videoEncoder = MediaCodec.createEncoderByType(profile.getVideoMimeType());
+        videoEncoder.setCallback(videoCallback, new Handler(videoThread.getLooper()));
+        videoEncoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        if (persistentSurface != null) {
+            // Not ours to release, so inputSurface stays null.
+            videoEncoder.setInputSurface(persistentSurface);
+        } else {
+            inputSurface = videoEncoder.createInputSurface();
+        }
+
+        if (withAudio) {
+            prepareAudio();
+        }
+        return persistentSurface != null ? persistentSurface : inputSurface;
+    }
+
+    private void prepareAudio() throws IOException {
+        int sampleRate = profile.getAudioSampleRate();
+        int minBufferSize = AudioRecord.getMinBufferSize(sampleRate, AudioFormat.CHANNEL_IN_MONO,
+                AudioFormat.ENCODING_PCM_16BIT);
+        try {
+            audioRecord = new AudioRecord(MediaRecorder.AudioSource.MIC, sampleRate, AudioFormat.CHANNEL_IN_MONO,
+                    AudioFormat.ENCODING_PCM_16BIT, Math.max(minBufferSize * 2, sampleRate / 5));
+        } catch (SecurityException e) {
+            throw new IOException("Microphone permission missing", e);
+        }
+        if (audioRecord.getState() != AudioRecord.STATE_INITIALIZED) {
+            throw new IOException("AudioRecord failed to initialize");
+        }
+
+        MediaFormat format = MediaFormat.createAudioFormat(AUDIO_MIME, sampleRate, 1);
+        format.setInteger(MediaFormat.KEY_AAC_PROFILE, MediaCodecInfo.CodecProfileLevel.AACObjectLC);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, profile.getAudioBitRate());
+        format.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, minBufferSize * 2);
+        audioEncoder = MediaCodec.createEncoderByType(AUDIO_MIME);
+        audioEncoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+    }
+
+    @Override
+    public void start() {
+        writerThread = new Thread(this::runWriter, "RecordingWriter");
+        writerThread.start();
+        videoEncoder.start();
+        if (withAudio) {
+            audioEncoder.start();
+            audioRecord.startRecording();
+            audioRunning = true;
+            audioThread = new Thread(this::runAudio, "CodecAudioEncoder");
+            audioThread.start();
+        }
+        listener.onSegmentStarted(currentFile);
+    }
+
+    @Override
+    public void stop() {
+        try {
+            videoEncoder.signalEndOfInputStream();
+        } catch (IllegalStateException e) {
+            Log.e(TAG, "Error signalling end of stream: " + e.getMessage());
+            writeQueue.add(endOfStreamMarker);
+        }
+        audioRunning = false;
+        try {
+            if (audioThread != null) {
+                audioThread.join(STOP_TIMEOUT_MS);
+            }
+            if (!writerDone.await(STOP_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                Log.e(TAG, "Timed out waiting for writer");
+                writerThread.interrupt();
+            }
+        } catch (InterruptedException e) {
+            Log.e(TAG, "Interrupted while stopping");
+        }
+        releaseCodecs();
+        Log.d(TAG, "Stopped: " + videoTimings.summary());
+    }
+
+    @Override
+    public void release() {
+        audioRunning = false;
+        if (writerThread != null) {
+            writerThread.interrupt();
+        }
+        releaseCodecs();
+    }
+
+    private void releaseCodecs() {
+        if (videoEncoder != null) {
+            try {
+                videoEncoder.stop();
+            } catch (IllegalStateException e) {
+                Log.d(TAG, "Video encoder was not running");
+            }
+            videoEncoder.release();
+            videoEncoder = null;
+        }
+        if (inputSurface != null) {
+            inputSurface.release();
+            inputSurface = null;
+        }
+        if (audioEncoder != null) {
+            try {
+                audioEncoder.stop();
+            } catch (IllegalStateException e) {
+                Log.d(TAG, "Audio encoder was not running");
+            }
+            audioEncoder.release();
+            audioEncoder = null;
+        }
+        if (audioRecord != null) {
+            if (audioRecord.getRecordingState() == AudioRecord.RECORDSTATE_RECORDING) {
+                audioRecord.stop();
+            }
+            audioRecord.release();
+            audioRecord = null;
+        }
+        if (videoThread != null) {
+            videoThread.quitSafely();
+            videoThread = null;
+        }
+    }
+
+    private final MediaCodec.Callback videoCallback = new MediaCodec.Callback() {
+        @Override
+        public void onInputBufferAvailable(@NonNull MediaCodec codec, int index) {
+        }
+
+        @Override
+        public void onOutputBufferAvailable(@NonNull MediaCodec codec, int index, @NonNull MediaCodec.BufferInfo info) {
+            if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                codec.releaseOutputBuffer(index, false);
+                writeQueue.add(endOfStreamMarker);
+                return;
+            }
+            if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0 && info.size > 0) {
+                ByteBuffer buffer = codec.getOutputBuffer(index);
+                if (buffer != null) {
+                    buffer.limit(info.offset + info.size);
+                    buffer.position(info.offset);
+                    queueSample(buffer, info.size, TRACK_VIDEO, info.presentationTimeUs, info.flags);
+                }
+                requestSyncFrameIfDue(codec, info.presentationTimeUs);
+            }
+            codec.releaseOutputBuffer(index, false);
+        }
+
+        @Override
+        public void onError(@NonNull MediaCodec codec, @NonNull MediaCodec.CodecException e) {
+            listener.onError("Video encoder error: " + e.getMessage());
+        }
+
+        @Override
+        public void onOutputFormatChanged(@NonNull MediaCodec codec, @NonNull MediaFormat format) {
+            videoFormat = format;
+        }
+    };
+
+    // Ask for a key frame one frame ahead of a time-based boundary so the
+    // writer can switch files exactly on schedule rather than waiting for the
+    // next periodic I-frame.
+    private void requestSyncFrameIfDue(MediaCodec codec, long presentationTimeUs) {
+        long start = segmentStartUs;
+        if (segmentDurationUs <= 0 || start < 0 || syncFrameRequested) {
+            return;
+        }
+        long frameDurationUs = 1000000L / profile.getFrameRate();
+        if (presentationTimeUs - start >= segmentDurationUs - frameDurationUs) {
+            Bundle parameters = new Bundle();
+            parameters.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+            codec.setParameters(parameters);
+            syncFrameRequested = true;
+        }
+    }
+
+    // Encoder callback or audio thread. A full pool means the writer is a
+    // whole pool behind; the sample is dropped and, for video, so is the rest
+    // of the GOP while the encoder is asked for a fresh key frame.
+    private void queueSample(ByteBuffer buffer, int size, int track, long presentationTimeUs, int flags) {
+        boolean video = track == TRACK_VIDEO;
+        boolean keyFrame = (flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0;
+        EncodedSamplePool.Sample sample = null;
+        if (!video || keyFrame || !awaitingKeyFrame) {
+            sample = poolFor(track).obtain(buffer, size, track, presentationTimeUs, flags, System.nanoTime());
+        }
+        if (sample == null) {
+            long dropped = droppedSamples.incrementAndGet();
+            Log.e(TAG, "Dropped " + (video ? "video" : "audio") + " sample at " + presentationTimeUs + "us ("
+                    + (video && awaitingKeyFrame && !keyFrame ? "waiting for key frame" : "pool exhausted")
+                    + ", " + dropped + " dropped)");
+            if (video) {
+                videoTimings.onFrameDropped();
+                if (!awaitingKeyFrame) {
+                    awaitingKeyFrame = true;
+                    requestSyncFrame();
+                }
+            }
+            return;
+        }
+        if (video && keyFrame) {
+            awaitingKeyFrame = false;
+        }
+        writeQueue.add(sample);
+    }
+
+    private void requestSyncFrame() {
+        MediaCodec codec = videoEncoder;
+        if (codec == null) {
+            return;
+        }
+        Bundle parameters = new Bundle();
+        parameters.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+        try {
+            codec.setParameters(parameters);
+        } catch (IllegalStateException e) {
+            Log.d(TAG, "Encoder not running, no key frame requested");
+        }
+    }
+
+    private EncodedSamplePool poolFor(int track) {
+        return track == TRACK_VIDEO ? videoPool : audioPool;
+    }
+
+    private void recycle(EncodedSamplePool.Sample sample) {
+        poolFor(sample.track).recycle(sample);
+    }
+
+    // Audio timestamps are derived from the sample count on the same clock the
+    // camera stamps frames with, so both tracks share a timeline in the muxer.
+    private void runAudio() {
+        int sampleRate = profile.getAudioSampleRate();
+        long startUs = (realtimeTimestamps ? SystemClock.elapsedRealtimeNanos() : System.nanoTime()) / 1000;
+        long framesRead = 0;
+
+        while (audioRunning) {
+            int inputIndex = audioEncoder.dequeueInputBuffer(CODEC_TIMEOUT_US);
+            if (inputIndex >= 0) {
+                ByteBuffer input = audioEncoder.getInputBuffer(inputIndex);
+                int read = input != null ? audioRecord.read(input, input.capacity()) : 0;
+                long presentationTimeUs = startUs + framesRead * 1000000L / sampleRate;
+                if (read > 0) {
+                    framesRead += read / 2;
+                }
+                audioEncoder.queueInputBuffer(inputIndex, 0, Math.max(read, 0), presentationTimeUs, 0);
+            }
+            drainAudio(false);
+        }
+
+        int inputIndex = audioEncoder.dequeueInputBuffer(CODEC_TIMEOUT_US);
+        if (inputIndex >= 0) {
+            long presentationTimeUs = startUs + framesRead * 1000000L / sampleRate;
+            audioEncoder.queueInputBuffer(inputIndex, 0, 0, presentationTimeUs, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+            drainAudio(true);
+        } else {
+            writeQueue.add(endOfStreamMarker);
+        }
+    }
+
+    private void drainAudio(boolean untilEndOfStream) {
+        MediaCodec.BufferInfo info = audioInfo;
+        while (true) {
+            int index = audioEncoder.dequeueOutputBuffer(info, untilEndOfStream ? CODEC_TIMEOUT_US : 0);
+            if (index == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                if (!untilEndOfStream) {
+                    return;
+                }
+            } else if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                audioFormat = audioEncoder.getOutputFormat();
+            } else if (index >= 0) {
+                if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    audioEncoder.releaseOutputBuffer(index, false);
+                    writeQueue.add(endOfStreamMarker);
+                    return;
+                }
+                if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0 && info.size > 0) {
+                    ByteBuffer buffer = audioEncoder.getOutputBuffer(index);
+                    if (buffer != null) {
+                        buffer.limit(info.offset + info.size);
+                        buffer.position(info.offset);
+                        queueSample(buffer, info.size, TRACK_AUDIO, info.presentationTimeUs, info.flags);
+                    }
+                }
+                audioEncoder.releaseOutputBuffer(index, false);
+            }
+        }
+    }
+
+    private void runWriter() {
+        int expectedStreams = withAudio ? 2 : 1;
+        int endedStreams = 0;
+        try {
+            while (endedStreams < expectedStreams) {
+                EncodedSamplePool.Sample sample = writeQueue.take();
+                if (sample == endOfStreamMarker) {
+                    endedStreams++;
+                } else {
+                    handleSample(sample);
+                }
+            }
+        } catch (InterruptedException e) {
+            Log.e(TAG, "Writer interrupted");
+        } finally {
+            finishFile();
+            writerDone.countDown();
+        }
+    }
+
+    private void handleSample(EncodedSamplePool.Sample sample) {
+        if (outputFailed) {
+            recycle(sample);
+            return;
+        }
+        if (!isOutputOpen()) {
+            boolean formatsReady = videoFormat != null && (!withAudio || audioFormat != null);
+            if (!formatsReady) {
+                pendingUntilStart.add(sample);
+                return;
+            }
+            if (!openMuxer(currentFile)) {
+                recycle(sample);
+                return;
+            }
+            while (!pendingUntilStart.isEmpty()) {
+                writeSample(pendingUntilStart.poll());
+            }
+        }
+        writeSample(sample);
+    }
+
+    private void writeSample(EncodedSamplePool.Sample sample) {
+        boolean video = sample.track == TRACK_VIDEO;
+        boolean keyFrame = (sample.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0;
+
+        if (video && segmentStartUs < 0) {
+            if (!keyFrame) {
+                recycle(sample);
+                return;
+            }
+            segmentStartUs = sample.presentationTimeUs;
+        } else if (video && keyFrame && (splitRequested || isSegmentFull(sample.presentationTimeUs))) {
+            rotate(sample.presentationTimeUs);
+        }
+
+        int track = video ? videoTrack : audioTrack;
+        if (fragmentWriter != null) {
+            try {
+                fragmentWriter.writeSampleData(track, sample.getData(), sample.size, sample.presentationTimeUs, keyFrame);
+                segmentBytesWritten += sample.size;
+            } catch (IOException e) {
+                Log.e(TAG, "Error writing fragment: " + e.getMessage());
+            }
+        } else if (muxer != null) {
+            writeInfo.set(0, sample.size, sample.presentationTimeUs, keyFrame ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0);
+            try {
+                muxer.writeSampleData(track, sample.getData(), writeInfo);
+                segmentBytesWritten += sample.size;
+            } catch (IllegalStateException | IllegalArgumentException e) {
+                Log.e(TAG, "Error writing sample: " + e.getMessage());
+            }
+        }
+        if (video) {
+            videoTimings.onFrameWritten(sample.presentationTimeUs, sample.dequeuedAtNs, System.nanoTime(),
+                    writeQueue.size());
+        }
+        recycle(sample);
+    }
+
+    private boolean isSegmentFull(long presentationTimeUs) {
+        return (segmentDurationUs > 0 && presentationTimeUs - segmentStartUs >= segmentDurationUs)
+                || (segmentBytes > 0 && segmentBytesWritten >= segmentBytes);
+    }
+
+    private void rotate(long presentationTimeUs) {
+        splitRequested = false;
+        File next = listener.onNextOutputFile();
+        if (next == null) {
+            return;
+        }
+        finishFile();
+        if (openMuxer(next)) {
+            segmentStartUs = presentationTimeUs;
+            syncFrameRequested = false;
+            listener.onSegmentStarted(next);
+        }
+    }
+
+    private boolean isOutputOpen() {
+        return muxer != null || fragmentWriter != null;
+    }
+
+    // Reports a failure once; the samples held back for it are returned.
+    private boolean openMuxer(File file) {
+        boolean opened = fragmented ? openFragmentWriter(file) : openMp4Muxer(file);
+        if (!opened) {
+            outputFailed = true;
+            while (!pendingUntilStart.isEmpty()) {
+                recycle(pendingUntilStart.poll());
+            }
+        }
+        return opened;
+    }
+
+    private boolean openMp4Muxer(File file) {
+        try {
+            muxerOutput = RecordingOutput.open(file, outputOptions);
+            muxer = new MediaMuxer(muxerOutput.getFileDescriptor(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+            videoTrack = muxer.addTrack(videoFormat);
+            audioTrack = withAudio ? muxer.addTrack(audioFormat) : -1;
+            muxer.start();
+            currentFile = file;
+            segmentBytesWritten = 0;
+            return true;
+        } catch (IOException | IllegalStateException e) {
+            listener.onError("Error opening muxer for " + file.getName() + ": " + e.getMessage());
+            if (muxer != null) {
+                muxer.release();
+            }
+            muxer = null;
+            if (muxerOutput != null) {
+                muxerOutput.close();
+                muxerOutput = null;
+            }
+            return false;
+        }
+    }
+
+    private boolean openFragmentWriter(File file) {
+        try {
+            fragmentWriter = new FragmentedMp4Writer(file, FRAGMENT_DURATION_US);
+            videoTrack = fragmentWriter.addTrack(toFragmentTrack(videoFormat));
+            audioTrack = withAudio ? fragmentWriter.addTrack(toFragmentTrack(audioFormat)) : -1;
+            fragmentWriter.start();
+            currentFile = file;
+            segmentBytesWritten = 0;
+            return true;
+        } catch (IOException | RuntimeException e) {
+            listener.onError("Error opening " + file.getName() + ": " + e.getMessage());
+            if (fragmentWriter != null) {
+                fragmentWriter.release();
+            }
+            fragmentWriter = null;
+            return false;
+        }
+    }
+
+    private static FragmentedMp4Writer.TrackFormat toFragmentTrack(MediaFormat format) {
+        String mime = format.getString(MediaFormat.KEY_MIME);
+        if (MediaFormat.MIMETYPE_VIDEO_HEVC.equals(mime)) {
+            return FragmentedMp4Writer.TrackFormat.hevc(format.getInteger(MediaFormat.KEY_WIDTH),
+                    format.getInteger(MediaFormat.KEY_HEIGHT), format.getByteBuffer("csd-0"));
+        }
+        if (MediaFormat.MIMETYPE_VIDEO_AVC.equals(mime)) {
+            return FragmentedMp4Writer.TrackFormat.avc(format.getInteger(MediaFormat.KEY_WIDTH),
+                    format.getInteger(MediaFormat.KEY_HEIGHT), format.getByteBuffer("csd-0"),
+                    format.getByteBuffer("csd-1"));
+        }
+        return FragmentedMp4Writer.TrackFormat.aac(format.getInteger(MediaFormat.KEY_SAMPLE_RATE),
+                format.getInteger(MediaFormat.KEY_CHANNEL_COUNT), format.getByteBuffer("csd-0"));
+    }
+
+    private void finishFile() {
+        if (fragmentWriter != null) {
+            try {
+                fragmentWriter.stop();
+            } catch (IOException e) {
+                Log.e(TAG, "Error finishing " + currentFile.getName() + ": " + e.getMessage());
+            }
+            fragmentWriter = null;
+        } else if (muxer != null) {
+            try {
+                muxer.stop();
+            } catch (IllegalStateException e) {
+                Log.e(TAG, "Error finishing " + currentFile.getName() + ": " + e.getMessage());
+            }
+            muxer.release();
+            muxer = null;
+            muxerOutput.close();
+            muxerOutput = null;
+        } else {
+            return;
+        }
+        Log.d(TAG, "Finished " + currentFile.getName() + ": " + videoTimings.summary());
+        listener.onFileFinished(currentFile);
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.secretcamera;
+
+import android.content.Context;
+import android.graphics.SurfaceTexture;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.params.OutputConfiguration;
+import android.hardware.camera2.params.SessionConfiguration;
+import android.os.Build;
+import android.util.Log;
+import android.util.Size;
+
+import androidx.annotation.NonNull;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+// Works out whether a back and a front camera can stream at the same time.
+// Only the combinations the device lists in getConcurrentCameraIds are
+// guaranteed; everything else is reported with a reason the UI can show.
+public final class DualCameraSupport {
+    private static final String TAG = "DualCameraSupport";
+    // The concurrent stream combinations are only guaranteed up to 720p.
+    private static final int CONCURRENT_MAX_HEIGHT = 720;
+
+    private DualCameraSupport() {
+    }
+
+    public static final class Result {
+        public final String backId;
+        public final String frontId;
+        // Null when the pair can be used.
+        public final String reason;
+
+        private Result(String backId, String frontId, String reason) {
+            this.backId = backId;
+            this.frontId = frontId;
+            this.reason = reason;
+        }
+
+        public boolean isSupported() {
+            return reason == null;
+        }
+    }
+
+    public static Result findPair(Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.R) {
+            return new Result(null, null, "concurrent cameras need Android 11");
+        }
+        CameraManager cameraManager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+        CameraCapabilityCache cache = CameraCapabilityCache.getInstance(context);
+        try {
+            Set<Set<String>> combinations = cameraManager.getConcurrentCameraIds();
+            if (combinations.isEmpty()) {
+                return new Result(null, null, "this device cannot stream two cameras at once");
+            }
+            for (Set<String> combination : combinations) {
+                String backId = null;
+                String frontId = null;
+                for (String cameraId : combination) {
+                    Integer facing = cache.getCharacteristics(cameraId).get(CameraCharacteristics.LENS_FACING);
+                    if (facing == null) {
+                        continue;
+                    }
+                    if (facing == CameraCharacteristics.LENS_FACING_BACK && backId == null) {
+                        backId = cameraId;
+                    } else if (facing == CameraCharacteristics.LENS_FACING_FRONT && frontId == null) {
+                        frontId = cameraId;
+                    }
+                }
+                if (backId != null && frontId != null) {
+                    return new Result(backId, frontId, null);
+                }
+            }
+            return new Result(null, null, "no front and back camera pair can stream together");
+        } catch (CameraAccessException e) {
+            Log.e(TAG, "Error reading concurrent cameras: " + e.getMessage());
+            return new Result(null, null, "camera unavailable (" + e.getMessage() + ")");
+        }
+    }
+
+    // Asks the HAL whether the pair can record at these sizes together.
+    // Returns null if so, otherwise the reason.
+    public static String checkStreams(Context context, Result pair, Size backSize, Size frontSize) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.R) {
+            return "concurrent cameras need Android 11";
+        }
+        CameraManager cameraManager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+        Map<String, SessionConfiguration> configurations = new HashMap<>();
+        configurations.put(pair.backId, recordConfiguration(context, backSize));
+        configurations.put(pair.frontId, recordConfiguration(context, frontSize));
+        try {
+            if (cameraManager.isConcurrentSessionConfigurationSupported(configurations)) {
+                return null;
+            }
+            return "cameras cannot record " + backSize + " and " + frontSize + " together";
+        } catch (CameraAccessException | IllegalArgumentException e) {
+            Log.e(TAG, "Error checking concurrent streams: " + e.getMessage());
+            return "stream check failed (" + e.getMessage() + ")";
+        }
+    }
+
+    // Keeps the aspect ratio and the bits per pixel; a profile that is already
+    // small enough, or a camera without a smaller size, is left alone.
+    public static EncoderProfile limitForConcurrent(EncoderProfile base, CameraCharacteristics characteristics) {
+        if (base.getHeight() <= CONCURRENT_MAX_HEIGHT || characteristics == null) {
+            return base;
+        }
+        Size size = CaptureThrottle.findReducedSize(characteristics, base.getWidth(), base.getHeight(),
+                CONCURRENT_MAX_HEIGHT);
+        if (size == null) {
+            return base;
+        }
+        int videoBitRate = ThrottlePolicy.bitRateFor(ThrottlePolicy.TIER_FULL, base.getVideoBitRate(),
+                base.getFrameRate(), (long) base.getWidth() * base.getHeight(),
+                (long) size.getWidth() * size.getHeight());
+        return new EncoderProfile(base.getPreset(), size.getWidth(), size.getHeight(), base.getFrameRate(),
+                videoBitRate, base.getVideoEncoder(), base.getAudioBitRate(), base.getAudioSampleRate());
+    }
+
+    // Encoder surfaces are PRIVATE-format like a SurfaceTexture, which is one
+    // of the classes a deferred output configuration accepts.
+    private static SessionConfiguration recordConfiguration(Context context, Size size) {
+        OutputConfiguration output = new OutputConfiguration(size, SurfaceTexture.class);
+        return new SessionConfiguration(SessionConfiguration.SESSION_REGULAR, Collections.singletonList(output),
+                context.getMainExecutor(), new CameraCaptureSession.StateCallback() {
+                    @Override
+                    public void onConfigured(@NonNull CameraCaptureSession session) {
+                    }
+
+                    @Override
+                    public void onConfigureFailed(@NonNull CameraCaptureSession session) {
+                    }
+                });
+    }
+}
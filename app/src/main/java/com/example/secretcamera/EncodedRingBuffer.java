@@ -0,0 +1,135 @@
+package com.example.secretcamera;
+
+import java.nio.ByteBuffer;
+
+// Fixed-size store of the most recent encoded access units. All memory is
+// allocated up front; write() never allocates and evicts the oldest samples to
+// make room, so the buffer always holds the latest window of the stream.
+public class EncodedRingBuffer {
+    public static final int FLAG_KEY_FRAME = 1;
+
+    public interface SampleSink {
+        void onSample(ByteBuffer data, int size, long presentationTimeUs, int flags);
+    }
+
+    private final ByteBuffer data;
+    private final ByteBuffer readView;
+    private final int[] offsets;
+    private final int[] sizes;
+    private final long[] timestampsUs;
+    private final int[] flags;
+
+    private int head;
+    private int count;
+    private int writePosition;
+    // Set after a sample was rejected; later samples that are not key frames
+    // may depend on it and are rejected as well.
+    private boolean awaitingKeyFrame;
+
+    public EncodedRingBuffer(int capacityBytes, int maxSamples) {
+        data = ByteBuffer.allocateDirect(capacityBytes);
+        readView = data.duplicate();
+        offsets = new int[maxSamples];
+        sizes = new int[maxSamples];
+        timestampsUs = new long[maxSamples];
+        flags = new int[maxSamples];
+    }
+
+    public int getCapacityBytes() {
+        return data.capacity();
+    }
+
+    public synchronized int getSampleCount() {
+        return count;
+    }
+
+    public synchronized long getBufferedDurationUs() {
+        if (count == 0) {
+            return 0;
+        }
+        return timestampsUs[(head + count - 1) % offsets.length] - timestampsUs[head];
+    }
+
+    // Copies size bytes from source's current position. Returns false if the
+    // sample was dropped: it is larger than the whole buffer, or it follows a
+    // dropped sample and is not a key frame. The buffered history is kept
+    // either way, so a drain still replays it.
+    public synchronized boolean write(ByteBuffer source, int size, long presentationTimeUs, int sampleFlags) {
+        boolean keyFrame = (sampleFlags & FLAG_KEY_FRAME) != 0;
+        if (size > data.capacity() || awaitingKeyFrame && !keyFrame) {
+            awaitingKeyFrame = true;
+            return false;
+        }
+        awaitingKeyFrame = false;
+
+        int offset = writePosition;
+        if (offset + size > data.capacity()) {
+            // Samples are stored contiguously; skip the unusable tail and wrap.
+            evictRange(offset, data.capacity());
+            offset = 0;
+        }
+        evictRange(offset, offset + size);
+        if (count == offsets.length) {
+            evictOldest();
+        }
+
+        int sourceLimit = source.limit();
+        int sourcePosition = source.position();
+        source.limit(sourcePosition + size);
+        data.position(offset);
+        data.put(source);
+        source.limit(sourceLimit);
+        source.position(sourcePosition);
+
+        int slot = (head + count) % offsets.length;
+        offsets[slot] = offset;
+        sizes[slot] = size;
+        timestampsUs[slot] = presentationTimeUs;
+        flags[slot] = sampleFlags;
+        count++;
+        writePosition = offset + size;
+        return true;
+    }
+
+    // Replays the buffered samples oldest-first, starting at the first key
+    // frame so the output is decodable. Returns the number of samples replayed.
+    public synchronized int drainTo(SampleSink sink) {
+        int start = 0;
+        while (start < count && (flags[(head + start) % offsets.length] & FLAG_KEY_FRAME) == 0) {
+            start++;
+        }
+        int replayed = 0;
+        for (int i = start; i < count; i++) {
+            int slot = (head + i) % offsets.length;
+            readView.limit(offsets[slot] + sizes[slot]);
+            readView.position(offsets[slot]);
+            sink.onSample(readView, sizes[slot], timestampsUs[slot], flags[slot]);
+            replayed++;
+        }
+        clear();
+        return replayed;
+    }
+
+    public synchronized void clear() {
+        head = 0;
+        count = 0;
+        writePosition = 0;
+    }
+
+    // Bytes are laid out in write order, so the samples occupying the region
+    // ahead of the write position are always the oldest ones.
+    private void evictRange(int from, int to) {
+        while (count > 0) {
+            int start = offsets[head];
+            if (start >= to || start + sizes[head] <= from) {
+                return;
+            }
+            evictOldest();
+        }
+    }
+
+    private void evictOldest() {
+        head = (head + 1) % offsets.length;
+        count--;
+    }
+}
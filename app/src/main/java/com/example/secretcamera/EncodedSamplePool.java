@@ -0,0 +1,78 @@
+package com.example.secretcamera;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+// Fixed set of reusable direct buffers for handing encoded samples from the
+// codec callback threads to the writer thread. Encoder output buffers can be
+// released as soon as the bytes are copied, and nothing is allocated per frame
+// unless a sample outgrows its slot.
+public class EncodedSamplePool {
+
+    public static class Sample {
+        ByteBuffer data;
+        public int track;
+        public int size;
+        public long presentationTimeUs;
+        public int flags;
+        public long dequeuedAtNs;
+
+        Sample(int capacity) {
+            data = ByteBuffer.allocateDirect(capacity);
+        }
+
+        public ByteBuffer getData() {
+            return data;
+        }
+    }
+
+    private final ArrayBlockingQueue<Sample> free;
+    private final int slotCapacity;
+
+    public EncodedSamplePool(int slots, int slotCapacity) {
+        this.slotCapacity = slotCapacity;
+        free = new ArrayBlockingQueue<>(slots);
+        for (int i = 0; i < slots; i++) {
+            free.add(new Sample(slotCapacity));
+        }
+    }
+
+    public int getSlotCapacity() {
+        return slotCapacity;
+    }
+
+    public int getFreeCount() {
+        return free.size();
+    }
+
+    // Returns null when every slot is in flight, i.e. the writer has fallen
+    // behind by the whole pool; the caller counts that as a dropped sample.
+    public Sample obtain(ByteBuffer source, int size, int track, long presentationTimeUs, int flags, long nowNs) {
+        Sample sample = free.poll();
+        if (sample == null) {
+            return null;
+        }
+        if (sample.data.capacity() < size) {
+            sample.data = ByteBuffer.allocateDirect(size);
+        }
+        int sourceLimit = source.limit();
+        int sourcePosition = source.position();
+        source.limit(sourcePosition + size);
+        sample.data.clear();
+        sample.data.put(source);
+        sample.data.flip();
+        source.limit(sourceLimit);
+        source.position(sourcePosition);
+
+        sample.track = track;
+        sample.size = size;
+        sample.presentationTimeUs = presentationTimeUs;
+        sample.flags = flags;
+        sample.dequeuedAtNs = nowNs;
+        return sample;
+    }
+
+    public void recycle(Sample sample) {
+        free.offer(sample);
+    }
+}
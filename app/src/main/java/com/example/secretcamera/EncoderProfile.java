@@ -0,0 +1,102 @@
+package com.example.secretcamera;
+
+import android.media.MediaRecorder;
+
+public class EncoderProfile {
+    private final String preset;
+    private final int width;
+    private final int height;
+    private final int frameRate;
+    private final int videoBitRate;
+    private final int videoEncoder;
+    private final int audioBitRate;
+    private final int audioSampleRate;
+    // Frames captured per second for a time-lapse; 0 for real time.
+    private final double captureRate;
+
+    public EncoderProfile(String preset, int width, int height, int frameRate, int videoBitRate,
+                          int videoEncoder, int audioBitRate, int audioSampleRate) {
+        this(preset, width, height, frameRate, videoBitRate, videoEncoder, audioBitRate, audioSampleRate, 0);
+    }
+
+    private EncoderProfile(String preset, int width, int height, int frameRate, int videoBitRate,
+                           int videoEncoder, int audioBitRate, int audioSampleRate, double captureRate) {
+        this.preset = preset;
+        this.width = width;
+        this.height = height;
+        this.frameRate = frameRate;
+        this.videoBitRate = videoBitRate;
+        this.videoEncoder = videoEncoder;
+        this.audioBitRate = audioBitRate;
+        this.audioSampleRate = audioSampleRate;
+        this.captureRate = captureRate;
+    }
+
+    // Plays back at playbackFrameRate what was captured at captureRate, with
+    // the bits per frame kept and no audio track.
+    public EncoderProfile withTimeLapse(double captureRate, int playbackFrameRate) {
+        int bitRate = (int) ((long) videoBitRate * playbackFrameRate / frameRate);
+        return new EncoderProfile(preset, width, height, playbackFrameRate, bitRate, videoEncoder, 0,
+                audioSampleRate, captureRate);
+    }
+
+    public String getPreset() {
+        return preset;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getFrameRate() {
+        return frameRate;
+    }
+
+    public int getVideoBitRate() {
+        return videoBitRate;
+    }
+
+    public int getVideoEncoder() {
+        return videoEncoder;
+    }
+
+    public String getVideoMimeType() {
+        return videoEncoder == MediaRecorder.VideoEncoder.HEVC ? "video/hevc" : "video/avc";
+    }
+
+    public int getAudioBitRate() {
+        return audioBitRate;
+    }
+
+    public int getAudioSampleRate() {
+        return audioSampleRate;
+    }
+
+    public boolean isTimeLapse() {
+        return captureRate > 0;
+    }
+
+    public double getCaptureRate() {
+        return captureRate;
+    }
+
+    // Bits written per second of wall-clock recording. A time-lapse writes
+    // one playback frame per captured frame.
+    public long getRecordedBitRate() {
+        if (isTimeLapse()) {
+            return (long) (videoBitRate * captureRate / frameRate);
+        }
+        return (long) videoBitRate + audioBitRate;
+    }
+
+    @Override
+    public String toString() {
+        return preset + " " + width + "x" + height + "@" + frameRate + " "
+                + getVideoMimeType() + " " + (videoBitRate / 1000) + "kbps"
+                + (isTimeLapse() ? " time-lapse " + captureRate + "fps" : "");
+    }
+}
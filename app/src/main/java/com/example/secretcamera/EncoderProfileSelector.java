@@ -0,0 +1,165 @@
+package com.example.secretcamera;
+
+import android.media.CamcorderProfile;
+import android.media.EncoderProfiles;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.media.MediaRecorder;
+import android.os.Build;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class EncoderProfileSelector {
+    private static final String TAG = "EncoderProfileSelector";
+    private static final String MIME_AVC = "video/avc";
+    private static final String MIME_HEVC = "video/hevc";
+    // HEVC reaches the same visual quality at roughly 60% of the AVC bitrate.
+    static final double HEVC_BITRATE_FACTOR = 0.6;
+
+    private static final Map<String, EncoderProfile> cache = new HashMap<>();
+
+    private EncoderProfileSelector() {
+    }
+
+    // Results depend only on the camera, the preset and the device's codecs, so
+    // they are cached to keep codec enumeration off the start path after the
+    // first recording.
+    public static synchronized EncoderProfile select(String cameraId, String preset) {
+        String key = cameraId + "|" + preset;
+        EncoderProfile profile = cache.get(key);
+        if (profile == null) {
+            profile = build(cameraId, preset);
+            cache.put(key, profile);
+            Log.d(TAG, "Selected " + profile + " for camera " + cameraId);
+        }
+        return profile;
+    }
+
+    private static EncoderProfile build(String cameraId, String preset) {
+        int width;
+        int height;
+        int frameRate;
+        double bitsPerPixel;
+        int audioBitRate;
+        int quality;
+        switch (preset) {
+            case RecordingSettings.PRESET_STORAGE_SAVER:
+                width = 1280;
+                height = 720;
+                frameRate = 24;
+                bitsPerPixel = 0.06;
+                audioBitRate = 64000;
+                quality = CamcorderProfile.QUALITY_720P;
+                break;
+            case RecordingSettings.PRESET_HIGH_QUALITY:
+                width = 1920;
+                height = 1080;
+                frameRate = 30;
+                bitsPerPixel = 0.12;
+                audioBitRate = 128000;
+                quality = CamcorderProfile.QUALITY_1080P;
+                break;
+            default:
+                width = 1280;
+                height = 720;
+                frameRate = 30;
+                bitsPerPixel = 0.09;
+                audioBitRate = 96000;
+                quality = CamcorderProfile.QUALITY_720P;
+                break;
+        }
+
+        int profileBitRateCap = Integer.MAX_VALUE;
+        int audioSampleRate = 48000;
+        // EncoderProfiles only exist from Android 12; before that the legacy
+        // CamcorderProfile describes the same quality. Only when neither has
+        // the requested quality does the preset drop to 720p.
+        EncoderProfiles.VideoProfile videoProfile = findVideoProfile(cameraId, quality);
+        CamcorderProfile legacy = videoProfile == null ? findLegacyProfile(cameraId, quality) : null;
+        if (videoProfile == null && legacy == null && quality != CamcorderProfile.QUALITY_720P) {
+            quality = CamcorderProfile.QUALITY_720P;
+            width = 1280;
+            height = 720;
+            videoProfile = findVideoProfile(cameraId, quality);
+            legacy = videoProfile == null ? findLegacyProfile(cameraId, quality) : null;
+        }
+        if (videoProfile != null) {
+            width = videoProfile.getWidth();
+            height = videoProfile.getHeight();
+            frameRate = Math.min(frameRate, videoProfile.getFrameRate());
+            profileBitRateCap = videoProfile.getBitrate();
+        } else if (legacy != null) {
+            width = legacy.videoFrameWidth;
+            height = legacy.videoFrameHeight;
+            frameRate = Math.min(frameRate, legacy.videoFrameRate);
+            profileBitRateCap = legacy.videoBitRate;
+            audioSampleRate = legacy.audioSampleRate;
+        }
+
+        MediaCodecInfo.VideoCapabilities hevc = findHardwareEncoder(MIME_HEVC, width, height, frameRate);
+        int videoEncoder = hevc != null ? MediaRecorder.VideoEncoder.HEVC : MediaRecorder.VideoEncoder.H264;
+        MediaCodecInfo.VideoCapabilities capabilities = hevc != null
+                ? hevc : findHardwareEncoder(MIME_AVC, width, height, frameRate);
+
+        double bitRate = (double) width * height * frameRate * bitsPerPixel;
+        if (hevc != null) {
+            bitRate *= HEVC_BITRATE_FACTOR;
+        }
+        int videoBitRate = (int) Math.min(bitRate, profileBitRateCap);
+        if (capabilities != null) {
+            videoBitRate = capabilities.getBitrateRange().clamp(videoBitRate);
+        }
+
+        return new EncoderProfile(preset, width, height, frameRate, videoBitRate, videoEncoder,
+                audioBitRate, audioSampleRate);
+    }
+
+    private static EncoderProfiles.VideoProfile findVideoProfile(String cameraId, int quality) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.S) {
+            return null;
+        }
+        try {
+            EncoderProfiles profiles = CamcorderProfile.getAll(cameraId, quality);
+            if (profiles != null && !profiles.getVideoProfiles().isEmpty()) {
+                return profiles.getVideoProfiles().get(0);
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Error reading encoder profiles: " + e.getMessage());
+        }
+        return null;
+    }
+
+    private static CamcorderProfile findLegacyProfile(String cameraId, int quality) {
+        try {
+            int id = Integer.parseInt(cameraId);
+            if (CamcorderProfile.hasProfile(id, quality)) {
+                return CamcorderProfile.get(id, quality);
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Error reading camcorder profile: " + e.getMessage());
+        }
+        return null;
+    }
+
+    static MediaCodecInfo.VideoCapabilities findHardwareEncoder(String mimeType, int width, int height, int frameRate) {
+        MediaCodecList codecList = new MediaCodecList(MediaCodecList.REGULAR_CODECS);
+        for (MediaCodecInfo info : codecList.getCodecInfos()) {
+            if (!info.isEncoder() || !info.isHardwareAccelerated()) {
+                continue;
+            }
+            for (String type : info.getSupportedTypes()) {
+                if (!type.equalsIgnoreCase(mimeType)) {
+                    continue;
+                }
+                MediaCodecInfo.VideoCapabilities capabilities =
+                        info.getCapabilitiesForType(type).getVideoCapabilities();
+                if (capabilities != null && capabilities.areSizeAndRateSupported(width, height, frameRate)) {
+                    return capabilities;
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,683 @@
+package com.example.secretcamera;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Writes ISO BMFF fragmented MP4: an up-front moov with empty sample tables,
+// then self-contained moof/mdat pairs. Everything before the last completed
+// fragment stays playable if the process dies, and stopping only has to
+// flush the fragment in progress and patch two duration fields.
+public class FragmentedMp4Writer {
+    private static final int MOVIE_TIMESCALE = 1000;
+    private static final int VIDEO_TIMESCALE = 90000;
+    private static final int SAMPLE_FLAGS_SYNC = 0x02000000;
+    private static final int SAMPLE_FLAGS_NON_SYNC = 0x01010000;
+    private static final int TRUN_FLAGS = 0x000701;
+    private static final int TFHD_DEFAULT_BASE_IS_MOOF = 0x020000;
+
+    public static final class TrackFormat {
+        final boolean video;
+        final int width;
+        final int height;
+        final int timescale;
+        final int defaultSampleDuration;
+        final byte[] sampleEntry;
+
+        private TrackFormat(boolean video, int width, int height, int timescale, int defaultSampleDuration,
+                            byte[] sampleEntry) {
+            this.video = video;
+            this.width = width;
+            this.height = height;
+            this.timescale = timescale;
+            this.defaultSampleDuration = defaultSampleDuration;
+            this.sampleEntry = sampleEntry;
+        }
+
+        // csd0 and csd1 are the Annex-B SPS and PPS, as MediaCodec reports them.
+        public static TrackFormat avc(int width, int height, ByteBuffer csd0, ByteBuffer csd1) {
+            byte[] sps = splitNalUnits(csd0).get(0);
+            byte[] pps = splitNalUnits(csd1).get(0);
+            BoxBuffer config = new BoxBuffer();
+            int avcC = config.begin("avcC");
+            config.put8(1);
+            config.put8(sps[1]);
+            config.put8(sps[2]);
+            config.put8(sps[3]);
+            config.put8(0xFF);
+            config.put8(0xE1);
+            config.put16(sps.length);
+            config.putBytes(sps);
+            config.put8(1);
+            config.put16(pps.length);
+            config.putBytes(pps);
+            config.end(avcC);
+            return new TrackFormat(true, width, height, VIDEO_TIMESCALE, VIDEO_TIMESCALE / 30,
+                    visualSampleEntry("avc1", width, height, config.toByteArray()));
+        }
+
+        // csd0 holds the VPS, SPS and PPS back to back in Annex-B form.
+        public static TrackFormat hevc(int width, int height, ByteBuffer csd0) {
+            List<byte[]> nalUnits = splitNalUnits(csd0);
+            byte[] profileTierLevel = new byte[12];
+            for (byte[] nal : nalUnits) {
+                if (hevcNalType(nal) == 33) {
+                    byte[] sps = removeEmulationPrevention(nal);
+                    System.arraycopy(sps, 3, profileTierLevel, 0, Math.min(12, sps.length - 3));
+                }
+            }
+
+            BoxBuffer config = new BoxBuffer();
+            int hvcC = config.begin("hvcC");
+            config.put8(1);
+            config.putBytes(profileTierLevel);
+            config.put16(0xF000);
+            config.put8(0xFC);
+            config.put8(0xFD);
+            config.put8(0xF8);
+            config.put8(0xF8);
+            config.put16(0);
+            config.put8(0x0F);
+            config.put8(nalUnits.size());
+            for (byte[] nal : nalUnits) {
+                config.put8(0x80 | hevcNalType(nal));
+                config.put16(1);
+                config.put16(nal.length);
+                config.putBytes(nal);
+            }
+            config.end(hvcC);
+            return new TrackFormat(true, width, height, VIDEO_TIMESCALE, VIDEO_TIMESCALE / 30,
+                    visualSampleEntry("hvc1", width, height, config.toByteArray()));
+        }
+
+        // csd0 is the AAC AudioSpecificConfig.
+        public static TrackFormat aac(int sampleRate, int channelCount, ByteBuffer csd0) {
+            byte[] audioSpecificConfig = new byte[csd0.remaining()];
+            csd0.duplicate().get(audioSpecificConfig);
+
+            BoxBuffer entry = new BoxBuffer();
+            int mp4a = entry.begin("mp4a");
+            entry.putZeros(6);
+            entry.put16(1);
+            entry.putZeros(8);
+            entry.put16(channelCount);
+            entry.put16(16);
+            entry.putZeros(4);
+            entry.put32(sampleRate << 16);
+
+            int esds = entry.beginFull("esds", 0, 0);
+            entry.put8(0x03);
+            entry.put8(3 + 2 + 13 + 2 + audioSpecificConfig.length + 3);
+            entry.put16(0);
+            entry.put8(0);
+            entry.put8(0x04);
+            entry.put8(13 + 2 + audioSpecificConfig.length);
+            entry.put8(0x40);
+            entry.put8(0x15);
+            entry.putZeros(3 + 4 + 4);
+            entry.put8(0x05);
+            entry.put8(audioSpecificConfig.length);
+            entry.putBytes(audioSpecificConfig);
+            entry.put8(0x06);
+            entry.put8(1);
+            entry.put8(0x02);
+            entry.end(esds);
+            entry.end(mp4a);
+            return new TrackFormat(false, 0, 0, sampleRate, 1024, entry.toByteArray());
+        }
+
+        private static byte[] visualSampleEntry(String type, int width, int height, byte[] config) {
+            BoxBuffer entry = new BoxBuffer();
+            int box = entry.begin(type);
+            entry.putZeros(6);
+            entry.put16(1);
+            entry.putZeros(16);
+            entry.put16(width);
+            entry.put16(height);
+            entry.put32(0x00480000);
+            entry.put32(0x00480000);
+            entry.put32(0);
+            entry.put16(1);
+            entry.putZeros(32);
+            entry.put16(0x0018);
+            entry.put16(0xFFFF);
+            entry.putBytes(config);
+            entry.end(box);
+            return entry.toByteArray();
+        }
+    }
+
+    private static final class Track {
+        final TrackFormat format;
+        final int id;
+        final BoxBuffer data = new BoxBuffer();
+        long[] presentationTimesUs = new long[64];
+        int[] sizes = new int[64];
+        boolean[] keyFrames = new boolean[64];
+        int sampleCount;
+        long lastDuration;
+        long endTimeUs = -1;
+
+        Track(TrackFormat format, int id) {
+            this.format = format;
+            this.id = id;
+            lastDuration = format.defaultSampleDuration;
+        }
+
+        void add(long presentationTimeUs, int size, boolean keyFrame) {
+            if (sampleCount == sizes.length) {
+                int grown = sizes.length * 2;
+                presentationTimesUs = Arrays.copyOf(presentationTimesUs, grown);
+                sizes = Arrays.copyOf(sizes, grown);
+                keyFrames = Arrays.copyOf(keyFrames, grown);
+            }
+            presentationTimesUs[sampleCount] = presentationTimeUs;
+            sizes[sampleCount] = size;
+            keyFrames[sampleCount] = keyFrame;
+            sampleCount++;
+            endTimeUs = Math.max(endTimeUs, presentationTimeUs);
+        }
+
+        long toTimescale(long timeUs) {
+            return timeUs * format.timescale / 1000000L;
+        }
+
+        void clear() {
+            sampleCount = 0;
+            data.reset();
+        }
+    }
+
+    private final FileChannel channel;
+    private final long fragmentDurationUs;
+    private final List<Track> tracks = new ArrayList<>();
+    private final BoxBuffer header = new BoxBuffer();
+    private int fragmentTrigger = -1;
+    private long originUs = -1;
+    private long fragmentStartUs = -1;
+    private int sequenceNumber;
+    private long mvhdDurationOffset;
+    private long mehdDurationOffset;
+    private long bytesWritten;
+    private boolean started;
+
+    public FragmentedMp4Writer(File file, long fragmentDurationUs) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.setLength(0);
+        channel = randomAccessFile.getChannel();
+        this.fragmentDurationUs = fragmentDurationUs;
+    }
+
+    public int addTrack(TrackFormat format) {
+        if (started) {
+            throw new IllegalStateException("Tracks must be added before start");
+        }
+        tracks.add(new Track(format, tracks.size() + 1));
+        if (format.video && fragmentTrigger < 0) {
+            fragmentTrigger = tracks.size() - 1;
+        }
+        return tracks.size() - 1;
+    }
+
+    public void start() throws IOException {
+        if (fragmentTrigger < 0) {
+            fragmentTrigger = 0;
+        }
+        header.reset();
+        writeFileType(header);
+        writeMovie(header);
+        writeBuffer(header);
+        started = true;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    // Fragments are cut before a key frame of the first video track once the
+    // target duration has elapsed, so every fragment starts decodable.
+    public void writeSampleData(int trackIndex, ByteBuffer data, int size, long presentationTimeUs,
+                                boolean keyFrame) throws IOException {
+        Track track = tracks.get(trackIndex);
+        if (originUs < 0) {
+            originUs = presentationTimeUs;
+        }
+        boolean boundary = trackIndex == fragmentTrigger && (keyFrame || !track.format.video);
+        if (boundary && fragmentStartUs >= 0 && presentationTimeUs - fragmentStartUs >= fragmentDurationUs) {
+            flushFragment();
+        }
+        if (fragmentStartUs < 0) {
+            fragmentStartUs = presentationTimeUs;
+        }
+
+        int written = track.format.video
+                ? appendLengthPrefixed(data, size, track.data)
+                : appendRaw(data, size, track.data);
+        track.add(presentationTimeUs, written, keyFrame);
+    }
+
+    public void stop() throws IOException {
+        try {
+            flushFragment();
+            long endUs = originUs;
+            for (Track track : tracks) {
+                endUs = Math.max(endUs, track.endTimeUs);
+            }
+            long durationMs = originUs < 0 ? 0 : (endUs - originUs) / 1000L;
+            ByteBuffer patch = ByteBuffer.allocate(8);
+            patch.putInt(0, (int) durationMs);
+            patch.limit(4);
+            channel.write(patch, mvhdDurationOffset);
+            patch.clear();
+            patch.putLong(0, durationMs);
+            channel.write(patch, mehdDurationOffset);
+        } finally {
+            channel.close();
+        }
+    }
+
+    public void release() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Nothing useful to do for an abandoned file.
+        }
+    }
+
+    private void flushFragment() throws IOException {
+        boolean hasSamples = false;
+        for (Track track : tracks) {
+            hasSamples |= track.sampleCount > 0;
+        }
+        if (!hasSamples) {
+            return;
+        }
+
+        header.reset();
+        int[] dataOffsetPositions = new int[tracks.size()];
+        int moof = header.begin("moof");
+        int mfhd = header.beginFull("mfhd", 0, 0);
+        header.put32(++sequenceNumber);
+        header.end(mfhd);
+        for (int i = 0; i < tracks.size(); i++) {
+            Track track = tracks.get(i);
+            if (track.sampleCount == 0) {
+                continue;
+            }
+            int traf = header.begin("traf");
+            int tfhd = header.beginFull("tfhd", 0, TFHD_DEFAULT_BASE_IS_MOOF);
+            header.put32(track.id);
+            header.end(tfhd);
+            int tfdt = header.beginFull("tfdt", 1, 0);
+            header.put64(track.toTimescale(Math.max(0, track.presentationTimesUs[0] - originUs)));
+            header.end(tfdt);
+            int trun = header.beginFull("trun", 0, TRUN_FLAGS);
+            header.put32(track.sampleCount);
+            dataOffsetPositions[i] = header.size();
+            header.put32(0);
+            for (int s = 0; s < track.sampleCount; s++) {
+                long duration;
+                if (s + 1 < track.sampleCount) {
+                    duration = track.toTimescale(track.presentationTimesUs[s + 1] - originUs)
+                            - track.toTimescale(track.presentationTimesUs[s] - originUs);
+                    if (duration > 0) {
+                        track.lastDuration = duration;
+                    }
+                } else {
+                    duration = track.lastDuration;
+                }
+                header.put32((int) Math.max(duration, 1));
+                header.put32(track.sizes[s]);
+                header.put32(track.keyFrames[s] || !track.format.video ? SAMPLE_FLAGS_SYNC : SAMPLE_FLAGS_NON_SYNC);
+            }
+            header.end(trun);
+            header.end(traf);
+        }
+        header.end(moof);
+
+        int moofSize = header.size();
+        int dataSize = 0;
+        int offset = moofSize + 8;
+        for (int i = 0; i < tracks.size(); i++) {
+            Track track = tracks.get(i);
+            if (track.sampleCount == 0) {
+                continue;
+            }
+            header.set32(dataOffsetPositions[i], offset);
+            offset += track.data.size();
+            dataSize += track.data.size();
+        }
+        header.put32(8 + dataSize);
+        header.putFourCc("mdat");
+        writeBuffer(header);
+        for (Track track : tracks) {
+            if (track.sampleCount > 0) {
+                writeBuffer(track.data);
+            }
+            track.clear();
+        }
+        fragmentStartUs = -1;
+    }
+
+    private void writeBuffer(BoxBuffer buffer) throws IOException {
+        ByteBuffer out = buffer.asByteBuffer();
+        while (out.hasRemaining()) {
+            bytesWritten += channel.write(out);
+        }
+    }
+
+    private void writeFileType(BoxBuffer out) {
+        int ftyp = out.begin("ftyp");
+        out.putFourCc("isom");
+        out.put32(0x200);
+        out.putFourCc("isom");
+        out.putFourCc("iso6");
+        out.putFourCc("mp41");
+        out.end(ftyp);
+    }
+
+    private void writeMovie(BoxBuffer out) {
+        int moov = out.begin("moov");
+        int mvhd = out.beginFull("mvhd", 0, 0);
+        out.put32(0);
+        out.put32(0);
+        out.put32(MOVIE_TIMESCALE);
+        mvhdDurationOffset = bytesWritten + out.size();
+        out.put32(0);
+        out.put32(0x00010000);
+        out.put16(0x0100);
+        out.putZeros(10);
+        writeMatrix(out);
+        out.putZeros(24);
+        out.put32(tracks.size() + 1);
+        out.end(mvhd);
+
+        for (Track track : tracks) {
+            writeTrack(out, track);
+        }
+
+        int mvex = out.begin("mvex");
+        int mehd = out.beginFull("mehd", 1, 0);
+        mehdDurationOffset = bytesWritten + out.size();
+        out.put64(0);
+        out.end(mehd);
+        for (Track track : tracks) {
+            int trex = out.beginFull("trex", 0, 0);
+            out.put32(track.id);
+            out.put32(1);
+            out.put32(0);
+            out.put32(0);
+            out.put32(0);
+            out.end(trex);
+        }
+        out.end(mvex);
+        out.end(moov);
+    }
+
+    private void writeTrack(BoxBuffer out, Track track) {
+        TrackFormat format = track.format;
+        int trak = out.begin("trak");
+        int tkhd = out.beginFull("tkhd", 0, 0x3);
+        out.put32(0);
+        out.put32(0);
+        out.put32(track.id);
+        out.put32(0);
+        out.put32(0);
+        out.putZeros(8);
+        out.put16(0);
+        out.put16(0);
+        out.put16(format.video ? 0 : 0x0100);
+        out.put16(0);
+        writeMatrix(out);
+        out.put32(format.width << 16);
+        out.put32(format.height << 16);
+        out.end(tkhd);
+
+        int mdia = out.begin("mdia");
+        int mdhd = out.beginFull("mdhd", 0, 0);
+        out.put32(0);
+        out.put32(0);
+        out.put32(format.timescale);
+        out.put32(0);
+        out.put16(0x55C4);
+        out.put16(0);
+        out.end(mdhd);
+
+        int hdlr = out.beginFull("hdlr", 0, 0);
+        out.put32(0);
+        out.putFourCc(format.video ? "vide" : "soun");
+        out.putZeros(12);
+        out.putBytes((format.video ? "VideoHandler" : "SoundHandler").getBytes(StandardCharsets.US_ASCII));
+        out.put8(0);
+        out.end(hdlr);
+
+        int minf = out.begin("minf");
+        if (format.video) {
+            int vmhd = out.beginFull("vmhd", 0, 1);
+            out.putZeros(8);
+            out.end(vmhd);
+        } else {
+            int smhd = out.beginFull("smhd", 0, 0);
+            out.putZeros(4);
+            out.end(smhd);
+        }
+        int dinf = out.begin("dinf");
+        int dref = out.beginFull("dref", 0, 0);
+        out.put32(1);
+        int url = out.beginFull("url ", 0, 1);
+        out.end(url);
+        out.end(dref);
+        out.end(dinf);
+
+        int stbl = out.begin("stbl");
+        int stsd = out.beginFull("stsd", 0, 0);
+        out.put32(1);
+        out.putBytes(format.sampleEntry);
+        out.end(stsd);
+        for (String empty : new String[]{"stts", "stsc", "stco"}) {
+            int box = out.beginFull(empty, 0, 0);
+            out.put32(0);
+            out.end(box);
+        }
+        int stsz = out.beginFull("stsz", 0, 0);
+        out.put32(0);
+        out.put32(0);
+        out.end(stsz);
+        out.end(stbl);
+        out.end(minf);
+        out.end(mdia);
+        out.end(trak);
+    }
+
+    private static void writeMatrix(BoxBuffer out) {
+        out.put32(0x00010000);
+        out.put32(0);
+        out.put32(0);
+        out.put32(0);
+        out.put32(0x00010000);
+        out.put32(0);
+        out.put32(0);
+        out.put32(0);
+        out.put32(0x40000000);
+    }
+
+    private static int appendRaw(ByteBuffer data, int size, BoxBuffer out) {
+        int start = data.position();
+        for (int i = 0; i < size; i++) {
+            out.put8(data.get(start + i));
+        }
+        return size;
+    }
+
+    // MediaCodec emits Annex-B start codes; MP4 wants each NAL unit prefixed
+    // with its 4-byte length instead.
+    private static int appendLengthPrefixed(ByteBuffer data, int size, BoxBuffer out) {
+        int start = data.position();
+        int end = start + size;
+        int nalStart = findNalStart(data, start, end);
+        if (nalStart < 0) {
+            return appendRaw(data, size, out);
+        }
+        int written = 0;
+        while (nalStart < end) {
+            int next = findStartCode(data, nalStart, end);
+            int nalEnd = next < 0 ? end : next;
+            while (nalEnd > nalStart && data.get(nalEnd - 1) == 0 && next >= 0) {
+                nalEnd--;
+            }
+            out.put32(nalEnd - nalStart);
+            for (int i = nalStart; i < nalEnd; i++) {
+                out.put8(data.get(i));
+            }
+            written += 4 + nalEnd - nalStart;
+            if (next < 0) {
+                break;
+            }
+            nalStart = next + 3;
+        }
+        return written;
+    }
+
+    private static int findNalStart(ByteBuffer data, int start, int end) {
+        int startCode = findStartCode(data, start, end);
+        return startCode == start || (startCode == start + 1 && data.get(start) == 0) ? startCode + 3 : -1;
+    }
+
+    // Returns the index of the next 0x000001 sequence, or -1.
+    private static int findStartCode(ByteBuffer data, int from, int end) {
+        for (int i = from; i + 2 < end; i++) {
+            if (data.get(i) == 0 && data.get(i + 1) == 0 && data.get(i + 2) == 1) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static List<byte[]> splitNalUnits(ByteBuffer csd) {
+        List<byte[]> nalUnits = new ArrayList<>();
+        BoxBuffer scratch = new BoxBuffer();
+        ByteBuffer view = csd.duplicate();
+        appendLengthPrefixed(view, view.remaining(), scratch);
+        ByteBuffer prefixed = scratch.asByteBuffer();
+        while (prefixed.remaining() >= 4) {
+            byte[] nal = new byte[prefixed.getInt()];
+            prefixed.get(nal);
+            nalUnits.add(nal);
+        }
+        return nalUnits;
+    }
+
+    private static int hevcNalType(byte[] nal) {
+        return (nal[0] >> 1) & 0x3F;
+    }
+
+    private static byte[] removeEmulationPrevention(byte[] nal) {
+        byte[] out = new byte[nal.length];
+        int length = 0;
+        int zeros = 0;
+        for (byte b : nal) {
+            if (zeros >= 2 && b == 3) {
+                zeros = 0;
+                continue;
+            }
+            zeros = b == 0 ? zeros + 1 : 0;
+            out[length++] = b;
+        }
+        return Arrays.copyOf(out, length);
+    }
+
+    // Growable big-endian buffer with helpers for nested box headers.
+    static final class BoxBuffer {
+        private byte[] bytes = new byte[1024];
+        private int size;
+
+        int size() {
+            return size;
+        }
+
+        void reset() {
+            size = 0;
+        }
+
+        int begin(String type) {
+            int start = size;
+            put32(0);
+            putFourCc(type);
+            return start;
+        }
+
+        int beginFull(String type, int version, int flags) {
+            int start = begin(type);
+            put32((version << 24) | flags);
+            return start;
+        }
+
+        void end(int start) {
+            set32(start, size - start);
+        }
+
+        void put8(int value) {
+            ensure(1);
+            bytes[size++] = (byte) value;
+        }
+
+        void put16(int value) {
+            put8(value >> 8);
+            put8(value);
+        }
+
+        void put32(int value) {
+            ensure(4);
+            set32(size, value);
+            size += 4;
+        }
+
+        void put64(long value) {
+            put32((int) (value >>> 32));
+            put32((int) value);
+        }
+
+        void putZeros(int count) {
+            ensure(count);
+            Arrays.fill(bytes, size, size + count, (byte) 0);
+            size += count;
+        }
+
+        void putFourCc(String type) {
+            putBytes(type.getBytes(StandardCharsets.US_ASCII));
+        }
+
+        void putBytes(byte[] source) {
+            ensure(source.length);
+            System.arraycopy(source, 0, bytes, size, source.length);
+            size += source.length;
+        }
+
+        void set32(int position, int value) {
+            bytes[position] = (byte) (value >>> 24);
+            bytes[position + 1] = (byte) (value >>> 16);
+            bytes[position + 2] = (byte) (value >>> 8);
+            bytes[position + 3] = (byte) value;
+        }
+
+        ByteBuffer asByteBuffer() {
+            return ByteBuffer.wrap(bytes, 0, size);
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+            }
+        }
+    }
+}
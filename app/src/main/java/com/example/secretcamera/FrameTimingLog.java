@@ -0,0 +1,82 @@
+package com.example.secretcamera;
+
+import java.util.Locale;
+
+// Per-frame timestamps for the most recent frames through an encoder/writer
+// pipeline, kept in preallocated arrays so recording a frame never allocates.
+public class FrameTimingLog {
+    private final long[] presentationTimesUs;
+    private final long[] dequeuedAtNs;
+    private final long[] writtenAtNs;
+    private int next;
+    private long frameCount;
+    private long droppedCount;
+    private long totalWriteLatencyNs;
+    private long maxWriteLatencyNs;
+    private int maxQueueDepth;
+    private final LatencyHistogram writeLatency = new LatencyHistogram();
+
+    public FrameTimingLog(int capacity) {
+        presentationTimesUs = new long[capacity];
+        dequeuedAtNs = new long[capacity];
+        writtenAtNs = new long[capacity];
+    }
+
+    public synchronized void onFrameWritten(long presentationTimeUs, long dequeuedNs, long writtenNs, int queueDepth) {
+        presentationTimesUs[next] = presentationTimeUs;
+        dequeuedAtNs[next] = dequeuedNs;
+        writtenAtNs[next] = writtenNs;
+        next = (next + 1) % presentationTimesUs.length;
+        frameCount++;
+
+        long latency = writtenNs - dequeuedNs;
+        totalWriteLatencyNs += latency;
+        maxWriteLatencyNs = Math.max(maxWriteLatencyNs, latency);
+        writeLatency.record(latency);
+        maxQueueDepth = Math.max(maxQueueDepth, queueDepth);
+    }
+
+    public synchronized void onFrameDropped() {
+        droppedCount++;
+    }
+
+    public synchronized long getFrameCount() {
+        return frameCount;
+    }
+
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    public synchronized double getAverageWriteLatencyMs() {
+        return frameCount == 0 ? 0 : totalWriteLatencyNs / 1e6 / frameCount;
+    }
+
+    public synchronized double getMaxWriteLatencyMs() {
+        return maxWriteLatencyNs / 1e6;
+    }
+
+    public LatencyHistogram getWriteLatencyHistogram() {
+        return writeLatency;
+    }
+
+    // Copies the retained frames oldest-first into the given arrays, which must
+    // be at least the log's capacity. Returns the number of frames copied.
+    public synchronized int snapshot(long[] presentationTimesOut, long[] dequeuedOut, long[] writtenOut) {
+        int retained = (int) Math.min(frameCount, presentationTimesUs.length);
+        int start = (next - retained + presentationTimesUs.length) % presentationTimesUs.length;
+        for (int i = 0; i < retained; i++) {
+            int slot = (start + i) % presentationTimesUs.length;
+            presentationTimesOut[i] = presentationTimesUs[slot];
+            dequeuedOut[i] = dequeuedAtNs[slot];
+            writtenOut[i] = writtenAtNs[slot];
+        }
+        return retained;
+    }
+
+    public synchronized String summary() {
+        return String.format(Locale.US, "frames=%d dropped=%d writeLatencyAvg=%.2fms max=%.2fms p99=%.0fms maxQueue=%d",
+                frameCount, droppedCount, getAverageWriteLatencyMs(), getMaxWriteLatencyMs(),
+                writeLatency.percentileMs(0.99), maxQueueDepth);
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.secretcamera;
+
+import java.util.Locale;
+
+// Counts latencies in power-of-two millisecond buckets: under 1 ms, 1-2 ms,
+// 2-4 ms and so on up to a last bucket for a second or more. Fixed buckets
+// keep recording allocation-free and make two sessions directly comparable.
+public class LatencyHistogram {
+    private static final int BUCKETS = 12;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count;
+    private long totalNs;
+    private long maxNs;
+
+    public synchronized void record(long latencyNs) {
+        counts[bucketFor(latencyNs)]++;
+        count++;
+        totalNs += latencyNs;
+        maxNs = Math.max(maxNs, latencyNs);
+    }
+
+    static int bucketFor(long latencyNs) {
+        long ms = latencyNs / 1000000L;
+        int bucket = ms == 0 ? 0 : 64 - Long.numberOfLeadingZeros(ms);
+        return Math.min(bucket, BUCKETS - 1);
+    }
+
+    // Exclusive upper bound of a bucket in milliseconds; the last is open.
+    static long upperBoundMs(int bucket) {
+        return bucket >= BUCKETS - 1 ? Long.MAX_VALUE : 1L << bucket;
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized double getMaxMs() {
+        return maxNs / 1e6;
+    }
+
+    // The upper bound of the bucket holding the given fraction of samples,
+    // capped at the largest latency seen. 0 when nothing was recorded.
+    public synchronized double percentileMs(double fraction) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(fraction * count);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBoundMs(i), maxNs / 1e6);
+            }
+        }
+        return maxNs / 1e6;
+    }
+
+    public synchronized LatencyHistogram copy() {
+        LatencyHistogram copy = new LatencyHistogram();
+        System.arraycopy(counts, 0, copy.counts, 0, BUCKETS);
+        copy.count = count;
+        copy.totalNs = totalNs;
+        copy.maxNs = maxNs;
+        return copy;
+    }
+
+    public synchronized String toJson() {
+        StringBuilder buckets = new StringBuilder();
+        for (int i = 0; i < BUCKETS; i++) {
+            if (i > 0) {
+                buckets.append(',');
+            }
+            buckets.append(counts[i]);
+        }
+        return String.format(Locale.US, "{\"count\":%d,\"avg_ms\":%.2f,\"p50_ms\":%.2f,\"p99_ms\":%.2f,"
+                        + "\"max_ms\":%.2f,\"buckets\":[%s]}",
+                count, count == 0 ? 0 : totalNs / 1e6 / count, percentileMs(0.5), percentileMs(0.99), getMaxMs(),
+                buckets);
+    }
+
+    public synchronized String summary() {
+        return String.format(Locale.US, "n=%d p50=%.0fms p99=%.0fms max=%.1fms",
+                count, percentileMs(0.5), percentileMs(0.99), getMaxMs());
+    }
+}
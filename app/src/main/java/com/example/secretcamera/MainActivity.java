@@ -10,18 +10,25 @@ import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.content.res.ColorStateList;
 import android.media.AudioManager;
+import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.os.Environment;
 import android.provider.Settings;
 import android.view.View;
+import android.widget.LinearLayout;
+import android.widget.ProgressBar;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import androidx.activity.OnBackPressedCallback;
 import androidx.activity.result.ActivityResultLauncher;
 import androidx.activity.result.contract.ActivityResultContracts;
+import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.content.ContextCompat;
+import androidx.core.content.FileProvider;
 import androidx.recyclerview.widget.GridLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
@@ -31,21 +38,40 @@ import com.google.android.material.floatingactionbutton.FloatingActionButton;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
-public class MainActivity extends AppCompatActivity implements VideoAdapter.OnVideoClickListener, VideoAdapter.OnVideoDeleteListener {
+public class MainActivity extends AppCompatActivity implements VideoAdapter.OnVideoClickListener, VideoAdapter.OnVideoDeleteListener,
+        VideoCatalog.OnCatalogChangedListener, VideoAdapter.OnSelectionChangedListener {
     private static final int PERMISSION_REQUEST_CODE = 100;
+    private static final int THUMBNAIL_PREFETCH_COUNT = 8;
+    private static final int LIBRARY_PAGE_SIZE = 60;
+    private static final int LIBRARY_MAX_PAGES = 8;
     private MaterialButton recordButton;
     private RecyclerView videoRecyclerView;
     private VideoAdapter videoAdapter;
-    private List<File> videoFiles;
+    private PagedVideoList videos;
+    private VideoCatalog videoCatalog;
     private boolean isRecording = false;
     private TextView noVideosText;
     private static final String CAMERA_FACING_FRONT = "FRONT";
     private static final String CAMERA_FACING_BACK = "BACK";
+    private static final String CAMERA_FACING_DUAL = "DUAL";
     private AudioManager audioManager;
     private int originalNotificationVolume;
     private SharedPreferences preferences;
+    private View selectionBar;
+    private TextView selectionCount;
+    private BatchOperationWorker batchWorker;
+    private AlertDialog batchProgressDialog;
+    private ProgressBar batchProgressBar;
+
+    private final OnBackPressedCallback clearSelectionCallback = new OnBackPressedCallback(false) {
+        @Override
+        public void handleOnBackPressed() {
+            videoAdapter.clearSelection();
+        }
+    };
 
     private final ActivityResultLauncher<String[]> permissionLauncher =
             registerForActivityResult(new ActivityResultContracts.RequestMultiplePermissions(),
@@ -84,6 +110,13 @@ public class MainActivity extends AppCompatActivity implements VideoAdapter.OnVi
                 isRecording = false;
                 updateRecordButton();
                 loadVideos();
+            } else if (intent.getAction().equals("com.example.secretcamera.DUAL_CAMERA_UNAVAILABLE")) {
+                Toast.makeText(MainActivity.this, "Recording back camera only: " + intent.getStringExtra("REASON"),
+                        Toast.LENGTH_LONG).show();
+            } else if (intent.getAction().equals("com.example.secretcamera.RECOMPRESSION_FINISHED")) {
+                long reclaimedMb = intent.getLongExtra("BYTES_RECLAIMED", 0) / (1024 * 1024);
+                Toast.makeText(MainActivity.this, "Re-compressed " + intent.getIntExtra("FILES", 0)
+                        + " recordings, " + reclaimedMb + " MB freed", Toast.LENGTH_LONG).show();
             }
         }
     };
@@ -93,7 +126,11 @@ public class MainActivity extends AppCompatActivity implements VideoAdapter.OnVi
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
-        preferences = getSharedPreferences("CameraPrefs", MODE_PRIVATE);
+        preferences = getSharedPreferences(RecordingSettings.PREFS_NAME, MODE_PRIVATE);
+        videoCatalog = VideoCatalog.getInstance(this);
+        videoCatalog.addOnCatalogChangedListener(this);
+        batchWorker = new BatchOperationWorker(this);
+        getOnBackPressedDispatcher().addCallback(this, clearSelectionCallback);
 
         initializeViews();
         setupRecyclerView();
@@ -101,8 +138,11 @@ public class MainActivity extends AppCompatActivity implements VideoAdapter.OnVi
         loadVideos();
 
         audioManager = (AudioManager) getSystemService(Context.AUDIO_SERVICE);
+        RecompressionJobService.schedule(this);
 
         IntentFilter filter = new IntentFilter("com.example.secretcamera.RECORDING_STOPPED");
+        filter.addAction("com.example.secretcamera.DUAL_CAMERA_UNAVAILABLE");
+        filter.addAction("com.example.secretcamera.RECOMPRESSION_FINISHED");
         registerReceiver(recordingStoppedReceiver, filter, Context.RECEIVER_NOT_EXPORTED);
 
         if (getIntent().getBooleanExtra("UNHIDDEN", false)) {
@@ -114,6 +154,8 @@ public class MainActivity extends AppCompatActivity implements VideoAdapter.OnVi
         recordButton = findViewById(R.id.recordButton);
         videoRecyclerView = findViewById(R.id.videoRecyclerView);
         noVideosText = findViewById(R.id.noVideosText);
+        selectionBar = findViewById(R.id.selectionBar);
+        selectionCount = findViewById(R.id.selectionCount);
         updateRecordButton();
     }
 
@@ -129,9 +171,30 @@ public class MainActivity extends AppCompatActivity implements VideoAdapter.OnVi
 
     private void setupRecyclerView() {
         videoRecyclerView.setLayoutManager(new GridLayoutManager(this, 2));
-        videoFiles = new ArrayList<>();
-        videoAdapter = new VideoAdapter(this, videoFiles, this, this);
+        // Only a few pages of the catalog are held at a time, so memory does
+        // not grow with the size of the library.
+        videos = new PagedVideoList(videoCatalog, LIBRARY_PAGE_SIZE, LIBRARY_MAX_PAGES);
+        videoAdapter = new VideoAdapter(this, videos, this, this);
+        videoAdapter.setOnSelectionChangedListener(this);
+        videoAdapter.setOnCountChangedListener(count -> updateNoVideosVisibility());
         videoRecyclerView.setAdapter(videoAdapter);
+        videoRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                GridLayoutManager layoutManager = (GridLayoutManager) recyclerView.getLayoutManager();
+                if (layoutManager == null || dy == 0) {
+                    return;
+                }
+                if (dy > 0) {
+                    videoAdapter.prefetchThumbnails(layoutManager.findLastVisibleItemPosition() + 1, THUMBNAIL_PREFETCH_COUNT);
+                } else {
+                    int first = layoutManager.findFirstVisibleItemPosition();
+                    // Near the top fewer than a full batch lie above the first row.
+                    videoAdapter.prefetchThumbnails(Math.max(first - THUMBNAIL_PREFETCH_COUNT, 0),
+                            Math.min(first, THUMBNAIL_PREFETCH_COUNT));
+                }
+            }
+        });
     }
 
     private void setupButtonListeners() {
@@ -143,6 +206,226 @@ public class MainActivity extends AppCompatActivity implements VideoAdapter.OnVi
                 handleRecordingStart();
             }
         });
+
+        recordButton.setOnLongClickListener(v -> {
+            showSettingsDialog();
+            return true;
+        });
+
+        findViewById(R.id.selectAllButton).setOnClickListener(v -> videoAdapter.selectAll(videoCatalog));
+        findViewById(R.id.deleteSelectedButton).setOnClickListener(v -> confirmDeleteSelected());
+        findViewById(R.id.protectSelectedButton).setOnClickListener(v -> toggleProtectSelected());
+        findViewById(R.id.exportSelectedButton).setOnClickListener(v ->
+                runBatch(BatchOperationWorker.Operation.EXPORT, videoAdapter.getSelectedEntries()));
+    }
+
+    private void showSettingsDialog() {
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle("Recording Settings")
+                .setItems(new String[]{"Quality preset", "Segmented recording", "Recording mode",
+                        "Recording backend", "Container format", "Disk sync", "Background re-compression",
+                        "Capture stats"}, (dialog, which) -> {
+                    if (which == 0) {
+                        showPresetDialog();
+                    } else if (which == 1) {
+                        showSegmentModeDialog();
+                    } else if (which == 2) {
+                        showRecordingModeDialog();
+                    } else if (which == 3) {
+                        showBackendDialog();
+                    } else if (which == 4) {
+                        showContainerDialog();
+                    } else if (which == 5) {
+                        showSyncDialog();
+                    } else if (which == 6) {
+                        showRecompressDialog();
+                    } else {
+                        showCaptureStats();
+                    }
+                })
+                .setNegativeButton("Cancel", (dialog, which) -> dialog.dismiss())
+                .show();
+    }
+
+    private void showRecordingModeDialog() {
+        String[] labels = {"Continuous", "Pre-trigger buffer (save from notification)", "Time-lapse (no audio)"};
+        String[] modes = {RecordingSettings.MODE_CONTINUOUS, RecordingSettings.MODE_PRE_TRIGGER,
+                RecordingSettings.MODE_TIME_LAPSE};
+        String current = preferences.getString(RecordingSettings.KEY_RECORDING_MODE, RecordingSettings.MODE_CONTINUOUS);
+        int checked = Arrays.asList(modes).indexOf(current);
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle("Recording Mode")
+                .setSingleChoiceItems(labels, checked, (dialog, which) -> {
+                    preferences.edit().putString(RecordingSettings.KEY_RECORDING_MODE, modes[which]).apply();
+                    dialog.dismiss();
+                    if (modes[which].equals(RecordingSettings.MODE_TIME_LAPSE)) {
+                        showTimeLapseIntervalDialog();
+                        return;
+                    }
+                    Toast.makeText(this, labels[which] + " (applies to the next recording)", Toast.LENGTH_SHORT).show();
+                })
+                .setNegativeButton("Cancel", (dialog, which) -> dialog.dismiss())
+                .show();
+    }
+
+    private void showTimeLapseIntervalDialog() {
+        String[] labels = {"1 frame every 0.5 seconds", "1 frame every second", "1 frame every 2 seconds",
+                "1 frame every 3 seconds"};
+        Integer[] intervals = {500, 1000, 2000, 3000};
+        int current = preferences.getInt(RecordingSettings.KEY_TIME_LAPSE_INTERVAL_MS, 1000);
+        int checked = Arrays.asList(intervals).indexOf(current);
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle("Time-lapse Capture Interval")
+                .setSingleChoiceItems(labels, checked, (dialog, which) -> {
+                    preferences.edit().putInt(RecordingSettings.KEY_TIME_LAPSE_INTERVAL_MS, intervals[which]).apply();
+                    dialog.dismiss();
+                    showTimeLapsePlaybackDialog();
+                })
+                .setNegativeButton("Cancel", (dialog, which) -> dialog.dismiss())
+                .show();
+    }
+
+    private void showTimeLapsePlaybackDialog() {
+        String[] labels = {"24 fps playback", "30 fps playback"};
+        Integer[] rates = {24, 30};
+        int current = preferences.getInt(RecordingSettings.KEY_TIME_LAPSE_PLAYBACK_FPS, 30);
+        int checked = Arrays.asList(rates).indexOf(current);
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle("Time-lapse Playback")
+                .setSingleChoiceItems(labels, checked, (dialog, which) -> {
+                    preferences.edit().putInt(RecordingSettings.KEY_TIME_LAPSE_PLAYBACK_FPS, rates[which]).apply();
+                    int intervalMs = preferences.getInt(RecordingSettings.KEY_TIME_LAPSE_INTERVAL_MS, 1000);
+                    long speedUp = Math.round(rates[which] * intervalMs / 1000.0);
+                    Toast.makeText(this, "Time-lapse at " + speedUp + "x (applies to the next recording)",
+                            Toast.LENGTH_SHORT).show();
+                    dialog.dismiss();
+                })
+                .setNegativeButton("Cancel", (dialog, which) -> dialog.dismiss())
+                .show();
+    }
+
+    private void showCaptureStats() {
+        CaptureMetrics.Snapshot snapshot = CaptureMetrics.getLatestSnapshot();
+        new AlertDialog.Builder(this)
+                .setTitle(isRecording ? "Capture Stats (live)" : "Capture Stats (last session)")
+                .setMessage(snapshot != null ? snapshot.toString() : "No recording yet")
+                .setPositiveButton("OK", (dialog, which) -> dialog.dismiss())
+                .show();
+    }
+
+    private void showBackendDialog() {
+        String[] labels = {"MediaRecorder", "MediaCodec + MediaMuxer"};
+        String[] backends = {RecordingSettings.BACKEND_MEDIA_RECORDER, RecordingSettings.BACKEND_MEDIA_CODEC};
+        String current = preferences.getString(RecordingSettings.KEY_RECORDING_BACKEND,
+                RecordingSettings.BACKEND_MEDIA_RECORDER);
+        int checked = Arrays.asList(backends).indexOf(current);
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle("Recording Backend")
+                .setSingleChoiceItems(labels, checked, (dialog, which) -> {
+                    preferences.edit().putString(RecordingSettings.KEY_RECORDING_BACKEND, backends[which]).apply();
+                    Toast.makeText(this, labels[which] + " (applies to the next recording)", Toast.LENGTH_SHORT).show();
+                    dialog.dismiss();
+                })
+                .setNegativeButton("Cancel", (dialog, which) -> dialog.dismiss())
+                .show();
+    }
+
+    private void showContainerDialog() {
+        String[] labels = {"MP4", "Fragmented MP4 (instant stop, survives crashes)"};
+        String[] formats = {RecordingSettings.CONTAINER_MP4, RecordingSettings.CONTAINER_FRAGMENTED_MP4};
+        String current = preferences.getString(RecordingSettings.KEY_CONTAINER_FORMAT, RecordingSettings.CONTAINER_MP4);
+        int checked = Arrays.asList(formats).indexOf(current);
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle("Container Format")
+                .setSingleChoiceItems(labels, checked, (dialog, which) -> {
+                    preferences.edit().putString(RecordingSettings.KEY_CONTAINER_FORMAT, formats[which]).apply();
+                    Toast.makeText(this, labels[which] + " (applies to the next recording)", Toast.LENGTH_SHORT).show();
+                    dialog.dismiss();
+                })
+                .setNegativeButton("Cancel", (dialog, which) -> dialog.dismiss())
+                .show();
+    }
+
+    private void showSyncDialog() {
+        String[] labels = {"When each file closes", "Every second", "Every 5 seconds"};
+        Integer[] intervals = {0, 1, 5};
+        int current = preferences.getInt(RecordingSettings.KEY_SYNC_INTERVAL_SECONDS, 0);
+        int checked = Arrays.asList(intervals).indexOf(current);
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle("Disk Sync")
+                .setSingleChoiceItems(labels, checked, (dialog, which) -> {
+                    preferences.edit().putInt(RecordingSettings.KEY_SYNC_INTERVAL_SECONDS, intervals[which]).apply();
+                    Toast.makeText(this, labels[which] + " (applies to the next recording)", Toast.LENGTH_SHORT).show();
+                    dialog.dismiss();
+                })
+                .setNegativeButton("Cancel", (dialog, which) -> dialog.dismiss())
+                .show();
+    }
+
+    private void showRecompressDialog() {
+        String[] labels = {"Off", "After 1 day", "After 3 days", "After 7 days", "After 30 days"};
+        Integer[] days = {0, 1, 3, 7, 30};
+        int current = preferences.getInt(RecordingSettings.KEY_RECOMPRESS_AFTER_DAYS, 7);
+        int checked = Arrays.asList(days).indexOf(current);
+        long reclaimedMb = RecompressionJobService.getReclaimedBytes(this) / (1024 * 1024);
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle("Re-compress While Charging (" + reclaimedMb + " MB saved)")
+                .setSingleChoiceItems(labels, checked, (dialog, which) -> {
+                    preferences.edit().putInt(RecordingSettings.KEY_RECOMPRESS_AFTER_DAYS, days[which]).apply();
+                    RecompressionJobService.schedule(this);
+                    Toast.makeText(this, "Re-compression: " + labels[which], Toast.LENGTH_SHORT).show();
+                    dialog.dismiss();
+                })
+                .setNegativeButton("Cancel", (dialog, which) -> dialog.dismiss())
+                .show();
+    }
+
+    private void showPresetDialog() {
+        String[] labels = {"Storage saver", "Balanced", "High quality"};
+        String[] presets = {RecordingSettings.PRESET_STORAGE_SAVER, RecordingSettings.PRESET_BALANCED,
+                RecordingSettings.PRESET_HIGH_QUALITY};
+        String current = preferences.getString(RecordingSettings.KEY_ENCODER_PRESET, RecordingSettings.PRESET_BALANCED);
+        int checked = Arrays.asList(presets).indexOf(current);
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle("Quality Preset")
+                .setSingleChoiceItems(labels, checked, (dialog, which) -> {
+                    preferences.edit().putString(RecordingSettings.KEY_ENCODER_PRESET, presets[which]).apply();
+                    Toast.makeText(this, labels[which] + " (applies to the next recording)", Toast.LENGTH_SHORT).show();
+                    dialog.dismiss();
+                })
+                .setNegativeButton("Cancel", (dialog, which) -> dialog.dismiss())
+                .show();
+    }
+
+    private void showSegmentModeDialog() {
+        String[] labels = {"Single file", "1 minute segments", "5 minute segments", "15 minute segments", "256 MB segments"};
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle("Segmented Recording")
+                .setItems(labels, (dialog, which) -> {
+                    SharedPreferences.Editor editor = preferences.edit();
+                    if (which == 0) {
+                        editor.putString(RecordingSettings.KEY_SEGMENT_MODE, RecordingSettings.SEGMENT_MODE_OFF);
+                    } else if (which == 4) {
+                        editor.putString(RecordingSettings.KEY_SEGMENT_MODE, RecordingSettings.SEGMENT_MODE_SIZE);
+                        editor.putInt(RecordingSettings.KEY_SEGMENT_SIZE_MB, 256);
+                    } else {
+                        int[] minutes = {0, 1, 5, 15};
+                        editor.putString(RecordingSettings.KEY_SEGMENT_MODE, RecordingSettings.SEGMENT_MODE_TIME);
+                        editor.putInt(RecordingSettings.KEY_SEGMENT_DURATION_SECONDS, minutes[which] * 60);
+                    }
+                    editor.apply();
+                    Toast.makeText(this, labels[which] + " (applies to the next recording)", Toast.LENGTH_SHORT).show();
+                })
+                .setNegativeButton("Cancel", (dialog, which) -> dialog.dismiss())
+                .show();
     }
 
     private void handleRecordingStart() {
@@ -156,8 +439,16 @@ public class MainActivity extends AppCompatActivity implements VideoAdapter.OnVi
     private void showCameraSelectionDialog() {
         AlertDialog.Builder builder = new AlertDialog.Builder(this);
         builder.setTitle("Select Camera")
-                .setItems(new String[]{"Front Camera", "Back Camera"}, (dialog, which) -> {
-                    String cameraFacing = (which == 0) ? CAMERA_FACING_FRONT : CAMERA_FACING_BACK;
+                .setItems(new String[]{"Front Camera", "Back Camera", "Front + Back"}, (dialog, which) -> {
+                    String cameraFacing = which == 0 ? CAMERA_FACING_FRONT
+                            : which == 1 ? CAMERA_FACING_BACK : CAMERA_FACING_DUAL;
+                    if (cameraFacing.equals(CAMERA_FACING_DUAL)) {
+                        DualCameraSupport.Result pair = DualCameraSupport.findPair(this);
+                        if (!pair.isSupported()) {
+                            Toast.makeText(this, "Front + back unavailable: " + pair.reason, Toast.LENGTH_LONG).show();
+                            cameraFacing = CAMERA_FACING_BACK;
+                        }
+                    }
                     preferences.edit().putString("lastUsedCamera", cameraFacing).apply();
                     startRecordingWithCamera(cameraFacing);
                 })
@@ -169,6 +460,7 @@ public class MainActivity extends AppCompatActivity implements VideoAdapter.OnVi
         Intent serviceIntent = new Intent(this, CameraBackgroundService.class);
         serviceIntent.setAction("START_RECORDING");
         serviceIntent.putExtra("CAMERA_FACING", cameraFacing);
+        serviceIntent.putExtra("START_TAPPED_AT", SystemClock.elapsedRealtime());
 
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
             startForegroundService(serviceIntent);
@@ -178,9 +470,9 @@ public class MainActivity extends AppCompatActivity implements VideoAdapter.OnVi
 
         isRecording = true;
         updateRecordButton();
-        Toast.makeText(this, "Recording started with " +
-                        (cameraFacing.equals(CAMERA_FACING_FRONT) ? "front" : "back") + " camera",
-                Toast.LENGTH_SHORT).show();
+        String cameraName = cameraFacing.equals(CAMERA_FACING_FRONT) ? "front camera"
+                : cameraFacing.equals(CAMERA_FACING_DUAL) ? "front and back cameras" : "back camera";
+        Toast.makeText(this, "Recording started with " + cameraName, Toast.LENGTH_SHORT).show();
 
         muteNotificationVolume();
     }
@@ -221,20 +513,16 @@ public class MainActivity extends AppCompatActivity implements VideoAdapter.OnVi
 //    }
 
     private void loadVideos() {
-        File directory = new File(getExternalFilesDir(null), "SecretVideos");
-        if (directory.exists()) {
-            File[] files = directory.listFiles((dir, name) -> name.endsWith(".mp4"));
-            if (files != null) {
-                videoFiles.clear();
-                videoFiles.addAll(Arrays.asList(files));
-                videoAdapter.updateVideos(videoFiles);
-                updateNoVideosVisibility();
-            }
-        }
+        videos.refresh();
+    }
+
+    @Override
+    public void onCatalogChanged() {
+        loadVideos();
     }
 
     private void updateNoVideosVisibility() {
-        if (videoFiles.isEmpty()) {
+        if (videos.size() == 0) {
             noVideosText.setVisibility(View.VISIBLE);
             videoRecyclerView.setVisibility(View.GONE);
         } else {
@@ -251,16 +539,133 @@ public class MainActivity extends AppCompatActivity implements VideoAdapter.OnVi
     }
 
     @Override
-    public void onVideoDelete(File videoFile, int position) {
-        if (videoFile.delete()) {
-            videoFiles.remove(position);
-            videoAdapter.notifyItemRemoved(position);
-            videoAdapter.notifyItemRangeChanged(position, videoFiles.size());
-            updateNoVideosVisibility();
-            Toast.makeText(this, "Video deleted successfully", Toast.LENGTH_SHORT).show();
-        } else {
-            Toast.makeText(this, "Failed to delete video", Toast.LENGTH_SHORT).show();
+    public void onVideoDelete(VideoEntry video) {
+        runBatch(BatchOperationWorker.Operation.DELETE, Collections.singletonList(video));
+    }
+
+    @Override
+    public void onSelectionChanged(int selectedCount) {
+        selectionBar.setVisibility(selectedCount > 0 ? View.VISIBLE : View.GONE);
+        selectionCount.setText(selectedCount + " selected");
+        clearSelectionCallback.setEnabled(selectedCount > 0);
+    }
+
+    private void confirmDeleteSelected() {
+        List<VideoEntry> selected = videoAdapter.getSelectedEntries();
+        if (selected.isEmpty()) {
+            return;
+        }
+        int protectedCount = 0;
+        for (VideoEntry video : selected) {
+            if (video.isProtected()) {
+                protectedCount++;
+            }
+        }
+        String message = "Delete " + selected.size() + (selected.size() == 1 ? " video?" : " videos?");
+        if (protectedCount > 0) {
+            message += "\n" + protectedCount + " of them " + (protectedCount == 1 ? "is" : "are") + " protected.";
+        }
+        new AlertDialog.Builder(this)
+                .setTitle("Delete Videos")
+                .setMessage(message)
+                .setPositiveButton("Delete", (dialog, which) -> runBatch(BatchOperationWorker.Operation.DELETE, selected))
+                .setNegativeButton("Cancel", (dialog, which) -> dialog.dismiss())
+                .show();
+    }
+
+    // Unprotects only when everything selected is already protected.
+    private void toggleProtectSelected() {
+        List<VideoEntry> selected = videoAdapter.getSelectedEntries();
+        boolean allProtected = !selected.isEmpty();
+        for (VideoEntry video : selected) {
+            allProtected &= video.isProtected();
+        }
+        runBatch(allProtected ? BatchOperationWorker.Operation.UNPROTECT : BatchOperationWorker.Operation.PROTECT,
+                selected);
+    }
+
+    private void runBatch(BatchOperationWorker.Operation operation, List<VideoEntry> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        boolean started = batchWorker.run(operation, entries, new BatchOperationWorker.Listener() {
+            @Override
+            public void onProgress(int done, int total) {
+                if (batchProgressBar != null) {
+                    batchProgressBar.setMax(total);
+                    batchProgressBar.setProgress(done);
+                }
+            }
+
+            @Override
+            public void onFinished(BatchOperationWorker.Result result) {
+                onBatchFinished(result);
+            }
+        });
+        if (!started) {
+            Toast.makeText(this, "Another operation is still running", Toast.LENGTH_SHORT).show();
+            return;
         }
+        showBatchProgress(operation, entries.size());
+    }
+
+    private void showBatchProgress(BatchOperationWorker.Operation operation, int count) {
+        batchProgressBar = new ProgressBar(this, null, android.R.attr.progressBarStyleHorizontal);
+        batchProgressBar.setMax(count);
+        int padding = (int) (24 * getResources().getDisplayMetrics().density);
+        LinearLayout container = new LinearLayout(this);
+        container.setPadding(padding, padding / 2, padding, 0);
+        container.addView(batchProgressBar, new LinearLayout.LayoutParams(
+                LinearLayout.LayoutParams.MATCH_PARENT, LinearLayout.LayoutParams.WRAP_CONTENT));
+        String[] titles = {"Deleting", "Protecting", "Unprotecting", "Exporting"};
+        batchProgressDialog = new AlertDialog.Builder(this)
+                .setTitle(titles[operation.ordinal()] + "...")
+                .setView(container)
+                .setCancelable(false)
+                .setNegativeButton("Cancel", (dialog, which) -> batchWorker.cancel())
+                .show();
+    }
+
+    // The list itself refreshes from the single catalog notification sent
+    // when the batch ends.
+    private void onBatchFinished(BatchOperationWorker.Result result) {
+        if (isDestroyed()) {
+            return;
+        }
+        if (batchProgressDialog != null) {
+            batchProgressDialog.dismiss();
+            batchProgressDialog = null;
+            batchProgressBar = null;
+        }
+        videoAdapter.clearSelection();
+
+        if (result.operation == BatchOperationWorker.Operation.EXPORT) {
+            if (result.exportFile != null) {
+                shareExport(result.exportFile);
+            } else {
+                Toast.makeText(this, result.cancelled ? "Export cancelled" : "Export failed", Toast.LENGTH_SHORT).show();
+            }
+            return;
+        }
+        String[] verbs = {"Deleted", "Protected", "Unprotected"};
+        String message = verbs[result.operation.ordinal()] + " " + result.succeeded
+                + (result.succeeded == 1 ? " video" : " videos");
+        if (result.failed > 0) {
+            message += ", " + result.failed + " failed";
+        }
+        if (result.cancelled) {
+            message += " (cancelled)";
+        }
+        Toast.makeText(this, message, Toast.LENGTH_SHORT).show();
+    }
+
+    private void shareExport(File exported) {
+        Uri uri = FileProvider.getUriForFile(this, getApplicationContext().getPackageName() + ".fileprovider", exported);
+        Intent share = new Intent(Intent.ACTION_SEND);
+        share.setType("video/mp4");
+        share.putExtra(Intent.EXTRA_STREAM, uri);
+        share.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        startActivity(Intent.createChooser(share, "Share export"));
     }
 
     private boolean checkPermissions() {
@@ -407,6 +812,12 @@ public class MainActivity extends AppCompatActivity implements VideoAdapter.OnVi
     protected void onDestroy() {
         super.onDestroy();
         unregisterReceiver(recordingStoppedReceiver);
+        videoCatalog.removeOnCatalogChangedListener(this);
+        batchWorker.shutdown();
+        if (batchProgressDialog != null) {
+            batchProgressDialog.dismiss();
+        }
+        videoAdapter.release();
         restoreNotificationVolume();
     }
 }
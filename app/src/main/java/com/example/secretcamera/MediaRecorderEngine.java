@@ -0,0 +1,163 @@
+package com.example.secretcamera;
+
+import android.media.MediaRecorder;
+import android.util.Log;
+import android.view.Surface;
+
+import java.io.File;
+import java.io.IOException;
+
+// Must be created on a thread with a Looper; MediaRecorder delivers its info
+// and error events there.
+public class MediaRecorderEngine implements RecordingEngine {
+    private static final String TAG = "MediaRecorderEngine";
+
+    private final EncoderProfile profile;
+    private final long maxFileSizeBytes;
+    private final RecordingOutput.Options outputOptions;
+    private final Listener listener;
+    private MediaRecorder mediaRecorder;
+    private RecordingOutput currentOutput;
+    private RecordingOutput nextOutput;
+
+    public MediaRecorderEngine(EncoderProfile profile, long maxFileSizeBytes, RecordingOutput.Options outputOptions,
+                               Listener listener) {
+        this.profile = profile;
+        this.maxFileSizeBytes = maxFileSizeBytes;
+        this.outputOptions = outputOptions;
+        this.listener = listener;
+    }
+
+    @Override
+    public Surface prepare(File outputFile, Surface inputSurface) throws IOException {
+        // A time-lapse has no audio track, so the microphone is not opened.
+        boolean withAudio = !profile.isTimeLapse();
+        mediaRecorder = new MediaRecorder();
+        if (withAudio) {
+            mediaRecorder.setAudioSource(MediaRecorder.AudioSource.MIC);
+        }
+        mediaRecorder.setVideoSource(MediaRecorder.VideoSource.SURFACE);
+        mediaRecorder.setOutputFormat(MediaRecorder.OutputFormat.MPEG_4);
+        mediaRecorder.setVideoEncodingBitRate(profile.getVideoBitRate());
+        mediaRecorder.setVideoFrameRate(profile.getFrameRate());
+        if (profile.isTimeLapse()) {
+            // Frames arriving faster than this are dropped before the encoder,
+            // and the kept ones are retimed to the playback frame rate.
+            mediaRecorder.setCaptureRate(profile.getCaptureRate());
+        }
+        mediaRecorder.setVideoSize(profile.getWidth(), profile.getHeight());
+        mediaRecorder.setVideoEncoder(profile.getVideoEncoder());
+        if (withAudio) {
+            mediaRecorder.setAudioEncoder(MediaRecorder.AudioEncoder.AAC);
+            mediaRecorder.setAudioEncodingBitRate(profile.getAudioBitRate());
+            mediaRecorder.setAudioSamplingRate(profile.getAudioSampleRate());
+        }
+
+        mediaRecorder.setOnInfoListener(this::onRecorderInfo);
+        mediaRecorder.setOnErrorListener((recorder, what, extra) ->
+                listener.onError("MediaRecorder error: " + what + ", " + extra));
+        if (maxFileSizeBytes > 0) {
+            // MediaRecorder can only hand off to the next file on a size limit.
+            mediaRecorder.setMaxFileSize(maxFileSizeBytes);
+            Log.d(TAG, "Segmented recording, " + maxFileSizeBytes + " bytes per segment");
+        }
+
+        if (inputSurface != null) {
+            mediaRecorder.setInputSurface(inputSurface);
+        }
+
+        // Opened last, since it preallocates the file to full size; the
+        // caller deletes it if prepare fails.
+        currentOutput = RecordingOutput.open(outputFile, outputOptions);
+        mediaRecorder.setOutputFile(currentOutput.getFileDescriptor());
+        mediaRecorder.prepare();
+        return inputSurface != null ? inputSurface : mediaRecorder.getSurface();
+    }
+
+    @Override
+    public void start() {
+        mediaRecorder.start();
+        listener.onSegmentStarted(currentOutput.getFile());
+    }
+
+    @Override
+    public void stop() {
+        if (mediaRecorder == null) {
+            return;
+        }
+        try {
+            mediaRecorder.stop();
+        } catch (IllegalStateException e) {
+            Log.e(TAG, "Error stopping media recorder: " + e.getMessage());
+        } catch (RuntimeException e) {
+            Log.e(TAG, "No valid data recorded: " + e.getMessage());
+        }
+        mediaRecorder.reset();
+        mediaRecorder.release();
+        mediaRecorder = null;
+        closeNextOutput();
+        File finished = currentOutput.getFile();
+        currentOutput.close();
+        currentOutput = null;
+        listener.onFileFinished(finished);
+    }
+
+    @Override
+    public void release() {
+        if (mediaRecorder != null) {
+            mediaRecorder.reset();
+            mediaRecorder.release();
+            mediaRecorder = null;
+        }
+        closeNextOutput();
+        if (currentOutput != null) {
+            currentOutput.close();
+            currentOutput = null;
+        }
+    }
+
+    // A queued file the recorder never switched to is still empty.
+    private void closeNextOutput() {
+        if (nextOutput != null) {
+            nextOutput.close();
+            if (!nextOutput.getFile().delete()) {
+                Log.d(TAG, "Failed to delete unused " + nextOutput.getFile().getName());
+            }
+            nextOutput = null;
+        }
+    }
+
+    private void onRecorderInfo(MediaRecorder recorder, int what, int extra) {
+        switch (what) {
+            case MediaRecorder.MEDIA_RECORDER_INFO_MAX_FILESIZE_APPROACHING:
+                File nextFile = listener.onNextOutputFile();
+                if (nextFile == null) {
+                    break;
+                }
+                try {
+                    nextOutput = RecordingOutput.open(nextFile, outputOptions);
+                    recorder.setNextOutputFile(nextOutput.getFileDescriptor());
+                    Log.d(TAG, "Queued next segment " + nextFile.getName());
+                } catch (IOException e) {
+                    Log.e(TAG, "Error setting next output file: " + e.getMessage());
+                    closeNextOutput();
+                }
+                break;
+            case MediaRecorder.MEDIA_RECORDER_INFO_NEXT_OUTPUT_FILE_STARTED:
+                if (nextOutput != null) {
+                    RecordingOutput finished = currentOutput;
+                    currentOutput = nextOutput;
+                    nextOutput = null;
+                    finished.close();
+                    listener.onFileFinished(finished.getFile());
+                    listener.onSegmentStarted(currentOutput.getFile());
+                }
+                break;
+            case MediaRecorder.MEDIA_RECORDER_INFO_MAX_FILESIZE_REACHED:
+                listener.onError("Segment size limit reached before the next file was ready");
+                break;
+            default:
+                break;
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package com.example.secretcamera;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+// Reads clip metadata straight from the ISO BMFF box tree. Top-level headers
+// are read with positional reads until moov turns up, then only moov is
+// memory-mapped and walked (mvhd, trak/tkhd, mdia/mdhd/hdlr, stsd), so the
+// cost does not grow with mdat and nothing is decoded.
+public final class Mp4BoxParser {
+    private static final int MOOV = fourCc("moov");
+    private static final int MVHD = fourCc("mvhd");
+    private static final int MVEX = fourCc("mvex");
+    private static final int MEHD = fourCc("mehd");
+    private static final int TRAK = fourCc("trak");
+    private static final int TKHD = fourCc("tkhd");
+    private static final int MDIA = fourCc("mdia");
+    private static final int MDHD = fourCc("mdhd");
+    private static final int HDLR = fourCc("hdlr");
+    private static final int MINF = fourCc("minf");
+    private static final int STBL = fourCc("stbl");
+    private static final int STSD = fourCc("stsd");
+    private static final int HANDLER_VIDEO = fourCc("vide");
+    private static final int HANDLER_SOUND = fourCc("soun");
+
+    // Seconds from the MP4 epoch (1904-01-01) to the Unix epoch.
+    private static final long MP4_EPOCH_OFFSET_SECONDS = 2082844800L;
+    private static final long MAX_MOOV_BYTES = 64L * 1024L * 1024L;
+
+    private Mp4BoxParser() {
+    }
+
+    public static final class Metadata {
+        public final long durationUs;
+        public final int width;
+        public final int height;
+        // 0 when the file does not record one.
+        public final long creationTimeMs;
+        // Null when the track is missing or its sample entry is not recognised.
+        public final String videoMime;
+        public final String audioMime;
+
+        Metadata(long durationUs, int width, int height, long creationTimeMs, String videoMime, String audioMime) {
+            this.durationUs = durationUs;
+            this.width = width;
+            this.height = height;
+            this.creationTimeMs = creationTimeMs;
+            this.videoMime = videoMime;
+            this.audioMime = audioMime;
+        }
+    }
+
+    public static Metadata parse(File file) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+             FileChannel channel = randomAccessFile.getChannel()) {
+            long fileSize = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(16);
+            long position = 0;
+            while (position + 8 <= fileSize) {
+                header.clear();
+                while (header.hasRemaining() && channel.read(header, position + header.position()) > 0) {
+                    // Keep reading; positional reads may return short.
+                }
+                long size = header.getInt(0) & 0xFFFFFFFFL;
+                int type = header.getInt(4);
+                int headerSize = 8;
+                if (size == 1) {
+                    if (header.position() < 16) {
+                        throw new IOException("Truncated box header at " + position);
+                    }
+                    size = header.getLong(8);
+                    headerSize = 16;
+                } else if (size == 0) {
+                    size = fileSize - position;
+                }
+                if (size < headerSize || position + size > fileSize) {
+                    throw new IOException("Bad box size " + size + " at " + position + " in " + file.getName());
+                }
+                if (type == MOOV) {
+                    if (size > MAX_MOOV_BYTES) {
+                        throw new IOException("moov too large: " + size);
+                    }
+                    return parseMovie(channel.map(FileChannel.MapMode.READ_ONLY, position + headerSize,
+                            size - headerSize));
+                }
+                position += size;
+            }
+            throw new IOException("No moov box in " + file.getName());
+        }
+    }
+
+    // The end of the last complete top-level box. A file written into
+    // preallocated space ends in zeros, which read as an empty header and stop
+    // the walk; so does a box that runs past the end of the channel.
+    public static long findContentEnd(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(16);
+        long position = 0;
+        while (position + 8 <= fileSize) {
+            header.clear();
+            while (header.hasRemaining() && channel.read(header, position + header.position()) > 0) {
+                // Keep reading; positional reads may return short.
+            }
+            long size = header.getInt(0) & 0xFFFFFFFFL;
+            int type = header.getInt(4);
+            int headerSize = 8;
+            if (size == 0 && type == 0) {
+                break;
+            } else if (size == 0) {
+                return fileSize;
+            } else if (size == 1) {
+                if (header.position() < 16) {
+                    break;
+                }
+                size = header.getLong(8);
+                headerSize = 16;
+            }
+            if (size < headerSize || position + size > fileSize) {
+                break;
+            }
+            position += size;
+        }
+        return Math.min(position, fileSize);
+    }
+
+    static Metadata parseMovie(ByteBuffer moov) throws IOException {
+        long timescale = 0;
+        long duration = 0;
+        long fragmentDuration = 0;
+        long creationSeconds = 0;
+        long longestTrackUs = 0;
+        int width = 0;
+        int height = 0;
+        String videoMime = null;
+        String audioMime = null;
+
+        for (Box box : children(moov)) {
+            if (box.type == MVHD) {
+                ByteBuffer mvhd = box.payload;
+                if (version(mvhd) == 1) {
+                    creationSeconds = mvhd.getLong(4);
+                    timescale = mvhd.getInt(20) & 0xFFFFFFFFL;
+                    duration = mvhd.getLong(24);
+                } else {
+                    creationSeconds = mvhd.getInt(4) & 0xFFFFFFFFL;
+                    timescale = mvhd.getInt(12) & 0xFFFFFFFFL;
+                    duration = mvhd.getInt(16) & 0xFFFFFFFFL;
+                }
+            } else if (box.type == MVEX) {
+                Box mehd = find(box.payload, MEHD);
+                if (mehd != null) {
+                    fragmentDuration = version(mehd.payload) == 1 ? mehd.payload.getLong(4)
+                            : mehd.payload.getInt(4) & 0xFFFFFFFFL;
+                }
+            } else if (box.type == TRAK) {
+                Track track = parseTrack(box.payload);
+                longestTrackUs = Math.max(longestTrackUs, track.durationUs);
+                if (track.handler == HANDLER_VIDEO && videoMime == null) {
+                    videoMime = track.mime;
+                    width = track.width;
+                    height = track.height;
+                } else if (track.handler == HANDLER_SOUND && audioMime == null) {
+                    audioMime = track.mime;
+                }
+            }
+        }
+        if (timescale == 0) {
+            throw new IOException("Missing or invalid mvhd");
+        }
+
+        // A fragmented file carries its length in mehd; a plain one in mvhd.
+        long movieDuration = duration > 0 ? duration : fragmentDuration;
+        long durationUs = movieDuration > 0 ? movieDuration * 1000000L / timescale : longestTrackUs;
+        long creationTimeMs = creationSeconds > MP4_EPOCH_OFFSET_SECONDS
+                ? (creationSeconds - MP4_EPOCH_OFFSET_SECONDS) * 1000L : 0;
+        return new Metadata(durationUs, width, height, creationTimeMs, videoMime, audioMime);
+    }
+
+    private static Track parseTrack(ByteBuffer trak) throws IOException {
+        Track track = new Track();
+        Box tkhd = find(trak, TKHD);
+        if (tkhd != null) {
+            int offset = version(tkhd.payload) == 1 ? 88 : 76;
+            if (tkhd.payload.limit() >= offset + 8) {
+                track.width = tkhd.payload.getInt(offset) >>> 16;
+                track.height = tkhd.payload.getInt(offset + 4) >>> 16;
+            }
+        }
+        Box mdia = find(trak, MDIA);
+        if (mdia == null) {
+            return track;
+        }
+        Box mdhd = find(mdia.payload, MDHD);
+        if (mdhd != null) {
+            ByteBuffer payload = mdhd.payload;
+            long timescale;
+            long duration;
+            if (version(payload) == 1) {
+                timescale = payload.getInt(20) & 0xFFFFFFFFL;
+                duration = payload.getLong(24);
+            } else {
+                timescale = payload.getInt(12) & 0xFFFFFFFFL;
+                duration = payload.getInt(16) & 0xFFFFFFFFL;
+            }
+            track.durationUs = timescale > 0 ? duration * 1000000L / timescale : 0;
+        }
+        Box hdlr = find(mdia.payload, HDLR);
+        if (hdlr != null && hdlr.payload.limit() >= 12) {
+            track.handler = hdlr.payload.getInt(8);
+        }
+        Box minf = find(mdia.payload, MINF);
+        Box stbl = minf != null ? find(minf.payload, STBL) : null;
+        Box stsd = stbl != null ? find(stbl.payload, STSD) : null;
+        // The first sample entry starts after the version/flags and count words.
+        if (stsd != null && stsd.payload.limit() >= 16) {
+            int entryType = stsd.payload.getInt(12);
+            track.mime = mimeFor(entryType);
+            if (track.width == 0 && track.handler == HANDLER_VIDEO && stsd.payload.limit() >= 44) {
+                track.width = stsd.payload.getShort(40) & 0xFFFF;
+                track.height = stsd.payload.getShort(42) & 0xFFFF;
+            }
+        }
+        return track;
+    }
+
+    private static String mimeFor(int entryType) {
+        if (entryType == fourCc("avc1") || entryType == fourCc("avc3")) {
+            return "video/avc";
+        } else if (entryType == fourCc("hvc1") || entryType == fourCc("hev1")) {
+            return "video/hevc";
+        } else if (entryType == fourCc("mp4v")) {
+            return "video/mp4v-es";
+        } else if (entryType == fourCc("mp4a")) {
+            return "audio/mp4a-latm";
+        } else if (entryType == fourCc("samr")) {
+            return "audio/3gpp";
+        }
+        return null;
+    }
+
+    private static int version(ByteBuffer fullBox) throws IOException {
+        if (fullBox.limit() < 4) {
+            throw new IOException("Truncated full box");
+        }
+        return fullBox.get(0) & 0xFF;
+    }
+
+    private static Box find(ByteBuffer parent, int type) throws IOException {
+        for (Box box : children(parent)) {
+            if (box.type == type) {
+                return box;
+            }
+        }
+        return null;
+    }
+
+    private static List<Box> children(ByteBuffer parent) throws IOException {
+        List<Box> boxes = new ArrayList<>();
+        int offset = 0;
+        int end = parent.limit();
+        while (offset + 8 <= end) {
+            long size = parent.getInt(offset) & 0xFFFFFFFFL;
+            int type = parent.getInt(offset + 4);
+            int headerSize = 8;
+            if (size == 1) {
+                if (offset + 16 > end) {
+                    throw new IOException("Truncated box header");
+                }
+                size = parent.getLong(offset + 8);
+                headerSize = 16;
+            } else if (size == 0) {
+                size = end - offset;
+            }
+            if (size < headerSize || offset + size > end) {
+                throw new IOException("Bad box size " + size);
+            }
+            ByteBuffer payload = parent.duplicate();
+            payload.limit(offset + (int) size);
+            payload.position(offset + headerSize);
+            boxes.add(new Box(type, payload.slice()));
+            offset += (int) size;
+        }
+        return boxes;
+    }
+
+    static int fourCc(String type) {
+        return (type.charAt(0) << 24) | (type.charAt(1) << 16) | (type.charAt(2) << 8) | type.charAt(3);
+    }
+
+    private static final class Box {
+        final int type;
+        final ByteBuffer payload;
+
+        Box(int type, ByteBuffer payload) {
+            this.type = type;
+            this.payload = payload;
+        }
+    }
+
+    private static final class Track {
+        int handler;
+        int width;
+        int height;
+        long durationUs;
+        String mime;
+    }
+}
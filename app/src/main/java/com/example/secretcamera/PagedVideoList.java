@@ -0,0 +1,292 @@
+package com.example.secretcamera;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Windowed view of the catalog for the library grid. The ordered row ids of
+// the whole library are loaded up front, which is cheap; the rows themselves
+// are fetched a page of ids at a time as positions are asked for, and at most
+// maxPages pages' worth are kept (least recently used goes first), so memory
+// stays flat however many recordings there are. Positions whose row is not
+// loaded yet read as null and are drawn as placeholders, but their id is
+// always known, so ids stay stable while rows come and go.
+//
+// Not thread-safe: use it from one thread, the main thread in the app, and
+// deliver load results there too.
+public class PagedVideoList {
+
+    public interface PageSource {
+        // Every row id, in display order.
+        void loadIds(IdsCallback callback);
+
+        // The rows for these ids that still exist, in any order.
+        void loadEntries(long[] ids, EntriesCallback callback);
+    }
+
+    public interface IdsCallback {
+        void onIdsLoaded(long[] ids);
+    }
+
+    public interface EntriesCallback {
+        void onEntriesLoaded(List<VideoEntry> entries);
+    }
+
+    public interface Listener {
+        // After the first load, even of an empty library, and whenever the
+        // size changes.
+        void onCountChanged(int count);
+
+        void onRangeInserted(int positionStart, int itemCount);
+
+        void onRangeRemoved(int positionStart, int itemCount);
+
+        void onRangeChanged(int positionStart, int itemCount);
+    }
+
+    private static final class Cached {
+        final VideoEntry entry;
+        final int generation;
+
+        Cached(VideoEntry entry, int generation) {
+            this.entry = entry;
+            this.generation = generation;
+        }
+    }
+
+    private final PageSource source;
+    private final int pageSize;
+    private final Map<Long, Cached> entries;
+    // Pages already asked for in this generation, so a row that was deleted
+    // in the meantime is not asked for again on every bind.
+    private final Set<Integer> requested = new HashSet<>();
+    private final Map<Long, Integer> positions = new HashMap<>();
+    private Listener listener;
+    private long[] ids = new long[0];
+    private boolean idsKnown;
+    private int generation;
+
+    public PagedVideoList(PageSource source, int pageSize, int maxPages) {
+        this.source = source;
+        this.pageSize = pageSize;
+        int maxEntries = pageSize * maxPages;
+        this.entries = new LinkedHashMap<Long, Cached>(maxEntries + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Cached> eldest) {
+                if (size() <= maxEntries) {
+                    return false;
+                }
+                Integer position = positions.get(eldest.getKey());
+                if (position != null) {
+                    requested.remove(position / pageSize);
+                }
+                return true;
+            }
+        };
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    int getCachedEntryCount() {
+        return entries.size();
+    }
+
+    public long getId(int position) {
+        return ids[position];
+    }
+
+    // Returns null while the position's row is loading and requests its page
+    // if needed. A stale row keeps being returned until its reload arrives.
+    public VideoEntry get(int position) {
+        if (position < 0 || position >= ids.length) {
+            return null;
+        }
+        Cached cached = entries.get(ids[position]);
+        if (cached == null || cached.generation != generation) {
+            request(position / pageSize);
+        }
+        return cached != null ? cached.entry : null;
+    }
+
+    // Reloads the ids after the catalog changed. Cached rows stay visible and
+    // are reloaded in place; results for older requests are dropped when they
+    // come in.
+    public void refresh() {
+        generation++;
+        requested.clear();
+        int requestGeneration = generation;
+        source.loadIds(loaded -> onIdsLoaded(requestGeneration, loaded));
+    }
+
+    private void request(int pageIndex) {
+        if (!requested.add(pageIndex)) {
+            return;
+        }
+        int start = pageIndex * pageSize;
+        long[] pageIds = Arrays.copyOfRange(ids, start, Math.min(start + pageSize, ids.length));
+        int requestGeneration = generation;
+        source.loadEntries(pageIds, loaded -> onEntriesLoaded(requestGeneration, loaded));
+    }
+
+    private void onIdsLoaded(int requestGeneration, long[] loaded) {
+        if (requestGeneration != generation) {
+            return;
+        }
+        long[] previous = ids;
+        ids = loaded;
+        positions.clear();
+        for (int i = 0; i < ids.length; i++) {
+            positions.put(ids[i], i);
+        }
+        entries.keySet().retainAll(positions.keySet());
+        // Pages asked for before the ids arrived were cut from the old order.
+        requested.clear();
+        boolean firstLoad = !idsKnown;
+        idsKnown = true;
+        if (listener != null) {
+            if (!firstLoad) {
+                reportMoves(previous, ids);
+            } else if (ids.length > 0) {
+                listener.onRangeInserted(0, ids.length);
+            }
+            if (firstLoad || previous.length != ids.length) {
+                listener.onCountChanged(ids.length);
+            }
+        }
+        // Reload what is cached; everything else loads as it is bound.
+        Set<Integer> stalePages = new HashSet<>();
+        for (long id : entries.keySet()) {
+            stalePages.add(positions.get(id) / pageSize);
+        }
+        for (int pageIndex : stalePages) {
+            request(pageIndex);
+        }
+    }
+
+    // Reports how the old order became the new one as runs of removals and
+    // insertions at their real positions. Ids that survive keep their relative
+    // order in the catalog's sort, so a new recording shows up as an insert at
+    // the top rather than as every row below it changing.
+    private void reportMoves(long[] previous, long[] current) {
+        Set<Long> before = new HashSet<>();
+        for (long id : previous) {
+            before.add(id);
+        }
+        Set<Long> after = new HashSet<>();
+        for (long id : current) {
+            after.add(id);
+        }
+        // Ids that moved ahead of others are removed and inserted again.
+        Set<Long> movedOut = new HashSet<>();
+        RangeReporter reporter = new RangeReporter(listener);
+        int oldIndex = 0;
+        for (int position = 0; position < current.length; position++) {
+            long id = current[position];
+            if (before.contains(id) && !movedOut.contains(id)) {
+                while (previous[oldIndex] != id) {
+                    if (after.contains(previous[oldIndex])) {
+                        movedOut.add(previous[oldIndex]);
+                    }
+                    reporter.removed(position);
+                    oldIndex++;
+                }
+                oldIndex++;
+            } else {
+                reporter.inserted(position);
+            }
+        }
+        for (; oldIndex < previous.length; oldIndex++) {
+            reporter.removed(current.length);
+        }
+        reporter.flush();
+    }
+
+    private void onEntriesLoaded(int requestGeneration, List<VideoEntry> loaded) {
+        if (requestGeneration != generation) {
+            return;
+        }
+        // Only rows whose contents differ are reported, so a refresh that
+        // changed nothing on screen rebinds nothing.
+        List<Integer> changed = new ArrayList<>();
+        for (VideoEntry entry : loaded) {
+            Integer position = positions.get(entry.getId());
+            if (position == null) {
+                continue;
+            }
+            Cached previous = entries.put(entry.getId(), new Cached(entry, generation));
+            if (previous == null || !previous.entry.hasSameContents(entry)) {
+                changed.add(position);
+            }
+        }
+        if (listener == null || changed.isEmpty()) {
+            return;
+        }
+        Collections.sort(changed);
+        int runStart = changed.get(0);
+        int runEnd = runStart + 1;
+        for (int i = 1; i < changed.size(); i++) {
+            int position = changed.get(i);
+            if (position != runEnd) {
+                listener.onRangeChanged(runStart, runEnd - runStart);
+                runStart = position;
+            }
+            runEnd = position + 1;
+        }
+        listener.onRangeChanged(runStart, runEnd - runStart);
+    }
+
+    // Coalesces single-row notifications: removals at one position and
+    // insertions at consecutive positions.
+    private static final class RangeReporter {
+        private final Listener listener;
+        private boolean inserting;
+        private int start = -1;
+        private int count;
+
+        RangeReporter(Listener listener) {
+            this.listener = listener;
+        }
+
+        void inserted(int position) {
+            if (start < 0 || !inserting || position != start + count) {
+                flush();
+                inserting = true;
+                start = position;
+            }
+            count++;
+        }
+
+        void removed(int position) {
+            if (start < 0 || inserting || position != start) {
+                flush();
+                inserting = false;
+                start = position;
+            }
+            count++;
+        }
+
+        void flush() {
+            if (start >= 0) {
+                if (inserting) {
+                    listener.onRangeInserted(start, count);
+                } else {
+                    listener.onRangeRemoved(start, count);
+                }
+            }
+            start = -1;
+            count = 0;
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package com.example.secretcamera;
+
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.view.Surface;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+// Keeps the last few seconds of encoded video in a fixed EncodedRingBuffer and
+// only touches flash when a clip is triggered: the buffered window is muxed
+// from its first key frame, followed by live frames for the post-trigger span.
+public class PreTriggerRecorder implements RecordingEngine {
+    private static final String TAG = "PreTriggerRecorder";
+    private static final int I_FRAME_INTERVAL_SECONDS = 1;
+    private static final long STOP_TIMEOUT_MS = 2000;
+
+    private final EncoderProfile profile;
+    private final EncodedRingBuffer ring;
+    private final long postTriggerUs;
+    private final Listener listener;
+    private final MediaCodec.BufferInfo replayInfo = new MediaCodec.BufferInfo();
+    private final CountDownLatch endOfStream = new CountDownLatch(1);
+
+    private HandlerThread encoderThread;
+    private Handler encoderHandler;
+    private MediaCodec encoder;
+    private Surface inputSurface;
+    private MediaFormat outputFormat;
+
+    private MediaMuxer muxer;
+    private int trackIndex = -1;
+    private File clipFile;
+    private File pendingClipFile;
+    private long clipEndUs;
+    private long lastPresentationTimeUs;
+
+    public PreTriggerRecorder(EncoderProfile profile, int preTriggerSeconds, int postTriggerSeconds,
+                              long maxBufferBytes, Listener listener) {
+        this.profile = profile;
+        this.postTriggerUs = postTriggerSeconds * 1000000L;
+        this.listener = listener;
+
+        // A quarter on top of the nominal rate leaves room for key frames and
+        // rate-control overshoot so the window does not come up short.
+        long windowBytes = (long) profile.getVideoBitRate() / 8L * preTriggerSeconds * 5L / 4L;
+        int capacityBytes = (int) Math.min(windowBytes, maxBufferBytes);
+        int maxSamples = profile.getFrameRate() * (preTriggerSeconds + I_FRAME_INTERVAL_SECONDS) * 2;
+        ring = new EncodedRingBuffer(capacityBytes, maxSamples);
+        Log.d(TAG, "Pre-trigger buffer " + capacityBytes + " bytes, " + maxSamples + " samples");
+    }
+
+    // Clips are named when triggered, so the initial output file is unused.
+    @Override
+    public Surface prepare(File outputFile, Surface persistentSurface) throws IOException {
+        encoderThread = new HandlerThread("PreTriggerEncoder");
+        encoderThread.start();
+        encoderHandler = new Handler(encoderThread.getLooper());
+
+        MediaFormat format = MediaFormat.createVideoFormat(profile.getVideoMimeType(),
+                profile.getWidth(), profile.getHeight());
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, profile.getVideoBitRate());
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, profile.getFrameRate());
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, I_FRAME_INTERVAL_SECONDS);
+
+        encoder = MediaCodec.createEncoderByType(profile.getVideoMimeType());
+        encoder.setCallback(encoderCallback, encoderHandler);
+        encoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        if (persistentSurface != null) {
+            encoder.setInputSurface(persistentSurface);
+            return persistentSurface;
+        }
+        inputSurface = encoder.createInputSurface();
+        return inputSurface;
+    }
+
+    @Override
+    public void start() {
+        encoder.start();
+    }
+
+    public void trigger(File file) {
+        encoderHandler.post(() -> {
+            if (muxer != null) {
+                clipEndUs = lastPresentationTimeUs + postTriggerUs;
+                Log.d(TAG, "Extended clip " + clipFile.getName());
+            } else if (outputFormat == null) {
+                pendingClipFile = file;
+            } else {
+                startClip(file);
+            }
+        });
+    }
+
+    @Override
+    public void stop() {
+        try {
+            encoder.signalEndOfInputStream();
+            if (!endOfStream.await(STOP_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                Log.e(TAG, "Timed out waiting for end of stream");
+            }
+        } catch (IllegalStateException | InterruptedException e) {
+            Log.e(TAG, "Error stopping encoder: " + e.getMessage());
+        }
+
+        CountDownLatch released = new CountDownLatch(1);
+        encoderHandler.post(() -> {
+            finishClip();
+            try {
+                encoder.stop();
+            } catch (IllegalStateException e) {
+                Log.e(TAG, "Error stopping encoder: " + e.getMessage());
+            }
+            encoder.release();
+            if (inputSurface != null) {
+                inputSurface.release();
+            }
+            released.countDown();
+        });
+        try {
+            released.await(STOP_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Log.e(TAG, "Interrupted releasing encoder");
+        }
+        encoderThread.quitSafely();
+    }
+
+    @Override
+    public void release() {
+        if (encoder != null) {
+            encoder.release();
+        }
+        if (inputSurface != null) {
+            inputSurface.release();
+        }
+        if (encoderThread != null) {
+            encoderThread.quitSafely();
+        }
+    }
+
+    private void startClip(File file) {
+        try {
+            muxer = new MediaMuxer(file.getAbsolutePath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+            trackIndex = muxer.addTrack(outputFormat);
+            muxer.start();
+        } catch (IOException | IllegalStateException e) {
+            Log.e(TAG, "Error starting clip: " + e.getMessage());
+            muxer = null;
+            return;
+        }
+        clipFile = file;
+        clipEndUs = lastPresentationTimeUs + postTriggerUs;
+        long bufferedUs = ring.getBufferedDurationUs();
+        int replayed = ring.drainTo(this::writeReplayedSample);
+        Log.d(TAG, "Started clip " + file.getName() + " with " + replayed + " buffered samples ("
+                + bufferedUs / 1000 + "ms)");
+    }
+
+    private void writeReplayedSample(ByteBuffer data, int size, long presentationTimeUs, int flags) {
+        int codecFlags = (flags & EncodedRingBuffer.FLAG_KEY_FRAME) != 0 ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0;
+        replayInfo.set(data.position(), size, presentationTimeUs, codecFlags);
+        muxer.writeSampleData(trackIndex, data, replayInfo);
+    }
+
+    private void finishClip() {
+        if (muxer == null) {
+            return;
+        }
+        try {
+            muxer.stop();
+        } catch (IllegalStateException e) {
+            Log.e(TAG, "Error finishing clip: " + e.getMessage());
+        }
+        muxer.release();
+        muxer = null;
+        File saved = clipFile;
+        clipFile = null;
+        Log.d(TAG, "Saved clip " + saved.getName());
+        listener.onFileFinished(saved);
+    }
+
+    private final MediaCodec.Callback encoderCallback = new MediaCodec.Callback() {
+        @Override
+        public void onInputBufferAvailable(@NonNull MediaCodec codec, int index) {
+        }
+
+        @Override
+        public void onOutputBufferAvailable(@NonNull MediaCodec codec, int index, @NonNull MediaCodec.BufferInfo info) {
+            if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                codec.releaseOutputBuffer(index, false);
+                endOfStream.countDown();
+                return;
+            }
+            if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0 || info.size == 0) {
+                codec.releaseOutputBuffer(index, false);
+                return;
+            }
+
+            ByteBuffer buffer = codec.getOutputBuffer(index);
+            if (buffer != null) {
+                buffer.limit(info.offset + info.size);
+                buffer.position(info.offset);
+                boolean keyFrame = (info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0;
+                lastPresentationTimeUs = info.presentationTimeUs;
+
+                if (muxer != null) {
+                    muxer.writeSampleData(trackIndex, buffer, info);
+                    buffer.position(info.offset);
+                }
+                if (!ring.write(buffer, info.size, info.presentationTimeUs,
+                        keyFrame ? EncodedRingBuffer.FLAG_KEY_FRAME : 0)) {
+                    // Frames up to the next key frame cannot be buffered, so
+                    // ask for one now rather than at the next interval.
+                    Log.e(TAG, "Dropped " + info.size + " byte sample from the pre-trigger buffer");
+                    Bundle parameters = new Bundle();
+                    parameters.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+                    codec.setParameters(parameters);
+                }
+
+                if (muxer != null && info.presentationTimeUs >= clipEndUs) {
+                    finishClip();
+                }
+            }
+            codec.releaseOutputBuffer(index, false);
+        }
+
+        @Override
+        public void onError(@NonNull MediaCodec codec, @NonNull MediaCodec.CodecException e) {
+            Log.e(TAG, "Encoder error: " + e.getMessage());
+        }
+
+        @Override
+        public void onOutputFormatChanged(@NonNull MediaCodec codec, @NonNull MediaFormat format) {
+            outputFormat = format;
+            if (pendingClipFile != null) {
+                startClip(pendingClipFile);
+                pendingClipFile = null;
+            }
+        }
+    };
+}
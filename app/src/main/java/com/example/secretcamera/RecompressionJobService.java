@@ -0,0 +1,210 @@
+package com.example.secretcamera;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// Re-compresses recordings older than the configured age, only while the
+// device is charging and idle. Files go oldest first, one at a time; the
+// journal is saved after each, and a file cut off part way keeps its finished
+// chunks for the next run. Protected recordings are never touched. Starting a
+// recording stops the job, since both need the hardware codecs.
+public class RecompressionJobService extends JobService {
+    private static final String TAG = "RecompressionJobService";
+    private static final int JOB_ID = 1001;
+    private static final long PERIOD_MS = TimeUnit.HOURS.toMillis(12);
+    private static final String JOURNAL_NAME = "recompression.journal";
+
+    private static volatile RecompressionJobService running;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> new Thread(() -> {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        runnable.run();
+    }, "RecompressionJob"));
+    private volatile VideoRecompressor recompressor;
+    private volatile boolean stopped;
+    private volatile boolean yielded;
+
+    // Schedules the periodic job, or cancels it when re-compression is off.
+    // Settings are read when the job runs, so an existing job is kept.
+    public static void schedule(Context context) {
+        JobScheduler scheduler = context.getSystemService(JobScheduler.class);
+        if (RecordingSettings.load(context).getRecompressAfterMs() <= 0) {
+            scheduler.cancel(JOB_ID);
+            return;
+        }
+        if (scheduler.getPendingJob(JOB_ID) != null) {
+            return;
+        }
+        JobInfo job = new JobInfo.Builder(JOB_ID, new ComponentName(context, RecompressionJobService.class))
+                .setRequiresCharging(true)
+                .setRequiresDeviceIdle(true)
+                .setPeriodic(PERIOD_MS)
+                .setPersisted(true)
+                .build();
+        if (scheduler.schedule(job) != JobScheduler.RESULT_SUCCESS) {
+            Log.e(TAG, "Error scheduling re-compression job");
+        }
+    }
+
+    // The running job gives up its current file and asks to be retried.
+    public static void yieldToRecording() {
+        RecompressionJobService service = running;
+        if (service != null) {
+            Log.d(TAG, "Recording started, stopping re-compression");
+            service.yielded = true;
+            service.cancelCurrent();
+        }
+    }
+
+    public static long getReclaimedBytes(Context context) {
+        return RecompressionJournal.load(new File(context.getFilesDir(), JOURNAL_NAME)).getReclaimedBytes();
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        if (CameraBackgroundService.isActive()) {
+            Log.d(TAG, "Camera service is running, skipping re-compression");
+            return false;
+        }
+        stopped = false;
+        yielded = false;
+        running = this;
+        executor.execute(() -> {
+            boolean finished = false;
+            try {
+                finished = recompressAll();
+            } finally {
+                running = null;
+            }
+            if (!stopped) {
+                jobFinished(params, !finished);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        Log.d(TAG, "Re-compression stopped by the system");
+        stopped = true;
+        cancelCurrent();
+        return true;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        executor.shutdown();
+    }
+
+    private void cancelCurrent() {
+        VideoRecompressor current = recompressor;
+        if (current != null) {
+            current.cancel();
+        }
+    }
+
+    // Returns true when every candidate was dealt with.
+    private boolean recompressAll() {
+        long ageMs = RecordingSettings.load(this).getRecompressAfterMs();
+        if (ageMs <= 0) {
+            return true;
+        }
+        long cutoffMs = System.currentTimeMillis() - ageMs;
+        File directory = new File(getExternalFilesDir(null), "SecretVideos");
+        RecompressionJournal journal = RecompressionJournal.load(new File(getFilesDir(), JOURNAL_NAME));
+        String[] names = directory.list((dir, name) -> RecordingFileNames.isRecording(name));
+        Set<String> present = names != null ? new HashSet<>(Arrays.asList(names)) : new HashSet<>();
+        journal.retainOnly(present);
+
+        Set<String> protectedPaths = VideoCatalog.getInstance(this).getProtectedPaths();
+        List<File> candidates = new ArrayList<>();
+        Set<String> pending = new HashSet<>();
+        for (String name : present) {
+            File file = new File(directory, name);
+            if (RecordingFileNames.parseStartTime(name, file.lastModified()) < cutoffMs
+                    && !protectedPaths.contains(file.getAbsolutePath()) && !journal.isSettled(name)) {
+                candidates.add(file);
+                pending.add(name);
+            }
+        }
+        VideoRecompressor.deleteStaleWork(this, pending);
+        candidates.sort((a, b) -> Long.compare(RecordingFileNames.parseStartTime(a.getName(), a.lastModified()),
+                RecordingFileNames.parseStartTime(b.getName(), b.lastModified())));
+
+        int replaced = 0;
+        long reclaimed = 0;
+        int done = 0;
+        for (File file : candidates) {
+            if (stopped || yielded) {
+                break;
+            }
+            VideoRecompressor current = new VideoRecompressor(this);
+            recompressor = current;
+            try {
+                VideoRecompressor.Result result = current.recompress(file);
+                if (result.skipReason != null) {
+                    Log.d(TAG, "Leaving " + file.getName() + ": " + result.skipReason);
+                    journal.markSkipped(file.getName());
+                } else {
+                    journal.markDone(file.getName(), result.reclaimedBytes);
+                    onReplaced(file);
+                    replaced++;
+                    reclaimed += result.reclaimedBytes;
+                }
+                done++;
+            } catch (IOException e) {
+                if (current.isCancelled()) {
+                    break;
+                }
+                Log.e(TAG, "Error re-compressing " + file.getName() + ": " + e.getMessage());
+                journal.markFailed(file.getName());
+                done++;
+            } finally {
+                recompressor = null;
+            }
+            try {
+                journal.save();
+            } catch (IOException e) {
+                Log.e(TAG, "Error saving journal: " + e.getMessage());
+            }
+        }
+
+        Log.d(TAG, "Re-compressed " + replaced + " of " + candidates.size() + " recordings, reclaimed "
+                + reclaimed + " bytes (" + journal.getReclaimedBytes() + " in total)");
+        if (replaced > 0) {
+            Intent intent = new Intent("com.example.secretcamera.RECOMPRESSION_FINISHED");
+            intent.putExtra("FILES", replaced);
+            intent.putExtra("BYTES_RECLAIMED", reclaimed);
+            sendBroadcast(intent);
+        }
+        return done == candidates.size();
+    }
+
+    // The new file has the same name and modification time, so the quota
+    // tally and the scrub index have to be told; the catalog also hears the
+    // rename from its directory observer.
+    private void onReplaced(File file) {
+        StorageQuotaManager.getInstance(this).onFileFinished(file);
+        ScrubIndexGenerator.getInstance(this).delete(file);
+        VideoCatalog.getInstance(this).onRecordingFinished(file);
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.secretcamera;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+// What background re-compression has already decided, kept across runs:
+// recordings that were replaced, ones that are not worth re-encoding, ones
+// that keep failing, and the bytes reclaimed so far. Progress inside a file
+// lives in its part files, not here. One line per fact, rewritten through a
+// temporary file so a crash leaves either the old or the new journal.
+public class RecompressionJournal {
+    // After this many failed attempts a recording is left as it is.
+    static final int MAX_ATTEMPTS = 3;
+
+    private static final String RECLAIMED = "reclaimed";
+    private static final String DONE = "done";
+    private static final String SKIPPED = "skipped";
+    private static final String FAILED = "failed";
+
+    private final File file;
+    private final Set<String> done = new HashSet<>();
+    private final Set<String> skipped = new HashSet<>();
+    private final Map<String, Integer> failures = new HashMap<>();
+    private long reclaimedBytes;
+
+    private RecompressionJournal(File file) {
+        this.file = file;
+    }
+
+    // A missing or unreadable journal starts empty; lines that do not parse
+    // are dropped.
+    public static RecompressionJournal load(File file) {
+        RecompressionJournal journal = new RecompressionJournal(file);
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                journal.parseLine(line);
+            }
+        } catch (FileNotFoundException e) {
+            return journal;
+        } catch (IOException e) {
+            return new RecompressionJournal(file);
+        }
+        return journal;
+    }
+
+    private void parseLine(String line) {
+        String[] fields = line.split(" ", 3);
+        try {
+            if (fields.length == 2 && RECLAIMED.equals(fields[0])) {
+                reclaimedBytes = Long.parseLong(fields[1]);
+            } else if (fields.length == 2 && DONE.equals(fields[0])) {
+                done.add(fields[1]);
+            } else if (fields.length == 2 && SKIPPED.equals(fields[0])) {
+                skipped.add(fields[1]);
+            } else if (fields.length == 3 && FAILED.equals(fields[0])) {
+                failures.put(fields[2], Integer.parseInt(fields[1]));
+            }
+        } catch (NumberFormatException e) {
+            // Ignore the line.
+        }
+    }
+
+    // True when the recording should not be tried again.
+    public boolean isSettled(String name) {
+        Integer attempts = failures.get(name);
+        return done.contains(name) || skipped.contains(name) || attempts != null && attempts >= MAX_ATTEMPTS;
+    }
+
+    public void markDone(String name, long reclaimed) {
+        failures.remove(name);
+        done.add(name);
+        reclaimedBytes += reclaimed;
+    }
+
+    public void markSkipped(String name) {
+        failures.remove(name);
+        skipped.add(name);
+    }
+
+    public void markFailed(String name) {
+        Integer attempts = failures.get(name);
+        failures.put(name, attempts != null ? attempts + 1 : 1);
+    }
+
+    public long getReclaimedBytes() {
+        return reclaimedBytes;
+    }
+
+    // Forgets recordings that no longer exist, so the journal does not grow
+    // with every file the quota ever evicted. The reclaimed total is kept.
+    public void retainOnly(Set<String> names) {
+        done.retainAll(names);
+        skipped.retainAll(names);
+        failures.keySet().retainAll(names);
+    }
+
+    public void save() throws IOException {
+        File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (Writer writer = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8))) {
+            writer.write(RECLAIMED + " " + reclaimedBytes + "\n");
+            for (String name : done) {
+                writer.write(DONE + " " + name + "\n");
+            }
+            for (String name : skipped) {
+                writer.write(SKIPPED + " " + name + "\n");
+            }
+            for (Map.Entry<String, Integer> entry : failures.entrySet()) {
+                writer.write(FAILED + " " + entry.getValue() + " " + entry.getKey() + "\n");
+            }
+        }
+        if (!tempFile.renameTo(file)) {
+            throw new IOException("Failed to commit " + file.getName());
+        }
+    }
+}
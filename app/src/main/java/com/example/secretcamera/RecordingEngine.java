@@ -0,0 +1,35 @@
+package com.example.secretcamera;
+
+import android.view.Surface;
+
+import java.io.File;
+import java.io.IOException;
+
+public interface RecordingEngine {
+
+    interface Listener {
+        // Called when the engine is about to switch files. Returning null
+        // keeps writing to the current file.
+        File onNextOutputFile();
+
+        void onSegmentStarted(File file);
+
+        void onFileFinished(File file);
+
+        void onError(String message);
+    }
+
+    // Returns the surface the camera should render into. When inputSurface is
+    // given (a MediaCodec persistent input surface) the engine encodes from it
+    // and returns it, but it stays owned by the caller and outlives the engine,
+    // so a configured capture session can be kept across engines.
+    Surface prepare(File outputFile, Surface inputSurface) throws IOException;
+
+    void start();
+
+    // Finalizes any open output and releases the engine. Blocks until done.
+    void stop();
+
+    // Releases the engine without finalizing output, for failed setups.
+    void release();
+}
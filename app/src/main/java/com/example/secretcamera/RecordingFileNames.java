@@ -0,0 +1,53 @@
+package com.example.secretcamera;
+
+import java.io.File;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+// Naming scheme for recordings: VID_yyyyMMdd_HHmmss.mp4, with a _N suffix
+// when several files start within the same second. A second camera recording
+// alongside writes VID_yyyyMMdd_HHmmss_<tag>.mp4 next to each file.
+public final class RecordingFileNames {
+    public static final String PREFIX = "VID_";
+    public static final String EXTENSION = ".mp4";
+    private static final String TIMESTAMP_PATTERN = "yyyyMMdd_HHmmss";
+    private static final int TIMESTAMP_END = PREFIX.length() + TIMESTAMP_PATTERN.length();
+
+    private RecordingFileNames() {
+    }
+
+    public static boolean isRecording(String name) {
+        return name.endsWith(EXTENSION);
+    }
+
+    public static File newOutputFile(File directory, long nowMs) {
+        String timeStamp = new SimpleDateFormat(TIMESTAMP_PATTERN, Locale.getDefault()).format(new Date(nowMs));
+        File file = new File(directory, PREFIX + timeStamp + EXTENSION);
+        for (int i = 1; file.exists(); i++) {
+            file = new File(directory, PREFIX + timeStamp + "_" + i + EXTENSION);
+        }
+        return file;
+    }
+
+    public static File companionFile(File primary, String tag) {
+        String name = primary.getName();
+        String base = name.endsWith(EXTENSION) ? name.substring(0, name.length() - EXTENSION.length()) : name;
+        return new File(primary.getParentFile(), base + "_" + tag + EXTENSION);
+    }
+
+    // Returns the start time encoded in the name, or fallbackMs when the name
+    // does not follow the scheme.
+    public static long parseStartTime(String name, long fallbackMs) {
+        if (name.startsWith(PREFIX) && name.length() >= TIMESTAMP_END) {
+            try {
+                return new SimpleDateFormat(TIMESTAMP_PATTERN, Locale.getDefault())
+                        .parse(name.substring(PREFIX.length(), TIMESTAMP_END)).getTime();
+            } catch (ParseException e) {
+                return fallbackMs;
+            }
+        }
+        return fallbackMs;
+    }
+}
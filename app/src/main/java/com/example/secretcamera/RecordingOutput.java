@@ -0,0 +1,182 @@
+package com.example.secretcamera;
+
+import android.os.Process;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// A recording file opened by us rather than by path, so MediaRecorder or
+// MediaMuxer write through a descriptor whose growth and flushing we control.
+// The expected size is allocated up front, so the file system is not hunting
+// for blocks mid-recording; dirty pages are synced on the chosen schedule from
+// a background thread instead of piling up into one long writeback; and on
+// close the unused tail is cut off at the end of the last MP4 box.
+public class RecordingOutput {
+    private static final String TAG = "RecordingOutput";
+    // Preallocated space that is not all zeros past the last box means the
+    // writer left something the box walk did not understand; keep it.
+    private static final int TRIM_CHECK_BYTES = 64 * 1024;
+
+    private static final ScheduledExecutorService syncExecutor = Executors.newSingleThreadScheduledExecutor(
+            runnable -> new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runnable.run();
+            }, "RecordingOutputSync"));
+    private static final Map<String, RecordingOutput> openOutputs = new ConcurrentHashMap<>();
+
+    public static final class Options {
+        final long preallocateBytes;
+        // 0 syncs only when the file is closed.
+        final long syncIntervalMs;
+        final LatencyHistogram syncLatency;
+
+        public Options(long preallocateBytes, long syncIntervalMs, LatencyHistogram syncLatency) {
+            this.preallocateBytes = preallocateBytes;
+            this.syncIntervalMs = syncIntervalMs;
+            this.syncLatency = syncLatency;
+        }
+    }
+
+    private final File file;
+    private final RandomAccessFile randomAccessFile;
+    private final LatencyHistogram syncLatency;
+    private boolean preallocated;
+    private ScheduledFuture<?> periodicSync;
+    private boolean closed;
+
+    private RecordingOutput(File file, RandomAccessFile randomAccessFile, LatencyHistogram syncLatency) {
+        this.file = file;
+        this.randomAccessFile = randomAccessFile;
+        this.syncLatency = syncLatency;
+    }
+
+    public static RecordingOutput open(File file, Options options) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.setLength(0);
+        RecordingOutput output = new RecordingOutput(file, randomAccessFile,
+                options != null ? options.syncLatency : null);
+        if (options == null) {
+            return output;
+        }
+        if (options.preallocateBytes > 0) {
+            try {
+                Os.posix_fallocate(randomAccessFile.getFD(), 0, options.preallocateBytes);
+                output.preallocated = true;
+            } catch (ErrnoException e) {
+                // Not every file system supports it; the file just grows as usual.
+                Log.d(TAG, "Preallocation unavailable for " + file.getName() + ": " + e.getMessage());
+            }
+        }
+        if (options.syncIntervalMs > 0) {
+            output.periodicSync = syncExecutor.scheduleWithFixedDelay(output::sync, options.syncIntervalMs,
+                    options.syncIntervalMs, TimeUnit.MILLISECONDS);
+        }
+        openOutputs.put(file.getAbsolutePath(), output);
+        return output;
+    }
+
+    public FileDescriptor getFileDescriptor() throws IOException {
+        return randomAccessFile.getFD();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    // MediaRecorder and MediaMuxer dup the descriptor, so they share its file
+    // offset and this is roughly how far they have written.
+    public long getWritePosition() {
+        try {
+            return randomAccessFile.getFilePointer();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    // The bytes actually recorded into a file, which for a preallocated one
+    // still being written is less than its length.
+    public static long sizeOf(File file) {
+        RecordingOutput output = openOutputs.get(file.getAbsolutePath());
+        return output != null ? output.getWritePosition() : file.length();
+    }
+
+    // Sync thread.
+    private synchronized void sync() {
+        if (closed) {
+            return;
+        }
+        long startNs = System.nanoTime();
+        try {
+            Os.fdatasync(randomAccessFile.getFD());
+        } catch (ErrnoException | IOException e) {
+            Log.e(TAG, "Error syncing " + file.getName() + ": " + e.getMessage());
+            return;
+        }
+        if (syncLatency != null) {
+            syncLatency.record(System.nanoTime() - startNs);
+        }
+    }
+
+    // Call once the writer has finished with the file. The trim happens here so
+    // the file already has its real length when it is reported; the last sync
+    // and the close go to the sync thread, so a segment switch never waits on
+    // the disk.
+    public void close() {
+        if (periodicSync != null) {
+            periodicSync.cancel(false);
+        }
+        openOutputs.remove(file.getAbsolutePath());
+        if (preallocated) {
+            trim();
+        }
+        syncExecutor.execute(() -> {
+            sync();
+            synchronized (this) {
+                closed = true;
+                try {
+                    randomAccessFile.close();
+                } catch (IOException e) {
+                    Log.e(TAG, "Error closing " + file.getName() + ": " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    private void trim() {
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            long end = Mp4BoxParser.findContentEnd(channel);
+            long length = channel.size();
+            if (end >= length) {
+                return;
+            }
+            ByteBuffer tail = ByteBuffer.allocate((int) Math.min(TRIM_CHECK_BYTES, length - end));
+            while (tail.hasRemaining() && channel.read(tail, end + tail.position()) > 0) {
+                // Keep reading; positional reads may return short.
+            }
+            for (int i = 0; i < tail.position(); i++) {
+                if (tail.get(i) != 0) {
+                    Log.e(TAG, "Unrecognised data after " + end + " in " + file.getName() + ", not trimming");
+                    return;
+                }
+            }
+            Os.ftruncate(randomAccessFile.getFD(), end);
+            Log.d(TAG, "Trimmed " + file.getName() + " from " + length + " to " + end + " bytes");
+        } catch (ErrnoException | IOException e) {
+            Log.e(TAG, "Error trimming " + file.getName() + ": " + e.getMessage());
+        }
+    }
+}
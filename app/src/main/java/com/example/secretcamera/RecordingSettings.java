@@ -0,0 +1,194 @@
+package com.example.secretcamera;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+public class RecordingSettings {
+    public static final String PREFS_NAME = "CameraPrefs";
+
+    public static final String KEY_SEGMENT_MODE = "segmentMode";
+    public static final String KEY_SEGMENT_DURATION_SECONDS = "segmentDurationSeconds";
+    public static final String KEY_SEGMENT_SIZE_MB = "segmentSizeMb";
+    public static final String KEY_QUOTA_MODE = "quotaMode";
+    public static final String KEY_QUOTA_PERCENT = "quotaPercent";
+    public static final String KEY_QUOTA_MB = "quotaMb";
+    public static final String KEY_MIN_FREE_MB = "minFreeMb";
+    public static final String KEY_ENCODER_PRESET = "encoderPreset";
+    public static final String KEY_RECORDING_MODE = "recordingMode";
+    public static final String KEY_PRE_TRIGGER_SECONDS = "preTriggerSeconds";
+    public static final String KEY_POST_TRIGGER_SECONDS = "postTriggerSeconds";
+    public static final String KEY_PRE_TRIGGER_BUFFER_MB = "preTriggerBufferMb";
+    public static final String KEY_RECORDING_BACKEND = "recordingBackend";
+    public static final String KEY_CONTAINER_FORMAT = "containerFormat";
+    public static final String KEY_SYNC_INTERVAL_SECONDS = "syncIntervalSeconds";
+    public static final String KEY_TIME_LAPSE_INTERVAL_MS = "timeLapseIntervalMs";
+    public static final String KEY_TIME_LAPSE_PLAYBACK_FPS = "timeLapsePlaybackFps";
+    public static final String KEY_RECOMPRESS_AFTER_DAYS = "recompressAfterDays";
+
+    public static final String SEGMENT_MODE_OFF = "OFF";
+    public static final String SEGMENT_MODE_TIME = "TIME";
+    public static final String SEGMENT_MODE_SIZE = "SIZE";
+
+    public static final String QUOTA_MODE_PERCENT = "PERCENT";
+    public static final String QUOTA_MODE_BYTES = "BYTES";
+
+    public static final String PRESET_STORAGE_SAVER = "STORAGE_SAVER";
+    public static final String PRESET_BALANCED = "BALANCED";
+    public static final String PRESET_HIGH_QUALITY = "HIGH_QUALITY";
+
+    public static final String MODE_CONTINUOUS = "CONTINUOUS";
+    public static final String MODE_PRE_TRIGGER = "PRE_TRIGGER";
+    public static final String MODE_TIME_LAPSE = "TIME_LAPSE";
+
+    public static final String BACKEND_MEDIA_RECORDER = "MEDIA_RECORDER";
+    public static final String BACKEND_MEDIA_CODEC = "MEDIA_CODEC";
+
+    public static final String CONTAINER_MP4 = "MP4";
+    public static final String CONTAINER_FRAGMENTED_MP4 = "FRAGMENTED_MP4";
+
+    private static final int DEFAULT_SEGMENT_DURATION_SECONDS = 300;
+    private static final int DEFAULT_SEGMENT_SIZE_MB = 512;
+    private static final int DEFAULT_QUOTA_PERCENT = 80;
+    private static final int DEFAULT_QUOTA_MB = 16 * 1024;
+    private static final int DEFAULT_MIN_FREE_MB = 500;
+    private static final int DEFAULT_PRE_TRIGGER_SECONDS = 30;
+    private static final int DEFAULT_POST_TRIGGER_SECONDS = 30;
+    private static final int DEFAULT_PRE_TRIGGER_BUFFER_MB = 48;
+    private static final int DEFAULT_TIME_LAPSE_INTERVAL_MS = 1000;
+    private static final int DEFAULT_TIME_LAPSE_PLAYBACK_FPS = 30;
+    private static final int DEFAULT_RECOMPRESS_AFTER_DAYS = 7;
+
+    private final String segmentMode;
+    private final int segmentDurationSeconds;
+    private final int segmentSizeMb;
+    private final String quotaMode;
+    private final int quotaPercent;
+    private final int quotaMb;
+    private final int minFreeMb;
+    private final String encoderPreset;
+    private final String recordingMode;
+    private final int preTriggerSeconds;
+    private final int postTriggerSeconds;
+    private final int preTriggerBufferMb;
+    private final String recordingBackend;
+    private final String containerFormat;
+    private final int syncIntervalSeconds;
+    private final int timeLapseIntervalMs;
+    private final int timeLapsePlaybackFps;
+    private final int recompressAfterDays;
+
+    private RecordingSettings(SharedPreferences preferences) {
+        segmentMode = preferences.getString(KEY_SEGMENT_MODE, SEGMENT_MODE_OFF);
+        segmentDurationSeconds = preferences.getInt(KEY_SEGMENT_DURATION_SECONDS, DEFAULT_SEGMENT_DURATION_SECONDS);
+        segmentSizeMb = preferences.getInt(KEY_SEGMENT_SIZE_MB, DEFAULT_SEGMENT_SIZE_MB);
+        quotaMode = preferences.getString(KEY_QUOTA_MODE, QUOTA_MODE_PERCENT);
+        quotaPercent = preferences.getInt(KEY_QUOTA_PERCENT, DEFAULT_QUOTA_PERCENT);
+        quotaMb = preferences.getInt(KEY_QUOTA_MB, DEFAULT_QUOTA_MB);
+        minFreeMb = preferences.getInt(KEY_MIN_FREE_MB, DEFAULT_MIN_FREE_MB);
+        encoderPreset = preferences.getString(KEY_ENCODER_PRESET, PRESET_BALANCED);
+        recordingMode = preferences.getString(KEY_RECORDING_MODE, MODE_CONTINUOUS);
+        preTriggerSeconds = preferences.getInt(KEY_PRE_TRIGGER_SECONDS, DEFAULT_PRE_TRIGGER_SECONDS);
+        postTriggerSeconds = preferences.getInt(KEY_POST_TRIGGER_SECONDS, DEFAULT_POST_TRIGGER_SECONDS);
+        preTriggerBufferMb = preferences.getInt(KEY_PRE_TRIGGER_BUFFER_MB, DEFAULT_PRE_TRIGGER_BUFFER_MB);
+        recordingBackend = preferences.getString(KEY_RECORDING_BACKEND, BACKEND_MEDIA_RECORDER);
+        containerFormat = preferences.getString(KEY_CONTAINER_FORMAT, CONTAINER_MP4);
+        syncIntervalSeconds = preferences.getInt(KEY_SYNC_INTERVAL_SECONDS, 0);
+        timeLapseIntervalMs = preferences.getInt(KEY_TIME_LAPSE_INTERVAL_MS, DEFAULT_TIME_LAPSE_INTERVAL_MS);
+        timeLapsePlaybackFps = preferences.getInt(KEY_TIME_LAPSE_PLAYBACK_FPS, DEFAULT_TIME_LAPSE_PLAYBACK_FPS);
+        recompressAfterDays = preferences.getInt(KEY_RECOMPRESS_AFTER_DAYS, DEFAULT_RECOMPRESS_AFTER_DAYS);
+    }
+
+    public static RecordingSettings load(Context context) {
+        return new RecordingSettings(context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE));
+    }
+
+    public boolean isSegmented() {
+        return !SEGMENT_MODE_OFF.equals(segmentMode);
+    }
+
+    public String getSegmentMode() {
+        return segmentMode;
+    }
+
+    public int getSegmentDurationSeconds() {
+        return segmentDurationSeconds;
+    }
+
+    public long getSegmentDurationUs() {
+        return SEGMENT_MODE_TIME.equals(segmentMode) ? segmentDurationSeconds * 1000000L : 0;
+    }
+
+    // MediaRecorder can only hand off to the next file on a size limit, so a
+    // time-bounded segment is translated into the bytes it should take at the
+    // rate the recording is written (EncoderProfile.getRecordedBitRate).
+    public long getSegmentSizeBytes(long recordedBitRate) {
+        if (SEGMENT_MODE_TIME.equals(segmentMode)) {
+            return recordedBitRate / 8L * segmentDurationSeconds;
+        }
+        return segmentSizeMb * 1024L * 1024L;
+    }
+
+    public long getQuotaBytes(long volumeBytes) {
+        if (QUOTA_MODE_BYTES.equals(quotaMode)) {
+            return quotaMb * 1024L * 1024L;
+        }
+        return volumeBytes / 100L * quotaPercent;
+    }
+
+    public long getMinFreeBytes() {
+        return minFreeMb * 1024L * 1024L;
+    }
+
+    public String getEncoderPreset() {
+        return encoderPreset;
+    }
+
+    public boolean isPreTrigger() {
+        return MODE_PRE_TRIGGER.equals(recordingMode);
+    }
+
+    public boolean isTimeLapse() {
+        return MODE_TIME_LAPSE.equals(recordingMode);
+    }
+
+    public double getTimeLapseCaptureRate() {
+        return 1000.0 / Math.max(timeLapseIntervalMs, 1);
+    }
+
+    public int getTimeLapsePlaybackFps() {
+        return timeLapsePlaybackFps;
+    }
+
+    public int getPreTriggerSeconds() {
+        return preTriggerSeconds;
+    }
+
+    public int getPostTriggerSeconds() {
+        return postTriggerSeconds;
+    }
+
+    public long getPreTriggerBufferBytes() {
+        return preTriggerBufferMb * 1024L * 1024L;
+    }
+
+    // MediaRecorder has no fragmented output, so that container implies the
+    // MediaCodec backend. Time-lapse relies on MediaRecorder's capture rate,
+    // so it takes precedence and records plain MP4.
+    public boolean useMediaCodec() {
+        return !isTimeLapse() && (BACKEND_MEDIA_CODEC.equals(recordingBackend) || isFragmentedMp4());
+    }
+
+    public boolean isFragmentedMp4() {
+        return !isTimeLapse() && CONTAINER_FRAGMENTED_MP4.equals(containerFormat);
+    }
+
+    // 0 leaves flushing to the kernel until each file is closed.
+    public long getSyncIntervalMs() {
+        return syncIntervalSeconds * 1000L;
+    }
+
+    // 0 turns background re-compression off.
+    public long getRecompressAfterMs() {
+        return recompressAfterDays * 24L * 60L * 60L * 1000L;
+    }
+}
@@ -0,0 +1,170 @@
+package com.example.secretcamera;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+// Sync-sample times of one recording plus the layout of its sprite sheet,
+// stored as a small binary sidecar so the player can snap seeks to keyframes
+// and show scrub previews without opening the video.
+public final class ScrubIndex {
+    private static final int MAGIC = 0x53435242;
+    private static final int VERSION = 1;
+
+    private final long durationUs;
+    private final long[] keyframeTimesUs;
+    private final long spriteIntervalUs;
+    private final int tileWidth;
+    private final int tileHeight;
+    private final int columns;
+    private final int tileCount;
+
+    public ScrubIndex(long durationUs, long[] keyframeTimesUs, long spriteIntervalUs,
+                      int tileWidth, int tileHeight, int columns, int tileCount) {
+        this.durationUs = durationUs;
+        this.keyframeTimesUs = keyframeTimesUs;
+        this.spriteIntervalUs = spriteIntervalUs;
+        this.tileWidth = tileWidth;
+        this.tileHeight = tileHeight;
+        this.columns = columns;
+        this.tileCount = tileCount;
+    }
+
+    // Spaces tiles at least minIntervalUs apart and widens the interval on
+    // long files so the sheet never holds more than maxTiles frames.
+    public static long spriteInterval(long durationUs, long minIntervalUs, int maxTiles) {
+        return Math.max(minIntervalUs, (durationUs + maxTiles - 1) / maxTiles);
+    }
+
+    public long getDurationUs() {
+        return durationUs;
+    }
+
+    public int getKeyframeCount() {
+        return keyframeTimesUs.length;
+    }
+
+    public long getSpriteIntervalUs() {
+        return spriteIntervalUs;
+    }
+
+    public int getTileWidth() {
+        return tileWidth;
+    }
+
+    public int getTileHeight() {
+        return tileHeight;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public int getTileCount() {
+        return tileCount;
+    }
+
+    // The last keyframe at or before timeUs, or the first keyframe when timeUs
+    // precedes all of them. Returns timeUs unchanged if there are none.
+    public long keyframeAtOrBefore(long timeUs) {
+        if (keyframeTimesUs.length == 0) {
+            return timeUs;
+        }
+        int index = Arrays.binarySearch(keyframeTimesUs, timeUs);
+        if (index >= 0) {
+            return keyframeTimesUs[index];
+        }
+        int insertion = -index - 1;
+        return keyframeTimesUs[Math.max(insertion - 1, 0)];
+    }
+
+    public long nearestKeyframe(long timeUs) {
+        if (keyframeTimesUs.length == 0) {
+            return timeUs;
+        }
+        int index = Arrays.binarySearch(keyframeTimesUs, timeUs);
+        if (index >= 0) {
+            return keyframeTimesUs[index];
+        }
+        int insertion = -index - 1;
+        if (insertion == 0) {
+            return keyframeTimesUs[0];
+        }
+        if (insertion == keyframeTimesUs.length) {
+            return keyframeTimesUs[insertion - 1];
+        }
+        long before = keyframeTimesUs[insertion - 1];
+        long after = keyframeTimesUs[insertion];
+        return timeUs - before <= after - timeUs ? before : after;
+    }
+
+    // Returns -1 when there is no sprite sheet.
+    public int tileIndexAt(long timeUs) {
+        if (tileCount == 0 || spriteIntervalUs <= 0) {
+            return -1;
+        }
+        long index = Math.max(timeUs, 0) / spriteIntervalUs;
+        return (int) Math.min(index, tileCount - 1);
+    }
+
+    public int tileLeft(int index) {
+        return (index % columns) * tileWidth;
+    }
+
+    public int tileTop(int index) {
+        return (index / columns) * tileHeight;
+    }
+
+    // Written to a temporary file and renamed, so a reader never sees a
+    // partial index.
+    public void writeTo(File file) throws IOException {
+        File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(durationUs);
+            out.writeLong(spriteIntervalUs);
+            out.writeInt(tileWidth);
+            out.writeInt(tileHeight);
+            out.writeInt(columns);
+            out.writeInt(tileCount);
+            out.writeInt(keyframeTimesUs.length);
+            for (long time : keyframeTimesUs) {
+                out.writeLong(time);
+            }
+        }
+        if (!tempFile.renameTo(file)) {
+            throw new IOException("Failed to commit " + file.getName());
+        }
+    }
+
+    public static ScrubIndex readFrom(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a scrub index: " + file.getName());
+            }
+            long durationUs = in.readLong();
+            long spriteIntervalUs = in.readLong();
+            int tileWidth = in.readInt();
+            int tileHeight = in.readInt();
+            int columns = in.readInt();
+            int tileCount = in.readInt();
+            int keyframeCount = in.readInt();
+            if (keyframeCount < 0 || columns <= 0 && tileCount > 0) {
+                throw new IOException("Corrupt scrub index: " + file.getName());
+            }
+            long[] keyframeTimesUs = new long[keyframeCount];
+            for (int i = 0; i < keyframeCount; i++) {
+                keyframeTimesUs[i] = in.readLong();
+            }
+            return new ScrubIndex(durationUs, keyframeTimesUs, spriteIntervalUs, tileWidth, tileHeight,
+                    columns, tileCount);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package com.example.secretcamera;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.media.MediaMetadataRetriever;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Builds the scrub sidecars for a recording: <name>.idx with the keyframe
+// table and <name>.jpg with a sprite sheet of low-resolution frames. Work runs
+// on one low-priority thread so it never competes with a live recording.
+public class ScrubIndexGenerator {
+    private static final String TAG = "ScrubIndexGenerator";
+    private static final int TILE_WIDTH = 160;
+    private static final int TILE_HEIGHT = 90;
+    private static final int COLUMNS = 10;
+    private static final int MAX_TILES = 100;
+    private static final long MIN_SPRITE_INTERVAL_US = 10000000L;
+
+    private static ScrubIndexGenerator instance;
+
+    private final File indexDir;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> new Thread(() -> {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        runnable.run();
+    }, "ScrubIndexGenerator"));
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private ScrubIndexGenerator(Context context) {
+        indexDir = new File(context.getExternalFilesDir(null), "ScrubIndex");
+    }
+
+    public static synchronized ScrubIndexGenerator getInstance(Context context) {
+        if (instance == null) {
+            instance = new ScrubIndexGenerator(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    public void generate(File video) {
+        executor.execute(() -> ensureIndex(video));
+    }
+
+    // Delivers null if the recording cannot be indexed. Missing or stale
+    // sidecars are rebuilt first, so older recordings are indexed on demand.
+    public void load(File video, VideoCatalog.Callback<ScrubIndex> callback) {
+        executor.execute(() -> {
+            ScrubIndex index = ensureIndex(video);
+            mainHandler.post(() -> callback.onResult(index));
+        });
+    }
+
+    public void loadSprite(File video, VideoCatalog.Callback<Bitmap> callback) {
+        executor.execute(() -> {
+            File spriteFile = getSpriteFile(video);
+            Bitmap sprite = spriteFile.exists() ? BitmapFactory.decodeFile(spriteFile.getAbsolutePath()) : null;
+            mainHandler.post(() -> callback.onResult(sprite));
+        });
+    }
+
+    public void delete(File video) {
+        executor.execute(() -> {
+            getIndexFile(video).delete();
+            getSpriteFile(video).delete();
+        });
+    }
+
+    private File getIndexFile(File video) {
+        return new File(indexDir, video.getName() + ".idx");
+    }
+
+    private File getSpriteFile(File video) {
+        return new File(indexDir, video.getName() + ".jpg");
+    }
+
+    private ScrubIndex ensureIndex(File video) {
+        File indexFile = getIndexFile(video);
+        if (indexFile.exists() && indexFile.lastModified() >= video.lastModified()) {
+            try {
+                return ScrubIndex.readFrom(indexFile);
+            } catch (IOException e) {
+                Log.e(TAG, "Error reading " + indexFile.getName() + ": " + e.getMessage());
+            }
+        }
+        if (!video.exists()) {
+            return null;
+        }
+        if (!indexDir.exists() && !indexDir.mkdirs()) {
+            Log.d(TAG, "Failed to create index directory");
+            return null;
+        }
+        return build(video, indexFile);
+    }
+
+    private ScrubIndex build(File video, File indexFile) {
+        long startMs = System.currentTimeMillis();
+        MediaExtractor extractor = new MediaExtractor();
+        long durationUs = 0;
+        long[] keyframes;
+        try {
+            extractor.setDataSource(video.getAbsolutePath());
+            int track = -1;
+            for (int i = 0; i < extractor.getTrackCount(); i++) {
+                MediaFormat format = extractor.getTrackFormat(i);
+                String mime = format.getString(MediaFormat.KEY_MIME);
+                if (mime != null && mime.startsWith("video/")) {
+                    track = i;
+                    if (format.containsKey(MediaFormat.KEY_DURATION)) {
+                        durationUs = format.getLong(MediaFormat.KEY_DURATION);
+                    }
+                    break;
+                }
+            }
+            if (track < 0) {
+                Log.d(TAG, "No video track in " + video.getName());
+                return null;
+            }
+            extractor.selectTrack(track);
+            keyframes = readKeyframes(extractor);
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Error reading keyframes of " + video.getName() + ": " + e.getMessage());
+            return null;
+        } finally {
+            extractor.release();
+        }
+
+        long intervalUs = ScrubIndex.spriteInterval(durationUs, MIN_SPRITE_INTERVAL_US, MAX_TILES);
+        int tileCount = durationUs > 0 ? (int) Math.min(MAX_TILES, (durationUs + intervalUs - 1) / intervalUs) : 0;
+        tileCount = writeSprite(video, intervalUs, tileCount);
+
+        ScrubIndex index = new ScrubIndex(durationUs, keyframes, intervalUs, TILE_WIDTH, TILE_HEIGHT,
+                COLUMNS, tileCount);
+        try {
+            index.writeTo(indexFile);
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing " + indexFile.getName() + ": " + e.getMessage());
+        }
+        Log.d(TAG, "Indexed " + video.getName() + ": " + keyframes.length + " keyframes, " + tileCount
+                + " tiles in " + (System.currentTimeMillis() - startMs) + "ms");
+        return index;
+    }
+
+    // Hops from one sync sample to the next instead of stepping through every
+    // frame, so the cost scales with the number of keyframes.
+    private static long[] readKeyframes(MediaExtractor extractor) {
+        long[] times = new long[256];
+        int count = 0;
+        long nextUs = 0;
+        while (true) {
+            extractor.seekTo(nextUs, MediaExtractor.SEEK_TO_NEXT_SYNC);
+            long timeUs = extractor.getSampleTime();
+            if (timeUs < 0 || count > 0 && timeUs <= times[count - 1]) {
+                break;
+            }
+            if (count == times.length) {
+                times = Arrays.copyOf(times, count * 2);
+            }
+            times[count++] = timeUs;
+            nextUs = timeUs + 1;
+        }
+        return Arrays.copyOf(times, count);
+    }
+
+    // Returns the number of tiles actually drawn; 0 if the sheet could not be written.
+    private int writeSprite(File video, long intervalUs, int tileCount) {
+        if (tileCount == 0) {
+            return 0;
+        }
+        int rows = (tileCount + COLUMNS - 1) / COLUMNS;
+        Bitmap sheet = Bitmap.createBitmap(COLUMNS * TILE_WIDTH, rows * TILE_HEIGHT, Bitmap.Config.RGB_565);
+        Canvas canvas = new Canvas(sheet);
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        int drawn = 0;
+        try {
+            retriever.setDataSource(video.getAbsolutePath());
+            for (int i = 0; i < tileCount; i++) {
+                Bitmap frame = retriever.getScaledFrameAtTime(i * intervalUs,
+                        MediaMetadataRetriever.OPTION_CLOSEST_SYNC, TILE_WIDTH, TILE_HEIGHT);
+                if (frame == null) {
+                    break;
+                }
+                canvas.drawBitmap(frame, (i % COLUMNS) * TILE_WIDTH, (i / COLUMNS) * TILE_HEIGHT, null);
+                frame.recycle();
+                drawn++;
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Error extracting sprite frames of " + video.getName() + ": " + e.getMessage());
+        } finally {
+            try {
+                retriever.release();
+            } catch (Exception e) {
+                Log.e(TAG, "Error releasing retriever: " + e.getMessage());
+            }
+        }
+
+        File spriteFile = getSpriteFile(video);
+        File tempFile = new File(indexDir, spriteFile.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tempFile)) {
+            sheet.compress(Bitmap.CompressFormat.JPEG, 70, out);
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing sprite sheet: " + e.getMessage());
+            return 0;
+        } finally {
+            sheet.recycle();
+        }
+        if (!tempFile.renameTo(spriteFile)) {
+            Log.d(TAG, "Failed to commit sprite sheet " + spriteFile.getName());
+            return 0;
+        }
+        return drawn;
+    }
+}
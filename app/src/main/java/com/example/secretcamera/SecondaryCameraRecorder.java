@@ -0,0 +1,237 @@
+package com.example.secretcamera;
+
+import android.content.Context;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureRequest;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.view.Surface;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+
+// Records a second camera next to the one CameraBackgroundService drives,
+// with its own device, session, encoder and handler thread so neither
+// pipeline waits on the other. It has no segment schedule of its own: each
+// time the primary starts a file, splitTo starts the companion file at this
+// camera's next key frame. Video only, since the primary has the microphone.
+// Any failure ends just this recorder and is reported with its reason.
+public class SecondaryCameraRecorder {
+    private static final String TAG = "SecondaryCameraRecorder";
+    private static final long STOP_TIMEOUT_MS = 5000;
+
+    public interface Listener {
+        // Writer thread.
+        void onFileFinished(File file);
+
+        // Secondary camera thread; the recorder has already shut down.
+        void onUnavailable(String reason);
+    }
+
+    private final Context context;
+    private final String cameraId;
+    private final EncoderProfile profile;
+    private final RecordingOutput.Options outputOptions;
+    private final Listener listener;
+    private final HandlerThread thread;
+    private final Handler handler;
+    private CameraDevice cameraDevice;
+    private CameraCaptureSession session;
+    private volatile CodecRecordingEngine engine;
+    private boolean engineStarted;
+    private Surface surface;
+    private File firstFile;
+    private volatile File pendingFile;
+    private boolean stopped;
+
+    public SecondaryCameraRecorder(Context context, String cameraId, EncoderProfile profile,
+                                   RecordingOutput.Options outputOptions, Listener listener) {
+        this.context = context;
+        this.cameraId = cameraId;
+        this.profile = profile;
+        this.outputOptions = outputOptions;
+        this.listener = listener;
+        thread = new HandlerThread("SecondaryCamera");
+        thread.start();
+        handler = new Handler(thread.getLooper());
+    }
+
+    public void start(File file) {
+        handler.post(() -> {
+            firstFile = file;
+            engine = new CodecRecordingEngine(profile, 0, 0, false, false, false, outputOptions, engineListener);
+            try {
+                surface = engine.prepare(file, null);
+            } catch (IOException | IllegalStateException e) {
+                fail("encoder setup failed (" + e.getMessage() + ")");
+                return;
+            }
+            CameraManager cameraManager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+            try {
+                cameraManager.openCamera(cameraId, stateCallback, handler);
+            } catch (CameraAccessException | SecurityException e) {
+                fail("camera " + cameraId + " could not be opened (" + e.getMessage() + ")");
+            }
+        });
+    }
+
+    // Any thread. Takes effect at this camera's next key frame.
+    public void splitTo(File file) {
+        pendingFile = file;
+        CodecRecordingEngine current = engine;
+        if (current != null) {
+            current.splitAtNextKeyFrame();
+        }
+    }
+
+    // Finalizes the current file. Blocks until done.
+    public void stop() {
+        handler.post(() -> {
+            stopped = true;
+            teardown(true);
+        });
+        thread.quitSafely();
+        try {
+            thread.join(STOP_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Log.e(TAG, "Interrupted while stopping");
+        }
+    }
+
+    private final CameraDevice.StateCallback stateCallback = new CameraDevice.StateCallback() {
+        @Override
+        public void onOpened(@NonNull CameraDevice camera) {
+            cameraDevice = camera;
+            if (stopped) {
+                teardown(false);
+                return;
+            }
+            try {
+                camera.createCaptureSession(Collections.singletonList(surface), sessionCallback, handler);
+            } catch (CameraAccessException | IllegalStateException e) {
+                fail("session could not be created (" + e.getMessage() + ")");
+            }
+        }
+
+        @Override
+        public void onDisconnected(@NonNull CameraDevice camera) {
+            camera.close();
+            if (camera == cameraDevice) {
+                cameraDevice = null;
+                fail("camera " + cameraId + " disconnected");
+            }
+        }
+
+        @Override
+        public void onError(@NonNull CameraDevice camera, int error) {
+            camera.close();
+            if (camera == cameraDevice || cameraDevice == null) {
+                cameraDevice = null;
+                fail(error == CameraDevice.StateCallback.ERROR_MAX_CAMERAS_IN_USE
+                        ? "too many cameras in use" : "camera " + cameraId + " error " + error);
+            }
+        }
+    };
+
+    private final CameraCaptureSession.StateCallback sessionCallback = new CameraCaptureSession.StateCallback() {
+        @Override
+        public void onConfigured(@NonNull CameraCaptureSession configured) {
+            if (stopped) {
+                configured.close();
+                return;
+            }
+            session = configured;
+            try {
+                CaptureRequest.Builder builder = cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_RECORD);
+                builder.addTarget(surface);
+                builder.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_VIDEO);
+                session.setRepeatingRequest(builder.build(), null, handler);
+                engine.start();
+                engineStarted = true;
+                Log.d(TAG, "Recording camera " + cameraId + " at " + profile);
+            } catch (CameraAccessException | IllegalStateException e) {
+                fail("capture could not start (" + e.getMessage() + ")");
+            }
+        }
+
+        @Override
+        public void onConfigureFailed(@NonNull CameraCaptureSession configured) {
+            fail("camera " + cameraId + " rejected the " + profile.getWidth() + "x" + profile.getHeight()
+                    + " stream alongside the other camera");
+        }
+    };
+
+    private final RecordingEngine.Listener engineListener = new RecordingEngine.Listener() {
+        @Override
+        public File onNextOutputFile() {
+            File next = pendingFile;
+            pendingFile = null;
+            return next;
+        }
+
+        @Override
+        public void onSegmentStarted(File file) {
+            Log.d(TAG, "Started " + file.getName());
+        }
+
+        @Override
+        public void onFileFinished(File file) {
+            listener.onFileFinished(file);
+        }
+
+        @Override
+        public void onError(String message) {
+            handler.post(() -> fail(message));
+        }
+    };
+
+    // Secondary camera thread.
+    private void fail(String reason) {
+        if (stopped) {
+            return;
+        }
+        stopped = true;
+        Log.e(TAG, "Secondary camera stopped: " + reason);
+        teardown(true);
+        listener.onUnavailable(reason);
+        thread.quitSafely();
+    }
+
+    // Secondary camera thread. An engine that never started is released and
+    // its empty file removed.
+    private void teardown(boolean finalize) {
+        if (session != null) {
+            try {
+                session.stopRepeating();
+            } catch (CameraAccessException | IllegalStateException e) {
+                Log.d(TAG, "Session already closed");
+            }
+        }
+        if (engine != null) {
+            if (finalize && engineStarted) {
+                engine.stop();
+            } else {
+                engine.release();
+                if (firstFile != null && !firstFile.delete()) {
+                    Log.d(TAG, "Failed to delete empty output file");
+                }
+            }
+            engine = null;
+        }
+        if (session != null) {
+            session.close();
+            session = null;
+        }
+        if (cameraDevice != null) {
+            cameraDevice.close();
+            cameraDevice = null;
+        }
+    }
+}
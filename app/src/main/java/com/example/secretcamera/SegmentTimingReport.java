@@ -0,0 +1,90 @@
+package com.example.secretcamera;
+
+import android.media.MediaMetadataRetriever;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+public class SegmentTimingReport {
+    private static final String TAG = "SegmentTimingReport";
+
+    private final List<Segment> segments = new ArrayList<>();
+
+    private static class Segment {
+        final File file;
+        final long startedAtMs;
+        long endedAtMs;
+
+        Segment(File file, long startedAtMs) {
+            this.file = file;
+            this.startedAtMs = startedAtMs;
+        }
+    }
+
+    public synchronized void onSegmentStarted(File file) {
+        long now = SystemClock.elapsedRealtime();
+        if (!segments.isEmpty()) {
+            segments.get(segments.size() - 1).endedAtMs = now;
+        }
+        segments.add(new Segment(file, now));
+    }
+
+    public synchronized void onRecordingStopped() {
+        if (!segments.isEmpty()) {
+            segments.get(segments.size() - 1).endedAtMs = SystemClock.elapsedRealtime();
+        }
+    }
+
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    // Compares the wall-clock span of each segment with the media duration the
+    // muxer actually wrote; a positive gap at a boundary means lost frames.
+    public synchronized void writeTo(File reportFile) {
+        try (FileWriter writer = new FileWriter(reportFile)) {
+            writer.write("index,file,start_ms,wall_ms,media_ms,bytes,gap_ms\n");
+            long firstStart = segments.isEmpty() ? 0 : segments.get(0).startedAtMs;
+            for (int i = 0; i < segments.size(); i++) {
+                Segment segment = segments.get(i);
+                long wallMs = segment.endedAtMs - segment.startedAtMs;
+                long mediaMs = readDurationMs(segment.file);
+                writer.write(String.format(Locale.US, "%d,%s,%d,%d,%d,%d,%d\n",
+                        i,
+                        segment.file.getName(),
+                        segment.startedAtMs - firstStart,
+                        wallMs,
+                        mediaMs,
+                        segment.file.length(),
+                        mediaMs < 0 ? -1 : wallMs - mediaMs));
+            }
+            Log.d(TAG, "Wrote segment report for " + segments.size() + " segments to " + reportFile.getName());
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing segment report: " + e.getMessage());
+        }
+    }
+
+    private long readDurationMs(File file) {
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            retriever.setDataSource(file.getAbsolutePath());
+            String duration = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION);
+            return duration != null ? Long.parseLong(duration) : -1;
+        } catch (Exception e) {
+            Log.e(TAG, "Error reading duration of " + file.getName() + ": " + e.getMessage());
+            return -1;
+        } finally {
+            try {
+                retriever.release();
+            } catch (Exception e) {
+                Log.e(TAG, "Error releasing retriever: " + e.getMessage());
+            }
+        }
+    }
+}
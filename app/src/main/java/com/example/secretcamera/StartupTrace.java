@@ -0,0 +1,51 @@
+package com.example.secretcamera;
+
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class StartupTrace {
+    public static final String KEY_LAST_TIME_TO_FIRST_FRAME_MS = "lastTimeToFirstFrameMs";
+
+    private final long originMs;
+    private final List<String> phases = new ArrayList<>();
+    private final List<Long> times = new ArrayList<>();
+    private boolean finished;
+
+    public StartupTrace(long originMs) {
+        this.originMs = originMs;
+    }
+
+    public synchronized void mark(String phase) {
+        if (!finished) {
+            phases.add(phase);
+            times.add(SystemClock.elapsedRealtime());
+        }
+    }
+
+    public synchronized boolean isFinished() {
+        return finished;
+    }
+
+    public synchronized long finish(String phase) {
+        mark(phase);
+        finished = true;
+        return times.get(times.size() - 1) - originMs;
+    }
+
+    public synchronized String summary() {
+        StringBuilder builder = new StringBuilder();
+        long previous = originMs;
+        for (int i = 0; i < phases.size(); i++) {
+            long time = times.get(i);
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(phases.get(i)).append('=').append(time - originMs)
+                    .append("ms (+").append(time - previous).append(')');
+            previous = time;
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,185 @@
+package com.example.secretcamera;
+
+import android.content.Context;
+import android.os.StatFs;
+import android.util.Log;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+public class StorageQuotaManager {
+    private static final String TAG = "StorageQuotaManager";
+    private static final long MONITOR_INTERVAL_SECONDS = 30;
+
+    private static StorageQuotaManager instance;
+
+    private final Context context;
+    private final File directory;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    // Oldest first, with the size each file was counted at. Files are appended
+    // as they are finished, so the head is always the next eviction candidate
+    // and the tally never needs a rescan.
+    private final LinkedHashMap<File, Long> recordings = new LinkedHashMap<>();
+    // Files still being written. The first scan can pick one up, and it must
+    // never be evicted from under the recorder.
+    private final Set<File> activeFiles = new HashSet<>();
+    private long totalBytes;
+    private boolean scanned;
+    private ScheduledFuture<?> monitor;
+
+    private StorageQuotaManager(Context context) {
+        this.context = context;
+        directory = new File(context.getExternalFilesDir(null), "SecretVideos");
+        executor.execute(this::ensureScanned);
+    }
+
+    public static synchronized StorageQuotaManager getInstance(Context context) {
+        if (instance == null) {
+            instance = new StorageQuotaManager(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private synchronized void ensureScanned() {
+        if (scanned) {
+            return;
+        }
+        File[] files = directory.listFiles((dir, name) -> RecordingFileNames.isRecording(name));
+        if (files != null) {
+            Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+            for (File file : files) {
+                long length = file.length();
+                recordings.put(file, length);
+                totalBytes += length;
+            }
+        }
+        scanned = true;
+        Log.d(TAG, "Tracking " + recordings.size() + " recordings, " + totalBytes + " bytes");
+    }
+
+    public synchronized long getTotalBytes() {
+        ensureScanned();
+        return totalBytes;
+    }
+
+    // Called on the recorder thread before each new output file. Eviction down
+    // to the budget happens in the background; only when the volume cannot
+    // hold the next file right now do we evict inline on the caller's thread.
+    // The free-space reserve is a hard floor: a file that would eat into it
+    // is refused rather than filling the disk.
+    public boolean prepareForNewFile(long expectedBytes) {
+        RecordingSettings settings = RecordingSettings.load(context);
+        long available = getAvailableBytes();
+        long required = expectedBytes + settings.getMinFreeBytes();
+
+        if (available < required) {
+            Log.d(TAG, "Low headroom: " + available + " available, " + required + " required");
+            evict(required - available, settings);
+            available = getAvailableBytes();
+        }
+        executor.execute(() -> evict(0, RecordingSettings.load(context)));
+        if (available < required) {
+            Log.e(TAG, "Refusing new file: " + available + " bytes available, " + expectedBytes
+                    + " needed plus a reserve of " + settings.getMinFreeBytes());
+            return false;
+        }
+        return true;
+    }
+
+    public synchronized void onFileStarted(File file) {
+        activeFiles.add(file);
+    }
+
+    public synchronized void onFileFinished(File file) {
+        activeFiles.remove(file);
+        ensureScanned();
+        long length = file.length();
+        Long previous = recordings.put(file, length);
+        totalBytes += length - (previous != null ? previous : 0);
+    }
+
+    public synchronized void onFileDeleted(File file) {
+        activeFiles.remove(file);
+        Long previous = recordings.remove(file);
+        if (previous != null) {
+            totalBytes -= previous;
+        }
+    }
+
+    public synchronized void startMonitoring() {
+        if (monitor == null) {
+            monitor = executor.scheduleWithFixedDelay(
+                    () -> evict(0, RecordingSettings.load(context)),
+                    MONITOR_INTERVAL_SECONDS, MONITOR_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    // Called once every file of the recording has been finished or dropped,
+    // so files started but never finished are forgotten here.
+    public synchronized void stopMonitoring() {
+        activeFiles.clear();
+        if (monitor != null) {
+            monitor.cancel(false);
+            monitor = null;
+        }
+    }
+
+    private synchronized void evict(long extraBytes, RecordingSettings settings) {
+        ensureScanned();
+        long budget = settings.getQuotaBytes(getVolumeBytes());
+        long headroomShortfall = settings.getMinFreeBytes() - getAvailableBytes();
+        long toFree = Math.max(Math.max(totalBytes - budget, headroomShortfall), extraBytes);
+        if (toFree <= 0) {
+            return;
+        }
+
+        Set<String> protectedPaths = VideoCatalog.getInstance(context).getProtectedPaths();
+        long freed = 0;
+        int evicted = 0;
+        Iterator<Map.Entry<File, Long>> iterator = recordings.entrySet().iterator();
+        while (freed < toFree && iterator.hasNext()) {
+            Map.Entry<File, Long> entry = iterator.next();
+            File file = entry.getKey();
+            if (protectedPaths.contains(file.getAbsolutePath()) || activeFiles.contains(file)) {
+                continue;
+            }
+            long length = entry.getValue();
+            if (!file.exists() || file.delete()) {
+                iterator.remove();
+                totalBytes -= length;
+                freed += length;
+                evicted++;
+            } else {
+                Log.e(TAG, "Failed to evict " + file.getName());
+            }
+        }
+        Log.d(TAG, "Evicted " + evicted + " recordings, freed " + freed + " of " + toFree + " bytes");
+    }
+
+    private long getAvailableBytes() {
+        try {
+            return new StatFs(directory.getPath()).getAvailableBytes();
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Error reading free space: " + e.getMessage());
+            return 0;
+        }
+    }
+
+    private long getVolumeBytes() {
+        try {
+            return new StatFs(directory.getPath()).getTotalBytes();
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Error reading volume size: " + e.getMessage());
+            return 0;
+        }
+    }
+}
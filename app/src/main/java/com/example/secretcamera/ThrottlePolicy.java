@@ -0,0 +1,136 @@
+package com.example.secretcamera;
+
+// Decides how hard capture should be throttled. Each tier keeps the cuts of
+// the ones below it: first a lower frame rate, then a lower bitrate, then a
+// smaller frame. Pressure from heat or battery takes effect at once; recovery
+// goes back one tier at a time, and only after conditions have stayed below
+// the current tier for recoveryMs, so a device hovering at a threshold does
+// not flip between tiers on every segment.
+//
+// Not thread-safe; CaptureThrottle guards it.
+public class ThrottlePolicy {
+    public static final int TIER_FULL = 0;
+    public static final int TIER_REDUCED_FPS = 1;
+    public static final int TIER_REDUCED_BITRATE = 2;
+    public static final int TIER_REDUCED_RESOLUTION = 3;
+
+    // PowerManager.THERMAL_STATUS_* values.
+    static final int THERMAL_STATUS_MODERATE = 2;
+    static final int THERMAL_STATUS_SEVERE = 3;
+    static final int THERMAL_STATUS_CRITICAL = 4;
+
+    private static final int REDUCED_FRAME_RATE = 24;
+    private static final int MINIMUM_FRAME_RATE = 15;
+    private static final double REDUCED_BITRATE_FACTOR = 0.6;
+
+    private final long recoveryMs;
+    private int pressureTier;
+    private int appliedTier;
+    private long calmSinceMs = -1;
+
+    public ThrottlePolicy(long recoveryMs) {
+        this.recoveryMs = recoveryMs;
+    }
+
+    public static int tierForThermalStatus(int status) {
+        if (status >= THERMAL_STATUS_CRITICAL) {
+            return TIER_REDUCED_RESOLUTION;
+        } else if (status == THERMAL_STATUS_SEVERE) {
+            return TIER_REDUCED_BITRATE;
+        } else if (status == THERMAL_STATUS_MODERATE) {
+            return TIER_REDUCED_FPS;
+        }
+        return TIER_FULL;
+    }
+
+    // A hot battery is throttled even while charging; a low one only when
+    // it is not.
+    public static int tierForBattery(int levelPercent, boolean charging, int temperatureTenthsC, boolean powerSave) {
+        int tier = TIER_FULL;
+        if (temperatureTenthsC >= 500) {
+            tier = TIER_REDUCED_RESOLUTION;
+        } else if (temperatureTenthsC >= 450) {
+            tier = TIER_REDUCED_BITRATE;
+        }
+        if (!charging && levelPercent >= 0) {
+            if (levelPercent <= 10) {
+                tier = Math.max(tier, TIER_REDUCED_RESOLUTION);
+            } else if (levelPercent <= 20) {
+                tier = Math.max(tier, TIER_REDUCED_BITRATE);
+            } else if (levelPercent <= 35) {
+                tier = Math.max(tier, TIER_REDUCED_FPS);
+            }
+        }
+        if (powerSave) {
+            tier = Math.max(tier, TIER_REDUCED_FPS);
+        }
+        return tier;
+    }
+
+    public static int frameRateFor(int tier, int baseFrameRate) {
+        if (tier >= TIER_REDUCED_RESOLUTION) {
+            return Math.min(baseFrameRate, MINIMUM_FRAME_RATE);
+        } else if (tier >= TIER_REDUCED_FPS) {
+            return Math.min(baseFrameRate, REDUCED_FRAME_RATE);
+        }
+        return baseFrameRate;
+    }
+
+    // Bits per frame and per pixel are kept when the frame rate or size drops,
+    // so quality only really falls at the bitrate tier.
+    public static int bitRateFor(int tier, int baseBitRate, int baseFrameRate, long basePixels, long pixels) {
+        double bitRate = (double) baseBitRate * frameRateFor(tier, baseFrameRate) / baseFrameRate;
+        bitRate = bitRate * pixels / basePixels;
+        if (tier >= TIER_REDUCED_BITRATE) {
+            bitRate *= REDUCED_BITRATE_FACTOR;
+        }
+        return (int) bitRate;
+    }
+
+    // 1080p steps down to 720p and 720p to 480p.
+    public static int maxHeightFor(int tier, int baseHeight) {
+        return tier >= TIER_REDUCED_RESOLUTION ? baseHeight * 2 / 3 : baseHeight;
+    }
+
+    public static boolean reducesResolution(int tier) {
+        return tier >= TIER_REDUCED_RESOLUTION;
+    }
+
+    public void onPressure(int tier, long nowMs) {
+        pressureTier = tier;
+        updateCalm(nowMs);
+    }
+
+    public int getPressureTier() {
+        return pressureTier;
+    }
+
+    public int getAppliedTier() {
+        return appliedTier;
+    }
+
+    // The tier the next segment should be recorded at.
+    public int nextTier(long nowMs) {
+        if (pressureTier > appliedTier) {
+            return pressureTier;
+        }
+        if (pressureTier < appliedTier && calmSinceMs >= 0 && nowMs - calmSinceMs >= recoveryMs) {
+            return appliedTier - 1;
+        }
+        return appliedTier;
+    }
+
+    public void onApplied(int tier, long nowMs) {
+        appliedTier = tier;
+        calmSinceMs = -1;
+        updateCalm(nowMs);
+    }
+
+    private void updateCalm(long nowMs) {
+        if (pressureTier >= appliedTier) {
+            calmSinceMs = -1;
+        } else if (calmSinceMs < 0) {
+            calmSinceMs = nowMs;
+        }
+    }
+}
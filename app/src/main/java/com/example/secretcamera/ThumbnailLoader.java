@@ -0,0 +1,217 @@
+package com.example.secretcamera;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.MediaMetadataRetriever;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class ThumbnailLoader {
+    private static final String TAG = "ThumbnailLoader";
+    private static final int THUMBNAIL_WIDTH = 320;
+    private static final int THUMBNAIL_HEIGHT = 180;
+    private static final long MAX_DISK_CACHE_BYTES = 50L * 1024L * 1024L;
+    private static final int DECODE_THREADS = 2;
+
+    private final File diskCacheDir;
+    private final LruCache<String, Bitmap> memoryCache;
+    private final ExecutorService executor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Map<ImageView, Future<?>> pendingLoads = new WeakHashMap<>();
+    private final Set<String> inFlight = Collections.synchronizedSet(new HashSet<>());
+
+    public ThumbnailLoader(Context context) {
+        diskCacheDir = new File(context.getCacheDir(), "thumbnails");
+
+        int cacheSizeKb = (int) (Runtime.getRuntime().maxMemory() / 1024 / 8);
+        memoryCache = new LruCache<String, Bitmap>(cacheSizeKb) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount() / 1024;
+            }
+        };
+
+        executor = Executors.newFixedThreadPool(DECODE_THREADS, runnable -> new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            runnable.run();
+        }, "ThumbnailLoader"));
+        executor.execute(this::trimDiskCache);
+    }
+
+    // Must be called on the main thread. The view is tagged with the key so a
+    // late result for a recycled view is dropped instead of shown in the wrong cell.
+    public void load(File videoFile, long size, long lastModified, ImageView target) {
+        cancel(target);
+        String key = cacheKey(videoFile, size, lastModified);
+        target.setTag(key);
+
+        Bitmap cached = memoryCache.get(key);
+        if (cached != null) {
+            target.setImageBitmap(cached);
+            return;
+        }
+
+        target.setImageDrawable(null);
+        Future<?> future = executor.submit(() -> {
+            Bitmap bitmap = loadBitmap(videoFile, key);
+            mainHandler.post(() -> {
+                pendingLoads.remove(target);
+                if (!key.equals(target.getTag())) {
+                    return;
+                }
+                if (bitmap != null) {
+                    target.setImageBitmap(bitmap);
+                } else {
+                    target.setImageResource(android.R.drawable.ic_media_play);
+                }
+            });
+        });
+        pendingLoads.put(target, future);
+    }
+
+    public void cancel(ImageView target) {
+        Future<?> future = pendingLoads.remove(target);
+        if (future != null) {
+            future.cancel(false);
+        }
+        target.setTag(null);
+    }
+
+    public void prefetch(File videoFile, long size, long lastModified) {
+        String key = cacheKey(videoFile, size, lastModified);
+        if (memoryCache.get(key) != null || !inFlight.add(key)) {
+            return;
+        }
+        executor.execute(() -> {
+            try {
+                loadBitmap(videoFile, key);
+            } finally {
+                inFlight.remove(key);
+            }
+        });
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+        memoryCache.evictAll();
+    }
+
+    private Bitmap loadBitmap(File videoFile, String key) {
+        Bitmap bitmap = memoryCache.get(key);
+        if (bitmap != null) {
+            return bitmap;
+        }
+
+        File diskFile = new File(diskCacheDir, key + ".jpg");
+        if (diskFile.exists()) {
+            bitmap = BitmapFactory.decodeFile(diskFile.getAbsolutePath());
+        }
+        if (bitmap == null) {
+            bitmap = extractFrame(videoFile);
+            if (bitmap != null) {
+                writeToDisk(bitmap, diskFile);
+            }
+        }
+        if (bitmap != null) {
+            memoryCache.put(key, bitmap);
+        }
+        return bitmap;
+    }
+
+    private Bitmap extractFrame(File videoFile) {
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            retriever.setDataSource(videoFile.getAbsolutePath());
+            // The scaled variant decodes straight into a small bitmap instead of
+            // allocating a full-resolution frame and scaling it afterwards.
+            return retriever.getScaledFrameAtTime(0, MediaMetadataRetriever.OPTION_CLOSEST_SYNC,
+                    THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT);
+        } catch (Exception e) {
+            Log.e(TAG, "Error extracting thumbnail for " + videoFile.getName() + ": " + e.getMessage());
+            return null;
+        } finally {
+            try {
+                retriever.release();
+            } catch (Exception e) {
+                Log.e(TAG, "Error releasing retriever: " + e.getMessage());
+            }
+        }
+    }
+
+    private void writeToDisk(Bitmap bitmap, File diskFile) {
+        if (!diskCacheDir.exists() && !diskCacheDir.mkdirs()) {
+            Log.d(TAG, "Failed to create thumbnail cache directory");
+            return;
+        }
+        File tempFile = new File(diskCacheDir, diskFile.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tempFile)) {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, 80, out);
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing thumbnail: " + e.getMessage());
+            return;
+        }
+        if (!tempFile.renameTo(diskFile)) {
+            Log.d(TAG, "Failed to commit thumbnail " + diskFile.getName());
+        }
+    }
+
+    private void trimDiskCache() {
+        File[] files = diskCacheDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= MAX_DISK_CACHE_BYTES) {
+            return;
+        }
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File file : files) {
+            if (total <= MAX_DISK_CACHE_BYTES) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+            }
+        }
+    }
+
+    static String cacheKey(File videoFile, long size, long lastModified) {
+        String source = videoFile.getAbsolutePath() + "|" + size + "|" + lastModified;
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] hash = digest.digest(source.getBytes(StandardCharsets.UTF_8));
+            StringBuilder builder = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                builder.append(String.format("%02x", b));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(source.hashCode()) + "_" + size + "_" + lastModified;
+        }
+    }
+}
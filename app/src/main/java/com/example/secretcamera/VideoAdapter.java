@@ -2,7 +2,6 @@ package com.example.secretcamera;
 
 import android.app.AlertDialog;
 import android.content.Context;
-import android.media.MediaMetadataRetriever;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -12,27 +11,53 @@ import android.widget.TextView;
 import androidx.annotation.NonNull;
 import androidx.recyclerview.widget.RecyclerView;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+
+// Backed by a PagedVideoList: cells whose row has not arrived yet are bound
+// as empty placeholders and filled in when the page lands. Item ids are
+// catalog row ids, so inserts and removals move only the cells affected.
+public class VideoAdapter extends RecyclerView.Adapter<VideoAdapter.VideoViewHolder>
+        implements PagedVideoList.Listener {
+    private static final Object PAYLOAD_SELECTION = new Object();
 
-public class VideoAdapter extends RecyclerView.Adapter<VideoAdapter.VideoViewHolder> {
     private Context context;
-    private List<File> videoFiles;
+    private final PagedVideoList videos;
     private OnVideoClickListener listener;
     private OnVideoDeleteListener deleteListener;
+    private final ThumbnailLoader thumbnailLoader;
+    // Selected entries are kept by id so the selection survives their page
+    // being evicted.
+    private final Map<Long, VideoEntry> selected = new LinkedHashMap<>();
+    private OnSelectionChangedListener selectionListener;
+    private OnCountChangedListener countListener;
 
     public interface OnVideoClickListener {
         void onVideoClick(File videoFile);
     }
 
     public interface OnVideoDeleteListener {
-        void onVideoDelete(File videoFile, int position);
+        void onVideoDelete(VideoEntry video);
+    }
+
+    public interface OnSelectionChangedListener {
+        void onSelectionChanged(int selectedCount);
+    }
+
+    public interface OnCountChangedListener {
+        void onCountChanged(int count);
     }
 
-    public VideoAdapter(Context context, List<File> videoFiles, OnVideoClickListener listener, OnVideoDeleteListener deleteListener) {
+    public VideoAdapter(Context context, PagedVideoList videos, OnVideoClickListener listener, OnVideoDeleteListener deleteListener) {
         this.context = context;
-        this.videoFiles = videoFiles;
+        this.videos = videos;
         this.listener = listener;
         this.deleteListener = deleteListener;
+        this.thumbnailLoader = new ThumbnailLoader(context);
+        videos.setListener(this);
+        setHasStableIds(true);
     }
 
     @NonNull
@@ -42,40 +67,62 @@ public class VideoAdapter extends RecyclerView.Adapter<VideoAdapter.VideoViewHol
         return new VideoViewHolder(view);
     }
 
+    public void setOnSelectionChangedListener(OnSelectionChangedListener selectionListener) {
+        this.selectionListener = selectionListener;
+    }
+
+    public void setOnCountChangedListener(OnCountChangedListener countListener) {
+        this.countListener = countListener;
+    }
+
+    // Selection changes only redraw the check mark, not the thumbnail.
+    @Override
+    public void onBindViewHolder(@NonNull VideoViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (payloads.contains(PAYLOAD_SELECTION)) {
+            bindSelection(holder, videos.get(position));
+        } else {
+            onBindViewHolder(holder, position);
+        }
+    }
+
     @Override
     public void onBindViewHolder(@NonNull VideoViewHolder holder, int position) {
-        File videoFile = videoFiles.get(position);
-
-        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
-        try {
-            retriever.setDataSource(videoFile.getAbsolutePath());
-            holder.thumbnail.setImageBitmap(retriever.getFrameAtTime());
-        } catch (Exception e) {
-            e.printStackTrace();
-            holder.thumbnail.setImageResource(android.R.drawable.ic_media_play);
-        } finally {
-            try {
-                retriever.release();
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
+        VideoEntry video = videos.get(position);
+        bindSelection(holder, video);
+        if (video == null) {
+            bindPlaceholder(holder);
+            return;
         }
+        File videoFile = video.getFile();
+
+        thumbnailLoader.load(videoFile, video.getSizeBytes(), video.getLastModified(), holder.thumbnail);
 
-        holder.videoName.setText(videoFile.getName());
+        holder.videoName.setText(video.getName());
+        holder.videoDetails.setText(video.getSummary());
+        holder.deleteButton.setVisibility(View.VISIBLE);
 
+        // Once something is selected, taps extend the selection instead of
+        // opening the player; a long press always toggles.
         holder.itemView.setOnClickListener(v -> {
-            if (listener != null) {
+            if (!selected.isEmpty()) {
+                toggleSelection(holder);
+            } else if (listener != null) {
                 listener.onVideoClick(videoFile);
             }
         });
 
+        holder.itemView.setOnLongClickListener(v -> {
+            toggleSelection(holder);
+            return true;
+        });
+
         holder.deleteButton.setOnClickListener(v -> {
             new AlertDialog.Builder(context)
                     .setTitle("Delete Video")
                     .setMessage("Are you sure you want to delete this video?")
                     .setPositiveButton("Yes", (dialog, which) -> {
                         if (deleteListener != null) {
-                            deleteListener.onVideoDelete(videoFile, position);
+                            deleteListener.onVideoDelete(video);
                         }
                     })
                     .setNegativeButton("No", null)
@@ -83,26 +130,142 @@ public class VideoAdapter extends RecyclerView.Adapter<VideoAdapter.VideoViewHol
         });
     }
 
+    private void bindPlaceholder(VideoViewHolder holder) {
+        thumbnailLoader.cancel(holder.thumbnail);
+        holder.thumbnail.setImageDrawable(null);
+        holder.videoName.setText("");
+        holder.videoDetails.setText("");
+        holder.deleteButton.setVisibility(View.INVISIBLE);
+        holder.itemView.setOnClickListener(null);
+        holder.itemView.setOnLongClickListener(null);
+    }
+
+    @Override
+    public void onViewRecycled(@NonNull VideoViewHolder holder) {
+        super.onViewRecycled(holder);
+        thumbnailLoader.cancel(holder.thumbnail);
+    }
+
     @Override
     public int getItemCount() {
-        return videoFiles.size();
+        return videos.size();
+    }
+
+    // The catalog row id, known even while the row itself is loading.
+    @Override
+    public long getItemId(int position) {
+        return videos.getId(position);
+    }
+
+    @Override
+    public void onCountChanged(int count) {
+        if (countListener != null) {
+            countListener.onCountChanged(count);
+        }
+    }
+
+    @Override
+    public void onRangeInserted(int positionStart, int itemCount) {
+        notifyItemRangeInserted(positionStart, itemCount);
+    }
+
+    @Override
+    public void onRangeRemoved(int positionStart, int itemCount) {
+        notifyItemRangeRemoved(positionStart, itemCount);
+    }
+
+    @Override
+    public void onRangeChanged(int positionStart, int itemCount) {
+        // Keep selected entries current, e.g. after protecting them.
+        if (!selected.isEmpty()) {
+            for (int i = positionStart; i < positionStart + itemCount; i++) {
+                VideoEntry video = videos.get(i);
+                if (video != null && selected.containsKey(video.getId())) {
+                    selected.put(video.getId(), video);
+                }
+            }
+        }
+        notifyItemRangeChanged(positionStart, itemCount);
+    }
+
+    private void bindSelection(VideoViewHolder holder, VideoEntry video) {
+        boolean isSelected = video != null && selected.containsKey(video.getId());
+        holder.selectedMark.setVisibility(isSelected ? View.VISIBLE : View.GONE);
+    }
+
+    private void toggleSelection(VideoViewHolder holder) {
+        int position = holder.getBindingAdapterPosition();
+        VideoEntry video = position != RecyclerView.NO_POSITION ? videos.get(position) : null;
+        if (video == null) {
+            return;
+        }
+        if (selected.remove(video.getId()) == null) {
+            selected.put(video.getId(), video);
+        }
+        notifyItemChanged(position, PAYLOAD_SELECTION);
+        notifySelectionChanged();
+    }
+
+    public List<VideoEntry> getSelectedEntries() {
+        return new ArrayList<>(selected.values());
+    }
+
+    // Most of the library is not paged in, so the full list comes from the catalog.
+    public void selectAll(VideoCatalog catalog) {
+        catalog.queryAll(entries -> {
+            for (VideoEntry video : entries) {
+                selected.put(video.getId(), video);
+            }
+            notifyItemRangeChanged(0, getItemCount(), PAYLOAD_SELECTION);
+            notifySelectionChanged();
+        });
+    }
+
+    public void clearSelection() {
+        if (selected.isEmpty()) {
+            return;
+        }
+        selected.clear();
+        notifyItemRangeChanged(0, getItemCount(), PAYLOAD_SELECTION);
+        notifySelectionChanged();
+    }
+
+    private void notifySelectionChanged() {
+        if (selectionListener != null) {
+            selectionListener.onSelectionChanged(selected.size());
+        }
+    }
+
+    // Also pulls in the pages ahead of the scroll, so rows are usually loaded
+    // before they become visible.
+    public void prefetchThumbnails(int fromPosition, int count) {
+        int end = Math.min(fromPosition + count, videos.size());
+        for (int i = Math.max(fromPosition, 0); i < end; i++) {
+            VideoEntry video = videos.get(i);
+            if (video != null) {
+                thumbnailLoader.prefetch(video.getFile(), video.getSizeBytes(), video.getLastModified());
+            }
+        }
+    }
+
+    public void release() {
+        thumbnailLoader.shutdown();
     }
 
     static class VideoViewHolder extends RecyclerView.ViewHolder {
         ImageView thumbnail;
         TextView videoName;
+        TextView videoDetails;
         ImageButton deleteButton;
+        ImageView selectedMark;
 
         VideoViewHolder(@NonNull View itemView) {
             super(itemView);
             thumbnail = itemView.findViewById(R.id.videoThumbnail);
             videoName = itemView.findViewById(R.id.videoName);
+            videoDetails = itemView.findViewById(R.id.videoDetails);
             deleteButton = itemView.findViewById(R.id.deleteButton);
+            selectedMark = itemView.findViewById(R.id.selectedMark);
         }
     }
-
-    public void updateVideos(List<File> newVideoFiles) {
-        this.videoFiles = newVideoFiles;
-        notifyDataSetChanged();
-    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,426 @@
+package com.example.secretcamera;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.os.FileObserver;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class VideoCatalog implements PagedVideoList.PageSource {
+    private static final String TAG = "VideoCatalog";
+    private static final String DATABASE_NAME = "video_catalog.db";
+    private static final int DATABASE_VERSION = 1;
+    private static final long CHANGE_NOTIFY_DELAY_MS = 100;
+
+    private static final String TABLE_VIDEOS = "videos";
+    private static final String COLUMN_ID = "_id";
+    private static final String COLUMN_PATH = "path";
+    private static final String COLUMN_SIZE = "size";
+    private static final String COLUMN_LAST_MODIFIED = "last_modified";
+    private static final String COLUMN_DURATION_MS = "duration_ms";
+    private static final String COLUMN_WIDTH = "width";
+    private static final String COLUMN_HEIGHT = "height";
+    private static final String COLUMN_CODEC = "codec";
+    private static final String COLUMN_START_TIME = "start_time";
+    private static final String COLUMN_PROTECTED = "protected";
+
+    private static VideoCatalog instance;
+
+    public interface Callback<T> {
+        void onResult(T result);
+    }
+
+    public interface OnCatalogChangedListener {
+        void onCatalogChanged();
+    }
+
+    private final CatalogDbHelper dbHelper;
+    private final ScrubIndexGenerator scrubIndexGenerator;
+    private final File directory;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final List<OnCatalogChangedListener> listeners = new CopyOnWriteArrayList<>();
+    private final Runnable notifyChanged = () -> {
+        for (OnCatalogChangedListener listener : listeners) {
+            listener.onCatalogChanged();
+        }
+    };
+    private final FileObserver directoryObserver;
+    // Executor thread only.
+    private int batchDepth;
+    private boolean changedDuringBatch;
+
+    private VideoCatalog(Context context) {
+        dbHelper = new CatalogDbHelper(context);
+        scrubIndexGenerator = ScrubIndexGenerator.getInstance(context);
+        directory = new File(context.getExternalFilesDir(null), "SecretVideos");
+        if (!directory.exists() && !directory.mkdirs()) {
+            Log.d(TAG, "Failed to create directory");
+        }
+
+        directoryObserver = new FileObserver(directory,
+                FileObserver.CLOSE_WRITE | FileObserver.MOVED_TO | FileObserver.DELETE | FileObserver.MOVED_FROM) {
+            @Override
+            public void onEvent(int event, String name) {
+                if (name == null || !RecordingFileNames.isRecording(name)) {
+                    return;
+                }
+                File file = new File(directory, name);
+                if ((event & (FileObserver.DELETE | FileObserver.MOVED_FROM)) != 0) {
+                    onFileDeleted(file);
+                } else {
+                    onRecordingFinished(file);
+                }
+            }
+        };
+        directoryObserver.startWatching();
+        executor.execute(this::buildOrReconcile);
+    }
+
+    public static synchronized VideoCatalog getInstance(Context context) {
+        if (instance == null) {
+            instance = new VideoCatalog(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    public void addOnCatalogChangedListener(OnCatalogChangedListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeOnCatalogChangedListener(OnCatalogChangedListener listener) {
+        listeners.remove(listener);
+    }
+
+    public void queryAll(Callback<List<VideoEntry>> callback) {
+        executor.execute(() -> {
+            List<VideoEntry> entries = queryEntries(null, null);
+            mainHandler.post(() -> callback.onResult(entries));
+        });
+    }
+
+    // The ids of the date-sorted list, read through the start_time index
+    // without touching the rows. Equal start times are ordered by id so two
+    // reads of an unchanged table agree.
+    @Override
+    public void loadIds(PagedVideoList.IdsCallback callback) {
+        executor.execute(() -> {
+            long[] ids;
+            try (Cursor cursor = dbHelper.getReadableDatabase().query(TABLE_VIDEOS, new String[]{COLUMN_ID},
+                    null, null, null, null, COLUMN_START_TIME + " DESC, " + COLUMN_ID + " DESC")) {
+                ids = new long[cursor.getCount()];
+                for (int i = 0; cursor.moveToNext() && i < ids.length; i++) {
+                    ids[i] = cursor.getLong(0);
+                }
+            }
+            mainHandler.post(() -> callback.onIdsLoaded(ids));
+        });
+    }
+
+    // One page of rows by id. Rows deleted since the ids were read are
+    // simply missing.
+    @Override
+    public void loadEntries(long[] ids, PagedVideoList.EntriesCallback callback) {
+        executor.execute(() -> {
+            StringBuilder selection = new StringBuilder(COLUMN_ID + " IN (");
+            for (int i = 0; i < ids.length; i++) {
+                selection.append(i > 0 ? "," : "").append(ids[i]);
+            }
+            List<VideoEntry> entries = ids.length > 0 ? queryEntries(selection.append(")").toString(), null)
+                    : new ArrayList<>();
+            mainHandler.post(() -> callback.onEntriesLoaded(entries));
+        });
+    }
+
+    public void onRecordingFinished(File file) {
+        executor.execute(() -> {
+            if (file.exists() && !isUpToDate(file)) {
+                upsert(file, true);
+                scheduleNotify();
+            }
+        });
+    }
+
+    public void onFileDeleted(File file) {
+        scrubIndexGenerator.delete(file);
+        executor.execute(() -> {
+            int deleted = dbHelper.getWritableDatabase().delete(TABLE_VIDEOS,
+                    COLUMN_PATH + " = ?", new String[]{file.getAbsolutePath()});
+            if (deleted > 0) {
+                scheduleNotify();
+            }
+        });
+    }
+
+    // Deletes the rows in one transaction. The directory observer reports the
+    // same files again later, but by then there is nothing left to remove.
+    public void onFilesDeleted(List<File> files) {
+        for (File file : files) {
+            scrubIndexGenerator.delete(file);
+        }
+        executor.execute(() -> {
+            SQLiteDatabase db = dbHelper.getWritableDatabase();
+            int deleted = 0;
+            db.beginTransaction();
+            try {
+                for (File file : files) {
+                    deleted += db.delete(TABLE_VIDEOS, COLUMN_PATH + " = ?", new String[]{file.getAbsolutePath()});
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            if (deleted > 0) {
+                scheduleNotify();
+            }
+        });
+    }
+
+    // Changes made between beginBatch and endBatch produce a single
+    // notification when the outermost batch ends.
+    public void beginBatch() {
+        executor.execute(() -> batchDepth++);
+    }
+
+    public void endBatch() {
+        executor.execute(() -> {
+            batchDepth--;
+            if (batchDepth == 0 && changedDuringBatch) {
+                changedDuringBatch = false;
+                scheduleNotify();
+            }
+        });
+    }
+
+    public void setProtected(File file, boolean isProtected) {
+        executor.execute(() -> {
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_PROTECTED, isProtected ? 1 : 0);
+            dbHelper.getWritableDatabase().update(TABLE_VIDEOS, values,
+                    COLUMN_PATH + " = ?", new String[]{file.getAbsolutePath()});
+            scheduleNotify();
+        });
+    }
+
+    // Blocking; for callers that are already on a background thread.
+    public Set<String> getProtectedPaths() {
+        Set<String> paths = new HashSet<>();
+        try (Cursor cursor = dbHelper.getReadableDatabase().query(TABLE_VIDEOS, new String[]{COLUMN_PATH},
+                COLUMN_PROTECTED + " = 1", null, null, null, null)) {
+            while (cursor.moveToNext()) {
+                paths.add(cursor.getString(0));
+            }
+        }
+        return paths;
+    }
+
+    private void scheduleNotify() {
+        if (batchDepth > 0) {
+            changedDuringBatch = true;
+            return;
+        }
+        mainHandler.removeCallbacks(notifyChanged);
+        mainHandler.postDelayed(notifyChanged, CHANGE_NOTIFY_DELAY_MS);
+    }
+
+    // The first run stats and probes every file once. After that, startup only
+    // compares directory names with the table so files added or removed while
+    // the process was dead are picked up without opening existing recordings.
+    private void buildOrReconcile() {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        Set<String> known = new HashSet<>();
+        try (Cursor cursor = db.query(TABLE_VIDEOS, new String[]{COLUMN_PATH}, null, null, null, null, null)) {
+            while (cursor.moveToNext()) {
+                known.add(cursor.getString(0));
+            }
+        }
+
+        String[] names = directory.list((dir, name) -> RecordingFileNames.isRecording(name));
+        Set<String> present = new HashSet<>();
+        if (names != null) {
+            for (String name : names) {
+                present.add(new File(directory, name).getAbsolutePath());
+            }
+        }
+
+        boolean changed = false;
+        db.beginTransaction();
+        try {
+            for (String path : present) {
+                if (!known.contains(path)) {
+                    upsert(new File(path), false);
+                    changed = true;
+                }
+            }
+            for (String path : known) {
+                if (!present.contains(path)) {
+                    db.delete(TABLE_VIDEOS, COLUMN_PATH + " = ?", new String[]{path});
+                    changed = true;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (changed) {
+            Log.d(TAG, "Catalog reconciled, " + present.size() + " recordings");
+            scheduleNotify();
+        }
+        fillMissingMetadata();
+    }
+
+    private void fillMissingMetadata() {
+        List<VideoEntry> pending = queryEntries(COLUMN_DURATION_MS + " < 0", null);
+        for (VideoEntry entry : pending) {
+            upsert(entry.getFile(), true);
+        }
+        if (!pending.isEmpty()) {
+            scheduleNotify();
+        }
+    }
+
+    // The service hook and the directory observer both report a finished
+    // recording; probe it only once.
+    private boolean isUpToDate(File file) {
+        try (Cursor cursor = dbHelper.getReadableDatabase().query(TABLE_VIDEOS, null,
+                COLUMN_PATH + " = ? AND " + COLUMN_SIZE + " = ? AND " + COLUMN_LAST_MODIFIED + " = ? AND "
+                        + COLUMN_DURATION_MS + " >= 0",
+                new String[]{file.getAbsolutePath(), String.valueOf(file.length()), String.valueOf(file.lastModified())},
+                null, null, null)) {
+            return cursor.moveToFirst();
+        }
+    }
+
+    private void upsert(File file, boolean withMetadata) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_PATH, file.getAbsolutePath());
+        values.put(COLUMN_SIZE, file.length());
+        values.put(COLUMN_LAST_MODIFIED, file.lastModified());
+        values.put(COLUMN_DURATION_MS, -1L);
+        values.put(COLUMN_START_TIME, RecordingFileNames.parseStartTime(file.getName(), file.lastModified()));
+        if (withMetadata) {
+            readMetadata(file, values);
+        }
+
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        int updated = db.update(TABLE_VIDEOS, values, COLUMN_PATH + " = ?", new String[]{file.getAbsolutePath()});
+        if (updated == 0) {
+            values.put(COLUMN_PROTECTED, 0);
+            db.insert(TABLE_VIDEOS, null, values);
+        }
+    }
+
+    // The box parser only maps moov, which is far cheaper than a native
+    // extractor. Files it cannot read, and fragmented files that stopped before
+    // their duration was patched, still go through MediaExtractor.
+    private void readMetadata(File file, ContentValues values) {
+        try {
+            Mp4BoxParser.Metadata metadata = Mp4BoxParser.parse(file);
+            if (metadata.durationUs > 0 && metadata.videoMime != null) {
+                values.put(COLUMN_CODEC, metadata.videoMime);
+                values.put(COLUMN_WIDTH, metadata.width);
+                values.put(COLUMN_HEIGHT, metadata.height);
+                values.put(COLUMN_DURATION_MS, metadata.durationUs / 1000);
+                return;
+            }
+        } catch (IOException e) {
+            Log.d(TAG, "Box parser could not read " + file.getName() + ": " + e.getMessage());
+        }
+        readMetadataWithExtractor(file, values);
+    }
+
+    private void readMetadataWithExtractor(File file, ContentValues values) {
+        MediaExtractor extractor = new MediaExtractor();
+        try {
+            extractor.setDataSource(file.getAbsolutePath());
+            long durationUs = 0;
+            for (int i = 0; i < extractor.getTrackCount(); i++) {
+                MediaFormat format = extractor.getTrackFormat(i);
+                String mime = format.getString(MediaFormat.KEY_MIME);
+                if (format.containsKey(MediaFormat.KEY_DURATION)) {
+                    durationUs = Math.max(durationUs, format.getLong(MediaFormat.KEY_DURATION));
+                }
+                if (mime != null && mime.startsWith("video/")) {
+                    values.put(COLUMN_CODEC, mime);
+                    values.put(COLUMN_WIDTH, format.getInteger(MediaFormat.KEY_WIDTH));
+                    values.put(COLUMN_HEIGHT, format.getInteger(MediaFormat.KEY_HEIGHT));
+                }
+            }
+            values.put(COLUMN_DURATION_MS, durationUs / 1000);
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Error reading metadata of " + file.getName() + ": " + e.getMessage());
+            values.put(COLUMN_DURATION_MS, 0L);
+        } finally {
+            extractor.release();
+        }
+    }
+
+    private List<VideoEntry> queryEntries(String selection, String[] selectionArgs) {
+        List<VideoEntry> entries = new ArrayList<>();
+        try (Cursor cursor = dbHelper.getReadableDatabase().query(TABLE_VIDEOS, null, selection, selectionArgs,
+                null, null, COLUMN_START_TIME + " DESC")) {
+            while (cursor.moveToNext()) {
+                entries.add(readEntry(cursor));
+            }
+        }
+        return entries;
+    }
+
+    private static VideoEntry readEntry(Cursor cursor) {
+        return new VideoEntry(
+                cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_ID)),
+                cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_PATH)),
+                cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_SIZE)),
+                cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_LAST_MODIFIED)),
+                cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_DURATION_MS)),
+                cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_WIDTH)),
+                cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_HEIGHT)),
+                cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_CODEC)),
+                cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_START_TIME)),
+                cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_PROTECTED)) != 0);
+    }
+
+    private static class CatalogDbHelper extends SQLiteOpenHelper {
+        CatalogDbHelper(Context context) {
+            super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + TABLE_VIDEOS + " ("
+                    + COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                    + COLUMN_PATH + " TEXT NOT NULL UNIQUE, "
+                    + COLUMN_SIZE + " INTEGER NOT NULL, "
+                    + COLUMN_LAST_MODIFIED + " INTEGER NOT NULL, "
+                    + COLUMN_DURATION_MS + " INTEGER NOT NULL DEFAULT -1, "
+                    + COLUMN_WIDTH + " INTEGER NOT NULL DEFAULT 0, "
+                    + COLUMN_HEIGHT + " INTEGER NOT NULL DEFAULT 0, "
+                    + COLUMN_CODEC + " TEXT, "
+                    + COLUMN_START_TIME + " INTEGER NOT NULL, "
+                    + COLUMN_PROTECTED + " INTEGER NOT NULL DEFAULT 0)");
+            db.execSQL("CREATE INDEX idx_videos_start_time ON " + TABLE_VIDEOS + " (" + COLUMN_START_TIME + ")");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE_VIDEOS);
+            onCreate(db);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.secretcamera;
+
+import java.io.File;
+import java.util.Locale;
+
+public class VideoEntry {
+    private final long id;
+    private final String path;
+    private final long sizeBytes;
+    private final long lastModified;
+    private final long durationMs;
+    private final int width;
+    private final int height;
+    private final String codec;
+    private final long startTimeMs;
+    private final boolean isProtected;
+
+    public VideoEntry(long id, String path, long sizeBytes, long lastModified, long durationMs,
+                      int width, int height, String codec, long startTimeMs, boolean isProtected) {
+        this.id = id;
+        this.path = path;
+        this.sizeBytes = sizeBytes;
+        this.lastModified = lastModified;
+        this.durationMs = durationMs;
+        this.width = width;
+        this.height = height;
+        this.codec = codec;
+        this.startTimeMs = startTimeMs;
+        this.isProtected = isProtected;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public File getFile() {
+        return new File(path);
+    }
+
+    public String getName() {
+        return new File(path).getName();
+    }
+
+    public long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public long getDurationMs() {
+        return durationMs;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public String getCodec() {
+        return codec;
+    }
+
+    public long getStartTimeMs() {
+        return startTimeMs;
+    }
+
+    public boolean isProtected() {
+        return isProtected;
+    }
+
+    public boolean hasSameContents(VideoEntry other) {
+        return id == other.id
+                && path.equals(other.path)
+                && sizeBytes == other.sizeBytes
+                && lastModified == other.lastModified
+                && durationMs == other.durationMs
+                && height == other.height
+                && isProtected == other.isProtected;
+    }
+
+    public boolean hasMetadata() {
+        return durationMs >= 0;
+    }
+
+    public String getSummary() {
+        String size = String.format(Locale.US, "%.1f MB", sizeBytes / (1024.0 * 1024.0))
+                + (isProtected ? " · Protected" : "");
+        if (!hasMetadata()) {
+            return size;
+        }
+        long seconds = durationMs / 1000;
+        String duration = seconds >= 3600
+                ? String.format(Locale.US, "%d:%02d:%02d", seconds / 3600, (seconds / 60) % 60, seconds % 60)
+                : String.format(Locale.US, "%d:%02d", seconds / 60, seconds % 60);
+        return duration + " · " + height + "p · " + size;
+    }
+}
@@ -1,18 +1,64 @@
 package com.example.secretcamera;
 
+import android.content.Intent;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
-import android.widget.MediaController;
+import android.view.View;
+import android.widget.ImageView;
+import android.widget.SeekBar;
 import android.widget.Toast;
 import android.widget.VideoView;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.content.FileProvider;
 import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+// Scrubbing uses the sidecars from ScrubIndexGenerator: the sprite sheet for
+// previews while dragging and the keyframe table so a seek lands exactly on a
+// sync sample and the player does not have to decode forward from one.
 public class VideoPlayerActivity extends AppCompatActivity {
     private static final String TAG = "VideoPlayerActivity";
+    private static final long PROGRESS_INTERVAL_MS = 250;
+
     private VideoView videoView;
+    private SeekBar seekBar;
+    private ImageView scrubPreview;
+    private ScrubIndex scrubIndex;
+    private Bitmap sprite;
+    // The preview draws the current tile into one bitmap kept for the whole
+    // session instead of cutting a new one out of the sprite per event.
+    private Bitmap previewTile;
+    private Canvas previewCanvas;
+    private final Rect tileSource = new Rect();
+    private final Rect tileTarget = new Rect();
+    private int shownTile = -1;
+    private boolean tracking;
+    private File videoFile;
+    private long markInMs;
+    private long markOutMs = -1;
+    private ClipExporter exporter;
+    private final ExecutorService exportExecutor = Executors.newSingleThreadExecutor();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private final Runnable progressUpdater = new Runnable() {
+        @Override
+        public void run() {
+            if (!tracking) {
+                seekBar.setProgress(videoView.getCurrentPosition());
+            }
+            handler.postDelayed(this, PROGRESS_INTERVAL_MS);
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -20,18 +66,16 @@ public class VideoPlayerActivity extends AppCompatActivity {
         setContentView(R.layout.activity_video_player);
 
         videoView = findViewById(R.id.videoView);
+        seekBar = findViewById(R.id.seekBar);
+        scrubPreview = findViewById(R.id.scrubPreview);
         String videoPath = getIntent().getStringExtra("videoPath");
 
         if (videoPath != null) {
             try {
-                File videoFile = new File(videoPath);
+                videoFile = new File(videoPath);
                 Uri videoUri = FileProvider.getUriForFile(this, getApplicationContext().getPackageName() + ".fileprovider", videoFile);
                 videoView.setVideoURI(videoUri);
 
-                MediaController mediaController = new MediaController(this);
-                mediaController.setAnchorView(videoView);
-                videoView.setMediaController(mediaController);
-
                 videoView.setOnErrorListener((mp, what, extra) -> {
                     Log.e(TAG, "Error playing video: what=" + what + " extra=" + extra);
                     Toast.makeText(this, "Error playing video", Toast.LENGTH_SHORT).show();
@@ -40,13 +84,22 @@ public class VideoPlayerActivity extends AppCompatActivity {
                 });
 
                 videoView.setOnPreparedListener(mp -> {
-                    mp.setOnVideoSizeChangedListener((mediaPlayer, width, height) -> {
-                        MediaController mediaController1 = new MediaController(VideoPlayerActivity.this);
-                        videoView.setMediaController(mediaController1);
-                        mediaController1.setAnchorView(videoView);
-                    });
+                    seekBar.setMax(mp.getDuration());
+                    handler.post(progressUpdater);
                 });
 
+                videoView.setOnClickListener(v -> {
+                    if (videoView.isPlaying()) {
+                        videoView.pause();
+                    } else {
+                        videoView.start();
+                    }
+                });
+
+                seekBar.setOnSeekBarChangeListener(scrubListener);
+                loadScrubIndex(videoFile);
+                setupExportButtons();
+
                 videoView.start();
             } catch (Exception e) {
                 Log.e(TAG, "Error setting up video: " + e.getMessage());
@@ -59,6 +112,150 @@ public class VideoPlayerActivity extends AppCompatActivity {
         }
     }
 
+    private void loadScrubIndex(File videoFile) {
+        ScrubIndexGenerator generator = ScrubIndexGenerator.getInstance(this);
+        generator.load(videoFile, index -> {
+            if (isDestroyed() || index == null) {
+                return;
+            }
+            scrubIndex = index;
+            generator.loadSprite(videoFile, bitmap -> {
+                if (!isDestroyed()) {
+                    sprite = bitmap;
+                }
+            });
+        });
+    }
+
+    private void setupExportButtons() {
+        findViewById(R.id.markInButton).setOnClickListener(v -> {
+            markInMs = videoView.getCurrentPosition();
+            Toast.makeText(this, "Export starts at " + formatPosition(markInMs), Toast.LENGTH_SHORT).show();
+        });
+        findViewById(R.id.markOutButton).setOnClickListener(v -> {
+            markOutMs = videoView.getCurrentPosition();
+            Toast.makeText(this, "Export ends at " + formatPosition(markOutMs), Toast.LENGTH_SHORT).show();
+        });
+        findViewById(R.id.exportButton).setOnClickListener(v -> exportSelection());
+    }
+
+    // Remuxes [in, out] of this recording; with no out mark it runs to the end.
+    private void exportSelection() {
+        if (exporter != null) {
+            Toast.makeText(this, "Export already running", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        if (markOutMs >= 0 && markOutMs <= markInMs) {
+            Toast.makeText(this, "Out must be after In", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        long startUs = markInMs * 1000;
+        long endUs = markOutMs >= 0 ? markOutMs * 1000 : Long.MAX_VALUE;
+        ClipExporter clipExporter = new ClipExporter();
+        exporter = clipExporter;
+        Toast.makeText(this, "Exporting...", Toast.LENGTH_SHORT).show();
+        exportExecutor.execute(() -> {
+            File output = null;
+            String error = null;
+            try {
+                output = ClipExporter.newExportFile(this);
+                clipExporter.export(Collections.singletonList(videoFile), startUs, endUs, output, null);
+            } catch (IOException e) {
+                Log.e(TAG, "Error exporting clip: " + e.getMessage());
+                error = e.getMessage();
+            }
+            File exported = error == null ? output : null;
+            String message = error;
+            handler.post(() -> onExportFinished(exported, message));
+        });
+    }
+
+    private void onExportFinished(File exported, String error) {
+        exporter = null;
+        if (isDestroyed()) {
+            return;
+        }
+        if (exported == null) {
+            Toast.makeText(this, "Export failed: " + error, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        Toast.makeText(this, "Exported " + exported.getName(), Toast.LENGTH_SHORT).show();
+        Uri uri = FileProvider.getUriForFile(this, getApplicationContext().getPackageName() + ".fileprovider", exported);
+        Intent share = new Intent(Intent.ACTION_SEND);
+        share.setType("video/mp4");
+        share.putExtra(Intent.EXTRA_STREAM, uri);
+        share.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        startActivity(Intent.createChooser(share, "Share export"));
+    }
+
+    private static String formatPosition(long positionMs) {
+        long seconds = positionMs / 1000;
+        return String.format(Locale.US, "%d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+    }
+
+    private final SeekBar.OnSeekBarChangeListener scrubListener = new SeekBar.OnSeekBarChangeListener() {
+        @Override
+        public void onProgressChanged(SeekBar bar, int progress, boolean fromUser) {
+            if (fromUser) {
+                showPreview(progress);
+            }
+        }
+
+        @Override
+        public void onStartTrackingTouch(SeekBar bar) {
+            tracking = true;
+            showPreview(bar.getProgress());
+        }
+
+        @Override
+        public void onStopTrackingTouch(SeekBar bar) {
+            tracking = false;
+            scrubPreview.setVisibility(View.INVISIBLE);
+            long targetMs = bar.getProgress();
+            if (scrubIndex != null) {
+                targetMs = scrubIndex.nearestKeyframe(targetMs * 1000) / 1000;
+                bar.setProgress((int) targetMs);
+            }
+            videoView.seekTo((int) targetMs);
+        }
+    };
+
+    private void showPreview(int positionMs) {
+        if (scrubIndex == null || sprite == null) {
+            return;
+        }
+        int tile = scrubIndex.tileIndexAt(positionMs * 1000L);
+        if (tile < 0) {
+            return;
+        }
+        int left = scrubIndex.tileLeft(tile);
+        int top = scrubIndex.tileTop(tile);
+        if (left + scrubIndex.getTileWidth() > sprite.getWidth()
+                || top + scrubIndex.getTileHeight() > sprite.getHeight()) {
+            return;
+        }
+        if (previewTile == null) {
+            previewTile = Bitmap.createBitmap(scrubIndex.getTileWidth(), scrubIndex.getTileHeight(),
+                    Bitmap.Config.ARGB_8888);
+            previewCanvas = new Canvas(previewTile);
+            tileTarget.set(0, 0, previewTile.getWidth(), previewTile.getHeight());
+            scrubPreview.setImageBitmap(previewTile);
+        }
+        if (tile != shownTile) {
+            tileSource.set(left, top, left + scrubIndex.getTileWidth(), top + scrubIndex.getTileHeight());
+            previewCanvas.drawBitmap(sprite, tileSource, tileTarget, null);
+            shownTile = tile;
+            scrubPreview.invalidate();
+        }
+
+        // Follow the thumb, clamped to the screen edges.
+        int track = seekBar.getWidth() - seekBar.getPaddingLeft() - seekBar.getPaddingRight();
+        float thumbX = seekBar.getPaddingLeft() + (seekBar.getMax() > 0 ? track * (float) positionMs / seekBar.getMax() : 0);
+        float x = thumbX - scrubPreview.getWidth() / 2f;
+        scrubPreview.setTranslationX(Math.max(0, Math.min(x, seekBar.getWidth() - scrubPreview.getWidth())));
+        scrubPreview.setVisibility(View.VISIBLE);
+    }
+
     @Override
     protected void onPause() {
         super.onPause();
@@ -70,8 +267,13 @@ public class VideoPlayerActivity extends AppCompatActivity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        handler.removeCallbacks(progressUpdater);
+        if (exporter != null) {
+            exporter.cancel();
+        }
+        exportExecutor.shutdown();
         if (videoView != null) {
             videoView.stopPlayback();
         }
     }
-}
\ No newline at end of file
+}
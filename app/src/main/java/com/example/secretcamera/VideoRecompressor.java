@@ -0,0 +1,757 @@
+package com.example.secretcamera;
+
+import android.content.Context;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Surface;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+// Re-encodes one recording at archive quality. The source is decoded straight
+// onto the input surface of a single encoder, and its output is cut into part
+// files of about a minute at key frames, each committed by rename under a name
+// that records where the next part starts, so an interrupted run resumes
+// there. Audio is copied as it is. When every part exists they are joined
+// without re-encoding; the result must match the source's video duration and
+// frame count and must decode across every join before it is renamed over the
+// original, keeping the original's modification time.
+public class VideoRecompressor {
+    private static final String TAG = "VideoRecompressor";
+    private static final String WORK_DIRECTORY = "Recompress";
+    private static final String SOURCE_MARKER = "source";
+    private static final String PART_PREFIX = "part_";
+    private static final String JOINED_NAME = "joined" + RecordingFileNames.EXTENSION;
+    private static final long CHUNK_US = 60000000L;
+    // For AVC; HEVC gets EncoderProfileSelector.HEVC_BITRATE_FACTOR of it.
+    // Below the storage saver preset, which is meant for live recording.
+    private static final double ARCHIVE_BITS_PER_PIXEL = 0.05;
+    // Files that would not shrink by at least this fraction are left alone.
+    private static final double MIN_SAVING = 0.2;
+    private static final int I_FRAME_INTERVAL_SECONDS = 2;
+    private static final long CODEC_TIMEOUT_US = 10000;
+    // How long a frame rendered to the encoder surface may take to come out
+    // before end of stream is signalled anyway.
+    private static final long LAST_FRAME_TIMEOUT_MS = 1000;
+    private static final int MAX_CHECK_POLLS = 500;
+    private static final int MIN_AUDIO_BUFFER_BYTES = 64 * 1024;
+
+    public static final class Result {
+        public final long reclaimedBytes;
+        // Null when the original was replaced.
+        public final String skipReason;
+
+        private Result(long reclaimedBytes, String skipReason) {
+            this.reclaimedBytes = reclaimedBytes;
+            this.skipReason = skipReason;
+        }
+    }
+
+    private final File workRoot;
+    private volatile boolean cancelled;
+    private volatile ClipExporter joiner;
+
+    public VideoRecompressor(Context context) {
+        workRoot = new File(context.getExternalFilesDir(null), WORK_DIRECTORY);
+    }
+
+    public void cancel() {
+        cancelled = true;
+        ClipExporter current = joiner;
+        if (current != null) {
+            current.cancel();
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    // Removes the parts of recordings that are no longer waiting to be
+    // re-compressed.
+    public static void deleteStaleWork(Context context, Set<String> pendingNames) {
+        File[] directories = new File(context.getExternalFilesDir(null), WORK_DIRECTORY).listFiles();
+        if (directories == null) {
+            return;
+        }
+        for (File directory : directories) {
+            if (!pendingNames.contains(directory.getName())) {
+                deleteDirectory(directory);
+            }
+        }
+    }
+
+    // Blocking. A Result with a skipReason means the file is not worth
+    // re-encoding here; an IOException that it could not be done this time.
+    public Result recompress(File source) throws IOException {
+        long sourceLength = source.length();
+        long sourceModified = source.lastModified();
+        Probe probe = probe(source);
+        if (probe.frameCount < 2 || probe.spanUs <= 0) {
+            return new Result(0, "too short to re-encode");
+        }
+
+        int width = probe.videoFormat.getInteger(MediaFormat.KEY_WIDTH);
+        int height = probe.videoFormat.getInteger(MediaFormat.KEY_HEIGHT);
+        String mime = MediaFormat.MIMETYPE_VIDEO_HEVC;
+        double bitsPerPixel = ARCHIVE_BITS_PER_PIXEL * EncoderProfileSelector.HEVC_BITRATE_FACTOR;
+        MediaCodecInfo.VideoCapabilities capabilities = EncoderProfileSelector.findHardwareEncoder(mime,
+                width, height, probe.frameRate);
+        if (capabilities == null) {
+            mime = MediaFormat.MIMETYPE_VIDEO_AVC;
+            bitsPerPixel = ARCHIVE_BITS_PER_PIXEL;
+            capabilities = EncoderProfileSelector.findHardwareEncoder(mime, width, height, probe.frameRate);
+        }
+        if (capabilities == null) {
+            return new Result(0, "no hardware encoder for " + width + "x" + height);
+        }
+        int bitRate = capabilities.getBitrateRange().clamp(
+                (int) ((double) width * height * probe.frameRate * bitsPerPixel));
+        long sourceBitRate = probe.videoBytes * 8L * 1000000L / probe.spanUs;
+        if (bitRate > sourceBitRate * (1 - MIN_SAVING)) {
+            return new Result(0, "already at " + sourceBitRate / 1000 + " kbps");
+        }
+
+        File workDirectory = prepareWorkDirectory(source, sourceLength + " " + sourceModified + " " + mime + " "
+                + bitRate);
+        List<File> parts = listParts(workDirectory);
+        long resumeUs = parts.isEmpty() ? probe.firstVideoUs : partEndUs(parts.get(parts.size() - 1));
+        if (resumeUs != Long.MAX_VALUE) {
+            if (!parts.isEmpty()) {
+                Log.d(TAG, source.getName() + ": resuming after " + parts.size() + " part(s)");
+            }
+            new Pass(source, probe, workDirectory, parts.size(), resumeUs).run(mime, bitRate);
+            parts = listParts(workDirectory);
+        }
+
+        File joined = new File(workDirectory, JOINED_NAME);
+        ClipExporter clipExporter = new ClipExporter();
+        joiner = clipExporter;
+        if (cancelled) {
+            clipExporter.cancel();
+        }
+        try {
+            clipExporter.export(parts, 0, Long.MAX_VALUE, joined, null);
+        } catch (IOException e) {
+            // Parts from different runs come from different encoder instances
+            // and are refused if their parameter sets differ; the next attempt
+            // encodes the whole file in one pass.
+            if (!cancelled) {
+                deleteDirectory(workDirectory);
+            }
+            throw e;
+        } finally {
+            joiner = null;
+        }
+
+        Probe result = probe(joined);
+        // Each join may shift the timeline by up to a frame.
+        long frameDurationUs = 1000000L / probe.frameRate;
+        long toleranceUs = (parts.size() + 1) * frameDurationUs;
+        if (result.frameCount != probe.frameCount || Math.abs(result.spanUs - probe.spanUs) > toleranceUs) {
+            deleteDirectory(workDirectory);
+            return new Result(0, "verification failed: " + result.frameCount + " frames over "
+                    + result.spanUs / 1000 + "ms, expected " + probe.frameCount + " over " + probe.spanUs / 1000
+                    + "ms");
+        }
+        try {
+            checkJoinsDecode(joined, result, joinPoints(parts, frameDurationUs), frameDurationUs);
+        } catch (IOException e) {
+            if (!cancelled) {
+                deleteDirectory(workDirectory);
+            }
+            throw e;
+        }
+        long joinedLength = joined.length();
+        if (joinedLength >= sourceLength) {
+            deleteDirectory(workDirectory);
+            return new Result(0, "re-encoded file is not smaller");
+        }
+        if (!source.exists() || source.length() != sourceLength || source.lastModified() != sourceModified) {
+            deleteDirectory(workDirectory);
+            throw new IOException(source.getName() + " changed while it was being re-compressed");
+        }
+        if (!joined.setLastModified(sourceModified)) {
+            Log.d(TAG, "Failed to keep the modification time of " + source.getName());
+        }
+        if (!joined.renameTo(source)) {
+            throw new IOException("Failed to replace " + source.getName());
+        }
+        deleteDirectory(workDirectory);
+        Log.d(TAG, "Re-compressed " + source.getName() + " to " + mime + " at " + bitRate / 1000 + " kbps: "
+                + sourceLength + " -> " + joinedLength + " bytes");
+        return new Result(sourceLength - joinedLength, null);
+    }
+
+    // Parts written for a different version of the source, or for other
+    // encoder settings, cannot be joined with new ones and are discarded.
+    private File prepareWorkDirectory(File source, String key) throws IOException {
+        File directory = new File(workRoot, source.getName());
+        File marker = new File(directory, SOURCE_MARKER);
+        if (directory.exists() && !key.equals(readMarker(marker))) {
+            deleteDirectory(directory);
+        }
+        if (!directory.exists()) {
+            if (!directory.mkdirs()) {
+                throw new IOException("Failed to create " + directory.getName());
+            }
+            try (FileOutputStream out = new FileOutputStream(marker)) {
+                out.write(key.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return directory;
+    }
+
+    private static String readMarker(File marker) {
+        byte[] bytes = new byte[(int) Math.min(marker.length(), 256)];
+        try (FileInputStream in = new FileInputStream(marker)) {
+            int read = in.read(bytes);
+            return read > 0 ? new String(bytes, 0, read, StandardCharsets.UTF_8) : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!file.delete()) {
+                    Log.d(TAG, "Failed to delete " + file.getName());
+                }
+            }
+        }
+        if (!directory.delete()) {
+            Log.d(TAG, "Failed to delete " + directory.getName());
+        }
+    }
+
+    private void checkCancelled() throws IOException {
+        if (cancelled) {
+            throw new IOException("Re-compression cancelled");
+        }
+    }
+
+    // Walks the video track's sample table without reading any sample data.
+    private Probe probe(File file) throws IOException {
+        MediaExtractor extractor = new MediaExtractor();
+        try {
+            extractor.setDataSource(file.getAbsolutePath());
+            Probe probe = new Probe();
+            for (int i = 0; i < extractor.getTrackCount(); i++) {
+                MediaFormat format = extractor.getTrackFormat(i);
+                String mime = format.getString(MediaFormat.KEY_MIME);
+                if (mime == null) {
+                    continue;
+                }
+                if (mime.startsWith("video/") && probe.videoTrack < 0) {
+                    probe.videoTrack = i;
+                    probe.videoFormat = format;
+                } else if (mime.startsWith("audio/") && probe.audioTrack < 0) {
+                    probe.audioTrack = i;
+                    probe.audioFormat = format;
+                }
+            }
+            if (probe.videoTrack < 0) {
+                throw new IOException("No video track in " + file.getName());
+            }
+            extractor.selectTrack(probe.videoTrack);
+            probe.firstVideoUs = Math.max(extractor.getSampleTime(), 0);
+            long lastVideoUs = probe.firstVideoUs;
+            while (extractor.getSampleTime() >= 0) {
+                if ((probe.frameCount & 0xFF) == 0) {
+                    checkCancelled();
+                }
+                probe.frameCount++;
+                probe.videoBytes += Math.max(extractor.getSampleSize(), 0);
+                lastVideoUs = Math.max(lastVideoUs, extractor.getSampleTime());
+                extractor.advance();
+            }
+            probe.spanUs = lastVideoUs - probe.firstVideoUs;
+            if (probe.videoFormat.containsKey(MediaFormat.KEY_FRAME_RATE)) {
+                probe.frameRate = probe.videoFormat.getInteger(MediaFormat.KEY_FRAME_RATE);
+            } else if (probe.spanUs > 0) {
+                probe.frameRate = (int) Math.round((probe.frameCount - 1) * 1000000.0 / probe.spanUs);
+            }
+            probe.frameRate = Math.max(probe.frameRate, 1);
+            return probe;
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            throw new IOException("Error reading " + file.getName() + ": " + e.getMessage(), e);
+        } finally {
+            extractor.release();
+        }
+    }
+
+    private static final class Probe {
+        int videoTrack = -1;
+        int audioTrack = -1;
+        MediaFormat videoFormat;
+        MediaFormat audioFormat;
+        long firstVideoUs;
+        long spanUs;
+        long frameCount;
+        long videoBytes;
+        int frameRate;
+    }
+
+    // Part files are named part_<index>_<source time of the next part's first
+    // frame>.mp4, the last one with Long.MAX_VALUE. Only the run of indices
+    // from 0 without a gap counts.
+    private static List<File> listParts(File directory) {
+        List<File> parts = new ArrayList<>();
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(PART_PREFIX)
+                && name.endsWith(RecordingFileNames.EXTENSION));
+        if (files == null) {
+            return parts;
+        }
+        Arrays.sort(files, (a, b) -> Integer.compare(partIndex(a), partIndex(b)));
+        for (File file : files) {
+            if (partIndex(file) != parts.size()) {
+                break;
+            }
+            parts.add(file);
+        }
+        return parts;
+    }
+
+    private static File partFile(File directory, int index, long endUs) {
+        return new File(directory, PART_PREFIX + index + "_" + endUs + RecordingFileNames.EXTENSION);
+    }
+
+    private static String[] partFields(File part) {
+        String name = part.getName();
+        return name.substring(PART_PREFIX.length(), name.length() - RecordingFileNames.EXTENSION.length())
+                .split("_");
+    }
+
+    private static int partIndex(File part) {
+        String[] fields = partFields(part);
+        if (fields.length != 2) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(fields[0]);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static long partEndUs(File part) throws IOException {
+        try {
+            return Long.parseLong(partFields(part)[1]);
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Unexpected part name " + part.getName());
+        }
+    }
+
+    // Where each part after the first starts on the joined timeline, the way
+    // ClipExporter lays them out: one frame after the previous part's last.
+    private List<Long> joinPoints(List<File> parts, long frameDurationUs) throws IOException {
+        List<Long> points = new ArrayList<>();
+        long offsetUs = 0;
+        for (int i = 0; i < parts.size() - 1; i++) {
+            offsetUs += probe(parts.get(i)).spanUs + frameDurationUs;
+            points.add(offsetUs);
+        }
+        return points;
+    }
+
+    // Decodes from the key frame before each join until a couple of frames
+    // past it. Counting samples says nothing about whether a part's frames
+    // still decode with the parameter sets the joined file carries.
+    private void checkJoinsDecode(File joined, Probe probe, List<Long> pointsUs, long frameDurationUs)
+            throws IOException {
+        if (pointsUs.isEmpty()) {
+            return;
+        }
+        MediaExtractor extractor = new MediaExtractor();
+        MediaCodec decoder = null;
+        try {
+            extractor.setDataSource(joined.getAbsolutePath());
+            extractor.selectTrack(probe.videoTrack);
+            decoder = MediaCodec.createDecoderByType(probe.videoFormat.getString(MediaFormat.KEY_MIME));
+            decoder.configure(probe.videoFormat, null, null, 0);
+            decoder.start();
+            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            for (long pointUs : pointsUs) {
+                checkCancelled();
+                decoder.flush();
+                extractor.seekTo(pointUs, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+                if (!decodesPast(extractor, decoder, info, pointUs + 2 * frameDurationUs)) {
+                    throw new IOException("Frames after the join at " + pointUs / 1000 + "ms do not decode");
+                }
+            }
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            throw new IOException("Frames after a join do not decode: " + e.getMessage(), e);
+        } finally {
+            if (decoder != null) {
+                decoder.release();
+            }
+            extractor.release();
+        }
+    }
+
+    private boolean decodesPast(MediaExtractor extractor, MediaCodec decoder, MediaCodec.BufferInfo info,
+                                long targetUs) throws IOException {
+        boolean inputDone = false;
+        boolean decodedAny = false;
+        for (int poll = 0; poll < MAX_CHECK_POLLS; poll++) {
+            checkCancelled();
+            if (!inputDone) {
+                int index = decoder.dequeueInputBuffer(CODEC_TIMEOUT_US);
+                if (index >= 0) {
+                    ByteBuffer buffer = decoder.getInputBuffer(index);
+                    int size = buffer != null ? extractor.readSampleData(buffer, 0) : -1;
+                    if (size < 0) {
+                        decoder.queueInputBuffer(index, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                        inputDone = true;
+                    } else {
+                        decoder.queueInputBuffer(index, 0, size, extractor.getSampleTime(), 0);
+                        extractor.advance();
+                    }
+                }
+            }
+            int index = decoder.dequeueOutputBuffer(info, CODEC_TIMEOUT_US);
+            if (index >= 0) {
+                boolean endOfStream = (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+                long presentationUs = info.presentationTimeUs;
+                boolean frame = info.size > 0;
+                decoder.releaseOutputBuffer(index, false);
+                if (frame && presentationUs >= targetUs) {
+                    return true;
+                }
+                decodedAny |= frame;
+                if (endOfStream) {
+                    // The file ends within a couple of frames of the join.
+                    return decodedAny;
+                }
+            }
+        }
+        return false;
+    }
+
+    // One encoder session from resumeUs to the end of the source. Frames
+    // before resumeUs are decoded only so the ones after them can be; the
+    // rest are rendered to the encoder with their source timestamps. A new
+    // part starts at the first encoded key frame a chunk length after the
+    // current part began, and a key frame is requested there so the cut
+    // lands close to it.
+    private class Pass {
+        final File source;
+        final Probe probe;
+        final File workDirectory;
+        final long resumeUs;
+        final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        MediaExtractor videoExtractor;
+        MediaExtractor audioExtractor;
+        MediaCodec decoder;
+        MediaCodec encoder;
+        MediaFormat encodedFormat;
+        ByteBuffer audioBuffer;
+        boolean audioDone;
+        int partIndex;
+        MediaMuxer muxer;
+        File tempFile;
+        int videoOut = -1;
+        int audioOut = -1;
+        long partStartUs;
+        long boundaryUs;
+        boolean syncRequested;
+        long rendered;
+        long encoded;
+        long lastRenderedUs = -1;
+        long lastEncodedUs = -1;
+
+        Pass(File source, Probe probe, File workDirectory, int partIndex, long resumeUs) {
+            this.source = source;
+            this.probe = probe;
+            this.workDirectory = workDirectory;
+            this.partIndex = partIndex;
+            this.resumeUs = resumeUs;
+            boundaryUs = resumeUs + CHUNK_US;
+        }
+
+        void run(String mime, int bitRate) throws IOException {
+            Surface inputSurface = null;
+            try {
+                videoExtractor = new MediaExtractor();
+                videoExtractor.setDataSource(source.getAbsolutePath());
+                videoExtractor.selectTrack(probe.videoTrack);
+                videoExtractor.seekTo(resumeUs, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+                if (probe.audioTrack >= 0) {
+                    audioExtractor = new MediaExtractor();
+                    audioExtractor.setDataSource(source.getAbsolutePath());
+                    audioExtractor.selectTrack(probe.audioTrack);
+                    audioExtractor.seekTo(resumeUs, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+                    int maxInputSize = probe.audioFormat.containsKey(MediaFormat.KEY_MAX_INPUT_SIZE)
+                            ? probe.audioFormat.getInteger(MediaFormat.KEY_MAX_INPUT_SIZE) : 0;
+                    audioBuffer = ByteBuffer.allocateDirect(Math.max(maxInputSize, MIN_AUDIO_BUFFER_BYTES));
+                }
+
+                MediaFormat format = MediaFormat.createVideoFormat(mime,
+                        probe.videoFormat.getInteger(MediaFormat.KEY_WIDTH),
+                        probe.videoFormat.getInteger(MediaFormat.KEY_HEIGHT));
+                format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+                format.setInteger(MediaFormat.KEY_BIT_RATE, bitRate);
+                format.setInteger(MediaFormat.KEY_FRAME_RATE, probe.frameRate);
+                format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, I_FRAME_INTERVAL_SECONDS);
+                encoder = MediaCodec.createEncoderByType(mime);
+                encoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+                inputSurface = encoder.createInputSurface();
+                encoder.start();
+                decoder = MediaCodec.createDecoderByType(probe.videoFormat.getString(MediaFormat.KEY_MIME));
+                decoder.configure(probe.videoFormat, inputSurface, null, 0);
+                decoder.start();
+
+                transcode();
+                if (encoded != rendered) {
+                    throw new IOException("Encoded " + encoded + " of " + rendered + " frames");
+                }
+            } catch (IllegalStateException | IllegalArgumentException e) {
+                throw new IOException("Transcoding " + source.getName() + " failed: " + e.getMessage(), e);
+            } finally {
+                release(inputSurface);
+            }
+        }
+
+        private void transcode() throws IOException {
+            boolean inputDone = false;
+            boolean decodeDone = false;
+            while (true) {
+                checkCancelled();
+                if (!inputDone) {
+                    inputDone = feedDecoder();
+                }
+                if (!decodeDone) {
+                    int index = decoder.dequeueOutputBuffer(info, CODEC_TIMEOUT_US);
+                    if (index >= 0) {
+                        long presentationUs = info.presentationTimeUs;
+                        boolean endOfStream = (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+                        if (presentationUs >= resumeUs && info.size > 0) {
+                            if (presentationUs >= boundaryUs && !syncRequested) {
+                                requestSyncFrame();
+                            }
+                            decoder.releaseOutputBuffer(index, presentationUs * 1000L);
+                            rendered++;
+                            lastRenderedUs = presentationUs;
+                        } else {
+                            decoder.releaseOutputBuffer(index, false);
+                        }
+                        if (endOfStream) {
+                            decodeDone = true;
+                            awaitLastFrame();
+                            encoder.signalEndOfInputStream();
+                        }
+                    }
+                }
+                if (drainEncoder(decodeDone ? CODEC_TIMEOUT_US : 0)) {
+                    if (muxer == null) {
+                        throw new IOException("No frames after " + resumeUs + "us");
+                    }
+                    copyAudioUntil(Long.MAX_VALUE);
+                    commitPart(Long.MAX_VALUE);
+                    return;
+                }
+            }
+        }
+
+        // Returns true once the end of stream has been queued.
+        private boolean feedDecoder() {
+            int index = decoder.dequeueInputBuffer(0);
+            if (index < 0) {
+                return false;
+            }
+            ByteBuffer buffer = decoder.getInputBuffer(index);
+            int size = videoExtractor.readSampleData(buffer, 0);
+            if (size < 0) {
+                decoder.queueInputBuffer(index, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                return true;
+            }
+            decoder.queueInputBuffer(index, 0, size, videoExtractor.getSampleTime(), 0);
+            videoExtractor.advance();
+            return false;
+        }
+
+        private void requestSyncFrame() {
+            Bundle parameters = new Bundle();
+            parameters.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+            encoder.setParameters(parameters);
+            syncRequested = true;
+        }
+
+        // The last frame rendered to the encoder surface may still be on its
+        // way; end of stream signalled before it arrives would lose it.
+        private void awaitLastFrame() throws IOException {
+            long deadline = SystemClock.elapsedRealtime() + LAST_FRAME_TIMEOUT_MS;
+            while (lastEncodedUs < lastRenderedUs && SystemClock.elapsedRealtime() < deadline) {
+                checkCancelled();
+                drainEncoder(CODEC_TIMEOUT_US);
+            }
+        }
+
+        // Returns true at the encoder's end of stream.
+        private boolean drainEncoder(long timeoutUs) throws IOException {
+            while (true) {
+                int index = encoder.dequeueOutputBuffer(info, timeoutUs);
+                if (index == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                    return false;
+                } else if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                    encodedFormat = encoder.getOutputFormat();
+                } else if (index >= 0) {
+                    ByteBuffer buffer = encoder.getOutputBuffer(index);
+                    boolean endOfStream = (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+                    if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0 && info.size > 0 && buffer != null) {
+                        writeFrame(buffer);
+                    }
+                    encoder.releaseOutputBuffer(index, false);
+                    if (endOfStream) {
+                        return true;
+                    }
+                }
+            }
+        }
+
+        private void writeFrame(ByteBuffer buffer) throws IOException {
+            long presentationUs = info.presentationTimeUs;
+            boolean keyFrame = (info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0;
+            if (muxer != null && keyFrame && presentationUs >= boundaryUs) {
+                copyAudioUntil(presentationUs);
+                commitPart(presentationUs);
+            }
+            if (muxer == null) {
+                if (!keyFrame) {
+                    throw new IOException("Part " + partIndex + " would not start on a key frame");
+                }
+                openPart(presentationUs);
+            }
+            copyAudioUntil(presentationUs);
+            info.presentationTimeUs = presentationUs - partStartUs;
+            muxer.writeSampleData(videoOut, buffer, info);
+            encoded++;
+            lastEncodedUs = Math.max(lastEncodedUs, presentationUs);
+        }
+
+        private void openPart(long startUs) throws IOException {
+            if (encodedFormat == null) {
+                throw new IOException("Encoder produced a frame before its format");
+            }
+            tempFile = new File(workDirectory, PART_PREFIX + partIndex + ".tmp");
+            muxer = new MediaMuxer(tempFile.getAbsolutePath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+            if (probe.videoFormat.containsKey(MediaFormat.KEY_ROTATION)) {
+                muxer.setOrientationHint(probe.videoFormat.getInteger(MediaFormat.KEY_ROTATION));
+            }
+            videoOut = muxer.addTrack(encodedFormat);
+            if (audioExtractor != null) {
+                audioOut = muxer.addTrack(probe.audioFormat);
+            }
+            muxer.start();
+            partStartUs = startUs;
+            boundaryUs = startUs + CHUNK_US;
+            syncRequested = false;
+        }
+
+        private void commitPart(long endUs) throws IOException {
+            muxer.stop();
+            muxer.release();
+            muxer = null;
+            File part = partFile(workDirectory, partIndex, endUs);
+            if (!tempFile.renameTo(part)) {
+                throw new IOException("Failed to commit " + part.getName());
+            }
+            tempFile = null;
+            Log.d(TAG, source.getName() + ": part " + partIndex + " done");
+            partIndex++;
+        }
+
+        // Copies the audio before untilUs into the current part, keeping it
+        // interleaved with the video written so far.
+        private void copyAudioUntil(long untilUs) {
+            if (audioExtractor == null || audioDone) {
+                return;
+            }
+            MediaCodec.BufferInfo audioInfo = new MediaCodec.BufferInfo();
+            while (true) {
+                long sampleUs = audioExtractor.getSampleTime();
+                if (sampleUs < 0) {
+                    audioDone = true;
+                    return;
+                }
+                if (sampleUs >= untilUs) {
+                    return;
+                }
+                if (sampleUs >= partStartUs) {
+                    long sampleSize = audioExtractor.getSampleSize();
+                    if (sampleSize > audioBuffer.capacity()) {
+                        audioBuffer = ByteBuffer.allocateDirect((int) sampleSize);
+                    }
+                    int size = audioExtractor.readSampleData(audioBuffer, 0);
+                    if (size < 0) {
+                        audioDone = true;
+                        return;
+                    }
+                    int flags = (audioExtractor.getSampleFlags() & MediaExtractor.SAMPLE_FLAG_SYNC) != 0
+                            ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0;
+                    audioInfo.set(0, size, sampleUs - partStartUs, flags);
+                    muxer.writeSampleData(audioOut, audioBuffer, audioInfo);
+                }
+                audioExtractor.advance();
+            }
+        }
+
+        // Parts already committed stay for the next run; the one in progress
+        // is discarded.
+        private void release(Surface inputSurface) {
+            if (decoder != null) {
+                try {
+                    decoder.stop();
+                } catch (IllegalStateException e) {
+                    Log.d(TAG, "Decoder already stopped");
+                }
+                decoder.release();
+            }
+            if (encoder != null) {
+                try {
+                    encoder.stop();
+                } catch (IllegalStateException e) {
+                    Log.d(TAG, "Encoder already stopped");
+                }
+                encoder.release();
+            }
+            if (inputSurface != null) {
+                inputSurface.release();
+            }
+            if (muxer != null) {
+                try {
+                    muxer.stop();
+                } catch (IllegalStateException e) {
+                    Log.d(TAG, "Muxer had no samples");
+                }
+                muxer.release();
+                muxer = null;
+            }
+            if (tempFile != null && tempFile.exists() && !tempFile.delete()) {
+                Log.d(TAG, "Failed to delete " + tempFile.getName());
+            }
+            if (videoExtractor != null) {
+                videoExtractor.release();
+            }
+            if (audioExtractor != null) {
+                audioExtractor.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.secretcamera;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CaptureMetricsTest {
+    private static final long FRAME_NS = 1000000000L / 30;
+
+    @Test
+    public void onFrameStarted_countsSkippedSensorFrames() {
+        CaptureMetrics metrics = new CaptureMetrics(30);
+        long timestamp = 0;
+        for (int i = 0; i < 10; i++) {
+            metrics.onFrameStarted(timestamp);
+            timestamp += FRAME_NS;
+        }
+        timestamp += 2 * FRAME_NS;
+        metrics.onFrameStarted(timestamp);
+
+        CaptureMetrics.Snapshot snapshot = metrics.snapshot(0);
+        assertEquals(11, snapshot.frameCount);
+        assertEquals(2, snapshot.droppedFrames);
+        assertEquals(3 * FRAME_NS / 1000, snapshot.maxFrameGapUs);
+    }
+
+    @Test
+    public void onFrameStarted_toleratesJitter() {
+        CaptureMetrics metrics = new CaptureMetrics(30);
+        metrics.onFrameStarted(0);
+        metrics.onFrameStarted(FRAME_NS * 14 / 10);
+        assertEquals(0, metrics.snapshot(0).droppedFrames);
+    }
+
+    @Test
+    public void onBytesWritten_reportsRateOverLastInterval() {
+        CaptureMetrics metrics = new CaptureMetrics(30);
+        metrics.onBytesWritten(0, 0);
+        metrics.onBytesWritten(500000, 500000000L);
+        CaptureMetrics.Snapshot snapshot = metrics.snapshot(1000000000L);
+        assertEquals(1000000, snapshot.bytesPerSecond);
+        assertEquals(500000, snapshot.bytesWritten);
+        assertEquals(1000, snapshot.elapsedMs);
+    }
+
+    @Test
+    public void copyTimestamps_returnsNewestOldestFirst() {
+        CaptureMetrics metrics = new CaptureMetrics(30, 4);
+        for (int i = 0; i < 6; i++) {
+            metrics.onFrameStarted(i * FRAME_NS);
+        }
+        long[] out = new long[4];
+        assertEquals(4, metrics.copyTimestamps(out));
+        assertEquals(2 * FRAME_NS, out[0]);
+        assertEquals(5 * FRAME_NS, out[3]);
+    }
+
+    @Test
+    public void publish_exposesLatestSnapshot() {
+        CaptureMetrics metrics = new CaptureMetrics(30);
+        metrics.onCaptureFailed();
+        metrics.publish(0);
+        assertEquals(1, CaptureMetrics.getLatestSnapshot().captureFailures);
+        assertTrue(CaptureMetrics.getLatestSnapshot().toJson().contains("\"failures\":1"));
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.secretcamera;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class EncodedRingBufferTest {
+    private static ByteBuffer sample(int size, byte value) {
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (int i = 0; i < size; i++) {
+            buffer.put(value);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    @Test
+    public void drain_startsAtFirstKeyFrame() {
+        EncodedRingBuffer ring = new EncodedRingBuffer(1024, 16);
+        ring.write(sample(10, (byte) 1), 10, 1000, 0);
+        ring.write(sample(10, (byte) 2), 10, 2000, EncodedRingBuffer.FLAG_KEY_FRAME);
+        ring.write(sample(10, (byte) 3), 10, 3000, 0);
+
+        List<Long> timestamps = new ArrayList<>();
+        int replayed = ring.drainTo((data, size, presentationTimeUs, flags) -> {
+            assertEquals((byte) (presentationTimeUs / 1000), data.get(data.position()));
+            timestamps.add(presentationTimeUs);
+        });
+
+        assertEquals(2, replayed);
+        assertEquals(2000L, (long) timestamps.get(0));
+        assertEquals(3000L, (long) timestamps.get(1));
+        assertEquals(0, ring.getSampleCount());
+    }
+
+    @Test
+    public void write_evictsOldestWhenFull() {
+        EncodedRingBuffer ring = new EncodedRingBuffer(100, 64);
+        for (int i = 0; i < 20; i++) {
+            ring.write(sample(30, (byte) i), 30, i * 1000L, EncodedRingBuffer.FLAG_KEY_FRAME);
+        }
+
+        List<Long> timestamps = new ArrayList<>();
+        ring.drainTo((data, size, presentationTimeUs, flags) -> {
+            for (int i = 0; i < size; i++) {
+                assertEquals((byte) (presentationTimeUs / 1000), data.get(data.position() + i));
+            }
+            timestamps.add(presentationTimeUs);
+        });
+
+        assertEquals(3, timestamps.size());
+        assertEquals(19000L, (long) timestamps.get(timestamps.size() - 1));
+    }
+
+    @Test
+    public void write_respectsSampleLimit() {
+        EncodedRingBuffer ring = new EncodedRingBuffer(1024, 4);
+        for (int i = 0; i < 10; i++) {
+            ring.write(sample(1, (byte) i), 1, i, EncodedRingBuffer.FLAG_KEY_FRAME);
+        }
+        assertEquals(4, ring.getSampleCount());
+        assertEquals(3, ring.getBufferedDurationUs());
+    }
+
+    @Test
+    public void write_rejectsOversizedSample() {
+        EncodedRingBuffer ring = new EncodedRingBuffer(8, 4);
+        assertFalse(ring.write(sample(16, (byte) 0), 16, 0, EncodedRingBuffer.FLAG_KEY_FRAME));
+        assertEquals(0, ring.getSampleCount());
+    }
+
+    @Test
+    public void oversizedSample_keepsHistoryAndDropsDependentFrames() {
+        EncodedRingBuffer ring = new EncodedRingBuffer(64, 16);
+        ring.write(sample(10, (byte) 1), 10, 1000, EncodedRingBuffer.FLAG_KEY_FRAME);
+        ring.write(sample(10, (byte) 2), 10, 2000, 0);
+
+        assertFalse(ring.write(sample(100, (byte) 3), 100, 3000, EncodedRingBuffer.FLAG_KEY_FRAME));
+        assertFalse(ring.write(sample(10, (byte) 4), 10, 4000, 0));
+        assertEquals(2, ring.getSampleCount());
+
+        assertTrue(ring.write(sample(10, (byte) 5), 10, 5000, EncodedRingBuffer.FLAG_KEY_FRAME));
+        assertTrue(ring.write(sample(10, (byte) 6), 10, 6000, 0));
+
+        List<Long> timestamps = new ArrayList<>();
+        ring.drainTo((data, size, presentationTimeUs, flags) -> {
+            assertEquals((byte) (presentationTimeUs / 1000), data.get(data.position()));
+            timestamps.add(presentationTimeUs);
+        });
+        assertEquals(4, timestamps.size());
+        assertEquals(1000L, (long) timestamps.get(0));
+        assertEquals(2000L, (long) timestamps.get(1));
+        assertEquals(5000L, (long) timestamps.get(2));
+        assertEquals(6000L, (long) timestamps.get(3));
+    }
+
+    @Test
+    public void write_leavesSourcePositionUnchanged() {
+        EncodedRingBuffer ring = new EncodedRingBuffer(64, 4);
+        ByteBuffer source = sample(10, (byte) 7);
+        ring.write(source, 10, 0, 0);
+        assertEquals(0, source.position());
+        assertEquals(10, source.limit());
+    }
+}
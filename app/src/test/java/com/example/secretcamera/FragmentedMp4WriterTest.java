@@ -0,0 +1,134 @@
+package com.example.secretcamera;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FragmentedMp4WriterTest {
+    private static final byte[] SPS = {0x00, 0x00, 0x00, 0x01, 0x67, 0x42, (byte) 0xC0, 0x1F, 0x11};
+    private static final byte[] PPS = {0x00, 0x00, 0x00, 0x01, 0x68, (byte) 0xCE, 0x3C, (byte) 0x80};
+    private static final byte[] AUDIO_CONFIG = {0x12, 0x10};
+
+    private static ByteBuffer annexB(int nalSize, byte value) {
+        ByteBuffer buffer = ByteBuffer.allocate(4 + nalSize);
+        buffer.putInt(1);
+        for (int i = 0; i < nalSize; i++) {
+            buffer.put(value);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static List<String> topLevelBoxes(ByteBuffer file) {
+        List<String> types = new ArrayList<>();
+        int position = 0;
+        while (position + 8 <= file.limit()) {
+            int size = file.getInt(position);
+            byte[] type = new byte[4];
+            for (int i = 0; i < 4; i++) {
+                type[i] = file.get(position + 4 + i);
+            }
+            types.add(new String(type));
+            position += size;
+        }
+        assertEquals(file.limit(), position);
+        return types;
+    }
+
+    private static int find(ByteBuffer file, String type, int from) {
+        byte[] needle = type.getBytes();
+        for (int i = from; i + 4 <= file.limit(); i++) {
+            if (file.get(i) == needle[0] && file.get(i + 1) == needle[1]
+                    && file.get(i + 2) == needle[2] && file.get(i + 3) == needle[3]) {
+                return i - 4;
+            }
+        }
+        return -1;
+    }
+
+    private static File writeTwoFragments(boolean stop) throws IOException {
+        File file = File.createTempFile("fragmented", ".mp4");
+        file.deleteOnExit();
+        FragmentedMp4Writer writer = new FragmentedMp4Writer(file, 900000);
+        int video = writer.addTrack(FragmentedMp4Writer.TrackFormat.avc(1280, 720,
+                ByteBuffer.wrap(SPS), ByteBuffer.wrap(PPS)));
+        int audio = writer.addTrack(FragmentedMp4Writer.TrackFormat.aac(48000, 1, ByteBuffer.wrap(AUDIO_CONFIG)));
+        writer.start();
+        for (int frame = 0; frame < 60; frame++) {
+            long timeUs = frame * 33333L;
+            writer.writeSampleData(video, annexB(100, (byte) frame), 104, timeUs, frame % 30 == 0);
+            writer.writeSampleData(audio, ByteBuffer.wrap(new byte[]{(byte) frame, 1, 2}), 3, timeUs, true);
+        }
+        if (stop) {
+            writer.stop();
+        } else {
+            writer.release();
+        }
+        return file;
+    }
+
+    @Test
+    public void stop_writesHeaderThenFragments() throws IOException {
+        ByteBuffer file = ByteBuffer.wrap(Files.readAllBytes(writeTwoFragments(true).toPath()));
+        List<String> boxes = topLevelBoxes(file);
+        assertEquals("ftyp", boxes.get(0));
+        assertEquals("moov", boxes.get(1));
+        assertEquals("moof", boxes.get(2));
+        assertEquals("mdat", boxes.get(3));
+        assertEquals("moof", boxes.get(4));
+        assertEquals("mdat", boxes.get(5));
+        assertEquals(6, boxes.size());
+        assertTrue(find(file, "avcC", 0) > 0);
+        assertTrue(find(file, "esds", 0) > 0);
+    }
+
+    @Test
+    public void fragments_areCompleteWithoutStop() throws IOException {
+        ByteBuffer file = ByteBuffer.wrap(Files.readAllBytes(writeTwoFragments(false).toPath()));
+        List<String> boxes = topLevelBoxes(file);
+        assertEquals(4, boxes.size());
+        assertEquals("mdat", boxes.get(3));
+    }
+
+    @Test
+    public void trun_pointsAtLengthPrefixedSamples() throws IOException {
+        ByteBuffer file = ByteBuffer.wrap(Files.readAllBytes(writeTwoFragments(true).toPath()));
+        int moof = find(file, "moof", 0);
+        int trun = find(file, "trun", moof);
+        int sampleCount = file.getInt(trun + 12);
+        int dataOffset = file.getInt(trun + 16);
+        int firstSize = file.getInt(trun + 24);
+        int firstFlags = file.getInt(trun + 28);
+
+        assertEquals(30, sampleCount);
+        assertEquals(104, firstSize);
+        assertEquals(0x02000000, firstFlags);
+        assertEquals(100, file.getInt(moof + dataOffset));
+        assertEquals(0, file.get(moof + dataOffset + 4));
+    }
+
+    @Test
+    public void stop_patchesMovieDuration() throws IOException {
+        ByteBuffer file = ByteBuffer.wrap(Files.readAllBytes(writeTwoFragments(true).toPath()));
+        int mvhd = find(file, "mvhd", 0);
+        int mehd = find(file, "mehd", 0);
+        assertEquals(1966, file.getInt(mvhd + 24));
+        assertEquals(1966L, file.getLong(mehd + 12));
+    }
+
+    @Test
+    public void splitNalUnits_handlesThreeAndFourByteStartCodes() {
+        ByteBuffer csd = ByteBuffer.wrap(new byte[]{0, 0, 0, 1, 0x40, 1, 0, 0, 1, 0x42, 2, 3});
+        List<byte[]> nalUnits = FragmentedMp4Writer.splitNalUnits(csd);
+        assertEquals(2, nalUnits.size());
+        assertArrayEquals(new byte[]{0x40, 1}, nalUnits.get(0));
+        assertArrayEquals(new byte[]{0x42, 2, 3}, nalUnits.get(1));
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.secretcamera;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+    private static final long MS = 1000000L;
+
+    @Test
+    public void bucketFor_usesPowerOfTwoMilliseconds() {
+        assertEquals(0, LatencyHistogram.bucketFor(500000));
+        assertEquals(1, LatencyHistogram.bucketFor(MS));
+        assertEquals(2, LatencyHistogram.bucketFor(3 * MS));
+        assertEquals(3, LatencyHistogram.bucketFor(4 * MS));
+        assertEquals(11, LatencyHistogram.bucketFor(60000 * MS));
+    }
+
+    @Test
+    public void percentiles_reportBucketBoundsCappedAtMax() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.record(MS / 2);
+        }
+        histogram.record(300 * MS);
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(1.0, histogram.percentileMs(0.5), 0.001);
+        assertEquals(1.0, histogram.percentileMs(0.99), 0.001);
+        assertEquals(300.0, histogram.percentileMs(1.0), 0.001);
+        assertTrue(histogram.toJson().contains("\"buckets\":[99,0,0,0,0,0,0,0,0,1,0,0]"));
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.secretcamera;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class Mp4BoxParserTest {
+    private static final byte[] SPS = {0x00, 0x00, 0x00, 0x01, 0x67, 0x42, (byte) 0xC0, 0x1F, 0x11};
+    private static final byte[] PPS = {0x00, 0x00, 0x00, 0x01, 0x68, (byte) 0xCE, 0x3C, (byte) 0x80};
+    private static final byte[] AUDIO_CONFIG = {0x12, 0x10};
+
+    private static byte[] box(String type, byte[]... children) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (byte[] child : children) {
+            body.write(child);
+        }
+        return ByteBuffer.allocate(8 + body.size()).putInt(8 + body.size())
+                .put(type.getBytes(StandardCharsets.US_ASCII)).put(body.toByteArray()).array();
+    }
+
+    private static File write(byte[]... boxes) throws IOException {
+        File file = File.createTempFile("parser", ".mp4");
+        file.deleteOnExit();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            for (byte[] box : boxes) {
+                out.write(box);
+            }
+        }
+        return file;
+    }
+
+    // A version 1 mvhd with a creation time, after a 64-bit sized mdat.
+    private static File plainMovie() throws IOException {
+        ByteBuffer mvhd = ByteBuffer.allocate(4 + 32);
+        mvhd.put((byte) 1).put(new byte[3]);
+        mvhd.putLong(2082844800L + 1700000000L).putLong(0).putInt(600).putLong(600L * 90);
+        ByteBuffer tkhd = ByteBuffer.allocate(84);
+        tkhd.putInt(0).position(76);
+        tkhd.putInt(1920 << 16).putInt(1080 << 16);
+        ByteBuffer hdlr = ByteBuffer.allocate(12).putInt(0).putInt(0).put("vide".getBytes(StandardCharsets.US_ASCII));
+        ByteBuffer stsd = ByteBuffer.allocate(16).putInt(0).putInt(1).putInt(8).put("hvc1".getBytes(StandardCharsets.US_ASCII));
+        byte[] moov = box("moov", box("mvhd", mvhd.array()),
+                box("trak", box("tkhd", tkhd.array()),
+                        box("mdia", box("hdlr", hdlr.array()),
+                                box("minf", box("stbl", box("stsd", stsd.array()))))));
+        ByteBuffer mdat = ByteBuffer.allocate(16 + 32).putInt(1).put("mdat".getBytes(StandardCharsets.US_ASCII))
+                .putLong(16 + 32);
+        return write(box("ftyp", "isom".getBytes(StandardCharsets.US_ASCII)), mdat.array(), moov);
+    }
+
+    @Test
+    public void parse_readsMovieAfterLargeMdat() throws IOException {
+        Mp4BoxParser.Metadata metadata = Mp4BoxParser.parse(plainMovie());
+        assertEquals(90000000L, metadata.durationUs);
+        assertEquals(1920, metadata.width);
+        assertEquals(1080, metadata.height);
+        assertEquals("video/hevc", metadata.videoMime);
+        assertNull(metadata.audioMime);
+        assertEquals(1700000000000L, metadata.creationTimeMs);
+    }
+
+    @Test
+    public void parse_readsFragmentedRecording() throws IOException {
+        File file = File.createTempFile("fragmented", ".mp4");
+        file.deleteOnExit();
+        FragmentedMp4Writer writer = new FragmentedMp4Writer(file, 900000);
+        int video = writer.addTrack(FragmentedMp4Writer.TrackFormat.avc(1280, 720,
+                ByteBuffer.wrap(SPS), ByteBuffer.wrap(PPS)));
+        int audio = writer.addTrack(FragmentedMp4Writer.TrackFormat.aac(48000, 1, ByteBuffer.wrap(AUDIO_CONFIG)));
+        writer.start();
+        for (int frame = 0; frame < 60; frame++) {
+            ByteBuffer sample = ByteBuffer.allocate(8).putInt(1).putInt(0x65000000 | frame);
+            sample.flip();
+            writer.writeSampleData(video, sample, 8, frame * 33333L, frame % 30 == 0);
+            writer.writeSampleData(audio, ByteBuffer.wrap(new byte[]{1, 2}), 2, frame * 33333L, true);
+        }
+        writer.stop();
+
+        Mp4BoxParser.Metadata metadata = Mp4BoxParser.parse(file);
+        assertEquals(1280, metadata.width);
+        assertEquals(720, metadata.height);
+        assertEquals("video/avc", metadata.videoMime);
+        assertEquals("audio/mp4a-latm", metadata.audioMime);
+        assertTrue(metadata.durationUs >= 1900000 && metadata.durationUs <= 2100000);
+    }
+
+    @Test
+    public void findContentEnd_stopsAtPreallocatedZeros() throws IOException {
+        File file = plainMovie();
+        long length = file.length();
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+             FileChannel channel = randomAccessFile.getChannel()) {
+            assertEquals(length, Mp4BoxParser.findContentEnd(channel));
+            randomAccessFile.setLength(length + 4096);
+            assertEquals(length, Mp4BoxParser.findContentEnd(channel));
+            Mp4BoxParser.parse(file);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void parse_rejectsFileWithoutMovie() throws IOException {
+        Mp4BoxParser.parse(write(box("ftyp", "isom".getBytes(StandardCharsets.US_ASCII)), box("mdat", new byte[64])));
+    }
+
+    @Test(expected = IOException.class)
+    public void parse_rejectsTruncatedBox() throws IOException {
+        byte[] ftyp = box("ftyp", "isom".getBytes(StandardCharsets.US_ASCII));
+        ByteBuffer.wrap(ftyp).putInt(0, 4096);
+        Mp4BoxParser.parse(write(ftyp));
+    }
+}
@@ -0,0 +1,251 @@
+package com.example.secretcamera;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PagedVideoListTest {
+    private static final int PAGE_SIZE = 10;
+
+    // Holds requests until the test completes them, like the catalog executor.
+    private static class FakeSource implements PagedVideoList.PageSource {
+        final List<Long> rows = new ArrayList<>();
+        final List<PagedVideoList.IdsCallback> idRequests = new ArrayList<>();
+        final List<long[]> entryRequests = new ArrayList<>();
+        final List<PagedVideoList.EntriesCallback> entryCallbacks = new ArrayList<>();
+        boolean protectAll;
+
+        FakeSource(int total) {
+            for (long id = total - 1; id >= 0; id--) {
+                rows.add(id);
+            }
+        }
+
+        @Override
+        public void loadIds(PagedVideoList.IdsCallback callback) {
+            idRequests.add(callback);
+        }
+
+        @Override
+        public void loadEntries(long[] ids, PagedVideoList.EntriesCallback callback) {
+            entryRequests.add(ids);
+            entryCallbacks.add(callback);
+        }
+
+        void completeIds() {
+            long[] ids = new long[rows.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = rows.get(i);
+            }
+            idRequests.remove(0).onIdsLoaded(ids);
+        }
+
+        void completeEntries(int request) {
+            List<VideoEntry> entries = new ArrayList<>();
+            for (long id : entryRequests.get(request)) {
+                if (rows.contains(id)) {
+                    entries.add(new VideoEntry(id, "/v/" + id + ".mp4", 100, 1, 1000, 1920, 1080, "video/avc", id,
+                            protectAll));
+                }
+            }
+            entryCallbacks.get(request).onEntriesLoaded(entries);
+        }
+
+        void completeLastEntries() {
+            completeEntries(entryCallbacks.size() - 1);
+        }
+    }
+
+    private static class RecordingListener implements PagedVideoList.Listener {
+        final List<Integer> counts = new ArrayList<>();
+        final List<String> events = new ArrayList<>();
+        final List<int[]> ranges = new ArrayList<>();
+
+        @Override
+        public void onCountChanged(int count) {
+            counts.add(count);
+        }
+
+        @Override
+        public void onRangeInserted(int positionStart, int itemCount) {
+            events.add("insert " + positionStart + "+" + itemCount);
+        }
+
+        @Override
+        public void onRangeRemoved(int positionStart, int itemCount) {
+            events.add("remove " + positionStart + "+" + itemCount);
+        }
+
+        @Override
+        public void onRangeChanged(int positionStart, int itemCount) {
+            ranges.add(new int[]{positionStart, itemCount});
+        }
+    }
+
+    @Test
+    public void emptyCatalog_reportsItsCount() {
+        FakeSource source = new FakeSource(0);
+        PagedVideoList list = new PagedVideoList(source, PAGE_SIZE, 4);
+        RecordingListener listener = new RecordingListener();
+        list.setListener(listener);
+
+        list.refresh();
+        source.completeIds();
+        assertEquals(0, list.size());
+        assertEquals(1, listener.counts.size());
+        assertEquals(0, (int) listener.counts.get(0));
+        assertTrue(listener.events.isEmpty());
+    }
+
+    @Test
+    public void unloadedPositions_arePlaceholdersUntilTheirPageArrives() {
+        FakeSource source = new FakeSource(1000);
+        PagedVideoList list = new PagedVideoList(source, PAGE_SIZE, 4);
+        RecordingListener listener = new RecordingListener();
+        list.setListener(listener);
+
+        list.refresh();
+        source.completeIds();
+        assertEquals(1000, list.size());
+        assertEquals("insert 0+1000", listener.events.get(0));
+        assertEquals(994, list.getId(5));
+
+        assertNull(list.get(505));
+        assertNull(list.get(509));
+        assertEquals(1, source.entryRequests.size());
+        assertEquals(PAGE_SIZE, source.entryRequests.get(0).length);
+        assertEquals(499, source.entryRequests.get(0)[0]);
+
+        source.completeEntries(0);
+        assertEquals(494, list.get(505).getId());
+        assertArrayEquals(new int[]{500, 10}, listener.ranges.get(0));
+    }
+
+    @Test
+    public void cache_isBoundedToMaxPages() {
+        FakeSource source = new FakeSource(20000);
+        PagedVideoList list = new PagedVideoList(source, PAGE_SIZE, 4);
+        list.refresh();
+        source.completeIds();
+        for (int position = 0; position < 20000; position += PAGE_SIZE) {
+            list.get(position);
+            source.completeLastEntries();
+        }
+        assertEquals(4 * PAGE_SIZE, list.getCachedEntryCount());
+        assertEquals(9, list.get(19990).getId());
+
+        // An evicted page is fetched again.
+        int requests = source.entryRequests.size();
+        assertNull(list.get(0));
+        assertEquals(requests + 1, source.entryRequests.size());
+    }
+
+    @Test
+    public void refresh_keepsStaleRowsAndReportsOnlyChangedRows() {
+        FakeSource source = new FakeSource(25);
+        PagedVideoList list = new PagedVideoList(source, PAGE_SIZE, 4);
+        RecordingListener listener = new RecordingListener();
+        list.setListener(listener);
+        list.refresh();
+        source.completeIds();
+        list.get(0);
+        source.completeLastEntries();
+        list.get(20);
+        source.completeLastEntries();
+        listener.ranges.clear();
+        listener.events.clear();
+
+        list.refresh();
+        source.completeIds();
+        assertTrue(listener.events.isEmpty());
+        assertEquals(4, source.entryRequests.size());
+        assertEquals(4, list.get(20).getId());
+        source.completeEntries(2);
+        source.completeEntries(3);
+        assertTrue(listener.ranges.isEmpty());
+
+        source.protectAll = true;
+        list.refresh();
+        source.completeIds();
+        source.completeLastEntries();
+        assertEquals(1, listener.ranges.size());
+        assertTrue(list.get(20).isProtected());
+    }
+
+    @Test
+    public void newRecording_isInsertedAtTheTop() {
+        FakeSource source = new FakeSource(15);
+        PagedVideoList list = new PagedVideoList(source, PAGE_SIZE, 4);
+        RecordingListener listener = new RecordingListener();
+        list.setListener(listener);
+        list.refresh();
+        source.completeIds();
+        list.get(0);
+        source.completeLastEntries();
+        listener.events.clear();
+        listener.ranges.clear();
+
+        source.rows.add(0, 100L);
+        int requests = source.entryRequests.size();
+        list.refresh();
+        source.completeIds();
+        assertEquals(1, listener.events.size());
+        assertEquals("insert 0+1", listener.events.get(0));
+        assertEquals(16, (int) listener.counts.get(listener.counts.size() - 1));
+        assertEquals(100, list.getId(0));
+        // Shifted rows keep their cached contents under the same id.
+        assertEquals(14, list.get(1).getId());
+
+        // Rows that only moved are not rebound when the reload lands; the
+        // new one and those never loaded before are.
+        for (int request = requests; request < source.entryRequests.size(); request++) {
+            source.completeEntries(request);
+        }
+        assertEquals(2, listener.ranges.size());
+        for (int[] range : listener.ranges) {
+            assertTrue(range[0] + range[1] <= 1 || range[0] > 10);
+        }
+    }
+
+    @Test
+    public void deletions_areRemovedAtTheirPositions() {
+        FakeSource source = new FakeSource(15);
+        PagedVideoList list = new PagedVideoList(source, PAGE_SIZE, 4);
+        RecordingListener listener = new RecordingListener();
+        list.setListener(listener);
+        list.refresh();
+        source.completeIds();
+        listener.events.clear();
+
+        source.rows.remove(Long.valueOf(10));
+        source.rows.remove(Long.valueOf(9));
+        source.rows.remove(Long.valueOf(2));
+        list.refresh();
+        source.completeIds();
+        assertEquals(2, listener.events.size());
+        assertEquals("remove 4+2", listener.events.get(0));
+        assertEquals("remove 10+1", listener.events.get(1));
+        assertEquals(12, list.size());
+    }
+
+    @Test
+    public void resultsFromBeforeRefresh_areDropped() {
+        FakeSource source = new FakeSource(30);
+        PagedVideoList list = new PagedVideoList(source, PAGE_SIZE, 4);
+        list.refresh();
+        source.completeIds();
+        assertNull(list.get(15));
+
+        source.rows.subList(12, 30).clear();
+        list.refresh();
+        source.completeEntries(0);
+        assertNull(list.get(15));
+        assertEquals(30, list.size());
+
+        source.completeIds();
+        assertEquals(12, list.size());
+    }
+}
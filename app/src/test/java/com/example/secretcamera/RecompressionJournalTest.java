@@ -0,0 +1,61 @@
+package com.example.secretcamera;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class RecompressionJournalTest {
+    private static File newJournalFile() throws IOException {
+        File file = File.createTempFile("recompression", ".journal");
+        file.deleteOnExit();
+        assertTrue(file.delete());
+        return file;
+    }
+
+    @Test
+    public void outcomes_surviveReload() throws IOException {
+        File file = newJournalFile();
+        RecompressionJournal journal = RecompressionJournal.load(file);
+        journal.markDone("VID_20240101_120000.mp4", 1000);
+        journal.markDone("VID_20240101_120500.mp4", 500);
+        journal.markSkipped("VID_20240101_121000.mp4");
+        journal.markFailed("VID_20240101_121500.mp4");
+        journal.save();
+
+        RecompressionJournal reloaded = RecompressionJournal.load(file);
+        assertEquals(1500, reloaded.getReclaimedBytes());
+        assertTrue(reloaded.isSettled("VID_20240101_120000.mp4"));
+        assertTrue(reloaded.isSettled("VID_20240101_121000.mp4"));
+        assertFalse(reloaded.isSettled("VID_20240101_121500.mp4"));
+        assertFalse(reloaded.isSettled("VID_20240101_122000.mp4"));
+    }
+
+    @Test
+    public void repeatedFailures_settleTheFile() throws IOException {
+        File file = newJournalFile();
+        RecompressionJournal journal = RecompressionJournal.load(file);
+        for (int i = 0; i < RecompressionJournal.MAX_ATTEMPTS; i++) {
+            assertFalse(journal.isSettled("VID_20240101_120000.mp4"));
+            journal.markFailed("VID_20240101_120000.mp4");
+            journal.save();
+            journal = RecompressionJournal.load(file);
+        }
+        assertTrue(journal.isSettled("VID_20240101_120000.mp4"));
+    }
+
+    @Test
+    public void retainOnly_forgetsDeletedFilesButKeepsTotal() throws IOException {
+        RecompressionJournal journal = RecompressionJournal.load(newJournalFile());
+        journal.markDone("VID_20240101_120000.mp4", 1000);
+        journal.markSkipped("VID_20240101_120500.mp4");
+        journal.retainOnly(Collections.singleton("VID_20240101_120500.mp4"));
+
+        assertFalse(journal.isSettled("VID_20240101_120000.mp4"));
+        assertTrue(journal.isSettled("VID_20240101_120500.mp4"));
+        assertEquals(1000, journal.getReclaimedBytes());
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.secretcamera;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class ScrubIndexTest {
+    private static final long[] KEYFRAMES = {0, 1000000, 2000000, 3000000};
+
+    private static ScrubIndex index() {
+        return new ScrubIndex(3500000, KEYFRAMES, 1000000, 160, 90, 2, 4);
+    }
+
+    @Test
+    public void keyframeAtOrBefore_snapsBackwards() {
+        ScrubIndex index = index();
+        assertEquals(1000000, index.keyframeAtOrBefore(1999999));
+        assertEquals(2000000, index.keyframeAtOrBefore(2000000));
+        assertEquals(0, index.keyframeAtOrBefore(-5));
+        assertEquals(3000000, index.keyframeAtOrBefore(9000000));
+    }
+
+    @Test
+    public void nearestKeyframe_picksCloserSide() {
+        ScrubIndex index = index();
+        assertEquals(1000000, index.nearestKeyframe(1400000));
+        assertEquals(2000000, index.nearestKeyframe(1600000));
+        assertEquals(3000000, index.nearestKeyframe(3400000));
+    }
+
+    @Test
+    public void tileIndexAt_clampsToSheet() {
+        ScrubIndex index = index();
+        assertEquals(0, index.tileIndexAt(-1));
+        assertEquals(2, index.tileIndexAt(2500000));
+        assertEquals(3, index.tileIndexAt(60000000));
+        assertEquals(160, index.tileLeft(3));
+        assertEquals(90, index.tileTop(3));
+    }
+
+    @Test
+    public void spriteInterval_widensForLongFiles() {
+        assertEquals(10000000, ScrubIndex.spriteInterval(60000000, 10000000, 100));
+        assertEquals(108000000, ScrubIndex.spriteInterval(3L * 3600 * 1000000, 10000000, 100));
+    }
+
+    @Test
+    public void writeTo_roundTrips() throws IOException {
+        File file = File.createTempFile("scrub", ".idx");
+        try {
+            index().writeTo(file);
+            ScrubIndex read = ScrubIndex.readFrom(file);
+            assertEquals(3500000, read.getDurationUs());
+            assertEquals(4, read.getKeyframeCount());
+            assertEquals(4, read.getTileCount());
+            assertEquals(2000000, read.nearestKeyframe(2100000));
+        } finally {
+            file.delete();
+        }
+    }
+}
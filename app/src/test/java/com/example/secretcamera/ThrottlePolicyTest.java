@@ -0,0 +1,71 @@
+package com.example.secretcamera;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ThrottlePolicyTest {
+    private static final long RECOVERY_MS = 60000;
+
+    @Test
+    public void pressure_stepsDownImmediately() {
+        ThrottlePolicy policy = new ThrottlePolicy(RECOVERY_MS);
+        assertEquals(ThrottlePolicy.TIER_FULL, policy.nextTier(0));
+
+        policy.onPressure(ThrottlePolicy.TIER_REDUCED_BITRATE, 1000);
+        assertEquals(ThrottlePolicy.TIER_REDUCED_BITRATE, policy.nextTier(1000));
+    }
+
+    @Test
+    public void recovery_waitsAndStepsUpOneTierAtATime() {
+        ThrottlePolicy policy = new ThrottlePolicy(RECOVERY_MS);
+        policy.onPressure(ThrottlePolicy.TIER_REDUCED_RESOLUTION, 0);
+        policy.onApplied(ThrottlePolicy.TIER_REDUCED_RESOLUTION, 0);
+
+        policy.onPressure(ThrottlePolicy.TIER_FULL, 10000);
+        assertEquals(ThrottlePolicy.TIER_REDUCED_RESOLUTION, policy.nextTier(69999));
+        assertEquals(ThrottlePolicy.TIER_REDUCED_BITRATE, policy.nextTier(70000));
+
+        policy.onApplied(ThrottlePolicy.TIER_REDUCED_BITRATE, 70000);
+        assertEquals(ThrottlePolicy.TIER_REDUCED_BITRATE, policy.nextTier(100000));
+        assertEquals(ThrottlePolicy.TIER_REDUCED_FPS, policy.nextTier(130000));
+    }
+
+    @Test
+    public void renewedPressure_resetsRecoveryClock() {
+        ThrottlePolicy policy = new ThrottlePolicy(RECOVERY_MS);
+        policy.onPressure(ThrottlePolicy.TIER_REDUCED_FPS, 0);
+        policy.onApplied(ThrottlePolicy.TIER_REDUCED_FPS, 0);
+
+        policy.onPressure(ThrottlePolicy.TIER_FULL, 1000);
+        policy.onPressure(ThrottlePolicy.TIER_REDUCED_FPS, 50000);
+        policy.onPressure(ThrottlePolicy.TIER_FULL, 55000);
+        assertEquals(ThrottlePolicy.TIER_REDUCED_FPS, policy.nextTier(100000));
+        assertEquals(ThrottlePolicy.TIER_FULL, policy.nextTier(115000));
+    }
+
+    @Test
+    public void conditions_mapToTiers() {
+        assertEquals(ThrottlePolicy.TIER_FULL, ThrottlePolicy.tierForThermalStatus(1));
+        assertEquals(ThrottlePolicy.TIER_REDUCED_FPS, ThrottlePolicy.tierForThermalStatus(2));
+        assertEquals(ThrottlePolicy.TIER_REDUCED_RESOLUTION, ThrottlePolicy.tierForThermalStatus(6));
+
+        assertEquals(ThrottlePolicy.TIER_FULL, ThrottlePolicy.tierForBattery(5, true, 300, false));
+        assertEquals(ThrottlePolicy.TIER_REDUCED_RESOLUTION, ThrottlePolicy.tierForBattery(5, false, 300, false));
+        assertEquals(ThrottlePolicy.TIER_REDUCED_BITRATE, ThrottlePolicy.tierForBattery(90, true, 460, false));
+        assertEquals(ThrottlePolicy.TIER_REDUCED_FPS, ThrottlePolicy.tierForBattery(90, false, 300, true));
+    }
+
+    @Test
+    public void tiers_scaleFrameRateBitrateAndSize() {
+        assertEquals(30, ThrottlePolicy.frameRateFor(ThrottlePolicy.TIER_FULL, 30));
+        assertEquals(24, ThrottlePolicy.frameRateFor(ThrottlePolicy.TIER_REDUCED_FPS, 30));
+        assertEquals(15, ThrottlePolicy.frameRateFor(ThrottlePolicy.TIER_REDUCED_RESOLUTION, 30));
+
+        long pixels720 = 1280L * 720;
+        assertEquals(8000000, ThrottlePolicy.bitRateFor(ThrottlePolicy.TIER_REDUCED_FPS, 10000000, 30, pixels720, pixels720));
+        assertEquals(4800000, ThrottlePolicy.bitRateFor(ThrottlePolicy.TIER_REDUCED_BITRATE, 10000000, 30, pixels720, pixels720));
+        assertEquals(480, ThrottlePolicy.maxHeightFor(ThrottlePolicy.TIER_REDUCED_RESOLUTION, 720));
+        assertEquals(720, ThrottlePolicy.maxHeightFor(ThrottlePolicy.TIER_REDUCED_BITRATE, 720));
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.secretcamera;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// The file system half of a library load: list the recordings directory,
+// derive each start time from its name and order newest first. Metadata
+// probing and SQLite are device-bound and covered by the androidTest harness.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LibraryScanBenchmark {
+    @Param({"100", "1000"})
+    public int recordings;
+
+    private File directory;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = BenchmarkFiles.createTempDirectory("library");
+        long startMs = 1700000000000L;
+        for (int i = 0; i < recordings; i++) {
+            File file = RecordingFileNames.newOutputFile(directory, startMs + i * 300000L);
+            if (!file.createNewFile()) {
+                throw new IOException("Could not create " + file);
+            }
+        }
+        for (int i = 0; i < recordings / 10; i++) {
+            if (!new File(directory, "notes_" + i + ".txt").createNewFile()) {
+                throw new IOException("Could not create sidecar " + i);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkFiles.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public List<Long> scanAndSort() {
+        String[] names = directory.list((dir, name) -> RecordingFileNames.isRecording(name));
+        List<Long> startTimes = new ArrayList<>(names.length);
+        for (String name : names) {
+            startTimes.add(RecordingFileNames.parseStartTime(name, 0));
+        }
+        Collections.sort(startTimes, Collections.reverseOrder());
+        return startTimes;
+    }
+}
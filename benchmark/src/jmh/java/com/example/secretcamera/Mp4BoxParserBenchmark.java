@@ -0,0 +1,84 @@
+package com.example.secretcamera;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+// Metadata for one recording out of a library of copies, read through the
+// box parser. Cycling through the files keeps the measurement from settling
+// on a single hot mapping; the MediaMetadataRetriever side of the comparison
+// is device-bound and lives in RecordingBenchmarkHarness.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class Mp4BoxParserBenchmark {
+    private static final byte[] SPS = {0x00, 0x00, 0x00, 0x01, 0x67, 0x42, (byte) 0xC0, 0x1F, 0x11};
+    private static final byte[] PPS = {0x00, 0x00, 0x00, 0x01, 0x68, (byte) 0xCE, 0x3C, (byte) 0x80};
+    private static final byte[] AUDIO_CONFIG = {0x12, 0x10};
+    private static final int SAMPLE_SIZE = 16 * 1024;
+
+    @Param({"1000", "5000"})
+    public int recordings;
+
+    private File directory;
+    private File[] files;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = BenchmarkFiles.createTempDirectory("parser");
+        File template = new File(directory, "template.mp4");
+        writeRecording(template);
+        files = new File[recordings];
+        long startMs = 1700000000000L;
+        for (int i = 0; i < recordings; i++) {
+            files[i] = RecordingFileNames.newOutputFile(directory, startMs + i * 300000L);
+            Files.copy(template.toPath(), files[i].toPath());
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkFiles.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public Mp4BoxParser.Metadata parse() throws IOException {
+        File file = files[next];
+        next = (next + 1) % files.length;
+        return Mp4BoxParser.parse(file);
+    }
+
+    // Ten seconds of 30 fps video and audio, about 5 MB of sample data.
+    private static void writeRecording(File file) throws IOException {
+        FragmentedMp4Writer writer = new FragmentedMp4Writer(file, 2000000);
+        int video = writer.addTrack(FragmentedMp4Writer.TrackFormat.avc(1920, 1080,
+                ByteBuffer.wrap(SPS), ByteBuffer.wrap(PPS)));
+        int audio = writer.addTrack(FragmentedMp4Writer.TrackFormat.aac(48000, 1, ByteBuffer.wrap(AUDIO_CONFIG)));
+        writer.start();
+        ByteBuffer sample = ByteBuffer.allocate(SAMPLE_SIZE);
+        ByteBuffer audioSample = ByteBuffer.allocate(256);
+        for (int frame = 0; frame < 300; frame++) {
+            long timeUs = frame * 33333L;
+            sample.clear();
+            sample.putInt(1).put((byte) 0x65);
+            sample.position(SAMPLE_SIZE).flip();
+            writer.writeSampleData(video, sample, SAMPLE_SIZE, timeUs, frame % 30 == 0);
+            audioSample.clear();
+            writer.writeSampleData(audio, audioSample, audioSample.capacity(), timeUs, true);
+        }
+        writer.stop();
+    }
+}
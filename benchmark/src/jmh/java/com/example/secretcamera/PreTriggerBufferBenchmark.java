@@ -0,0 +1,87 @@
+package com.example.secretcamera;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+// Steady-state cost of the pre-trigger ring: one write per encoded frame,
+// and the replay done when a clip is saved.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PreTriggerBufferBenchmark {
+    private static final int CAPACITY_BYTES = 16 * 1024 * 1024;
+    private static final int MAX_SAMPLES = 2048;
+    private static final long FRAME_US = 33333;
+
+    @Param({"8192", "65536"})
+    public int sampleSize;
+
+    private EncodedRingBuffer ring;
+    private ByteBuffer sample;
+    private long frame;
+
+    @Setup
+    public void setUp() {
+        ring = new EncodedRingBuffer(CAPACITY_BYTES, MAX_SAMPLES);
+        sample = ByteBuffer.allocateDirect(sampleSize);
+        for (int i = 0; i < sampleSize; i++) {
+            sample.put((byte) i);
+        }
+        sample.flip();
+    }
+
+    @Benchmark
+    public boolean write() {
+        return writeFrame();
+    }
+
+    @Benchmark
+    public int drain(FullRing fullRing, Blackhole blackhole) {
+        return fullRing.ring.drainTo((data, size, presentationTimeUs, flags) ->
+                blackhole.consume(data.get(data.position())));
+    }
+
+    private boolean writeFrame() {
+        return writeFrame(ring, sample, sampleSize, frame++);
+    }
+
+    private static boolean writeFrame(EncodedRingBuffer ring, ByteBuffer sample, int size, long frame) {
+        int flags = frame % 30 == 0 ? EncodedRingBuffer.FLAG_KEY_FRAME : 0;
+        return ring.write(sample, size, frame * FRAME_US, flags);
+    }
+
+    // drain() empties the ring, so it gets its own state that is refilled
+    // with a full window before every invocation.
+    @State(Scope.Thread)
+    public static class FullRing {
+        private static final int SAMPLE_SIZE = 32 * 1024;
+
+        EncodedRingBuffer ring;
+        private ByteBuffer sample;
+
+        @Setup
+        public void setUp() {
+            ring = new EncodedRingBuffer(CAPACITY_BYTES, MAX_SAMPLES);
+            sample = ByteBuffer.allocateDirect(SAMPLE_SIZE);
+        }
+
+        @Setup(Level.Invocation)
+        public void fill() {
+            int window = Math.min(MAX_SAMPLES, CAPACITY_BYTES / SAMPLE_SIZE);
+            for (int i = 0; i < window; i++) {
+                writeFrame(ring, sample, SAMPLE_SIZE, i);
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.secretcamera;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Output path generation at segment start, including the collision probe
+// when several segments start within the same second.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RecordingPathBenchmark {
+    private static final long NOW_MS = 1700000000000L;
+
+    @Param({"0", "5"})
+    public int collisions;
+
+    private File directory;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = BenchmarkFiles.createTempDirectory("paths");
+        for (int i = 0; i < collisions; i++) {
+            File file = RecordingFileNames.newOutputFile(directory, NOW_MS);
+            if (!file.createNewFile()) {
+                throw new IOException("Could not create " + file);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkFiles.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public File newOutputFile() {
+        return RecordingFileNames.newOutputFile(directory, NOW_MS);
+    }
+
+    @Benchmark
+    public long parseStartTime() {
+        return RecordingFileNames.parseStartTime("VID_20231114_221320_3.mp4", 0);
+    }
+}
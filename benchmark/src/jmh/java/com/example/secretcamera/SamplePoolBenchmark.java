@@ -0,0 +1,41 @@
+package com.example.secretcamera;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+// Copy-out cost paid on the encoder callback thread for every encoded
+// sample before it is queued to the writer.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SamplePoolBenchmark {
+    @Param({"4096", "65536"})
+    public int sampleSize;
+
+    private EncodedSamplePool pool;
+    private ByteBuffer source;
+    private long presentationTimeUs;
+
+    @Setup
+    public void setUp() {
+        pool = new EncodedSamplePool(120, 256 * 1024);
+        source = ByteBuffer.allocateDirect(sampleSize);
+    }
+
+    @Benchmark
+    public int obtainAndRecycle() {
+        EncodedSamplePool.Sample sample = pool.obtain(source, sampleSize, 0, presentationTimeUs++, 0, 0);
+        int size = sample.size;
+        pool.recycle(sample);
+        return size;
+    }
+}
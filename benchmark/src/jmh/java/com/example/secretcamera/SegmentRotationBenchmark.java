@@ -0,0 +1,87 @@
+package com.example.secretcamera;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+// Fragmented MP4 writer costs on the recording writer thread: appending a
+// frame, and closing one segment and opening the next.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SegmentRotationBenchmark {
+    private static final byte[] SPS = {0, 0, 0, 1, 0x67, 0x42, (byte) 0xC0, 0x1F, 0x11};
+    private static final byte[] PPS = {0, 0, 0, 1, 0x68, (byte) 0xCE, 0x3C, (byte) 0x80};
+    private static final byte[] AUDIO_CONFIG = {0x12, 0x10};
+    private static final int FRAME_BYTES = 40 * 1024;
+    private static final int FRAMES_PER_SEGMENT = 300;
+    private static final long FRAME_US = 33333;
+
+    private File directory;
+    private ByteBuffer frame;
+    private FragmentedMp4Writer writer;
+    private File currentFile;
+    private int videoTrack;
+    private int framesInSegment;
+    private long segments;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = BenchmarkFiles.createTempDirectory("rotation");
+        frame = ByteBuffer.allocateDirect(FRAME_BYTES);
+        frame.putInt(1);
+        while (frame.hasRemaining()) {
+            frame.put((byte) 0x55);
+        }
+        frame.flip();
+        openSegment();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        writer.stop();
+        BenchmarkFiles.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public long writeFrame() throws IOException {
+        if (framesInSegment == FRAMES_PER_SEGMENT) {
+            rotate();
+        }
+        writer.writeSampleData(videoTrack, frame, FRAME_BYTES, framesInSegment * FRAME_US, framesInSegment % 30 == 0);
+        framesInSegment++;
+        return writer.getBytesWritten();
+    }
+
+    @Benchmark
+    public long rotate() throws IOException {
+        writer.stop();
+        if (!currentFile.delete()) {
+            currentFile.deleteOnExit();
+        }
+        openSegment();
+        writer.writeSampleData(videoTrack, frame, FRAME_BYTES, 0, true);
+        framesInSegment = 1;
+        return writer.getBytesWritten();
+    }
+
+    private void openSegment() throws IOException {
+        currentFile = new File(directory, "segment_" + segments++ + ".mp4");
+        writer = new FragmentedMp4Writer(currentFile, 2000000);
+        videoTrack = writer.addTrack(FragmentedMp4Writer.TrackFormat.avc(1280, 720,
+                ByteBuffer.wrap(SPS), ByteBuffer.wrap(PPS)));
+        writer.addTrack(FragmentedMp4Writer.TrackFormat.aac(48000, 1, ByteBuffer.wrap(AUDIO_CONFIG)));
+        writer.start();
+        framesInSegment = 0;
+    }
+}